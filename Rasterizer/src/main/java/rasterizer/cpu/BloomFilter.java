@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.cpu;
+
+/**
+ * Java implementation of the bloom passes of MultiColoredCube (bloom_bright_fragment_shader.glsl, gaussian_blur_fragment_shader.glsl
+ * and bloom_composite_fragment_shader.glsl), applied directly to a frame buffer that contains the scene (drawn with CpuRasterizer).
+ * As in the frame graph of MultiColoredCube, the bright parts of the scene are found and blurred at half resolution, in textures with
+ * 8 bits per component that are sampled with linear filtering and clamped to the edge.
+ * Changes to these shaders or passes must also be made here (and vice versa), otherwise the regression tests fail.
+ *
+ * @author A.C. Kockx
+ */
+public final class BloomFilter {
+    //default values of the uniforms threshold and bloomStrength in the shaders.
+    private static final float THRESHOLD = 0.8f;
+    private static final float BLOOM_STRENGTH = 1;
+    //weights of the Gaussian kernel, same as in the blur shader.
+    private static final float[] WEIGHTS = new float[]{0.227027f, 0.1945946f, 0.1216216f, 0.054054f, 0.016216f};
+
+    private BloomFilter() {
+    }
+
+    /**
+     * Adds the blurred bright parts of the given frame buffer to it.
+     */
+    public static void apply(FrameBuffer frameBuffer) {
+        int width = frameBuffer.getWidth();
+        int height = frameBuffer.getHeight();
+        int bloomWidth = Math.max(1, width/2);
+        int bloomHeight = Math.max(1, height/2);
+
+        //the scene color texture, rows in OpenGL order (row 0 is the bottom row).
+        int[] colors = frameBuffer.getColors();
+        float[] scene = new float[3*width*height];
+        for (int y = 0; y < height; y++) {
+            int row = height - 1 - y;
+            for (int x = 0; x < width; x++) {
+                int color = colors[row*width + x];
+                scene[3*(y*width + x)] = ((color >> 16) & 0xFF)/255f;
+                scene[3*(y*width + x) + 1] = ((color >> 8) & 0xFF)/255f;
+                scene[3*(y*width + x) + 2] = (color & 0xFF)/255f;
+            }
+        }
+
+        //bright pass.
+        float[] bright = new float[3*bloomWidth*bloomHeight];
+        float[] color = new float[3];
+        for (int y = 0; y < bloomHeight; y++) {
+            for (int x = 0; x < bloomWidth; x++) {
+                sample(scene, width, height, (x + 0.5f)/bloomWidth, (y + 0.5f)/bloomHeight, color);
+                float brightness = Math.max(color[0], Math.max(color[1], color[2]));
+                float factor = smoothstep(THRESHOLD, 1, brightness);
+                for (int component = 0; component < 3; component++) {
+                    bright[3*(y*bloomWidth + x) + component] = quantize(color[component]*factor);
+                }
+            }
+        }
+
+        //horizontal and vertical blur passes.
+        float[] horizontalBlur = blur(bright, bloomWidth, bloomHeight, 1f/bloomWidth, 0);
+        float[] verticalBlur = blur(horizontalBlur, bloomWidth, bloomHeight, 0, 1f/bloomHeight);
+
+        //composite pass.
+        float[] bloom = new float[3];
+        for (int y = 0; y < height; y++) {
+            int row = height - 1 - y;
+            for (int x = 0; x < width; x++) {
+                float u = (x + 0.5f)/width;
+                float v = (y + 0.5f)/height;
+                sample(scene, width, height, u, v, color);
+                sample(verticalBlur, bloomWidth, bloomHeight, u, v, bloom);
+                colors[row*width + x] = FrameBuffer.toARGB(Math.min(color[0] + BLOOM_STRENGTH*bloom[0], 1), Math.min(color[1] + BLOOM_STRENGTH*bloom[1], 1),
+                        Math.min(color[2] + BLOOM_STRENGTH*bloom[2], 1), 1);
+            }
+        }
+    }
+
+    /**
+     * @param texelStepU distance between two samples in u (and texelStepV in v), along the direction of the blur.
+     * @return the given image blurred in one direction.
+     */
+    private static float[] blur(float[] image, int width, int height, float texelStepU, float texelStepV) {
+        float[] result = new float[image.length];
+        float[] color = new float[3];
+        float[] sum = new float[3];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                float u = (x + 0.5f)/width;
+                float v = (y + 0.5f)/height;
+                sample(image, width, height, u, v, color);
+                for (int component = 0; component < 3; component++) {
+                    sum[component] = WEIGHTS[0]*color[component];
+                }
+                for (int index = 1; index < WEIGHTS.length; index++) {
+                    float offsetU = index*texelStepU;
+                    float offsetV = index*texelStepV;
+                    sample(image, width, height, u + offsetU, v + offsetV, color);
+                    for (int component = 0; component < 3; component++) {
+                        sum[component] += WEIGHTS[index]*color[component];
+                    }
+                    sample(image, width, height, u - offsetU, v - offsetV, color);
+                    for (int component = 0; component < 3; component++) {
+                        sum[component] += WEIGHTS[index]*color[component];
+                    }
+                }
+                for (int component = 0; component < 3; component++) {
+                    result[3*(y*width + x) + component] = quantize(sum[component]);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Samples the given image (r, g, b per texel, row 0 is the bottom row) with linear filtering and clamped to the edge, as GL_LINEAR and GL_CLAMP_TO_EDGE.
+     *
+     * @param color is set to the sampled color (r, g, b).
+     */
+    private static void sample(float[] image, int width, int height, float u, float v, float[] color) {
+        float s = u*width - 0.5f;
+        float t = v*height - 0.5f;
+        int x0 = (int) Math.floor(s);
+        int y0 = (int) Math.floor(t);
+        float fractionX = s - x0;
+        float fractionY = t - y0;
+        int left = Math.min(Math.max(x0, 0), width - 1);
+        int right = Math.min(Math.max(x0 + 1, 0), width - 1);
+        int bottom = Math.min(Math.max(y0, 0), height - 1);
+        int top = Math.min(Math.max(y0 + 1, 0), height - 1);
+        for (int component = 0; component < 3; component++) {
+            float bottomValue = (1 - fractionX)*image[3*(bottom*width + left) + component] + fractionX*image[3*(bottom*width + right) + component];
+            float topValue = (1 - fractionX)*image[3*(top*width + left) + component] + fractionX*image[3*(top*width + right) + component];
+            color[component] = (1 - fractionY)*bottomValue + fractionY*topValue;
+        }
+    }
+
+    private static float smoothstep(float edge0, float edge1, float value) {
+        float t = Math.min(Math.max((value - edge0)/(edge1 - edge0), 0), 1);
+        return t*t*(3 - 2*t);
+    }
+
+    /**
+     * @return the given value as stored in a texture with 8 bits per component.
+     */
+    private static float quantize(float value) {
+        if (!(value > 0)) return 0;
+        if (value >= 1) return 1;
+        return Math.round(value*255)/255f;
+    }
+}
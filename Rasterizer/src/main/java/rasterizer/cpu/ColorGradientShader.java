@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.cpu;
+
+/**
+ * Java implementation of color_gradient_fragment_shader.glsl, for use with CpuRasterizer and UVShader.
+ * Changes to this shader must also be made here (and vice versa), otherwise the regression tests fail.
+ *
+ * @author A.C. Kockx
+ */
+public final class ColorGradientShader implements CpuRasterizer.FragmentShader {
+    private final float[] gradientColors;
+    private final float[] locations;
+
+    /**
+     * @param gradientColors (r, g, b) per location.
+     * @param locations u coordinates corresponding to gradientColors, in ascending order.
+     */
+    public ColorGradientShader(float[] gradientColors, float[] locations) {
+        if (gradientColors == null) throw new IllegalArgumentException("gradientColors == null");
+        if (locations == null) throw new IllegalArgumentException("locations == null");
+        if (locations.length == 0) throw new IllegalArgumentException("locations.length == 0");
+        if (gradientColors.length != 3*locations.length) throw new IllegalArgumentException("gradientColors.length != 3*locations.length");
+
+        this.gradientColors = gradientColors.clone();
+        this.locations = locations.clone();
+    }
+
+    /**
+     * The u coordinate of this fragment is checked against the locations and gradientColors to get the color for this fragment.
+     * The v coordinate is ignored.
+     */
+    @Override
+    public void shade(float[] varyings, float[] color) {
+        float x = varyings[0];
+        int colorCount = locations.length;
+        color[3] = 1;
+        if (x <= locations[0]) {
+            System.arraycopy(gradientColors, 0, color, 0, 3);
+            return;
+        }
+        if (x >= locations[colorCount - 1]) {
+            System.arraycopy(gradientColors, 3*(colorCount - 1), color, 0, 3);
+            return;
+        }
+
+        int index2 = 1;
+        while (x > locations[index2]) {
+            index2++;
+        }
+        int index1 = index2 - 1;
+        float fraction = (x - locations[index1])/(locations[index2] - locations[index1]);
+        for (int component = 0; component < 3; component++) {
+            float color1 = gradientColors[3*index1 + component];
+            float color2 = gradientColors[3*index2 + component];
+            color[component] = color1 + fraction*(color2 - color1);
+        }
+    }
+}
@@ -0,0 +1,412 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.cpu;
+
+import java.util.Arrays;
+
+/**
+ * Software implementation of the parts of the OpenGL 3 pipeline that are used by the experiments.
+ * This makes it possible to render the experiments without a GPU, e.g. for regression tests.
+ *
+ * Vertex and fragment shaders are implemented in Java. Each vertex is shaded once per draw call, also in indexed draw calls
+ * (like the post-transform cache of a GPU), and batch vertex shaders shade all vertices of a draw call at once.
+ * Triangles are clipped against the near clipping plane,
+ * the varyings are interpolated perspective-correctly and the fragment colors are converted to 8 bits per component,
+ * all like OpenGL does. The results are close to, but not exactly equal to, the results of a GPU.
+ *
+ * @author A.C. Kockx
+ */
+public final class CpuRasterizer {
+    /**
+     * Draw mode that draws separate triangles, like GL_TRIANGLES.
+     */
+    public static final int TRIANGLES = 0;
+    /**
+     * Draw mode that draws a triangle strip, like GL_TRIANGLE_STRIP.
+     */
+    public static final int TRIANGLE_STRIP = 1;
+
+    //number of fraction bits of fixed point window coordinates (like the sub-pixel precision of a GPU).
+    private static final int SUBPIXEL_BITS = 8;
+    //window coordinates are clamped to this range (in pixels), so that the fixed point edge functions cannot overflow.
+    private static final float MAX_WINDOW_COORDINATE = 1 << 20;
+
+    /**
+     * Java implementation of a vertex shader.
+     */
+    public interface VertexShader {
+        /**
+         * @return the number of floats that this shader outputs per vertex, to be interpolated for the fragment shader.
+         */
+        int getVaryingCount();
+
+        /**
+         * @param vertex index of the vertex in the vertex attribute arrays.
+         * @param position output: clip coordinates (x, y, z, w) of the vertex, like gl_Position.
+         * @param varyings output: values to be interpolated for the fragment shader.
+         */
+        void shade(int vertex, float[] position, float[] varyings);
+    }
+
+    /**
+     * Vertex shader that shades many vertices at once, which is much faster for large meshes (see VertexTransformer).
+     * The results must be equal to those of shading each vertex separately.
+     */
+    public interface BatchVertexShader extends VertexShader {
+        /**
+         * @param vertices indices of the vertices to shade, or null to shade the vertices first to first + count - 1.
+         * @param first index in vertices of the first vertex to shade (or index of the first vertex to shade if vertices is null).
+         * @param count number of vertices to shade.
+         * @param positions output: clip coordinates x, y, z and w, one array per coordinate with the values of the vertices at index 0 to count - 1.
+         * @param varyings output: one array per varying with the values of the vertices at index 0 to count - 1.
+         */
+        void shade(int[] vertices, int first, int count, float[][] positions, float[][] varyings);
+    }
+
+    /**
+     * Java implementation of a fragment shader.
+     */
+    public interface FragmentShader {
+        /**
+         * @param varyings interpolated values from the vertex shader.
+         * @param color output: color (r, g, b, a) of the fragment.
+         */
+        void shade(float[] varyings, float[] color);
+    }
+
+    private final FrameBuffer frameBuffer;
+    private boolean depthTestEnabled = false;
+    private boolean backFaceCullingEnabled = false;
+
+    //output of the vertex shader for the vertices in the current draw call: one array per clip coordinate and one array per varying.
+    private float[][] clipCoordinates = new float[4][0];
+    private float[][] vertexVaryings = new float[0][0];
+    //post-transform cache for indexed draw calls: cacheSlots[vertex] is the index of the shaded vertex in the output of the vertex shader,
+    //if cacheDrawCalls[vertex] is the current draw call.
+    private int[] cacheSlots = new int[0];
+    private int[] cacheDrawCalls = new int[0];
+    private int drawCallCount = 0;
+    private int[] uniqueVertices = new int[0];
+    private int[] elementSlots = new int[0];
+    private long shadedVertexCount = 0;
+    //polygon that results from clipping a single triangle against the near clipping plane (at most 4 vertices).
+    private final float[] polygonClipCoordinates = new float[4*4];
+    private float[] polygonVaryings = new float[0];
+    //fragment data.
+    private float[] fragmentVaryings = new float[0];
+    private final float[] fragmentColor = new float[4];
+
+    public CpuRasterizer(FrameBuffer frameBuffer) {
+        if (frameBuffer == null) throw new IllegalArgumentException("frameBuffer == null");
+
+        this.frameBuffer = frameBuffer;
+    }
+
+    public FrameBuffer getFrameBuffer() {
+        return frameBuffer;
+    }
+
+    /**
+     * Like glEnable(GL_DEPTH_TEST) with depth function GL_LESS.
+     */
+    public void setDepthTestEnabled(boolean depthTestEnabled) {
+        this.depthTestEnabled = depthTestEnabled;
+    }
+
+    /**
+     * Like glEnable(GL_CULL_FACE) with glCullFace(GL_BACK) and counter-clockwise front faces.
+     */
+    public void setBackFaceCullingEnabled(boolean backFaceCullingEnabled) {
+        this.backFaceCullingEnabled = backFaceCullingEnabled;
+    }
+
+    /**
+     * Like glDrawArrays.
+     *
+     * @param mode TRIANGLES or TRIANGLE_STRIP.
+     * @param first index of the first vertex to draw.
+     * @param count number of vertices to draw.
+     */
+    public void drawArrays(int mode, int first, int count, VertexShader vertexShader, FragmentShader fragmentShader) {
+        if (mode != TRIANGLES && mode != TRIANGLE_STRIP) throw new IllegalArgumentException("unknown mode " + mode);
+        if (first < 0) throw new IllegalArgumentException("first < 0");
+        if (count < 0) throw new IllegalArgumentException("count < 0");
+        if (vertexShader == null) throw new IllegalArgumentException("vertexShader == null");
+        if (fragmentShader == null) throw new IllegalArgumentException("fragmentShader == null");
+
+        //run vertex shader.
+        int varyingCount = vertexShader.getVaryingCount();
+        shadeVertices(vertexShader, null, first, count);
+
+        //assemble and draw triangles.
+        drawTriangles(mode, null, count, varyingCount, fragmentShader);
+    }
+
+    /**
+     * Like glDrawElements. Each vertex that is used multiple times is shaded only once.
+     *
+     * @param mode TRIANGLES or TRIANGLE_STRIP.
+     * @param indices vertex indices.
+     * @param first index in indices of the first vertex to draw.
+     * @param count number of vertices to draw.
+     */
+    public void drawElements(int mode, int[] indices, int first, int count, VertexShader vertexShader, FragmentShader fragmentShader) {
+        if (mode != TRIANGLES && mode != TRIANGLE_STRIP) throw new IllegalArgumentException("unknown mode " + mode);
+        if (indices == null) throw new IllegalArgumentException("indices == null");
+        if (first < 0) throw new IllegalArgumentException("first < 0");
+        if (count < 0) throw new IllegalArgumentException("count < 0");
+        if (first + count > indices.length) throw new IllegalArgumentException("first + count > indices.length");
+        if (vertexShader == null) throw new IllegalArgumentException("vertexShader == null");
+        if (fragmentShader == null) throw new IllegalArgumentException("fragmentShader == null");
+
+        //find the unique vertices, in order of first use, and the index of each element in these.
+        int maxIndex = -1;
+        for (int n = first; n < first + count; n++) {
+            if (indices[n] < 0) throw new IllegalArgumentException("indices[" + n + "] < 0");
+            maxIndex = Math.max(maxIndex, indices[n]);
+        }
+        if (cacheSlots.length <= maxIndex) {
+            cacheSlots = new int[maxIndex + 1];
+            cacheDrawCalls = new int[maxIndex + 1];
+            drawCallCount = 0;
+        }
+        //the cache does not need to be cleared, because entries of previous draw calls are recognized by their draw call number.
+        if (drawCallCount == Integer.MAX_VALUE) {
+            Arrays.fill(cacheDrawCalls, 0);
+            drawCallCount = 0;
+        }
+        drawCallCount++;
+        if (uniqueVertices.length < count) uniqueVertices = new int[count];
+        if (elementSlots.length < count) elementSlots = new int[count];
+        int uniqueVertexCount = 0;
+        for (int n = 0; n < count; n++) {
+            int vertex = indices[first + n];
+            if (cacheDrawCalls[vertex] != drawCallCount) {
+                cacheDrawCalls[vertex] = drawCallCount;
+                cacheSlots[vertex] = uniqueVertexCount;
+                uniqueVertices[uniqueVertexCount++] = vertex;
+            }
+            elementSlots[n] = cacheSlots[vertex];
+        }
+
+        //run vertex shader once per unique vertex.
+        int varyingCount = vertexShader.getVaryingCount();
+        shadeVertices(vertexShader, uniqueVertices, 0, uniqueVertexCount);
+
+        //assemble and draw triangles.
+        drawTriangles(mode, elementSlots, count, varyingCount, fragmentShader);
+    }
+
+    /**
+     * @return the number of vertices that have been shaded by the vertex shaders, e.g. to check the effect of the post-transform cache.
+     */
+    public long getShadedVertexCount() {
+        return shadedVertexCount;
+    }
+
+    /**
+     * Runs the vertex shader for the given vertices and stores the results in clipCoordinates and vertexVaryings at index 0 to count - 1.
+     *
+     * @param vertices indices of the vertices, or null for the vertices first to first + count - 1.
+     */
+    private void shadeVertices(VertexShader vertexShader, int[] vertices, int first, int count) {
+        int varyingCount = vertexShader.getVaryingCount();
+        int capacity = Math.max(count, clipCoordinates[0].length);
+        if (clipCoordinates[0].length < capacity) clipCoordinates = new float[4][capacity];
+        if (vertexVaryings.length < varyingCount || (vertexVaryings.length > 0 && vertexVaryings[0].length < capacity)) {
+            vertexVaryings = new float[Math.max(varyingCount, vertexVaryings.length)][capacity];
+        }
+        if (polygonVaryings.length < 4*varyingCount) polygonVaryings = new float[4*varyingCount];
+        if (fragmentVaryings.length < varyingCount) fragmentVaryings = new float[varyingCount];
+
+        if (vertexShader instanceof BatchVertexShader) {
+            ((BatchVertexShader) vertexShader).shade(vertices, first, count, clipCoordinates, vertexVaryings);
+        } else {
+            float[] position = new float[4];
+            float[] varyings = new float[varyingCount];
+            for (int n = 0; n < count; n++) {
+                vertexShader.shade(vertices == null ? first + n : vertices[first + n], position, varyings);
+                for (int d = 0; d < 4; d++) {
+                    clipCoordinates[d][n] = position[d];
+                }
+                for (int k = 0; k < varyingCount; k++) {
+                    vertexVaryings[k][n] = varyings[k];
+                }
+            }
+        }
+        shadedVertexCount += count;
+    }
+
+    /**
+     * @param slots index of each element in the output of the vertex shader, or null if element n is at index n.
+     * @param count number of elements.
+     */
+    private void drawTriangles(int mode, int[] slots, int count, int varyingCount, FragmentShader fragmentShader) {
+        if (mode == TRIANGLES) {
+            for (int n = 0; n + 2 < count; n += 3) {
+                drawTriangle(getSlot(slots, n), getSlot(slots, n + 1), getSlot(slots, n + 2), varyingCount, fragmentShader);
+            }
+        } else {
+            for (int n = 0; n + 2 < count; n++) {
+                //every other triangle in a strip has its first two vertices swapped, so that all triangles have the same winding order.
+                if (n%2 == 0) {
+                    drawTriangle(getSlot(slots, n), getSlot(slots, n + 1), getSlot(slots, n + 2), varyingCount, fragmentShader);
+                } else {
+                    drawTriangle(getSlot(slots, n + 1), getSlot(slots, n), getSlot(slots, n + 2), varyingCount, fragmentShader);
+                }
+            }
+        }
+    }
+
+    private static int getSlot(int[] slots, int element) {
+        return slots == null ? element : slots[element];
+    }
+
+    /**
+     * Clips the given triangle against the near clipping plane (z = -w in clip coordinates) and draws the resulting polygon.
+     * Clipping against the other planes is not needed, because fragments outside the viewport or outside the depth range are discarded.
+     */
+    private void drawTriangle(int a, int b, int c, int varyingCount, FragmentShader fragmentShader) {
+        int[] vertices = {a, b, c};
+        int polygonVertexCount = 0;
+        for (int n = 0; n < 3; n++) {
+            int current = vertices[n];
+            int next = vertices[(n + 1)%3];
+            float currentDistance = clipCoordinates[2][current] + clipCoordinates[3][current];
+            float nextDistance = clipCoordinates[2][next] + clipCoordinates[3][next];
+            if (currentDistance >= 0) {
+                copyToPolygon(polygonVertexCount++, current, current, 0, varyingCount);
+            }
+            if ((currentDistance >= 0) != (nextDistance >= 0)) {
+                //edge crosses the near clipping plane.
+                copyToPolygon(polygonVertexCount++, current, next, currentDistance/(currentDistance - nextDistance), varyingCount);
+            }
+        }
+
+        for (int n = 2; n < polygonVertexCount; n++) {
+            rasterizeTriangle(0, n - 1, n, varyingCount, fragmentShader);
+        }
+    }
+
+    /**
+     * Stores the vertex at the given fraction between vertices a and b as the given polygon vertex.
+     */
+    private void copyToPolygon(int polygonVertex, int a, int b, float fraction, int varyingCount) {
+        for (int d = 0; d < 4; d++) {
+            float valueA = clipCoordinates[d][a];
+            polygonClipCoordinates[4*polygonVertex + d] = valueA + fraction*(clipCoordinates[d][b] - valueA);
+        }
+        for (int k = 0; k < varyingCount; k++) {
+            float valueA = vertexVaryings[k][a];
+            polygonVaryings[varyingCount*polygonVertex + k] = valueA + fraction*(vertexVaryings[k][b] - valueA);
+        }
+    }
+
+    private void rasterizeTriangle(int v0, int v1, int v2, int varyingCount, FragmentShader fragmentShader) {
+        int width = frameBuffer.getWidth();
+        int height = frameBuffer.getHeight();
+
+        //perspective division and viewport transformation to window coordinates (with y pointing down).
+        float inverseW0 = 1/polygonClipCoordinates[4*v0 + 3];
+        float inverseW1 = 1/polygonClipCoordinates[4*v1 + 3];
+        float inverseW2 = 1/polygonClipCoordinates[4*v2 + 3];
+        float x0 = (polygonClipCoordinates[4*v0]*inverseW0 + 1)*0.5f*width;
+        float y0 = (1 - polygonClipCoordinates[4*v0 + 1]*inverseW0)*0.5f*height;
+        float z0 = (polygonClipCoordinates[4*v0 + 2]*inverseW0 + 1)*0.5f;
+        float x1 = (polygonClipCoordinates[4*v1]*inverseW1 + 1)*0.5f*width;
+        float y1 = (1 - polygonClipCoordinates[4*v1 + 1]*inverseW1)*0.5f*height;
+        float z1 = (polygonClipCoordinates[4*v1 + 2]*inverseW1 + 1)*0.5f;
+        float x2 = (polygonClipCoordinates[4*v2]*inverseW2 + 1)*0.5f*width;
+        float y2 = (1 - polygonClipCoordinates[4*v2 + 1]*inverseW2)*0.5f*height;
+        float z2 = (polygonClipCoordinates[4*v2 + 2]*inverseW2 + 1)*0.5f;
+
+        //snap window coordinates to fixed point with SUBPIXEL_BITS fraction bits, so that the edge functions are exact
+        //and pixels on an edge shared by two triangles are drawn exactly once.
+        long fx0 = toFixedPoint(x0);
+        long fy0 = toFixedPoint(y0);
+        long fx1 = toFixedPoint(x1);
+        long fy1 = toFixedPoint(y1);
+        long fx2 = toFixedPoint(x2);
+        long fy2 = toFixedPoint(y2);
+
+        //twice the signed area, which is negative for triangles that are counter-clockwise on the screen, because y points down.
+        long area = (fx1 - fx0)*(fy2 - fy0) - (fx2 - fx0)*(fy1 - fy0);
+        if (area == 0) return;
+        if (backFaceCullingEnabled && area > 0) return;
+
+        //edge functions are linear functions of the sample position: e = a*x + b*y + c, with e >= 0 inside the triangle.
+        //The edge functions are proportional to the barycentric coordinates: lambda0 = e0/area (opposite vertex 0), etc.
+        long sign = area > 0 ? 1 : -1;
+        long a0 = (fy1 - fy2)*sign;
+        long b0 = (fx2 - fx1)*sign;
+        long a1 = (fy2 - fy0)*sign;
+        long b1 = (fx0 - fx2)*sign;
+        long a2 = (fy0 - fy1)*sign;
+        long b2 = (fx1 - fx0)*sign;
+        //fill rule: a sample exactly on an edge belongs to only one of the two triangles that share the edge.
+        long bias0 = isOwnedEdge(a0, b0) ? 0 : -1;
+        long bias1 = isOwnedEdge(a1, b1) ? 0 : -1;
+        long bias2 = isOwnedEdge(a2, b2) ? 0 : -1;
+        float inverseArea = 1f/Math.abs(area);
+
+        //bounding box of triangle, clamped to the viewport.
+        int minX = (int) Math.max(0, Math.min(fx0, Math.min(fx1, fx2)) >> SUBPIXEL_BITS);
+        int maxX = (int) Math.min(width - 1, Math.max(fx0, Math.max(fx1, fx2)) >> SUBPIXEL_BITS);
+        int minY = (int) Math.max(0, Math.min(fy0, Math.min(fy1, fy2)) >> SUBPIXEL_BITS);
+        int maxY = (int) Math.min(height - 1, Math.max(fy0, Math.max(fy1, fy2)) >> SUBPIXEL_BITS);
+
+        int[] colors = frameBuffer.getColors();
+        float[] depths = frameBuffer.getDepths();
+        long half = 1L << (SUBPIXEL_BITS - 1);
+        for (int y = minY; y <= maxY; y++) {
+            //sample at pixel centers.
+            long sampleY = ((long) y << SUBPIXEL_BITS) + half;
+            long sampleX = ((long) minX << SUBPIXEL_BITS) + half;
+            long e0 = a0*(sampleX - fx1) + b0*(sampleY - fy1);
+            long e1 = a1*(sampleX - fx2) + b1*(sampleY - fy2);
+            long e2 = a2*(sampleX - fx0) + b2*(sampleY - fy0);
+            long stepX0 = a0 << SUBPIXEL_BITS;
+            long stepX1 = a1 << SUBPIXEL_BITS;
+            long stepX2 = a2 << SUBPIXEL_BITS;
+            for (int x = minX; x <= maxX; x++, e0 += stepX0, e1 += stepX1, e2 += stepX2) {
+                if (e0 + bias0 < 0 || e1 + bias1 < 0 || e2 + bias2 < 0) continue;
+                float lambda0 = e0*inverseArea;
+                float lambda1 = e1*inverseArea;
+                float lambda2 = e2*inverseArea;
+
+                int pixel = y*width + x;
+                float depth = lambda0*z0 + lambda1*z1 + lambda2*z2;
+                if (depth < 0 || depth > 1) continue;
+                if (depthTestEnabled && depth >= depths[pixel]) continue;
+
+                //perspective-correct interpolation.
+                float q0 = lambda0*inverseW0;
+                float q1 = lambda1*inverseW1;
+                float q2 = lambda2*inverseW2;
+                float inverseSum = 1/(q0 + q1 + q2);
+                for (int k = 0; k < varyingCount; k++) {
+                    fragmentVaryings[k] = (q0*polygonVaryings[varyingCount*v0 + k] + q1*polygonVaryings[varyingCount*v1 + k]
+                            + q2*polygonVaryings[varyingCount*v2 + k])*inverseSum;
+                }
+
+                fragmentShader.shade(fragmentVaryings, fragmentColor);
+                colors[pixel] = FrameBuffer.toARGB(fragmentColor[0], fragmentColor[1], fragmentColor[2], fragmentColor[3]);
+                if (depthTestEnabled) depths[pixel] = depth;
+            }
+        }
+    }
+
+    private static long toFixedPoint(float windowCoordinate) {
+        float clamped = Math.max(-MAX_WINDOW_COORDINATE, Math.min(windowCoordinate, MAX_WINDOW_COORDINATE));
+        return Math.round(clamped*(1 << SUBPIXEL_BITS));
+    }
+
+    /**
+     * An edge with edge function a*x + b*y + c owns the samples that are exactly on it if it is a left edge or a horizontal top edge.
+     * For the opposite edge of a neighbouring triangle (-a, -b) this returns false, so every sample is owned by exactly one triangle.
+     */
+    private static boolean isOwnedEdge(long a, long b) {
+        return a > 0 || (a == 0 && b > 0);
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.cpu;
+
+/**
+ * Java implementation of getColor in mandelbrot_double_float_fragment_shader.glsl, for use with CpuRasterizer and UVShader.
+ * Edge sampling (anti-aliasing) is implemented separately by EdgeSampler.
+ * Changes to this shader must also be made here (and vice versa), otherwise the regression tests fail.
+ *
+ * The arithmetic is done with floats, exactly like in the shader, so this shows the precision that a GPU gets.
+ * This class is strictfp, so that every operation is rounded to float precision, as the error-free transformations require.
+ *
+ * @author A.C. Kockx
+ */
+public final strictfp class DoubleFloatMandelbrotShader implements CpuRasterizer.FragmentShader {
+    private static final float SPLITTER = 4097;
+
+    //uniforms.
+    private float centerXHi = 0;
+    private float centerYHi = 0;
+    private float centerXLo = 0;
+    private float centerYLo = 0;
+    private int maxIterationCount = 100;
+
+    //low part of the result of the last double-float operation (the high part is returned).
+    private float lo;
+
+    /**
+     * @param centerHi high parts of the coordinates (x, y) of the center of the view in fractal space.
+     * @param centerLo low parts of the coordinates (x, y) of the center of the view in fractal space.
+     */
+    public void setCenter(float[] centerHi, float[] centerLo) {
+        centerXHi = centerHi[0];
+        centerYHi = centerHi[1];
+        centerXLo = centerLo[0];
+        centerYLo = centerLo[1];
+    }
+
+    public void setMaxIterationCount(int maxIterationCount) {
+        this.maxIterationCount = maxIterationCount;
+    }
+
+    @Override
+    public void shade(float[] varyings, float[] color) {
+        float cxHi = add(centerXHi, centerXLo, varyings[0], 0);
+        float cxLo = lo;
+        float cyHi = add(centerYHi, centerYLo, varyings[1], 0);
+        float cyLo = lo;
+
+        float zxHi = 0;
+        float zxLo = 0;
+        float zyHi = 0;
+        float zyLo = 0;
+        boolean diverged = false;
+        int iteration = 0;
+        while (!diverged && iteration < maxIterationCount) {
+            //z_new = z_old^2 + c
+            float zxSquaredHi = multiply(zxHi, zxLo, zxHi, zxLo);
+            float zxSquaredLo = lo;
+            float zySquaredHi = multiply(zyHi, zyLo, zyHi, zyLo);
+            float zySquaredLo = lo;
+            float zxzyHi = multiply(zxHi, zxLo, zyHi, zyLo);
+            float zxzyLo = lo;
+            float differenceHi = add(zxSquaredHi, zxSquaredLo, -zySquaredHi, -zySquaredLo);
+            zxHi = add(differenceHi, lo, cxHi, cxLo);
+            zxLo = lo;
+            float doubleHi = add(zxzyHi, zxzyLo, zxzyHi, zxzyLo);
+            zyHi = add(doubleHi, lo, cyHi, cyLo);
+            zyLo = lo;
+
+            //the high parts are precise enough for the divergence test.
+            if (zxHi*zxHi + zyHi*zyHi > 2*2) {//if abs(z) > 2
+                diverged = true;
+            }
+
+            iteration++;
+        }
+
+        if (!diverged) {//if in Mandelbrot set.
+            color[0] = 0;//black.
+            color[1] = 0;
+            color[2] = 0;
+        } else {//outside coloring.
+            //use 15 shades of grey.
+            float f = (iteration%15 + 1)/15f;
+            color[0] = f;
+            color[1] = f;
+            color[2] = f;
+        }
+        color[3] = 1;
+    }
+
+    /**
+     * @return high part of a + b, the low part is stored in field lo.
+     */
+    private float add(float aHi, float aLo, float bHi, float bLo) {
+        //twoSum(aHi, bHi).
+        float s = aHi + bHi;
+        float v = s - aHi;
+        float e = (aHi - (s - v)) + (bHi - v);
+        //twoSum(aLo, bLo).
+        float t = aLo + bLo;
+        float w = t - aLo;
+        float f = (aLo - (t - w)) + (bLo - w);
+        //quickTwoSum(s, e + t).
+        e += t;
+        float hi = s + e;
+        e = e - (hi - s);
+        //quickTwoSum(hi, e + f).
+        e += f;
+        s = hi + e;
+        lo = e - (s - hi);
+        return s;
+    }
+
+    /**
+     * @return high part of a*b, the low part is stored in field lo.
+     */
+    private float multiply(float aHi, float aLo, float bHi, float bLo) {
+        //twoProduct(aHi, bHi).
+        float p = aHi*bHi;
+        float t = SPLITTER*aHi;
+        float aHiHi = t - (t - aHi);
+        float aHiLo = aHi - aHiHi;
+        t = SPLITTER*bHi;
+        float bHiHi = t - (t - bHi);
+        float bHiLo = bHi - bHiHi;
+        float e = ((aHiHi*bHiHi - p) + aHiHi*bHiLo + aHiLo*bHiHi) + aHiLo*bHiLo;
+        //quickTwoSum(p, e + cross terms).
+        e += aHi*bLo + aLo*bHi;
+        float hi = p + e;
+        lo = e - (hi - p);
+        return hi;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.cpu;
+
+/**
+ * Java implementation of mandelbrot_edge_sampling_fragment_shader.glsl (the second pass, with edgeSamplingEnabled = true),
+ * for use with MandelbrotShader or DoubleFloatMandelbrotShader. Instead of drawing a quad, the second pass is applied directly
+ * to a frame buffer that contains the first pass (one sample per pixel, drawn with CpuRasterizer).
+ * Changes to this shader must also be made here (and vice versa), otherwise the regression tests fail.
+ *
+ * @author A.C. Kockx
+ */
+public final class EdgeSampler {
+    private final int sampleCount;
+
+    /**
+     * @param sampleCount number of samples per edge pixel, should be a square number.
+     */
+    public EdgeSampler(int sampleCount) {
+        if (sampleCount < 1) throw new IllegalArgumentException("sampleCount < 1");
+
+        this.sampleCount = sampleCount;
+    }
+
+    /**
+     * Samples the pixels of the given frame buffer whose color differs from that of a neighbouring pixel again, with the given fragment shader.
+     * The u,v-coordinates of a pixel are linear in its window coordinates (as for a quad that covers the screen).
+     * Window coordinates are the same as gl_FragCoord: (0, 0) is the lower left corner of the frame buffer.
+     *
+     * @param frameBuffer contains the first pass, the result is written to the same frame buffer.
+     * @param shader gets the u,v-coordinates (u, v) of a sample as varyings.
+     * @param uvAtOrigin u,v-coordinates (u, v) at window coordinates (0, 0).
+     * @param uvPerPixelX change in u,v-coordinates (u, v) per pixel to the right.
+     * @param uvPerPixelY change in u,v-coordinates (u, v) per pixel upwards.
+     */
+    public void sampleEdges(FrameBuffer frameBuffer, CpuRasterizer.FragmentShader shader, float[] uvAtOrigin, float[] uvPerPixelX, float[] uvPerPixelY) {
+        int width = frameBuffer.getWidth();
+        int height = frameBuffer.getHeight();
+        int[] colors = frameBuffer.getColors();
+        int[] firstPassColors = colors.clone();
+        int gridSize = Math.max((int) Math.sqrt(sampleCount), 1);
+        float[] varyings = new float[2];
+        float[] color = new float[4];
+        float[] sum = new float[4];
+
+        //row 0 is the top row in FrameBuffer, but the bottom row in window coordinates.
+        for (int y = 0; y < height; y++) {
+            int row = height - 1 - y;
+            for (int x = 0; x < width; x++) {
+                if (!isEdge(firstPassColors, width, height, x, row)) continue;
+
+                float fragmentX = x + 0.5f;
+                float fragmentY = y + 0.5f;
+                float u = uvAtOrigin[0] + fragmentX*uvPerPixelX[0] + fragmentY*uvPerPixelY[0];
+                float v = uvAtOrigin[1] + fragmentX*uvPerPixelX[1] + fragmentY*uvPerPixelY[1];
+
+                //one sample at a random position in each cell of a grid over the pixel (jittered sampling).
+                sum[0] = sum[1] = sum[2] = sum[3] = 0;
+                for (int j = 0; j < gridSize; j++) {
+                    for (int i = 0; i < gridSize; i++) {
+                        float seedX = fragmentX + i/(float) gridSize;
+                        float seedY = fragmentY + j/(float) gridSize;
+                        float offsetX = (i + random(seedX, seedY))/gridSize - 0.5f;//in pixels.
+                        float offsetY = (j + random(seedY, seedX))/gridSize - 0.5f;
+                        varyings[0] = u + offsetX*uvPerPixelX[0] + offsetY*uvPerPixelY[0];
+                        varyings[1] = v + offsetX*uvPerPixelX[1] + offsetY*uvPerPixelY[1];
+                        shader.shade(varyings, color);
+                        for (int component = 0; component < 4; component++) {
+                            sum[component] += color[component];
+                        }
+                    }
+                }
+                int n = gridSize*gridSize;
+                colors[row*width + x] = FrameBuffer.toARGB(sum[0]/n, sum[1]/n, sum[2]/n, sum[3]/n);
+            }
+        }
+    }
+
+    /**
+     * @return true if the color of the given pixel differs from the color of one of its 8 neighbours.
+     */
+    private static boolean isEdge(int[] colors, int width, int height, int x, int row) {
+        int color = colors[row*width + x];
+        for (int dy = -1; dy <= 1; dy++) {
+            int neighbourRow = Math.min(Math.max(row + dy, 0), height - 1);
+            for (int dx = -1; dx <= 1; dx++) {
+                int neighbourX = Math.min(Math.max(x + dx, 0), width - 1);
+                if (colors[neighbourRow*width + neighbourX] != color) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return pseudo-random number between 0 and 1, same as in the shader.
+     */
+    private static float random(float seedX, float seedY) {
+        float value = (float) Math.sin(seedX*12.9898f + seedY*78.233f)*43758.5453f;
+        return value - (float) Math.floor(value);
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.cpu;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Color buffer and depth buffer in main memory, used by CpuRasterizer.
+ * Row 0 is the top row of the image (unlike OpenGL, where row 0 is the bottom row).
+ *
+ * @author A.C. Kockx
+ */
+public final class FrameBuffer {
+    private final int width;
+    private final int height;
+    //color per pixel in ARGB format, one row after the other.
+    private final int[] colors;
+    //depth per pixel in window coordinates (0 = near clipping plane, 1 = far clipping plane).
+    private final float[] depths;
+
+    public FrameBuffer(int width, int height) {
+        if (width <= 0) throw new IllegalArgumentException("width <= 0");
+        if (height <= 0) throw new IllegalArgumentException("height <= 0");
+
+        this.width = width;
+        this.height = height;
+        colors = new int[width*height];
+        depths = new float[width*height];
+        clear(0, 0, 0);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return color per pixel in ARGB format, one row after the other.
+     */
+    public int[] getColors() {
+        return colors;
+    }
+
+    /**
+     * @return depth per pixel, one row after the other.
+     */
+    public float[] getDepths() {
+        return depths;
+    }
+
+    /**
+     * Sets all pixels to the given color (r, g, b) and all depths to 1 (the far clipping plane).
+     */
+    public void clear(float red, float green, float blue) {
+        Arrays.fill(colors, toARGB(red, green, blue, 1));
+        Arrays.fill(depths, 1);
+    }
+
+    /**
+     * @return copy of the color buffer as an image.
+     */
+    public BufferedImage toImage() {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, width, height, colors, 0, width);
+        return image;
+    }
+
+    /**
+     * Converts the given color components (between 0 and 1) to ARGB format, in the same way as OpenGL converts them to 8 bits per component.
+     */
+    static int toARGB(float red, float green, float blue, float alpha) {
+        return toByte(alpha) << 24 | toByte(red) << 16 | toByte(green) << 8 | toByte(blue);
+    }
+
+    private static int toByte(float value) {
+        if (!(value > 0)) return 0;//also for NaN.
+        if (value >= 1) return 255;
+        return Math.round(value*255);
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.cpu;
+
+/**
+ * Java implementation of getColor in mandelbrot_fragment_shader.glsl, for use with CpuRasterizer and UVShader.
+ * Edge sampling (anti-aliasing) is implemented separately by EdgeSampler.
+ * Changes to this shader must also be made here (and vice versa), otherwise the regression tests fail.
+ *
+ * @author A.C. Kockx
+ */
+public final class MandelbrotShader implements CpuRasterizer.FragmentShader {
+    private static final int MAX_ITERATION_COUNT = 100;
+
+    @Override
+    public void shade(float[] varyings, float[] color) {
+        float cx = varyings[0];
+        float cy = varyings[1];
+
+        float zx = 0;
+        float zy = 0;
+        boolean diverged = false;
+        int iteration = 0;
+        while (!diverged && iteration < MAX_ITERATION_COUNT) {
+            //z_new = z_old^2 + c
+            float newZx = zx*zx - zy*zy + cx;
+            zy = 2*zx*zy + cy;
+            zx = newZx;
+
+            if (zx*zx + zy*zy > 2*2) {//if abs(z) > 2
+                diverged = true;
+            }
+
+            iteration++;
+        }
+
+        if (!diverged) {//if in Mandelbrot set.
+            color[0] = 0;//black.
+            color[1] = 0;
+            color[2] = 0;
+        } else {//outside coloring.
+            //use 15 shades of grey.
+            float f = (iteration%15 + 1)/15f;
+            color[0] = f;
+            color[1] = f;
+            color[2] = f;
+        }
+        color[3] = 1;
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.cpu;
+
+/**
+ * Java implementation of phong_vertex_shader.glsl and phong_fragment_shader.glsl, for use with CpuRasterizer.
+ * Shadows use a RayCastShadowMap instead of the cube map of PointLightShadowMap.
+ * Changes to these shaders must also be made here (and vice versa), otherwise the regression tests fail.
+ *
+ * @author A.C. Kockx
+ */
+public final class PhongShader implements CpuRasterizer.BatchVertexShader, CpuRasterizer.FragmentShader {
+    //vertex attributes, one array per component (see VertexTransformer).
+    private final float[][] vertexPositions;
+    private final float[][] vertexNormals;
+    private final float[][] vertexColors;
+    //center, corners of a cube and centers of its edges, same as in phong_fragment_shader.glsl.
+    private static final float[][] SHADOW_SAMPLE_OFFSETS = new float[][]{{ 0,  0,  0},
+                                                                         { 1,  1,  1}, { 1, -1,  1}, {-1, -1,  1}, {-1,  1,  1},
+                                                                         { 1,  1, -1}, { 1, -1, -1}, {-1, -1, -1}, {-1,  1, -1},
+                                                                         { 1,  1,  0}, { 1, -1,  0}, {-1, -1,  0}, {-1,  1,  0},
+                                                                         { 1,  0,  1}, {-1,  0,  1}, { 1,  0, -1}, {-1,  0, -1},
+                                                                         { 0,  1,  1}, { 0, -1,  1}, { 0, -1, -1}, { 0,  1, -1}};
+
+    //attributes of the vertices of the last indexed batch.
+    private final float[][] gatheredPositions = new float[3][0];
+    private final float[][] gatheredNormals = new float[3][0];
+    private final float[][] gatheredColors = new float[3][0];
+
+    //uniforms.
+    private float[] modelViewProjectionMatrix = new float[16];
+    private float[] modelViewMatrix = new float[16];
+    //only needed for shadows.
+    private float[] modelMatrix = new float[]{1, 0, 0, 0,
+                                              0, 1, 0, 0,
+                                              0, 0, 1, 0,
+                                              0, 0, 0, 1};
+    private float[] lightPosition = new float[3];
+    private float[] lightIntensity = new float[3];
+    private float[] ambientLightIntensity = new float[3];
+    private float specularReflectionCoefficient = 0;
+    private float shininess = 1;
+    //null if shadows are disabled.
+    private RayCastShadowMap shadowMap = null;
+    private float[] lightPositionInWorldSpace = new float[3];
+    private float shadowBias = 0;
+    private int shadowSampleCount = 1;
+    private float shadowSampleRadius = 0;
+
+    /**
+     * @param vertexPositions (x, y, z) in model space.
+     * @param vertexNormals (x, y, z) in model space.
+     * @param vertexColors (r, g, b).
+     */
+    public PhongShader(float[] vertexPositions, float[] vertexNormals, float[] vertexColors) {
+        if (vertexPositions == null) throw new IllegalArgumentException("vertexPositions == null");
+        if (vertexNormals == null) throw new IllegalArgumentException("vertexNormals == null");
+        if (vertexColors == null) throw new IllegalArgumentException("vertexColors == null");
+
+        this.vertexPositions = VertexTransformer.toStructureOfArrays(vertexPositions, 3);
+        this.vertexNormals = VertexTransformer.toStructureOfArrays(vertexNormals, 3);
+        this.vertexColors = VertexTransformer.toStructureOfArrays(vertexColors, 3);
+    }
+
+    /**
+     * @param modelViewProjectionMatrix in column-major order.
+     * @param modelViewMatrix in column-major order.
+     */
+    public void setMatrices(float[] modelViewProjectionMatrix, float[] modelViewMatrix) {
+        this.modelViewProjectionMatrix = modelViewProjectionMatrix.clone();
+        this.modelViewMatrix = modelViewMatrix.clone();
+    }
+
+    /**
+     * @param modelMatrix in column-major order, only needed for shadows.
+     */
+    public void setModelMatrix(float[] modelMatrix) {
+        this.modelMatrix = modelMatrix.clone();
+    }
+
+    /**
+     * @param lightPosition in camera space.
+     * @param lightIntensity per color component (r, g, b).
+     * @param ambientLightIntensity per color component (r, g, b).
+     */
+    public void setLight(float[] lightPosition, float[] lightIntensity, float[] ambientLightIntensity) {
+        this.lightPosition = new float[]{lightPosition[0], lightPosition[1], lightPosition[2]};
+        this.lightIntensity = lightIntensity.clone();
+        this.ambientLightIntensity = ambientLightIntensity.clone();
+    }
+
+    public void setMaterial(float specularReflectionCoefficient, float shininess) {
+        this.specularReflectionCoefficient = specularReflectionCoefficient;
+        this.shininess = shininess;
+    }
+
+    /**
+     * Same as PointLightShadowMap.bind.
+     *
+     * @param shadowMap null to disable shadows.
+     * @param lightPositionInWorldSpace (x, y, z).
+     * @param bias see PointLightShadowMap.setBias.
+     * @param sampleCount see PointLightShadowMap.setFiltering.
+     * @param sampleRadius see PointLightShadowMap.setFiltering.
+     */
+    public void setShadows(RayCastShadowMap shadowMap, float[] lightPositionInWorldSpace, float bias, int sampleCount, float sampleRadius) {
+        if (sampleCount < 1 || sampleCount > SHADOW_SAMPLE_OFFSETS.length) throw new IllegalArgumentException("sampleCount must be 1 to " + SHADOW_SAMPLE_OFFSETS.length);
+
+        this.shadowMap = shadowMap;
+        this.lightPositionInWorldSpace = new float[]{lightPositionInWorldSpace[0], lightPositionInWorldSpace[1], lightPositionInWorldSpace[2]};
+        shadowBias = bias;
+        shadowSampleCount = sampleCount;
+        shadowSampleRadius = sampleRadius;
+    }
+
+    @Override
+    public int getVaryingCount() {
+        //position (x, y, z) in camera space, normal vector (x, y, z) in camera space, diffuse color (r, g, b), position (x, y, z) in world space.
+        return 12;
+    }
+
+    @Override
+    public void shade(int vertex, float[] position, float[] varyings) {
+        float x = vertexPositions[0][vertex];
+        float y = vertexPositions[1][vertex];
+        float z = vertexPositions[2][vertex];
+        float[] m = modelViewProjectionMatrix;
+        for (int row = 0; row < 4; row++) {
+            position[row] = m[row]*x + m[4 + row]*y + m[8 + row]*z + m[12 + row];
+        }
+
+        float nx = vertexNormals[0][vertex];
+        float ny = vertexNormals[1][vertex];
+        float nz = vertexNormals[2][vertex];
+        m = modelViewMatrix;
+        for (int row = 0; row < 3; row++) {
+            varyings[row] = m[row]*x + m[4 + row]*y + m[8 + row]*z + m[12 + row];
+            varyings[3 + row] = m[row]*nx + m[4 + row]*ny + m[8 + row]*nz;
+            varyings[6 + row] = vertexColors[row][vertex];
+        }
+        m = modelMatrix;
+        for (int row = 0; row < 3; row++) {
+            varyings[9 + row] = m[row]*x + m[4 + row]*y + m[8 + row]*z + m[12 + row];
+        }
+    }
+
+    @Override
+    public void shade(int[] vertices, int first, int count, float[][] positions, float[][] varyings) {
+        float[][] vertexPositions = this.vertexPositions;
+        float[][] vertexNormals = this.vertexNormals;
+        float[][] vertexColors = this.vertexColors;
+        if (vertices != null) {
+            vertexPositions = VertexTransformer.gather(vertexPositions, vertices, first, count, gatheredPositions);
+            vertexNormals = VertexTransformer.gather(vertexNormals, vertices, first, count, gatheredNormals);
+            vertexColors = VertexTransformer.gather(vertexColors, vertices, first, count, gatheredColors);
+            first = 0;
+        }
+
+        float[][] p = vertexPositions;
+        float[][] n = vertexNormals;
+        VertexTransformer.transformPoints(modelViewProjectionMatrix, p[0], p[1], p[2], first, count, positions, 0, 4);
+        VertexTransformer.transformPoints(modelViewMatrix, p[0], p[1], p[2], first, count, varyings, 0, 3);
+        VertexTransformer.transformVectors(modelViewMatrix, n[0], n[1], n[2], first, count, varyings, 3, 3);
+        for (int component = 0; component < 3; component++) {
+            System.arraycopy(vertexColors[component], first, varyings[6 + component], 0, count);
+        }
+        VertexTransformer.transformPoints(modelMatrix, p[0], p[1], p[2], first, count, varyings, 9, 3);
+    }
+
+    /**
+     * Percentage-closer filtering, same as getLitFraction in phong_fragment_shader.glsl.
+     *
+     * @return the fraction of the samples that is not in shadow.
+     */
+    private float getLitFraction(float[] varyings) {
+        if (shadowMap == null) return 1;
+
+        float lightToFragmentX = varyings[9] - lightPositionInWorldSpace[0];
+        float lightToFragmentY = varyings[10] - lightPositionInWorldSpace[1];
+        float lightToFragmentZ = varyings[11] - lightPositionInWorldSpace[2];
+        float distanceFromLight = (float) Math.sqrt(lightToFragmentX*lightToFragmentX + lightToFragmentY*lightToFragmentY + lightToFragmentZ*lightToFragmentZ) - shadowBias;
+        int litSampleCount = 0;
+        for (int n = 0; n < shadowSampleCount; n++) {
+            float[] offset = SHADOW_SAMPLE_OFFSETS[n];
+            float occluderDistance = shadowMap.getOccluderDistance(lightToFragmentX + offset[0]*shadowSampleRadius,
+                    lightToFragmentY + offset[1]*shadowSampleRadius, lightToFragmentZ + offset[2]*shadowSampleRadius);
+            if (distanceFromLight <= occluderDistance) litSampleCount++;
+        }
+        return litSampleCount/(float) shadowSampleCount;
+    }
+
+    @Override
+    public void shade(float[] varyings, float[] color) {
+        //calculate directions as seen from fragment position.
+        float lightDirectionX = lightPosition[0] - varyings[0];
+        float lightDirectionY = lightPosition[1] - varyings[1];
+        float lightDirectionZ = lightPosition[2] - varyings[2];
+        float squaredDistanceFromFragmentToLight = lightDirectionX*lightDirectionX + lightDirectionY*lightDirectionY + lightDirectionZ*lightDirectionZ;
+        float inverseLength = (float) (1/Math.sqrt(squaredDistanceFromFragmentToLight));
+        lightDirectionX *= inverseLength;
+        lightDirectionY *= inverseLength;
+        lightDirectionZ *= inverseLength;
+        inverseLength = (float) (1/Math.sqrt(varyings[0]*varyings[0] + varyings[1]*varyings[1] + varyings[2]*varyings[2]));
+        float viewDirectionX = -varyings[0]*inverseLength;
+        float viewDirectionY = -varyings[1]*inverseLength;
+        float viewDirectionZ = -varyings[2]*inverseLength;
+        inverseLength = (float) (1/Math.sqrt(varyings[3]*varyings[3] + varyings[4]*varyings[4] + varyings[5]*varyings[5]));
+        float normalX = varyings[3]*inverseLength;
+        float normalY = varyings[4]*inverseLength;
+        float normalZ = varyings[5]*inverseLength;
+        //reflect(-lightDirection, normal).
+        float normalDotLight = normalX*lightDirectionX + normalY*lightDirectionY + normalZ*lightDirectionZ;
+        float reflectionDirectionX = 2*normalDotLight*normalX - lightDirectionX;
+        float reflectionDirectionY = 2*normalDotLight*normalY - lightDirectionY;
+        float reflectionDirectionZ = 2*normalDotLight*normalZ - lightDirectionZ;
+
+        //diffuse reflection.
+        float lambertian = Math.max(normalDotLight, 0);
+
+        //specular reflection.
+        float specularAngle = Math.max(viewDirectionX*reflectionDirectionX + viewDirectionY*reflectionDirectionY + viewDirectionZ*reflectionDirectionZ, 0);
+        float specular = specularReflectionCoefficient*(float) Math.pow(specularAngle, shininess);
+
+        float litFraction = getLitFraction(varyings);
+        for (int component = 0; component < 3; component++) {
+            float diffuseColor = varyings[6 + component];
+            float incidentIntensity = litFraction*lightIntensity[component]/squaredDistanceFromFragmentToLight;
+            float ambientIntensity = diffuseColor*ambientLightIntensity[component];
+            float diffuseIntensity = diffuseColor*lambertian*incidentIntensity;
+            float specularIntensity = specular*incidentIntensity;
+            color[component] = Math.min(Math.max(ambientIntensity + diffuseIntensity + specularIntensity, 0), 1);
+        }
+        color[3] = 1;
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.cpu;
+
+import java.util.Arrays;
+
+/**
+ * Java counterpart of PointLightShadowMap, for use with PhongShader. Instead of rendering the shadow casters into a cube map,
+ * the distance from the light to the nearest caster in a given direction is found by intersecting a ray with the triangles of the casters,
+ * which gives the same result as a cube map with unlimited resolution. Like PointLightShadowMap, only the faces of the casters
+ * that face away from the light are used, and casters outside the near and far planes are ignored.
+ *
+ * @author A.C. Kockx
+ */
+public final class RayCastShadowMap {
+    private final float[] lightPosition;
+    private final float nearPlane;
+    private final float farPlane;
+    //vertices (x, y, z) in world space of the triangles that face away from the light, 9 values per triangle.
+    private float[] triangles = new float[0];
+    private int triangleCount = 0;
+    //bounding sphere of the triangles, so that most rays can skip the triangles.
+    private float[] boundsCenter = new float[3];
+    private float boundsRadius = -1;
+
+    /**
+     * @param lightPositionInWorldSpace (x, y, z).
+     * @param nearPlane casters closer to the light than this are ignored.
+     * @param farPlane casters further from the light than this are ignored.
+     */
+    public RayCastShadowMap(float[] lightPositionInWorldSpace, float nearPlane, float farPlane) {
+        if (lightPositionInWorldSpace == null) throw new IllegalArgumentException("lightPositionInWorldSpace == null");
+        if (nearPlane <= 0) throw new IllegalArgumentException("nearPlane <= 0");
+        if (farPlane <= nearPlane) throw new IllegalArgumentException("farPlane <= nearPlane");
+
+        lightPosition = Arrays.copyOf(lightPositionInWorldSpace, 3);
+        this.nearPlane = nearPlane;
+        this.farPlane = farPlane;
+    }
+
+    public float getFarPlane() {
+        return farPlane;
+    }
+
+    /**
+     * Adds the triangles of a triangle strip of a shadow caster, with counter-clockwise front faces (as in OpenGL).
+     *
+     * @param vertexPositions (x, y, z) in model space.
+     * @param first index of the first vertex of the strip.
+     * @param count number of vertices of the strip.
+     * @param modelMatrix in column-major order.
+     */
+    public void addTriangleStrip(float[] vertexPositions, int first, int count, float[] modelMatrix) {
+        float[] vertices = new float[3*count];
+        for (int n = 0; n < count; n++) {
+            float x = vertexPositions[3*(first + n)];
+            float y = vertexPositions[3*(first + n) + 1];
+            float z = vertexPositions[3*(first + n) + 2];
+            for (int row = 0; row < 3; row++) {
+                vertices[3*n + row] = modelMatrix[row]*x + modelMatrix[4 + row]*y + modelMatrix[8 + row]*z + modelMatrix[12 + row];
+            }
+        }
+
+        for (int n = 0; n + 2 < count; n++) {
+            //every other triangle of a strip has its vertices in clockwise order, swap two of them to get the front face.
+            int a = n%2 == 0 ? n : n + 1;
+            int b = n%2 == 0 ? n + 1 : n;
+            addTriangle(vertices, a, b, n + 2);
+        }
+        updateBounds();
+    }
+
+    /**
+     * Adds the triangle if it faces away from the light, the front faces are culled as in PointLightShadowMap.
+     */
+    private void addTriangle(float[] vertices, int a, int b, int c) {
+        float e1x = vertices[3*b] - vertices[3*a];
+        float e1y = vertices[3*b + 1] - vertices[3*a + 1];
+        float e1z = vertices[3*b + 2] - vertices[3*a + 2];
+        float e2x = vertices[3*c] - vertices[3*a];
+        float e2y = vertices[3*c + 1] - vertices[3*a + 1];
+        float e2z = vertices[3*c + 2] - vertices[3*a + 2];
+        float normalX = e1y*e2z - e1z*e2y;
+        float normalY = e1z*e2x - e1x*e2z;
+        float normalZ = e1x*e2y - e1y*e2x;
+        float toLightX = lightPosition[0] - vertices[3*a];
+        float toLightY = lightPosition[1] - vertices[3*a + 1];
+        float toLightZ = lightPosition[2] - vertices[3*a + 2];
+        if (normalX*toLightX + normalY*toLightY + normalZ*toLightZ >= 0) return;
+
+        if (triangles.length < 9*(triangleCount + 1)) triangles = Arrays.copyOf(triangles, Math.max(9*16, 2*triangles.length));
+        System.arraycopy(vertices, 3*a, triangles, 9*triangleCount, 3);
+        System.arraycopy(vertices, 3*b, triangles, 9*triangleCount + 3, 3);
+        System.arraycopy(vertices, 3*c, triangles, 9*triangleCount + 6, 3);
+        triangleCount++;
+    }
+
+    private void updateBounds() {
+        if (triangleCount == 0) return;
+
+        float[] min = new float[]{Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY};
+        float[] max = new float[]{Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+        for (int n = 0; n < 3*triangleCount; n++) {
+            for (int component = 0; component < 3; component++) {
+                min[component] = Math.min(min[component], triangles[3*n + component]);
+                max[component] = Math.max(max[component], triangles[3*n + component]);
+            }
+        }
+        float squaredRadius = 0;
+        for (int component = 0; component < 3; component++) {
+            boundsCenter[component] = (min[component] + max[component])/2;
+            squaredRadius += (max[component] - boundsCenter[component])*(max[component] - boundsCenter[component]);
+        }
+        boundsRadius = (float) Math.sqrt(squaredRadius);
+    }
+
+    /**
+     * Same as sampling the cube map of PointLightShadowMap (times its far plane) in the given direction.
+     *
+     * @param directionX direction from the light in world space, does not need to be normalized.
+     * @return distance from the light to the nearest caster in the given direction, or the far plane if there is none.
+     */
+    public float getOccluderDistance(float directionX, float directionY, float directionZ) {
+        float inverseLength = (float) (1/Math.sqrt(directionX*directionX + directionY*directionY + directionZ*directionZ));
+        float dx = directionX*inverseLength;
+        float dy = directionY*inverseLength;
+        float dz = directionZ*inverseLength;
+
+        //skip the triangles if the ray misses their bounding sphere.
+        float cx = boundsCenter[0] - lightPosition[0];
+        float cy = boundsCenter[1] - lightPosition[1];
+        float cz = boundsCenter[2] - lightPosition[2];
+        float projection = cx*dx + cy*dy + cz*dz;
+        float squaredDistanceToRay = cx*cx + cy*cy + cz*cz - projection*projection;
+        if (boundsRadius < 0 || squaredDistanceToRay > boundsRadius*boundsRadius) return farPlane;
+
+        //Moller-Trumbore ray-triangle intersection.
+        float nearestDistance = farPlane;
+        for (int triangle = 0; triangle < triangleCount; triangle++) {
+            int offset = 9*triangle;
+            float e1x = triangles[offset + 3] - triangles[offset];
+            float e1y = triangles[offset + 4] - triangles[offset + 1];
+            float e1z = triangles[offset + 5] - triangles[offset + 2];
+            float e2x = triangles[offset + 6] - triangles[offset];
+            float e2y = triangles[offset + 7] - triangles[offset + 1];
+            float e2z = triangles[offset + 8] - triangles[offset + 2];
+            float px = dy*e2z - dz*e2y;
+            float py = dz*e2x - dx*e2z;
+            float pz = dx*e2y - dy*e2x;
+            float determinant = e1x*px + e1y*py + e1z*pz;
+            if (determinant == 0) continue;//ray parallel to the triangle.
+
+            float inverseDeterminant = 1/determinant;
+            float sx = lightPosition[0] - triangles[offset];
+            float sy = lightPosition[1] - triangles[offset + 1];
+            float sz = lightPosition[2] - triangles[offset + 2];
+            float u = (sx*px + sy*py + sz*pz)*inverseDeterminant;
+            if (u < 0 || u > 1) continue;
+            float qx = sy*e1z - sz*e1y;
+            float qy = sz*e1x - sx*e1z;
+            float qz = sx*e1y - sy*e1x;
+            float v = (dx*qx + dy*qy + dz*qz)*inverseDeterminant;
+            if (v < 0 || u + v > 1) continue;
+            float distance = (e2x*qx + e2y*qy + e2z*qz)*inverseDeterminant;
+            if (distance >= nearPlane && distance < nearestDistance) nearestDistance = distance;
+        }
+        return nearestDistance;
+    }
+}
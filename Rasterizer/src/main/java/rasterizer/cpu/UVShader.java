@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.cpu;
+
+/**
+ * Java implementation of uv_vertex_shader.glsl, for use with CpuRasterizer.
+ * Changes to this shader must also be made here (and vice versa), otherwise the regression tests fail.
+ *
+ * @author A.C. Kockx
+ */
+public final class UVShader implements CpuRasterizer.BatchVertexShader {
+    //vertex attributes, one array per component (see VertexTransformer).
+    private final float[][] vertexPositions;
+    private final float[][] vertexUVCoordinates;
+    //attributes of the vertices of the last indexed batch.
+    private final float[][] gatheredPositions = new float[3][0];
+    private final float[][] gatheredUVCoordinates = new float[2][0];
+
+    //uniforms.
+    private float[] modelViewProjectionMatrix = {1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1};//identity matrix by default.
+    private float[] textureMatrix = {1, 0, 0, 0, 1, 0, 0, 0, 1};//identity matrix by default.
+
+    /**
+     * @param vertexPositions (x, y, z).
+     * @param vertexUVCoordinates (u, v).
+     */
+    public UVShader(float[] vertexPositions, float[] vertexUVCoordinates) {
+        if (vertexPositions == null) throw new IllegalArgumentException("vertexPositions == null");
+        if (vertexUVCoordinates == null) throw new IllegalArgumentException("vertexUVCoordinates == null");
+
+        this.vertexPositions = VertexTransformer.toStructureOfArrays(vertexPositions, 3);
+        this.vertexUVCoordinates = VertexTransformer.toStructureOfArrays(vertexUVCoordinates, 2);
+    }
+
+    /**
+     * @param modelViewProjectionMatrix 4x4 matrix in column-major order.
+     */
+    public void setModelViewProjectionMatrix(float[] modelViewProjectionMatrix) {
+        this.modelViewProjectionMatrix = modelViewProjectionMatrix.clone();
+    }
+
+    /**
+     * @param textureMatrix 3x3 matrix for u,v-coordinates in column-major order.
+     */
+    public void setTextureMatrix(float[] textureMatrix) {
+        this.textureMatrix = textureMatrix.clone();
+    }
+
+    @Override
+    public int getVaryingCount() {
+        //u,v-coordinates.
+        return 2;
+    }
+
+    @Override
+    public void shade(int vertex, float[] position, float[] varyings) {
+        float x = vertexPositions[0][vertex];
+        float y = vertexPositions[1][vertex];
+        float z = vertexPositions[2][vertex];
+        float[] m = modelViewProjectionMatrix;
+        for (int row = 0; row < 4; row++) {
+            position[row] = m[row]*x + m[4 + row]*y + m[8 + row]*z + m[12 + row];
+        }
+
+        float u = vertexUVCoordinates[0][vertex];
+        float v = vertexUVCoordinates[1][vertex];
+        m = textureMatrix;
+        varyings[0] = m[0]*u + m[3]*v + m[6];
+        varyings[1] = m[1]*u + m[4]*v + m[7];
+    }
+
+    @Override
+    public void shade(int[] vertices, int first, int count, float[][] positions, float[][] varyings) {
+        float[][] vertexPositions = this.vertexPositions;
+        float[][] vertexUVCoordinates = this.vertexUVCoordinates;
+        if (vertices != null) {
+            vertexPositions = VertexTransformer.gather(vertexPositions, vertices, first, count, gatheredPositions);
+            vertexUVCoordinates = VertexTransformer.gather(vertexUVCoordinates, vertices, first, count, gatheredUVCoordinates);
+            first = 0;
+        }
+
+        float[][] p = vertexPositions;
+        VertexTransformer.transformPoints(modelViewProjectionMatrix, p[0], p[1], p[2], first, count, positions, 0, 4);
+
+        //the texture matrix is a 3x3 matrix, so it is applied here instead of with VertexTransformer.
+        float[] m = textureMatrix;
+        float[] u = vertexUVCoordinates[0];
+        float[] v = vertexUVCoordinates[1];
+        float[] resultU = varyings[0];
+        float[] resultV = varyings[1];
+        for (int n = 0; n < count; n++) {
+            resultU[n] = m[0]*u[first + n] + m[3]*v[first + n] + m[6];
+        }
+        for (int n = 0; n < count; n++) {
+            resultV[n] = m[1]*u[first + n] + m[4]*v[first + n] + m[7];
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.cpu;
+
+import java.util.stream.IntStream;
+
+/**
+ * Transforms vertex attributes in batches, for batch vertex shaders (see CpuRasterizer.BatchVertexShader).
+ *
+ * The attributes are stored as structure-of-arrays: one array per component (e.g. all x-coordinates, all y-coordinates, etc.),
+ * instead of one array with the components of each vertex next to each other. Then each output component is a simple loop
+ * over consecutive array elements without dependencies between iterations, which the JIT compiler vectorizes (SIMD instructions).
+ * Large batches are split over multiple threads.
+ *
+ * @author A.C. Kockx
+ */
+public final class VertexTransformer {
+    //number of vertices per task. Batches of at most this size are transformed on the calling thread,
+    //because for small batches the overhead of using multiple threads is larger than the gain.
+    private static final int TASK_SIZE = 16384;
+
+    private VertexTransformer() {
+    }
+
+    /**
+     * @param values interleaved components, e.g. (x, y, z) for each vertex.
+     * @param componentCount number of components per vertex.
+     * @return one array per component, with the values of that component for all vertices.
+     */
+    public static float[][] toStructureOfArrays(float[] values, int componentCount) {
+        if (values == null) throw new IllegalArgumentException("values == null");
+        if (componentCount <= 0) throw new IllegalArgumentException("componentCount <= 0");
+        if (values.length%componentCount != 0) throw new IllegalArgumentException("values.length is not a multiple of componentCount");
+
+        int vertexCount = values.length/componentCount;
+        float[][] arrays = new float[componentCount][vertexCount];
+        for (int vertex = 0; vertex < vertexCount; vertex++) {
+            for (int component = 0; component < componentCount; component++) {
+                arrays[component][vertex] = values[componentCount*vertex + component];
+            }
+        }
+        return arrays;
+    }
+
+    /**
+     * Copies the components of the given vertices, e.g. to get the attributes of the vertices of an indexed draw call next to each other.
+     *
+     * @param source one array per component.
+     * @param target output: target[component][n] = source[component][vertices[first + n]] for n = 0 to count - 1,
+     *               arrays that are too small are replaced by larger arrays.
+     * @return target.
+     */
+    public static float[][] gather(float[][] source, int[] vertices, int first, int count, float[][] target) {
+        for (int component = 0; component < source.length; component++) {
+            if (target[component].length < count) target[component] = new float[count];
+            float[] sourceComponent = source[component];
+            float[] targetComponent = target[component];
+            for (int n = 0; n < count; n++) {
+                targetComponent[n] = sourceComponent[vertices[first + n]];
+            }
+        }
+        return target;
+    }
+
+    /**
+     * Transforms points: output = matrix * (x, y, z, 1). Only the first rowCount rows of the matrix are used,
+     * e.g. 4 for clip coordinates or 3 for a position in camera space.
+     *
+     * @param matrix 4x4 matrix in column-major order.
+     * @param first index of the first point in x, y and z.
+     * @param count number of points.
+     * @param output output: row r of the result is stored in output[firstOutputRow + r], starting at index 0.
+     */
+    public static void transformPoints(float[] matrix, float[] x, float[] y, float[] z, int first, int count,
+                                       float[][] output, int firstOutputRow, int rowCount) {
+        transform(matrix, x, y, z, first, count, output, firstOutputRow, rowCount, true);
+    }
+
+    /**
+     * Transforms vectors (e.g. normal vectors): output = matrix * (x, y, z, 0). Only the first rowCount rows of the matrix are used.
+     *
+     * @param matrix 4x4 matrix in column-major order.
+     * @param first index of the first vector in x, y and z.
+     * @param count number of vectors.
+     * @param output output: row r of the result is stored in output[firstOutputRow + r], starting at index 0.
+     */
+    public static void transformVectors(float[] matrix, float[] x, float[] y, float[] z, int first, int count,
+                                        float[][] output, int firstOutputRow, int rowCount) {
+        transform(matrix, x, y, z, first, count, output, firstOutputRow, rowCount, false);
+    }
+
+    private static void transform(float[] matrix, float[] x, float[] y, float[] z, int first, int count,
+                                  float[][] output, int firstOutputRow, int rowCount, boolean points) {
+        if (matrix.length != 16) throw new IllegalArgumentException("matrix.length != 16");
+        if (rowCount < 1 || rowCount > 4) throw new IllegalArgumentException("rowCount must be 1 to 4");
+
+        if (count <= TASK_SIZE) {
+            transformRange(matrix, x, y, z, first, 0, count, output, firstOutputRow, rowCount, points);
+            return;
+        }
+
+        int taskCount = (count + TASK_SIZE - 1)/TASK_SIZE;
+        IntStream.range(0, taskCount).parallel().forEach(task -> {
+            int start = task*TASK_SIZE;
+            int end = Math.min(start + TASK_SIZE, count);
+            transformRange(matrix, x, y, z, first, start, end, output, firstOutputRow, rowCount, points);
+        });
+    }
+
+    /**
+     * Transforms the vertices first + start to first + end - 1 and stores them at start to end - 1 in output.
+     */
+    private static void transformRange(float[] matrix, float[] x, float[] y, float[] z, int first, int start, int end,
+                                       float[][] output, int firstOutputRow, int rowCount, boolean points) {
+        for (int row = 0; row < rowCount; row++) {
+            float m0 = matrix[row];
+            float m1 = matrix[4 + row];
+            float m2 = matrix[8 + row];
+            float m3 = points ? matrix[12 + row] : 0;
+            float[] result = output[firstOutputRow + row];
+            //same order of operations as in the per-vertex shaders, so that the results are exactly equal.
+            for (int n = start; n < end; n++) {
+                result[n] = m0*x[first + n] + m1*y[first + n] + m2*z[first + n] + m3;
+            }
+        }
+    }
+}
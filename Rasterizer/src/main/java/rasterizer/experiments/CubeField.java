@@ -0,0 +1,510 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.experiments;
+
+import com.jogamp.opengl.GL3;
+import com.jogamp.opengl.GLAutoDrawable;
+import com.jogamp.opengl.GLEventListener;
+import com.jogamp.opengl.awt.GLCanvas;
+import com.jogamp.opengl.math.Matrix4;
+import rasterizer.geometry.Ribbon;
+import rasterizer.lighting.ClusteredLights;
+import rasterizer.lighting.PointLight;
+import rasterizer.scene.BoundingBox;
+import rasterizer.scene.RenderQueue;
+import rasterizer.scene.Scene;
+import rasterizer.scene.SceneObject;
+import rasterizer.util.CommandList;
+import rasterizer.util.GLResourceManager;
+import rasterizer.util.GLStateTracker;
+import rasterizer.util.MatrixUtils;
+import rasterizer.util.OpenGLUtils;
+import rasterizer.util.ResourceLoader;
+import rasterizer.util.Utils;
+
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+import javax.swing.border.EmptyBorder;
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.awt.event.KeyListener;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Uses OpenGL 3 to draw a large field of multi-colored cubes and rainbows.
+ * Only the objects inside the view frustum are drawn. These are found using a bounding volume hierarchy,
+ * so that the cost of a frame depends on the number of visible objects, not on the total number of objects.
+ * The cubes are lit by hundreds of colored point lights, using clustered forward shading (see ClusteredLights),
+ * so that each fragment only evaluates the lights that are near it.
+ * The field is divided into partitions, each with its own bounding volume hierarchy. The partitions are culled on multiple threads.
+ * The visible objects of all partitions are then sorted together, so that each shader program is used once per frame,
+ * and the sorted draw calls are turned into command lists on multiple threads. The rendering thread only replays the command lists.
+ *
+ * @author A.C. Kockx
+ */
+public final class CubeField {
+    private static final float MOVE_SPEED = 8;//units/second.
+    private static final float ROTATION_SPEED = 90;//degrees/second.
+    private static final float SPIN_SPEED = 60;//degrees/second.
+    private static final float FRAME_RATE = 30;//frames/second.
+    private static final float DELTA_T = 1/FRAME_RATE;//in seconds.
+    //the cubes spin by the time between frames, but at most this much, so that they do not jump after a pause.
+    private static final float MAX_FRAME_TIME = 0.25f;//in seconds.
+
+    private static final int GRID_SIZE = 100;//number of cubes in x and z direction.
+    private static final float GRID_SPACING = 3;
+    private static final int RIBBON_COUNT = 500;
+    //one in this many cubes spins, which changes its bounds every frame.
+    private static final int SPINNING_CUBE_RATIO = 10;
+    private static final int LIGHT_COUNT = 500;
+    //clusters for the lights: tiles on the screen in x and y direction and depth slices.
+    private static final int CLUSTER_COUNT_X = 16;
+    private static final int CLUSTER_COUNT_Y = 9;
+    private static final int CLUSTER_COUNT_Z = 24;
+    private static final int MAX_LIGHTS_PER_CLUSTER = 64;
+    //levels of detail of the rainbows that have not been used recently are evicted when this is exceeded.
+    private static final long VIDEO_MEMORY_BUDGET = 64L << 20;//bytes.
+    //shader programs in the sort keys of the render queue.
+    private static final int CUBE_PROGRAM = 0;
+    private static final int RIBBON_PROGRAM = 1;
+    //the field is divided into this many partitions in x and z direction.
+    private static final int PARTITION_GRID_SIZE = 4;
+
+    //intensity per color component (r, g, b) of the light above the camera.
+    private final float[] cameraLightIntensity = new float[]{10, 10, 10};
+    //ambient light intensity per color component (r, g, b).
+    private final float[] ambientLightIntensity = new float[]{0.1f, 0.15f, 0.2f};
+
+    //at any given moment this stores the keyCodes of the keys that are currently being pressed down.
+    private final Set<Integer> pressedKeys = Collections.synchronizedSet(new HashSet<>());
+    private final GLCanvas glCanvas;
+    private final JLabel label;
+
+    //current position and orientation of camera in world space.
+    private volatile float cameraX = 0;
+    private volatile float cameraZ = 0;
+    private volatile float cameraYaw = 0;//in degrees.
+
+    /**
+     * Part of the field, with its own scene. The work for each partition is done by a single thread at a time.
+     */
+    private static final class Partition {
+        private final Scene<Item> scene = new Scene<>();
+        private final List<SceneObject<Item>> spinningObjects = new ArrayList<>();
+        private final List<SceneObject<Item>> visibleObjects = new ArrayList<>();
+        //unsorted items for the visible objects, the values are indices in visibleObjects.
+        private final RenderQueue renderQueue = new RenderQueue(1024);
+        private int visibleCubeCount = 0;
+    }
+
+    /**
+     * Content of a scene object. Either a cube or a rainbow.
+     */
+    private static final class Item {
+        private final Ribbon ribbon;//null for a cube.
+        private final float x;
+        private final float y;
+        private final float z;
+        private final float spinSpeed;//degrees/second.
+        private float yaw;//in degrees.
+
+        private Item(Ribbon ribbon, float x, float y, float z, float yaw, float spinSpeed) {
+            this.ribbon = ribbon;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.yaw = yaw;
+            this.spinSpeed = spinSpeed;
+        }
+
+        private Matrix4 createModelMatrix() {
+            return MatrixUtils.createModelMatrix(x, y, z, yaw, 0, 0, 1, 1, 1);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new CubeField();
+    }
+
+    private CubeField() throws Exception {
+        //create OpenGL canvas.
+        glCanvas = OpenGLUtils.createGLCanvas(800, 600);
+        glCanvas.addGLEventListener(glEventListener);
+        label = new JLabel("UP/DOWN = move, LEFT/RIGHT = turn");
+
+        //init GUI on event-dispatching thread.
+        javax.swing.SwingUtilities.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                label.setBorder(new EmptyBorder(5, 5, 5, 5));
+                label.setForeground(Color.GREEN);
+                label.setBackground(Color.BLACK);
+                label.setOpaque(true);
+
+                JPanel panel = new JPanel(new BorderLayout());
+                panel.add(label, BorderLayout.NORTH);
+                panel.add(glCanvas, BorderLayout.CENTER);
+
+                Utils.createAndShowFrame(panel, CubeField.class.getSimpleName(), false);
+                glCanvas.addKeyListener(keyListener);
+                glCanvas.requestFocus();
+            }
+        });
+
+        //start interaction loop.
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        executor.scheduleAtFixedRate(interactionLoop, 0, (long) (1000*DELTA_T), TimeUnit.MILLISECONDS);
+    }
+
+    private final KeyListener keyListener = new KeyAdapter() {
+        @Override
+        public void keyPressed(KeyEvent e) {
+            pressedKeys.add(e.getExtendedKeyCode());
+        }
+
+        @Override
+        public void keyReleased(KeyEvent e) {
+            pressedKeys.remove(e.getExtendedKeyCode());
+        }
+    };
+
+    private final Runnable interactionLoop = new Runnable() {
+        @Override
+        public void run() {
+            if (pressedKeys.contains(KeyEvent.VK_RIGHT)) {//turn right.
+                cameraYaw -= ROTATION_SPEED*DELTA_T;
+            } else if (pressedKeys.contains(KeyEvent.VK_LEFT)) {//turn left.
+                cameraYaw += ROTATION_SPEED*DELTA_T;
+            }
+
+            //the camera looks in the direction of the negative z-axis when yaw is 0.
+            double yawInRadians = Math.toRadians(cameraYaw);
+            if (pressedKeys.contains(KeyEvent.VK_UP)) {//move forward.
+                cameraX -= MOVE_SPEED*DELTA_T*Math.sin(yawInRadians);
+                cameraZ -= MOVE_SPEED*DELTA_T*Math.cos(yawInRadians);
+            } else if (pressedKeys.contains(KeyEvent.VK_DOWN)) {//move backward.
+                cameraX += MOVE_SPEED*DELTA_T*Math.sin(yawInRadians);
+                cameraZ += MOVE_SPEED*DELTA_T*Math.cos(yawInRadians);
+            }
+
+            //always repaint, because some cubes spin.
+            glCanvas.repaint();
+        }
+    };
+
+    private final GLEventListener glEventListener = new GLEventListener() {
+        private int cubeShaderProgramId = -1;
+        private int cubeModelViewProjectionMatrixUniformIndex = -1;
+        private int cubeModelViewMatrixUniformIndex = -1;
+        private int cubeVertexArrayObjectId = -1;
+        private ClusteredLights clusteredLights = null;
+        private final List<PointLight> lights = new ArrayList<>();
+        private PointLight cameraLight = null;
+
+        private int ribbonShaderProgramId = -1;
+        private int ribbonMvpMatrixUniformIndex = -1;
+
+        private final GLStateTracker glState = new GLStateTracker();
+        private final GLResourceManager resources = new GLResourceManager(VIDEO_MEMORY_BUDGET);
+        private long previousElidedCallCount = 0;
+
+        private final Partition[] partitions = new Partition[PARTITION_GRID_SIZE*PARTITION_GRID_SIZE];
+        //visible objects of all partitions and their items, sorted together.
+        private final List<SceneObject<Item>> visibleObjects = new ArrayList<>();
+        private final RenderQueue renderQueue = new RenderQueue(4096);
+        //the sorted items are divided into consecutive ranges, one command list per range.
+        private final CommandList[] commandLists = new CommandList[PARTITION_GRID_SIZE*PARTITION_GRID_SIZE];
+        private long previousFrameTime = -1;//in nanoseconds.
+        private Matrix4 projectionMatrix = null;
+        private int viewportWidth = 1;
+        private int viewportHeight = 1;
+
+        @Override
+        public void init(GLAutoDrawable drawable) {
+            GL3 gl = drawable.getGL().getGL3();
+            gl.glClearColor(0, 0, 0, 1);
+            gl.glEnable(GL3.GL_DEPTH_TEST);
+
+            //create shaders.
+            ResourceLoader loader = new ResourceLoader("/rasterizer/shaders/");
+            String phongVertexShaderSource;
+            String clusteredPhongFragmentShaderSource;
+            String uvVertexShaderSource;
+            String gradientFragmentShaderSource;
+            try {
+                phongVertexShaderSource = Utils.read(loader.loadResource("phong_vertex_shader.glsl"));
+                clusteredPhongFragmentShaderSource = Utils.read(loader.loadResource("clustered_phong_fragment_shader.glsl"));
+                uvVertexShaderSource = Utils.read(loader.loadResource("uv_vertex_shader.glsl"));
+                gradientFragmentShaderSource = Utils.read(loader.loadResource("color_gradient_fragment_shader.glsl"));
+            } catch (Exception e) {
+                throw new RuntimeException("Error while loading shader source: " + e.getMessage(), e);
+            }
+
+            cubeShaderProgramId = resources.createShaderProgram(gl,
+                    new int[]{GL3.GL_VERTEX_SHADER, GL3.GL_FRAGMENT_SHADER}, new String[]{phongVertexShaderSource, clusteredPhongFragmentShaderSource},
+                    new String[]{OpenGLUtils.VERTEX_POSITION, OpenGLUtils.VERTEX_NORMAL, OpenGLUtils.VERTEX_COLOR});
+            cubeModelViewProjectionMatrixUniformIndex = glState.getUniformLocation(gl, cubeShaderProgramId, OpenGLUtils.MODEL_VIEW_PROJECTION_MATRIX);
+            cubeModelViewMatrixUniformIndex = glState.getUniformLocation(gl, cubeShaderProgramId, OpenGLUtils.MODEL_VIEW_MATRIX);
+            glState.useProgram(gl, cubeShaderProgramId);
+            glState.uniform1f(gl, glState.getUniformLocation(gl, cubeShaderProgramId, OpenGLUtils.SPECULAR_REFLECTION_COEFFICIENT), 0.9f);
+            glState.uniform1f(gl, glState.getUniformLocation(gl, cubeShaderProgramId, OpenGLUtils.SHININESS), 15);
+            glState.uniform3fv(gl, glState.getUniformLocation(gl, cubeShaderProgramId, OpenGLUtils.AMBIENT_LIGHT_INTENSITY), ambientLightIntensity);
+
+            ribbonShaderProgramId = resources.createShaderProgram(gl,
+                    new int[]{GL3.GL_VERTEX_SHADER, GL3.GL_FRAGMENT_SHADER}, new String[]{uvVertexShaderSource, gradientFragmentShaderSource},
+                    new String[]{OpenGLUtils.VERTEX_POSITION, OpenGLUtils.VERTEX_UV_COORDINATES});
+            ribbonMvpMatrixUniformIndex = glState.getUniformLocation(gl, ribbonShaderProgramId, OpenGLUtils.MODEL_VIEW_PROJECTION_MATRIX);
+            glState.useProgram(gl, ribbonShaderProgramId);
+            Rainbow.setGradientUniforms(gl, glState, ribbonShaderProgramId);
+
+            //create geometry.
+            cubeVertexArrayObjectId = resources.createVertexArray(gl, new int[]{MultiColoredCube.dimensionCount, MultiColoredCube.dimensionCount, MultiColoredCube.dimensionCount},
+                    new float[][]{MultiColoredCube.getCubeCoordinates(), MultiColoredCube.getCubeNormalVectors(), MultiColoredCube.getCubeColors()});
+            BoundingBox cubeBounds = BoundingBox.fromPoints(MultiColoredCube.getCubeCoordinates());
+            //all rainbows share the same geometry, but each rainbow uses the level of detail that matches its own size on the screen.
+            Ribbon rainbow = Rainbow.createRainbow();
+            BoundingBox rainbowBounds = BoundingBox.fromSphere(rainbow.getBoundingSphereCenter(), rainbow.getBoundingSphereRadius());
+
+            //create scene.
+            for (int n = 0; n < partitions.length; n++) {
+                partitions[n] = new Partition();
+            }
+            for (int n = 0; n < commandLists.length; n++) {
+                commandLists[n] = new CommandList();
+            }
+            Random random = new Random(0);
+            float gridOffset = -GRID_SIZE*GRID_SPACING/2;
+            for (int i = 0; i < GRID_SIZE; i++) {
+                for (int j = 0; j < GRID_SIZE; j++) {
+                    boolean spinning = random.nextInt(SPINNING_CUBE_RATIO) == 0;
+                    Item cube = new Item(null, gridOffset + i*GRID_SPACING, 0, gridOffset + j*GRID_SPACING, random.nextFloat()*360, spinning ? SPIN_SPEED : 0);
+                    SceneObject<Item> object = new SceneObject<>(cube, cubeBounds, cube.createModelMatrix());
+                    Partition partition = getPartition(cube, gridOffset);
+                    partition.scene.add(object);
+                    if (spinning) partition.spinningObjects.add(object);
+                }
+            }
+            for (int n = 0; n < RIBBON_COUNT; n++) {
+                Item ribbon = new Item(rainbow, gridOffset + random.nextFloat()*GRID_SIZE*GRID_SPACING, 2,
+                        gridOffset + random.nextFloat()*GRID_SIZE*GRID_SPACING, random.nextFloat()*360, 0);
+                getPartition(ribbon, gridOffset).scene.add(new SceneObject<>(ribbon, rainbowBounds, ribbon.createModelMatrix()));
+            }
+
+            //create lights with random colors between the cubes, and one light that moves with the camera.
+            clusteredLights = new ClusteredLights(gl, CLUSTER_COUNT_X, CLUSTER_COUNT_Y, CLUSTER_COUNT_Z, MAX_LIGHTS_PER_CLUSTER);
+            for (int n = 0; n < LIGHT_COUNT; n++) {
+                Color color = Color.getHSBColor(random.nextFloat(), 1, 1);
+                float[] intensity = color.getRGBColorComponents(null);
+                for (int component = 0; component < 3; component++) {
+                    intensity[component] *= 3;
+                }
+                lights.add(new PointLight(gridOffset + random.nextFloat()*GRID_SIZE*GRID_SPACING, 1 + random.nextFloat(),
+                        gridOffset + random.nextFloat()*GRID_SIZE*GRID_SPACING, intensity));
+            }
+            cameraLight = new PointLight(0, 4, 0, cameraLightIntensity);
+            lights.add(cameraLight);
+
+            //createVertexArray and ClusteredLights change the tracked state directly.
+            glState.invalidate();
+
+            int error = gl.glGetError();
+            if (error != 0) System.err.println("Error during initialization: " + error);
+        }
+
+        @Override
+        public void reshape(GLAutoDrawable drawable, int x, int y, int width, int height) {
+            //calculate aspect ratio.
+            if (width <= 0) width = 1;//to avoid divide by zero.
+            if (height <= 0) height = 1;//to avoid divide by zero.
+            float aspectRatio = width/((float) height);
+            viewportWidth = width;
+            viewportHeight = height;
+
+            //(re)initialize projection matrix.
+            projectionMatrix = MatrixUtils.createPerspectiveProjectionMatrix(60, aspectRatio, 0.1f, 200);
+            clusteredLights.setProjection(60, aspectRatio, 0.1f, 200);
+        }
+
+        @Override
+        public void display(GLAutoDrawable drawable) {
+            GL3 gl = drawable.getGL().getGL3();
+            gl.glClear(GL3.GL_COLOR_BUFFER_BIT | GL3.GL_DEPTH_BUFFER_BIT);
+
+            //spin the cubes by the time since the previous frame, which may differ from the frame rate of the interaction loop.
+            long frameTime = System.nanoTime();
+            float deltaT = previousFrameTime < 0 ? 0 : Math.min((frameTime - previousFrameTime)/1e9f, MAX_FRAME_TIME);
+            previousFrameTime = frameTime;
+
+            //cull each partition, on multiple threads.
+            Matrix4 viewMatrix = MatrixUtils.createViewMatrix(cameraX, 1.5f, cameraZ, cameraYaw, 0, 0);
+            Matrix4 viewProjectionMatrix = MatrixUtils.multiply(projectionMatrix, viewMatrix);
+            IntStream.range(0, partitions.length).parallel().forEach(n -> cullPartition(partitions[n], deltaT, viewMatrix, viewProjectionMatrix));
+
+            //sort the visible objects of all partitions together, so that each shader program is only used once.
+            visibleObjects.clear();
+            renderQueue.clear();
+            int visibleCubeCount = 0;
+            int objectCount = 0;
+            for (Partition partition : partitions) {
+                int offset = visibleObjects.size();
+                visibleObjects.addAll(partition.visibleObjects);
+                RenderQueue partitionQueue = partition.renderQueue;
+                for (int n = 0; n < partitionQueue.getCount(); n++) {
+                    renderQueue.submit(partitionQueue.getKey(n), offset + partitionQueue.getValue(n));
+                }
+                visibleCubeCount += partition.visibleCubeCount;
+                objectCount += partition.scene.getObjects().size();
+            }
+            renderQueue.sort();
+
+            //record the draw calls of consecutive ranges of the sorted items, on multiple threads.
+            int itemCount = renderQueue.getCount();
+            IntStream.range(0, commandLists.length).parallel().forEach(n -> recordCommands(commandLists[n],
+                    n*itemCount/commandLists.length, (n + 1)*itemCount/commandLists.length, viewMatrix, viewProjectionMatrix));
+
+            //assign lights to clusters.
+            cameraLight.setPosition(cameraX, 4, cameraZ);
+            clusteredLights.update(gl, viewMatrix, lights);
+
+            //draw visible objects. The uniforms for the lights are set once, the command lists only switch between the shader programs.
+            //each command list starts with the shader program of its first item, which is skipped by glState if it is already in use.
+            clusteredLights.bind(gl, glState, cubeShaderProgramId, 0, viewportWidth, viewportHeight);
+            for (CommandList commandList : commandLists) {
+                commandList.replay(gl, glState, new CommandList.Callback() {
+                    @Override
+                    public void call(GL3 gl, int id, int argument) {
+                        //the ribbon uploads the geometry for the level of detail if needed, which can only be done on this thread.
+                        visibleObjects.get(id).getContent().ribbon.draw(gl, glState, resources, argument);
+                    }
+                });
+            }
+
+            int error = gl.glGetError();
+            if (error != 0) System.err.println("Error during rendering: " + error);
+
+            long elidedCallCount = glState.getElidedCallCount() - previousElidedCallCount;
+            previousElidedCallCount = glState.getElidedCallCount();
+            String text = "UP/DOWN = move, LEFT/RIGHT = turn, visible cubes: " + visibleCubeCount + ", visible rainbows: "
+                          + (visibleObjects.size() - visibleCubeCount) + ", total objects: " + objectCount
+                          + ", lights: " + lights.size() + " (at most " + clusteredLights.getMaxClusterLightCount() + " per cluster)"
+                          + ", redundant GL calls skipped: " + elidedCallCount
+                          + ", video memory: " + (resources.getTotalSize() >> 10) + " KB";
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    label.setText(text);
+                }
+            });
+        }
+
+        /**
+         * Updates the spinning cubes in the given partition, finds its visible objects and submits them (unsorted) to its render queue.
+         * Does not use OpenGL, so that this can be called for multiple partitions at the same time.
+         *
+         * @param deltaT time since the previous frame in seconds.
+         */
+        private void cullPartition(Partition partition, float deltaT, Matrix4 viewMatrix, Matrix4 viewProjectionMatrix) {
+            //update spinning cubes. This only refits the parts of the hierarchy that contain these cubes.
+            for (SceneObject<Item> object : partition.spinningObjects) {
+                Item cube = object.getContent();
+                cube.yaw += cube.spinSpeed*deltaT;
+                partition.scene.setModelMatrix(object, cube.createModelMatrix());
+            }
+
+            //find visible objects.
+            List<SceneObject<Item>> visibleObjects = partition.visibleObjects;
+            visibleObjects.clear();
+            partition.scene.collectVisibleObjects(viewProjectionMatrix, visibleObjects);
+
+            //the items are sorted by shader program, geometry (the level of detail for rainbows) and depth,
+            //so that the objects are drawn front to back with as few state changes as possible.
+            RenderQueue renderQueue = partition.renderQueue;
+            renderQueue.clear();
+            float[] view = viewMatrix.getMatrix();
+            partition.visibleCubeCount = 0;
+            for (int index = 0; index < visibleObjects.size(); index++) {
+                SceneObject<Item> object = visibleObjects.get(index);
+                Item item = object.getContent();
+                //view space depth of the center of the object.
+                float depth = -(view[2]*item.x + view[6]*item.y + view[10]*item.z + view[14]);
+                if (item.ribbon == null) {
+                    renderQueue.submit(RenderQueue.createKey(0, CUBE_PROGRAM, 0, depth, false), index);
+                    partition.visibleCubeCount++;
+                } else {
+                    Matrix4 mvpMatrix = MatrixUtils.multiply(viewProjectionMatrix, object.getModelMatrix());
+                    int level = item.ribbon.selectLevel(mvpMatrix, viewportWidth, viewportHeight);
+                    renderQueue.submit(RenderQueue.createKey(0, RIBBON_PROGRAM, level, depth, false), index);
+                }
+            }
+        }
+
+        /**
+         * Records the commands to draw the sorted items from fromIndex (inclusive) to toIndex (exclusive) in the given command list.
+         * Does not use OpenGL, so that this can be called for multiple ranges at the same time.
+         */
+        private void recordCommands(CommandList commandList, int fromIndex, int toIndex, Matrix4 viewMatrix, Matrix4 viewProjectionMatrix) {
+            commandList.clear();
+            renderQueue.replay(new RenderQueue.DrawHandler() {
+                @Override
+                public void setProgram(int pass, int program) {
+                    if (program == CUBE_PROGRAM) {
+                        commandList.useProgram(cubeShaderProgramId);
+                        commandList.bindVertexArray(cubeVertexArrayObjectId);
+                    } else {
+                        commandList.useProgram(ribbonShaderProgramId);
+                    }
+                }
+
+                @Override
+                public void setGeometry(int geometry) {
+                    //the ribbon binds the vertex array of its level of detail itself.
+                }
+
+                @Override
+                public void draw(long key, int value) {
+                    SceneObject<Item> object = visibleObjects.get(value);
+                    if (RenderQueue.getProgram(key) == CUBE_PROGRAM) {
+                        Matrix4 modelViewMatrix = MatrixUtils.multiply(viewMatrix, object.getModelMatrix());
+                        commandList.uniformMatrix4fv(cubeModelViewMatrixUniformIndex, modelViewMatrix.getMatrix());
+                        Matrix4 modelViewProjectionMatrix = MatrixUtils.multiply(projectionMatrix, modelViewMatrix);
+                        commandList.uniformMatrix4fv(cubeModelViewProjectionMatrixUniformIndex, modelViewProjectionMatrix.getMatrix());
+                        for (int face = 0; face < 6; face++) {
+                            commandList.drawArrays(GL3.GL_TRIANGLE_STRIP, face*4, 4);
+                        }
+                    } else {
+                        Matrix4 mvpMatrix = MatrixUtils.multiply(viewProjectionMatrix, object.getModelMatrix());
+                        commandList.uniformMatrix4fv(ribbonMvpMatrixUniformIndex, mvpMatrix.getMatrix());
+                        commandList.call(value, RenderQueue.getGeometry(key));
+                    }
+                }
+            }, fromIndex, toIndex);
+        }
+
+        private Partition getPartition(Item item, float gridOffset) {
+            float fieldSize = GRID_SIZE*GRID_SPACING;
+            int i = Math.max(0, Math.min((int) ((item.x - gridOffset)/fieldSize*PARTITION_GRID_SIZE), PARTITION_GRID_SIZE - 1));
+            int j = Math.max(0, Math.min((int) ((item.z - gridOffset)/fieldSize*PARTITION_GRID_SIZE), PARTITION_GRID_SIZE - 1));
+            return partitions[i*PARTITION_GRID_SIZE + j];
+        }
+
+        @Override
+        public void dispose(GLAutoDrawable drawable) {
+            GL3 gl = drawable.getGL().getGL3();
+            clusteredLights.dispose(gl);
+            resources.dispose(gl);
+        }
+    };
+}
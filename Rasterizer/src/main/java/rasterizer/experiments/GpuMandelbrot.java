@@ -6,8 +6,15 @@ package rasterizer.experiments;
 import com.jogamp.opengl.GL3;
 import com.jogamp.opengl.GLAutoDrawable;
 import com.jogamp.opengl.GLEventListener;
+import com.jogamp.opengl.GLRunnable;
 import com.jogamp.opengl.awt.GLCanvas;
 import com.jogamp.opengl.math.Matrix4;
+import rasterizer.fractal.MandelbrotView;
+import rasterizer.fractal.ZoomAnimation;
+import rasterizer.output.FrameStreamServer;
+import rasterizer.util.DoubleFloat;
+import rasterizer.util.GLResourceManager;
+import rasterizer.util.GLStateTracker;
 import rasterizer.util.OpenGLUtils;
 import rasterizer.util.ResourceLoader;
 import rasterizer.util.Utils;
@@ -20,6 +27,7 @@ import java.awt.Color;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
+import java.net.InetSocketAddress;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
@@ -31,6 +39,21 @@ import java.util.concurrent.TimeUnit;
  * Draws the Mandelbrot set on the screen using OpenGL 3.
  * All calculations are performed by the GPU using a fragment shader.
  *
+ * Beyond a magnification of about 10^4 the precision of 32-bit floats is not enough to distinguish neighbouring pixels.
+ * From DOUBLE_FLOAT_MAGNIFICATION on a shader is used that emulates higher precision using pairs of floats (double-floats),
+ * which works up to a magnification of about 10^13 without needing double precision support on the GPU.
+ * This shader needs GLSL 4.00 (see mandelbrot_double_float_fragment_shader.glsl), without it deep zooms are drawn with float precision.
+ *
+ * With anti-aliasing on (key E), the image is first rendered to a texture with one sample per pixel. Then only the pixels
+ * whose color differs from that of a neighbouring pixel (the edges between iteration bands and of the set itself)
+ * are sampled again with EDGE_SAMPLE_COUNT jittered samples. For typical views this costs 2 to 4 times as much as
+ * a single sample per pixel (more for views that consist mostly of edges), instead of EDGE_SAMPLE_COUNT times as much.
+ *
+ * With --stream port the frames are also streamed over HTTP, so that the experiment can be viewed and controlled
+ * from a web browser (see FrameStreamServer). Only connections from the same machine are accepted, unless --remote is given.
+ *
+ * Usage: GpuMandelbrot [--stream port [--remote]]
+ *
  * @author A.C. Kockx
  */
 public final class GpuMandelbrot {
@@ -38,33 +61,74 @@ public final class GpuMandelbrot {
     private static final float ZOOM_SPEED = 4;//ratio/second.
     private static final float FRAME_RATE = 30;//frames/second.
     private static final float DELTA_T = 1/FRAME_RATE;//in seconds.
+    //number of samples per edge pixel for anti-aliasing, must be a square number.
+    static final int EDGE_SAMPLE_COUNT = 16;
+    private static final long VIDEO_MEMORY_BUDGET = 64L << 20;//bytes.
+    //magnification from which the double-float shader is used.
+    static final double DOUBLE_FLOAT_MAGNIFICATION = 1e4;
 
     //normalized device coordinates (x, y, z) of quad corners.
-    private final float[] vertexCoordinates = new float[]{-1, -1, 0,
-                                                           1, -1, 0,
-                                                          -1,  1, 0,
-                                                           1,  1, 0};
+    private static final float[] vertexCoordinates = new float[]{-1, -1, 0,
+                                                                  1, -1, 0,
+                                                                 -1,  1, 0,
+                                                                  1,  1, 0};
     //initial u,v-coordinates of quad corners.
-    private final float[] vertexUVCoordinates = new float[]{-2, -2,
-                                                             2, -2,
-                                                            -2,  2,
-                                                             2,  2};
+    private static final float[] vertexUVCoordinates = new float[]{-2, -2,
+                                                                    2, -2,
+                                                                   -2,  2,
+                                                                    2,  2};
 
     //at any given moment this stores the keyCodes of the keys that are currently being pressed down.
     private final Set<Integer> pressedKeys = Collections.synchronizedSet(new HashSet<>());
     private final GLCanvas glCanvas;
+    //null if frames are not streamed.
+    private final FrameStreamServer streamServer;
+    private JLabel label;
 
     //current coordinates of view in fractal space.
-    private float u = -0.5f;
-    private float v = 0;
-    private float magnification = 1;
+    private double u = -0.5;
+    private double v = 0;
+    private double magnification = 1;
     private float aspectRatio = 1;
+    //time at which the first keyframe was printed, -1 if no keyframe was printed yet.
+    private long firstKeyframeTime = -1;
+    private volatile boolean antiAliasingEnabled = true;
+    //false if the OpenGL context does not support the double-float shader.
+    private volatile boolean doubleFloatSupported = true;
 
     public static void main(String[] args) throws Exception {
-        new GpuMandelbrot();
+        int streamPort = -1;
+        boolean remoteStreamingEnabled = false;
+        for (int index = 0; index < args.length; index++) {
+            if ("--stream".equals(args[index]) && index + 1 < args.length) {
+                index++;
+                streamPort = Integer.parseInt(args[index]);
+            } else if ("--remote".equals(args[index])) {
+                remoteStreamingEnabled = true;
+            } else {
+                System.err.println("Usage: " + GpuMandelbrot.class.getSimpleName() + " [--stream port [--remote]]");
+                System.exit(1);
+            }
+        }
+
+        new GpuMandelbrot(streamPort, remoteStreamingEnabled);
     }
 
-    private GpuMandelbrot() throws Exception {
+    /**
+     * @param streamPort port for FrameStreamServer, or -1 to not stream frames.
+     * @param remoteStreamingEnabled true to accept stream connections from other machines.
+     */
+    private GpuMandelbrot(int streamPort, boolean remoteStreamingEnabled) throws Exception {
+        //start stream server.
+        if (streamPort >= 0) {
+            InetSocketAddress address = FrameStreamServer.createAddress(streamPort, remoteStreamingEnabled);
+            streamServer = new FrameStreamServer(address, GpuMandelbrot.class.getSimpleName(), remoteKeyInput);
+            System.out.println("Streaming frames on http://localhost:" + streamServer.getPort() + "/"
+                    + (remoteStreamingEnabled ? ", also accessible from other machines" : ""));
+        } else {
+            streamServer = null;
+        }
+
         //create OpenGL canvas.
         glCanvas = OpenGLUtils.createGLCanvas(800, 600);
         glCanvas.addGLEventListener(glEventListener);
@@ -73,7 +137,7 @@ public final class GpuMandelbrot {
         javax.swing.SwingUtilities.invokeAndWait(new Runnable() {
             @Override
             public void run() {
-                JLabel label = new JLabel("W = zoom in, S = zoom out, ARROW KEYS = move around");
+                label = new JLabel(getLabelText());
                 label.setBorder(new EmptyBorder(5, 5, 5, 5));
                 label.setForeground(Color.GREEN);
                 label.setBackground(Color.BLACK);
@@ -94,10 +158,28 @@ public final class GpuMandelbrot {
         executor.scheduleAtFixedRate(interactionLoop, 0, (long) (1000*DELTA_T), TimeUnit.MILLISECONDS);
     }
 
+    /**
+     * Creates the experiment without a window for the given view, so that it can be rendered offscreen with the GLEventListener
+     * from getGLEventListener, e.g. by a regression test.
+     */
+    GpuMandelbrot(double u, double v, double magnification, boolean antiAliasingEnabled) {
+        glCanvas = null;
+        streamServer = null;
+        this.u = u;
+        this.v = v;
+        this.magnification = magnification;
+        this.antiAliasingEnabled = antiAliasingEnabled;
+    }
+
+    GLEventListener getGLEventListener() {
+        return glEventListener;
+    }
+
     private final KeyListener keyListener = new KeyAdapter() {
         @Override
         public void keyPressed(KeyEvent e) {
             pressedKeys.add(e.getExtendedKeyCode());
+            handleKeyCommand(e.getKeyCode());
         }
 
         @Override
@@ -106,6 +188,35 @@ public final class GpuMandelbrot {
         }
     };
 
+    //key presses from remote viewers, handled in the same way as those of keyListener.
+    private final FrameStreamServer.KeyInput remoteKeyInput = new FrameStreamServer.KeyInput() {
+        @Override
+        public void keyPressed(int keyCode) {
+            pressedKeys.add(keyCode);
+            handleKeyCommand(keyCode);
+        }
+
+        @Override
+        public void keyReleased(int keyCode) {
+            pressedKeys.remove(keyCode);
+        }
+    };
+
+    /**
+     * Handles keys that trigger an action when pressed, instead of while they are held down. Called on the event-dispatching thread.
+     */
+    private void handleKeyCommand(int keyCode) {
+        if (keyCode == KeyEvent.VK_K) {//print current view as a keyframe for ZoomAnimation.
+            long time = System.nanoTime();
+            if (firstKeyframeTime == -1) firstKeyframeTime = time;
+            System.out.println(new ZoomAnimation.Keyframe((time - firstKeyframeTime)/1e9, u, v, magnification));
+        } else if (keyCode == KeyEvent.VK_E) {//toggle anti-aliasing.
+            antiAliasingEnabled = !antiAliasingEnabled;
+            label.setText(getLabelText());
+            glCanvas.repaint();
+        }
+    }
+
     private final Runnable interactionLoop = new Runnable() {
         @Override
         public void run() {
@@ -134,15 +245,48 @@ public final class GpuMandelbrot {
                 viewDirty = true;
             }
 
-            if (viewDirty) glCanvas.repaint();
+            if (viewDirty) {
+                javax.swing.SwingUtilities.invokeLater(() -> label.setText(getLabelText()));
+                glCanvas.repaint();
+            } else if (streamServer != null && streamServer.hasPendingFrames()) {
+                glCanvas.invoke(false, flushStream);
+            }
+        }
+    };
+
+    //publishes the last captured frames to the stream, after which nothing is rendered until the view changes.
+    private final GLRunnable flushStream = new GLRunnable() {
+        @Override
+        public boolean run(GLAutoDrawable drawable) {
+            streamServer.flush(drawable.getGL().getGL3());
+            return true;
         }
     };
 
+    private String getLabelText() {
+        String precision = magnification >= DOUBLE_FLOAT_MAGNIFICATION && doubleFloatSupported ? "double-float" : "float";
+        return String.format("W = zoom in, S = zoom out, ARROW KEYS = move around, K = print keyframe, E = anti-aliasing (%s)    magnification: %.3g (%s)",
+                antiAliasingEnabled ? "on" : "off", magnification, precision);
+    }
+
     private final GLEventListener glEventListener = new GLEventListener() {
         private int shaderId = -1;
         private int mvpMatrixUniformIndex = -1;
         private int textureMatrixUniformIndex = -1;
+        private int doubleFloatShaderId = -1;
+        private int doubleFloatMvpMatrixUniformIndex = -1;
+        private int doubleFloatTextureMatrixUniformIndex = -1;
+        private int centerHiUniformIndex = -1;
+        private int centerLoUniformIndex = -1;
+        private int maxIterationCountUniformIndex = -1;
         private int quadId = -1;
+        //texture that the first pass is rendered to for anti-aliasing, and the framebuffer that it is attached to.
+        private int firstPassTextureId = -1;
+        private int framebufferId = -1;
+        //framebuffer of the drawable (0 for a window, but not for an offscreen drawable), recorded in method reshape.
+        private int screenFramebufferId = 0;
+        private final GLStateTracker glState = new GLStateTracker();
+        private final GLResourceManager resources = new GLResourceManager(VIDEO_MEMORY_BUDGET);
 
         @Override
         public void init(GLAutoDrawable drawable) {
@@ -153,20 +297,53 @@ public final class GpuMandelbrot {
             ResourceLoader loader = new ResourceLoader("/rasterizer/shaders/");
             String vertexShaderSource;
             String fragmentShaderSource;
+            String doubleFloatFragmentShaderSource;
+            String edgeSamplingFragmentShaderSource;
             try {
                 vertexShaderSource = Utils.read(loader.loadResource("uv_vertex_shader.glsl"));
+                edgeSamplingFragmentShaderSource = Utils.read(loader.loadResource("mandelbrot_edge_sampling_fragment_shader.glsl"));
                 fragmentShaderSource = Utils.read(loader.loadResource("mandelbrot_fragment_shader.glsl"));
+                doubleFloatFragmentShaderSource = Utils.read(loader.loadResource("mandelbrot_double_float_fragment_shader.glsl"));
             } catch (Exception e) {
                 throw new RuntimeException("Error while loading shader source: " + e.getMessage(), e);
             }
-            shaderId = OpenGLUtils.createShaderProgram(gl,
-                    new int[]{GL3.GL_VERTEX_SHADER, GL3.GL_FRAGMENT_SHADER}, new String[]{vertexShaderSource, fragmentShaderSource},
+            //both fragment shaders only define getColor, the edge sampling fragment shader that calls it is linked with each of them.
+            shaderId = resources.createShaderProgram(gl,
+                    new int[]{GL3.GL_VERTEX_SHADER, GL3.GL_FRAGMENT_SHADER, GL3.GL_FRAGMENT_SHADER},
+                    new String[]{vertexShaderSource, fragmentShaderSource, edgeSamplingFragmentShaderSource},
                     new String[]{OpenGLUtils.VERTEX_POSITION, OpenGLUtils.VERTEX_UV_COORDINATES});
-            mvpMatrixUniformIndex = gl.glGetUniformLocation(shaderId, OpenGLUtils.MODEL_VIEW_PROJECTION_MATRIX);
-            textureMatrixUniformIndex = gl.glGetUniformLocation(shaderId, OpenGLUtils.TEXTURE_MATRIX);
+            mvpMatrixUniformIndex = glState.getUniformLocation(gl, shaderId, OpenGLUtils.MODEL_VIEW_PROJECTION_MATRIX);
+            textureMatrixUniformIndex = glState.getUniformLocation(gl, shaderId, OpenGLUtils.TEXTURE_MATRIX);
+            //the double-float shader needs the precise qualifier of GLSL 4.00.
+            doubleFloatSupported = drawable.getContext().getGLSLVersionNumber().getMajor() >= 4;
+            if (doubleFloatSupported) {
+                doubleFloatShaderId = resources.createShaderProgram(gl,
+                        new int[]{GL3.GL_VERTEX_SHADER, GL3.GL_FRAGMENT_SHADER, GL3.GL_FRAGMENT_SHADER},
+                        new String[]{vertexShaderSource, doubleFloatFragmentShaderSource, edgeSamplingFragmentShaderSource},
+                        new String[]{OpenGLUtils.VERTEX_POSITION, OpenGLUtils.VERTEX_UV_COORDINATES});
+                doubleFloatMvpMatrixUniformIndex = glState.getUniformLocation(gl, doubleFloatShaderId, OpenGLUtils.MODEL_VIEW_PROJECTION_MATRIX);
+                doubleFloatTextureMatrixUniformIndex = glState.getUniformLocation(gl, doubleFloatShaderId, OpenGLUtils.TEXTURE_MATRIX);
+                centerHiUniformIndex = glState.getUniformLocation(gl, doubleFloatShaderId, "centerHi");
+                centerLoUniformIndex = glState.getUniformLocation(gl, doubleFloatShaderId, "centerLo");
+                maxIterationCountUniformIndex = glState.getUniformLocation(gl, doubleFloatShaderId, "maxIterationCount");
+            } else {
+                System.err.println("GLSL " + drawable.getContext().getGLSLVersionString() + " does not support the double-float shader (needs GLSL 4.00),"
+                        + " magnifications from " + DOUBLE_FLOAT_MAGNIFICATION + " on are drawn with float precision");
+            }
 
             //create geometry (a quad that spans the entire screen).
-            quadId = OpenGLUtils.createVertexArray(gl, new int[]{3, 2}, new float[][]{vertexCoordinates, vertexUVCoordinates});
+            quadId = resources.createVertexArray(gl, new int[]{3, 2}, new float[][]{vertexCoordinates, vertexUVCoordinates});
+
+            //create framebuffer for the first pass (the texture is (re)allocated in method reshape).
+            firstPassTextureId = resources.createTexture(gl);
+            gl.glBindTexture(GL3.GL_TEXTURE_2D, firstPassTextureId);
+            gl.glTexParameteri(GL3.GL_TEXTURE_2D, GL3.GL_TEXTURE_MIN_FILTER, GL3.GL_NEAREST);
+            gl.glTexParameteri(GL3.GL_TEXTURE_2D, GL3.GL_TEXTURE_MAG_FILTER, GL3.GL_NEAREST);
+            gl.glBindTexture(GL3.GL_TEXTURE_2D, 0);
+            framebufferId = resources.createFramebuffer(gl);
+
+            //the state was changed directly above.
+            glState.invalidate();
 
             int error = gl.glGetError();
             if (error != 0) System.err.println("Error during initialization: " + error);
@@ -178,6 +355,17 @@ public final class GpuMandelbrot {
             if (width <= 0) width = 1;//to avoid divide by zero.
             if (height <= 0) height = 1;//to avoid divide by zero.
             aspectRatio = width/((float) height);
+            //the framebuffer of an offscreen drawable can be replaced when it is resized.
+            screenFramebufferId = drawable.getContext().getDefaultDrawFramebuffer();
+
+            //(re)allocate first pass texture, it has the same size as the viewport.
+            GL3 gl = drawable.getGL().getGL3();
+            resources.setTextureImage2D(gl, firstPassTextureId, GL3.GL_RGBA8, width, height, GL3.GL_RGBA, GL3.GL_UNSIGNED_BYTE, 4);
+            gl.glBindFramebuffer(GL3.GL_FRAMEBUFFER, framebufferId);
+            gl.glFramebufferTexture2D(GL3.GL_FRAMEBUFFER, GL3.GL_COLOR_ATTACHMENT0, GL3.GL_TEXTURE_2D, firstPassTextureId, 0);
+            int status = gl.glCheckFramebufferStatus(GL3.GL_FRAMEBUFFER);
+            if (status != GL3.GL_FRAMEBUFFER_COMPLETE) System.err.println("First pass framebuffer status: " + status);
+            gl.glBindFramebuffer(GL3.GL_FRAMEBUFFER, screenFramebufferId);
         }
 
         @Override
@@ -186,17 +374,49 @@ public final class GpuMandelbrot {
             gl.glClear(GL3.GL_COLOR_BUFFER_BIT | GL3.GL_DEPTH_BUFFER_BIT);
 
             //draw quad.
-            gl.glUseProgram(shaderId);
             //vertex coordinates are normalized device coordinates, so model-view-projection matrix is equal to the identity matrix.
             Matrix4 mvpMatrix = new Matrix4();
-            gl.glUniformMatrix4fv(mvpMatrixUniformIndex, 1, false, mvpMatrix.getMatrix(), 0);
-            //transformation matrix for u,v-coordinates in column-major order.
-            float[] textureMatrix = {aspectRatio/magnification,               0, 0,
-                                                             0, 1/magnification, 0,
-                                                             u,               v, 1};
-            gl.glUniformMatrix3fv(textureMatrixUniformIndex, 1, false, textureMatrix, 0);
-            gl.glBindVertexArray(quadId);
-            gl.glDrawArrays(GL3.GL_TRIANGLE_STRIP, 0, 4);
+            int programId;
+            if (magnification < DOUBLE_FLOAT_MAGNIFICATION || !doubleFloatSupported) {
+                programId = shaderId;
+                glState.useProgram(gl, shaderId);
+                glState.uniformMatrix4fv(gl, mvpMatrixUniformIndex, mvpMatrix.getMatrix());
+                glState.uniformMatrix3fv(gl, textureMatrixUniformIndex, createTextureMatrix(u, v, magnification, aspectRatio));
+            } else {
+                programId = doubleFloatShaderId;
+                glState.useProgram(gl, doubleFloatShaderId);
+                glState.uniformMatrix4fv(gl, doubleFloatMvpMatrixUniformIndex, mvpMatrix.getMatrix());
+                //the texture matrix only scales, so the shader gets small u,v-coordinates relative to the center of the view.
+                //The center itself is added in double-float precision.
+                glState.uniformMatrix3fv(gl, doubleFloatTextureMatrixUniformIndex, createTextureMatrix(0, 0, magnification, aspectRatio));
+                float[][] center = DoubleFloat.split(u, v);
+                glState.uniform2fv(gl, centerHiUniformIndex, center[0]);
+                glState.uniform2fv(gl, centerLoUniformIndex, center[1]);
+                glState.uniform1i(gl, maxIterationCountUniformIndex, MandelbrotView.getMaxIterationCount(magnification));
+            }
+            glState.bindVertexArray(gl, quadId);
+            int edgeSamplingEnabledUniformIndex = glState.getUniformLocation(gl, programId, "edgeSamplingEnabled");
+            if (antiAliasingEnabled) {
+                //first pass: one sample per pixel, rendered to a texture (with the same viewport as the screen).
+                gl.glBindFramebuffer(GL3.GL_FRAMEBUFFER, framebufferId);
+                glState.uniform1i(gl, edgeSamplingEnabledUniformIndex, 0);
+                gl.glDrawArrays(GL3.GL_TRIANGLE_STRIP, 0, 4);
+                gl.glBindFramebuffer(GL3.GL_FRAMEBUFFER, screenFramebufferId);
+
+                //second pass: copy the first pass to the screen and sample edge pixels again.
+                gl.glActiveTexture(GL3.GL_TEXTURE0);
+                gl.glBindTexture(GL3.GL_TEXTURE_2D, firstPassTextureId);
+                glState.uniform1i(gl, glState.getUniformLocation(gl, programId, "firstPassImage"), 0);
+                glState.uniform1i(gl, glState.getUniformLocation(gl, programId, "edgeSampleCount"), EDGE_SAMPLE_COUNT);
+                glState.uniform1i(gl, edgeSamplingEnabledUniformIndex, 1);
+                gl.glDrawArrays(GL3.GL_TRIANGLE_STRIP, 0, 4);
+                gl.glBindTexture(GL3.GL_TEXTURE_2D, 0);
+            } else {
+                glState.uniform1i(gl, edgeSamplingEnabledUniformIndex, 0);
+                gl.glDrawArrays(GL3.GL_TRIANGLE_STRIP, 0, 4);
+            }
+
+            if (streamServer != null) streamServer.captureFrame(gl, drawable.getSurfaceWidth(), drawable.getSurfaceHeight());
 
             int error = gl.glGetError();
             if (error != 0) System.err.println("Error during rendering: " + error);
@@ -204,6 +424,32 @@ public final class GpuMandelbrot {
 
         @Override
         public void dispose(GLAutoDrawable drawable) {
+            GL3 gl = drawable.getGL().getGL3();
+            if (streamServer != null) streamServer.dispose(gl);
+            resources.dispose(gl);
         }
     };
+
+    /**
+     * @return copy of the normalized device coordinates (x, y, z) of the corners of the quad (a triangle strip) that covers the screen.
+     */
+    static float[] getQuadCoordinates() {
+        return vertexCoordinates.clone();
+    }
+
+    /**
+     * @return copy of the u,v-coordinates of the corners of the quad, before they are transformed by the texture matrix.
+     */
+    static float[] getQuadUVCoordinates() {
+        return vertexUVCoordinates.clone();
+    }
+
+    /**
+     * @return transformation matrix for u,v-coordinates in column-major order.
+     */
+    static float[] createTextureMatrix(double u, double v, double magnification, float aspectRatio) {
+        return new float[]{(float) (aspectRatio/magnification),                        0, 0,
+                                                           0, (float) (1/magnification), 0,
+                                                   (float) u,                (float) v, 1};
+    }
 }
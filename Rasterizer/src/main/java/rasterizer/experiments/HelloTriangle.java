@@ -77,6 +77,9 @@ public final class HelloTriangle {
             shaderProgramId = gl.glCreateProgram();
             gl.glAttachShader(shaderProgramId, fragmentShaderId);
             gl.glLinkProgram(shaderProgramId);
+            //the shader is not needed anymore after linking.
+            gl.glDetachShader(shaderProgramId, fragmentShaderId);
+            gl.glDeleteShader(fragmentShaderId);
 
             //store vertex data in graphics card memory.
             //create a new vertex buffer.
@@ -6,11 +6,21 @@ package rasterizer.experiments;
 import com.jogamp.opengl.GL3;
 import com.jogamp.opengl.GLAutoDrawable;
 import com.jogamp.opengl.GLEventListener;
+import com.jogamp.opengl.GLRunnable;
 import com.jogamp.opengl.awt.GLCanvas;
 import com.jogamp.opengl.math.Matrix4;
+import rasterizer.geometry.MappedMesh;
+import rasterizer.geometry.MeshFile;
+import rasterizer.lighting.PointLightShadowMap;
+import rasterizer.output.FrameStreamServer;
+import rasterizer.util.FrameGraph;
+import rasterizer.util.GLResourceManager;
+import rasterizer.util.GLStateTracker;
 import rasterizer.util.MatrixUtils;
 import rasterizer.util.OpenGLUtils;
 import rasterizer.util.ResourceLoader;
+import rasterizer.util.ResourceWatcher;
+import rasterizer.util.ShaderReloader;
 import rasterizer.util.Utils;
 
 import javax.swing.JLabel;
@@ -21,6 +31,10 @@ import java.awt.Color;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
@@ -33,16 +47,60 @@ import java.util.concurrent.TimeUnit;
  * The cube is lit by a single point light and is shaded using an implementation
  * of Phong shading, see https://en.wikipedia.org/wiki/Phong_shading
  *
+ * The cube is memory-mapped from the mesh file cube.mesh (see MeshFile) and uploaded to the GPU without copying it to the Java heap.
+ * The cube casts a shadow on the floor, using a shadow cube map (see PointLightShadowMap).
+ * The shadow map is only rendered again when the light or the cube moves.
+ *
+ * The frame is rendered with a FrameGraph: the scene is drawn into a texture, which is then copied to the screen,
+ * or with bloom enabled (B key) the bright parts of the scene are blurred (at half resolution) and added to it.
+ *
+ * With --stream port the frames are also streamed over HTTP, so that the experiment can be viewed and controlled
+ * from a web browser (see FrameStreamServer). Only connections from the same machine are accepted, unless --remote is given.
+ *
+ * With --watch the shaders are loaded from the given resource directory (e.g. src/main/resources), and a shader program
+ * is recompiled when one of its shaders is changed, without restarting. If it does not compile, then the previous version is kept.
+ *
+ * Usage: MultiColoredCube [--stream port [--remote]] [--watch resourceDirectory]
+ *
  * @author A.C. Kockx
  */
 public final class MultiColoredCube {
     private static final float ROTATION_SPEED = (float) (Math.PI/2);//radians/second.
+    private static final float CUBE_ROTATION_SPEED = 90;//degrees/second.
     private static final float FRAME_RATE = 30;//frames/second.
     private static final float DELTA_T = 1/FRAME_RATE;//in seconds.
-
-    private final int dimensionCount = 3;
+    private static final int SHADOW_MAP_RESOLUTION = 1024;//pixels per cube map face.
+    //large enough for the light at any position around the cube.
+    static final float SHADOW_NEAR_PLANE = 0.1f;
+    static final float SHADOW_FAR_PLANE = 20;
+    //percentage-closer filtering, see PointLightShadowMap.setFiltering.
+    static final int SHADOW_SAMPLE_COUNT = 21;
+    static final float SHADOW_SAMPLE_RADIUS = 0.03f;
+    private static final long VIDEO_MEMORY_BUDGET = 64L << 20;//bytes.
+    //normalized device coordinates (x, y, z) and u,v-coordinates of the corners of a quad that spans the entire screen, for post-processing.
+    private static final float[] screenQuadCoordinates = new float[]{-1, -1, 0,
+                                                                      1, -1, 0,
+                                                                     -1,  1, 0,
+                                                                      1,  1, 0};
+    private static final float[] screenQuadUVCoordinates = new float[]{0, 0,
+                                                                       1, 0,
+                                                                       0, 1,
+                                                                       1, 1};
+    //texture units used by the post-processing shaders, unit 0 is used by the shadow map.
+    private static final int IMAGE_TEXTURE_UNIT = 1;
+    private static final int BLOOM_TEXTURE_UNIT = 2;
+    //initial yaw of the cube in degrees and initial polar coordinates of the light source (radius, yaw and pitch in radians).
+    static final float INITIAL_CUBE_YAW = 160;
+    static final float INITIAL_LIGHT_RADIUS = 5;
+    static final float INITIAL_LIGHT_YAW = -1.1f;
+    static final float INITIAL_LIGHT_PITCH = 0.1f;
+
+    //mesh file with the cube, converted from cube.obj with MeshConverter.
+    static final String CUBE_MESH = "cube.mesh";
+    static final int dimensionCount = 3;
+    //the same cube as in CUBE_MESH as triangle strips, used to draw the cube on the CPU (see RegressionTests) and by CubeField.
     //vertex coordinates (x, y, z) in model space.
-    private final float[] coordinates = new float[]{ 0.5f, -0.5f, -0.5f,//front face.
+    private static final float[] coordinates = new float[]{ 0.5f, -0.5f, -0.5f,//front face.
                                                            -0.5f, -0.5f, -0.5f,
                                                             0.5f,  0.5f, -0.5f,
                                                            -0.5f,  0.5f, -0.5f,
@@ -65,10 +123,9 @@ public final class MultiColoredCube {
                                                            -0.5f, -0.5f, -0.5f,//bottom face.
                                                             0.5f, -0.5f, -0.5f,
                                                            -0.5f, -0.5f,  0.5f,
-                                                            0.5f, -0.5f,  0.5f
-    };
+                                                            0.5f, -0.5f,  0.5f};
     //vertex normal vectors (x, y, z) in model space.
-    private final float normalVectors[] = new float[]{ 0,  0, -1,//front face.
+    private static final float[] normalVectors = new float[]{ 0,  0, -1,//front face.
                                                               0,  0, -1,
                                                               0,  0, -1,
                                                               0,  0, -1,
@@ -91,10 +148,9 @@ public final class MultiColoredCube {
                                                               0, -1,  0,//bottom face.
                                                               0, -1,  0,
                                                               0, -1,  0,
-                                                              0, -1,  0
-    };
+                                                              0, -1,  0};
     //vertex colors (r, g, b).
-    private final float colors[] = new float[]{0, 0, 1,//front face.
+    private static final float[] colors = new float[]{0, 0, 1,//front face.
                                                       0, 0, 1,
                                                       0, 0, 1,
                                                       0, 0, 1,
@@ -117,39 +173,103 @@ public final class MultiColoredCube {
                                                       0, 1, 1,//bottom face.
                                                       0, 1, 1,
                                                       0, 1, 1,
-                                                      0, 1, 1
-    };
-    private final float specularReflectionCoefficient = 0.9f;
-    private final float shininess = 15;
+                                                      0, 1, 1};
+    //floor below the cube.
+    private static final float[] floorCoordinates = new float[]{-3, -0.5f,  3,
+                                                                 3, -0.5f,  3,
+                                                                -3, -0.5f, -3,
+                                                                 3, -0.5f, -3};
+    private static final float[] floorNormalVectors = new float[]{0, 1, 0,
+                                                                  0, 1, 0,
+                                                                  0, 1, 0,
+                                                                  0, 1, 0};
+    private static final float[] floorColors = new float[]{0.8f, 0.8f, 0.8f,
+                                                           0.8f, 0.8f, 0.8f,
+                                                           0.8f, 0.8f, 0.8f,
+                                                           0.8f, 0.8f, 0.8f};
+    static final float specularReflectionCoefficient = 0.9f;
+    static final float shininess = 15;
 
     //light source intensity per color component (r, g, b).
-    private final float[] lightIntensity = new float[]{25, 25, 25};
+    private static final float[] lightIntensity = new float[]{25, 25, 25};
     //ambient light intensity per color component (r, g, b).
-    private final float[] ambientLightIntensity = new float[]{0.1f, 0.15f, 0.2f};
+    private static final float[] ambientLightIntensity = new float[]{0.1f, 0.15f, 0.2f};
 
     //at any given moment this stores the keyCodes of the keys that are currently being pressed down.
     private final Set<Integer> pressedKeys = Collections.synchronizedSet(new HashSet<>());
     private final GLCanvas glCanvas;
-
+    //null if frames are not streamed.
+    private final FrameStreamServer streamServer;
+    private final ResourceLoader shaderLoader;
+    //null if the resources are not watched.
+    private final ResourceWatcher resourceWatcher;
+    //null if there is no window.
+    private JLabel label;
+    private volatile boolean bloomEnabled = false;
+
+    //current yaw of the cube in degrees.
+    private float cubeYaw = INITIAL_CUBE_YAW;
     //current polar coordinates of light source in world space.
-    private float radius = 5;
-    private float yaw = -1.1f;//in radians.
-    private float pitch = 0.1f;//in radians.
+    private float radius = INITIAL_LIGHT_RADIUS;
+    private float yaw = INITIAL_LIGHT_YAW;//in radians.
+    private float pitch = INITIAL_LIGHT_PITCH;//in radians.
 
     public static void main(String[] args) throws Exception {
-        new MultiColoredCube();
+        int streamPort = -1;
+        boolean remoteStreamingEnabled = false;
+        Path resourceDirectory = null;
+        for (int index = 0; index < args.length; index++) {
+            if ("--stream".equals(args[index]) && index + 1 < args.length) {
+                index++;
+                streamPort = Integer.parseInt(args[index]);
+            } else if ("--remote".equals(args[index])) {
+                remoteStreamingEnabled = true;
+            } else if ("--watch".equals(args[index]) && index + 1 < args.length) {
+                index++;
+                resourceDirectory = Paths.get(args[index]);
+            } else {
+                System.err.println("Usage: " + MultiColoredCube.class.getSimpleName() + " [--stream port [--remote]] [--watch resourceDirectory]");
+                System.exit(1);
+            }
+        }
+
+        new MultiColoredCube(streamPort, remoteStreamingEnabled, resourceDirectory);
     }
 
-    private MultiColoredCube() throws Exception {
+    /**
+     * @param streamPort port for FrameStreamServer, or -1 to not stream frames.
+     * @param remoteStreamingEnabled true to accept stream connections from other machines.
+     * @param resourceDirectory directory to load the shaders from and to watch, or null to load the shaders from the class path.
+     */
+    private MultiColoredCube(int streamPort, boolean remoteStreamingEnabled, Path resourceDirectory) throws Exception {
+        //start stream server.
+        if (streamPort >= 0) {
+            InetSocketAddress address = FrameStreamServer.createAddress(streamPort, remoteStreamingEnabled);
+            streamServer = new FrameStreamServer(address, MultiColoredCube.class.getSimpleName(), remoteKeyInput);
+            System.out.println("Streaming frames on http://localhost:" + streamServer.getPort() + "/"
+                    + (remoteStreamingEnabled ? ", also accessible from other machines" : ""));
+        } else {
+            streamServer = null;
+        }
+
         //create OpenGL canvas.
         glCanvas = OpenGLUtils.createGLCanvas(800, 600);
         glCanvas.addGLEventListener(glEventListener);
 
+        //repaint when a shader has changed, so that it is recompiled.
+        shaderLoader = new ResourceLoader("/rasterizer/shaders/", resourceDirectory);
+        if (resourceDirectory != null) {
+            resourceWatcher = new ResourceWatcher(resourceDirectory, glCanvas::repaint);
+            System.out.println("Watching " + resourceDirectory.toAbsolutePath());
+        } else {
+            resourceWatcher = null;
+        }
+
         //init GUI on event-dispatching thread.
         javax.swing.SwingUtilities.invokeAndWait(new Runnable() {
             @Override
             public void run() {
-                JLabel label = new JLabel("ARROW KEYS = rotate light position around cube")  ;
+                label = new JLabel(getLabelText(0, null, -1));
                 label.setBorder(new EmptyBorder(5, 5, 5, 5));
                 label.setForeground(Color.GREEN);
                 label.setBackground(Color.BLACK);
@@ -170,10 +290,30 @@ public final class MultiColoredCube {
         executor.scheduleAtFixedRate(interactionLoop, 0, (long) (1000*DELTA_T), TimeUnit.MILLISECONDS);
     }
 
+    /**
+     * Creates the experiment without a window for the given light position, so that it can be rendered offscreen with the GLEventListener
+     * from getGLEventListener, e.g. by a regression test.
+     */
+    MultiColoredCube(float lightRadius, float lightYaw, float lightPitch, boolean bloomEnabled) {
+        glCanvas = null;
+        streamServer = null;
+        shaderLoader = new ResourceLoader("/rasterizer/shaders/");
+        resourceWatcher = null;
+        radius = lightRadius;
+        yaw = lightYaw;
+        pitch = lightPitch;
+        this.bloomEnabled = bloomEnabled;
+    }
+
+    GLEventListener getGLEventListener() {
+        return glEventListener;
+    }
+
     private final KeyListener keyListener = new KeyAdapter() {
         @Override
         public void keyPressed(KeyEvent e) {
             pressedKeys.add(e.getExtendedKeyCode());
+            handleKeyCommand(e.getKeyCode());
         }
 
         @Override
@@ -182,6 +322,30 @@ public final class MultiColoredCube {
         }
     };
 
+    //key presses from remote viewers, handled in the same way as those of keyListener.
+    private final FrameStreamServer.KeyInput remoteKeyInput = new FrameStreamServer.KeyInput() {
+        @Override
+        public void keyPressed(int keyCode) {
+            pressedKeys.add(keyCode);
+            handleKeyCommand(keyCode);
+        }
+
+        @Override
+        public void keyReleased(int keyCode) {
+            pressedKeys.remove(keyCode);
+        }
+    };
+
+    /**
+     * Handles keys that trigger an action when pressed, instead of while they are held down.
+     */
+    private void handleKeyCommand(int keyCode) {
+        if (keyCode == KeyEvent.VK_B) {//toggle bloom.
+            bloomEnabled = !bloomEnabled;
+            glCanvas.repaint();
+        }
+    }
+
     private final Runnable interactionLoop = new Runnable() {
         @Override
         public void run() {
@@ -204,21 +368,90 @@ public final class MultiColoredCube {
                 viewDirty = true;
             }
 
-            if (viewDirty) glCanvas.repaint();
+            if (pressedKeys.contains(KeyEvent.VK_D)) {//rotate cube right.
+                cubeYaw -= CUBE_ROTATION_SPEED*DELTA_T;
+                viewDirty = true;
+            } else if (pressedKeys.contains(KeyEvent.VK_A)) {//rotate cube left.
+                cubeYaw += CUBE_ROTATION_SPEED*DELTA_T;
+                viewDirty = true;
+            }
+
+            if (viewDirty) {
+                glCanvas.repaint();
+            } else if (streamServer != null && streamServer.hasPendingFrames()) {
+                glCanvas.invoke(false, flushStream);
+            }
         }
     };
 
+    //publishes the last captured frames to the stream, after which nothing is rendered until the view changes.
+    private final GLRunnable flushStream = new GLRunnable() {
+        @Override
+        public boolean run(GLAutoDrawable drawable) {
+            streamServer.flush(drawable.getGL().getGL3());
+            return true;
+        }
+    };
+
+    /**
+     * @param frameGraph null if the frame has not been rendered yet.
+     * @param shaderReloadTime time in milliseconds of the last reload of changed shaders, or -1 if no shaders have been reloaded.
+     */
+    private static String getLabelText(int shadowMapRenderCount, FrameGraph frameGraph, long shaderReloadTime) {
+        String text = "ARROW KEYS = rotate light position around cube, A/D = rotate cube, B = toggle bloom    shadow map rendered " + shadowMapRenderCount + " times";
+        if (frameGraph == null) return text;
+        text += ", passes: " + frameGraph.getExecutedPassCount() + " of " + frameGraph.getPassCount()
+                + ", render targets: " + frameGraph.getTextureCount() + " textures (" + (frameGraph.getTextureSize() >> 10) + " kB)";
+        if (shaderReloadTime >= 0) text += ", shaders reloaded in " + shaderReloadTime + " ms";
+        return text;
+    }
+
     private final GLEventListener glEventListener = new GLEventListener() {
         private int shaderProgramId = -1;
         private int modelViewProjectionMatrixUniformIndex = -1;
         private int modelViewMatrixUniformIndex = -1;
+        private int modelMatrixUniformIndex = -1;
         private int lightPositionUniformIndex = -1;
         private int vertexArrayObjectId = -1;
+        private int indexCount = 0;
+        private int floorVertexArrayObjectId = -1;
+        private PointLightShadowMap shadowMap = null;
+        private final GLStateTracker glState = new GLStateTracker();
+        private final GLResourceManager resources = new GLResourceManager(VIDEO_MEMORY_BUDGET);
+        private ShaderReloader shaders = null;
+
+        //post-processing.
+        private FrameGraph frameGraph = null;
+        private int screenQuadVertexArrayObjectId = -1;
+        private int copyShaderProgramId = -1;
+        private int brightShaderProgramId = -1;
+        private int blurShaderProgramId = -1;
+        private int blurTexelStepUniformIndex = -1;
+        private int compositeShaderProgramId = -1;
+        //the value of bloomEnabled for which the frame graph was created.
+        private boolean frameGraphBloomEnabled = false;
+        private boolean labelDirty = true;
+        //time in milliseconds of the last reload of changed shaders, -1 if none.
+        private long shaderReloadTime = -1;
 
         private Matrix4 modelMatrix = null;
+        private final Matrix4 floorModelMatrix = new Matrix4();
         private Matrix4 viewMatrix = null;
         private Matrix4 projectionMatrix = null;
 
+        private final PointLightShadowMap.ShadowCaster cube = new PointLightShadowMap.ShadowCaster() {
+            @Override
+            public Matrix4 getModelMatrix() {
+                return modelMatrix;
+            }
+
+            @Override
+            public void draw(GL3 gl, GLStateTracker glState) {
+                glState.bindVertexArray(gl, vertexArrayObjectId);
+                gl.glDrawElements(GL3.GL_TRIANGLES, indexCount, GL3.GL_UNSIGNED_INT, 0);
+            }
+        };
+
         @Override
         public void init(GLAutoDrawable drawable) {
             GL3 gl = drawable.getGL().getGL3();
@@ -229,41 +462,76 @@ public final class MultiColoredCube {
             gl.glCullFace(GL3.GL_BACK);
 
             //create shaders.
-            ResourceLoader loader = new ResourceLoader("/rasterizer/shaders/");
-            String vertexShaderSource;
-            String fragmentShaderSource;
+            shaders = new ShaderReloader(resources, glState, shaderLoader);
+            shaders.createShaderProgram(gl, new int[]{GL3.GL_VERTEX_SHADER, GL3.GL_FRAGMENT_SHADER},
+                    new String[]{"phong_vertex_shader.glsl", "phong_fragment_shader.glsl"},
+                    new String[]{OpenGLUtils.VERTEX_POSITION, OpenGLUtils.VERTEX_NORMAL, OpenGLUtils.VERTEX_COLOR}, (GL3 shaderGl, int id) -> {
+                shaderProgramId = id;
+                modelViewProjectionMatrixUniformIndex = glState.getUniformLocation(shaderGl, id, OpenGLUtils.MODEL_VIEW_PROJECTION_MATRIX);
+                modelViewMatrixUniformIndex = glState.getUniformLocation(shaderGl, id, OpenGLUtils.MODEL_VIEW_MATRIX);
+                modelMatrixUniformIndex = glState.getUniformLocation(shaderGl, id, OpenGLUtils.MODEL_MATRIX);
+                lightPositionUniformIndex = glState.getUniformLocation(shaderGl, id, OpenGLUtils.LIGHT_POSITION);
+                glState.useProgram(shaderGl, id);
+                glState.uniform1f(shaderGl, glState.getUniformLocation(shaderGl, id, OpenGLUtils.SPECULAR_REFLECTION_COEFFICIENT), specularReflectionCoefficient);
+                glState.uniform1f(shaderGl, glState.getUniformLocation(shaderGl, id, OpenGLUtils.SHININESS), shininess);
+                glState.uniform3fv(shaderGl, glState.getUniformLocation(shaderGl, id, OpenGLUtils.LIGHT_INTENSITY), lightIntensity);
+                glState.uniform3fv(shaderGl, glState.getUniformLocation(shaderGl, id, OpenGLUtils.AMBIENT_LIGHT_INTENSITY), ambientLightIntensity);
+            });
+
+            //create post-processing shaders, which all read the image from IMAGE_TEXTURE_UNIT.
+            createPostProcessingShaderProgram(gl, "texture_fragment_shader.glsl", (GL3 shaderGl, int id) -> copyShaderProgramId = id);
+            createPostProcessingShaderProgram(gl, "bloom_bright_fragment_shader.glsl", (GL3 shaderGl, int id) -> brightShaderProgramId = id);
+            createPostProcessingShaderProgram(gl, "gaussian_blur_fragment_shader.glsl", (GL3 shaderGl, int id) -> {
+                blurShaderProgramId = id;
+                blurTexelStepUniformIndex = glState.getUniformLocation(shaderGl, id, "texelStep");
+            });
+            createPostProcessingShaderProgram(gl, "bloom_composite_fragment_shader.glsl", (GL3 shaderGl, int id) -> {
+                compositeShaderProgramId = id;
+                glState.uniform1i(shaderGl, glState.getUniformLocation(shaderGl, id, "bloomImage"), BLOOM_TEXTURE_UNIT);
+            });
+
+            //create geometry.
+            MappedMesh cubeMesh;
             try {
-                vertexShaderSource = Utils.read(loader.loadResource("phong_vertex_shader.glsl"));
-                fragmentShaderSource = Utils.read(loader.loadResource("phong_fragment_shader.glsl"));
+                cubeMesh = loadCubeMesh();
             } catch (Exception e) {
-                throw new RuntimeException("Error while loading shader source: " + e.getMessage(), e);
+                throw new RuntimeException("Error while loading " + CUBE_MESH + ": " + e.getMessage(), e);
             }
-            shaderProgramId = OpenGLUtils.createShaderProgram(gl,
-                    new int[]{GL3.GL_VERTEX_SHADER, GL3.GL_FRAGMENT_SHADER}, new String[]{vertexShaderSource, fragmentShaderSource},
-                    new String[]{OpenGLUtils.VERTEX_POSITION, OpenGLUtils.VERTEX_NORMAL, OpenGLUtils.VERTEX_COLOR});
-            modelViewProjectionMatrixUniformIndex = gl.glGetUniformLocation(shaderProgramId, OpenGLUtils.MODEL_VIEW_PROJECTION_MATRIX);
-            modelViewMatrixUniformIndex = gl.glGetUniformLocation(shaderProgramId, OpenGLUtils.MODEL_VIEW_MATRIX);
-            gl.glUseProgram(shaderProgramId);
-            gl.glUniform1f(gl.glGetUniformLocation(shaderProgramId, OpenGLUtils.SPECULAR_REFLECTION_COEFFICIENT), specularReflectionCoefficient);
-            gl.glUniform1f(gl.glGetUniformLocation(shaderProgramId, OpenGLUtils.SHININESS), shininess);
-            lightPositionUniformIndex = gl.glGetUniformLocation(shaderProgramId, OpenGLUtils.LIGHT_POSITION);
-
-            //create geometry.
-            vertexArrayObjectId = OpenGLUtils.createVertexArray(gl,
-                    new int[]{dimensionCount, dimensionCount, dimensionCount}, new float[][]{coordinates, normalVectors, colors});
-            modelMatrix = MatrixUtils.createModelMatrix(0, 0, 0, 160, 0, 0, 1, 1, 1);
+            vertexArrayObjectId = cubeMesh.createVertexArray(gl, resources);
+            indexCount = cubeMesh.getIndexCount();
+            floorVertexArrayObjectId = resources.createVertexArray(gl,
+                    new int[]{dimensionCount, dimensionCount, dimensionCount}, new float[][]{floorCoordinates, floorNormalVectors, floorColors});
+            screenQuadVertexArrayObjectId = resources.createVertexArray(gl, new int[]{3, 2}, new float[][]{screenQuadCoordinates, screenQuadUVCoordinates});
+            frameGraph = new FrameGraph(resources);
 
             //create camera.
-            viewMatrix = MatrixUtils.createViewMatrix(0, 1, 4, 0, -11, 0);
+            viewMatrix = createViewMatrix();
+
+            //create shadow map.
+            shadowMap = new PointLightShadowMap(gl, glState, SHADOW_MAP_RESOLUTION, SHADOW_NEAR_PLANE, SHADOW_FAR_PLANE);
+            shadowMap.setFiltering(SHADOW_SAMPLE_COUNT, SHADOW_SAMPLE_RADIUS);
 
-            //create light.
-            gl.glUniform3fv(gl.glGetUniformLocation(shaderProgramId, OpenGLUtils.LIGHT_INTENSITY), 1, lightIntensity, 0);
-            gl.glUniform3fv(gl.glGetUniformLocation(shaderProgramId, OpenGLUtils.AMBIENT_LIGHT_INTENSITY), 1, ambientLightIntensity, 0);
+            //createVertexArray changes the tracked state directly.
+            glState.invalidate();
 
             int error = gl.glGetError();
             if (error != 0) System.err.println("Error during initialization: " + error);
         }
 
+        /**
+         * Creates a post-processing shader program, which reads the image from IMAGE_TEXTURE_UNIT.
+         *
+         * @param listener is called each time the shader program has been created, with the shader program as the current program.
+         */
+        private void createPostProcessingShaderProgram(GL3 gl, String fragmentShaderName, ShaderReloader.Listener listener) {
+            shaders.createShaderProgram(gl, new int[]{GL3.GL_VERTEX_SHADER, GL3.GL_FRAGMENT_SHADER}, new String[]{"uv_vertex_shader.glsl", fragmentShaderName},
+                    new String[]{OpenGLUtils.VERTEX_POSITION, OpenGLUtils.VERTEX_UV_COORDINATES}, (GL3 shaderGl, int id) -> {
+                glState.useProgram(shaderGl, id);
+                glState.uniform1i(shaderGl, glState.getUniformLocation(shaderGl, id, "textureImage"), IMAGE_TEXTURE_UNIT);
+                listener.loaded(shaderGl, id);
+            });
+        }
+
         @Override
         public void reshape(GLAutoDrawable drawable, int x, int y, int width, int height) {
             //calculate aspect ratio.
@@ -272,37 +540,243 @@ public final class MultiColoredCube {
             float aspectRatio = width/((float) height);
 
             //(re)initialize projection matrix.
-            projectionMatrix = MatrixUtils.createPerspectiveProjectionMatrix(45, aspectRatio, 1, 100);
+            projectionMatrix = createProjectionMatrix(aspectRatio);
+
+            //(re)create render targets for the new size. JOGL has set the viewport before this is called.
+            frameGraph.setBackBuffer(drawable.getContext().getDefaultDrawFramebuffer(), x, y, width, height);
+            createFrameGraph(width, height);
+        }
+
+        /**
+         * Declares the passes of a frame. The bloom passes are always declared, but are culled by the frame graph if bloom is disabled.
+         * The targets of the bright pass and the vertical blur pass share the same texture, since their lifetimes do not overlap.
+         */
+        private void createFrameGraph(int width, int height) {
+            frameGraphBloomEnabled = bloomEnabled;
+            labelDirty = true;
+            frameGraph.clear();
+            FrameGraph.Target sceneColor = frameGraph.createTarget("scene color", width, height, GL3.GL_RGBA8, GL3.GL_RGBA, GL3.GL_UNSIGNED_BYTE, 4);
+            FrameGraph.Target sceneDepth = frameGraph.createTarget("scene depth", width, height, GL3.GL_DEPTH_COMPONENT24, GL3.GL_DEPTH_COMPONENT, GL3.GL_UNSIGNED_INT, 4);
+            int bloomWidth = Math.max(1, width/2);
+            int bloomHeight = Math.max(1, height/2);
+            FrameGraph.Target bright = frameGraph.createTarget("bright", bloomWidth, bloomHeight, GL3.GL_RGBA8, GL3.GL_RGBA, GL3.GL_UNSIGNED_BYTE, 4);
+            FrameGraph.Target horizontalBlur = frameGraph.createTarget("horizontal blur", bloomWidth, bloomHeight, GL3.GL_RGBA8, GL3.GL_RGBA, GL3.GL_UNSIGNED_BYTE, 4);
+            FrameGraph.Target verticalBlur = frameGraph.createTarget("vertical blur", bloomWidth, bloomHeight, GL3.GL_RGBA8, GL3.GL_RGBA, GL3.GL_UNSIGNED_BYTE, 4);
+
+            frameGraph.addPass("scene", new FrameGraph.Target[0], new FrameGraph.Target[]{sceneColor, sceneDepth}, this::drawScene);
+            frameGraph.addPass("bright", new FrameGraph.Target[]{sceneColor}, new FrameGraph.Target[]{bright},
+                    gl -> drawScreenQuad(gl, brightShaderProgramId, sceneColor, null));
+            frameGraph.addPass("horizontal blur", new FrameGraph.Target[]{bright}, new FrameGraph.Target[]{horizontalBlur}, gl -> {
+                glState.useProgram(gl, blurShaderProgramId);
+                glState.uniform2f(gl, blurTexelStepUniformIndex, 1f/bloomWidth, 0);
+                drawScreenQuad(gl, blurShaderProgramId, bright, null);
+            });
+            frameGraph.addPass("vertical blur", new FrameGraph.Target[]{horizontalBlur}, new FrameGraph.Target[]{verticalBlur}, gl -> {
+                glState.useProgram(gl, blurShaderProgramId);
+                glState.uniform2f(gl, blurTexelStepUniformIndex, 0, 1f/bloomHeight);
+                drawScreenQuad(gl, blurShaderProgramId, horizontalBlur, null);
+            });
+            if (frameGraphBloomEnabled) {
+                frameGraph.addPass("composite", new FrameGraph.Target[]{sceneColor, verticalBlur}, new FrameGraph.Target[]{frameGraph.getBackBuffer()},
+                        gl -> drawScreenQuad(gl, compositeShaderProgramId, sceneColor, verticalBlur));
+            } else {
+                frameGraph.addPass("copy", new FrameGraph.Target[]{sceneColor}, new FrameGraph.Target[]{frameGraph.getBackBuffer()},
+                        gl -> drawScreenQuad(gl, copyShaderProgramId, sceneColor, null));
+            }
+        }
+
+        /**
+         * Draws the given image (and bloom image, if not null) over the entire viewport with the given post-processing shader program.
+         */
+        private void drawScreenQuad(GL3 gl, int shaderProgramId, FrameGraph.Target image, FrameGraph.Target bloomImage) {
+            glState.setEnabled(gl, GL3.GL_DEPTH_TEST, false);
+            glState.setEnabled(gl, GL3.GL_CULL_FACE, false);
+            glState.useProgram(gl, shaderProgramId);
+            gl.glActiveTexture(GL3.GL_TEXTURE0 + IMAGE_TEXTURE_UNIT);
+            gl.glBindTexture(GL3.GL_TEXTURE_2D, frameGraph.getTextureId(image));
+            if (bloomImage != null) {
+                gl.glActiveTexture(GL3.GL_TEXTURE0 + BLOOM_TEXTURE_UNIT);
+                gl.glBindTexture(GL3.GL_TEXTURE_2D, frameGraph.getTextureId(bloomImage));
+            }
+            gl.glActiveTexture(GL3.GL_TEXTURE0);
+            glState.bindVertexArray(gl, screenQuadVertexArrayObjectId);
+            gl.glDrawArrays(GL3.GL_TRIANGLE_STRIP, 0, 4);
         }
 
         @Override
         public void display(GLAutoDrawable drawable) {
             GL3 gl = drawable.getGL().getGL3();
-            gl.glClear(GL3.GL_COLOR_BUFFER_BIT | GL3.GL_DEPTH_BUFFER_BIT);
+            if (frameGraphBloomEnabled != bloomEnabled) createFrameGraph(drawable.getSurfaceWidth(), drawable.getSurfaceHeight());
+            //recompile the shader programs whose source has changed.
+            if (resourceWatcher != null) {
+                long startTime = System.nanoTime();
+                if (shaders.reload(gl, resourceWatcher.pollChangedResources()) > 0) {
+                    shaderReloadTime = (System.nanoTime() - startTime)/1000000;
+                    labelDirty = true;
+                }
+            }
 
-            //draw cube.
-            gl.glUseProgram(shaderProgramId);
-            //calculate matrices.
-            Matrix4 modelViewMatrix = MatrixUtils.multiply(viewMatrix, modelMatrix);
-            gl.glUniformMatrix4fv(modelViewMatrixUniformIndex, 1, false, modelViewMatrix.getMatrix(), 0);
-            Matrix4 modelViewProjectionMatrix = MatrixUtils.multiply(projectionMatrix, modelViewMatrix);
-            gl.glUniformMatrix4fv(modelViewProjectionMatrixUniformIndex, 1, false, modelViewProjectionMatrix.getMatrix(), 0);
-            float[] lightPositionInWorldSpace = new float[]{(float) (radius*Math.cos(pitch)*Math.cos(yaw)),
-                                                            (float) (radius*Math.sin(pitch)), (float) (radius*Math.cos(pitch)*-Math.sin(yaw)), 1};
-            float[] lightPositionInCameraSpace = MatrixUtils.multiply(viewMatrix, lightPositionInWorldSpace);
-            gl.glUniform3fv(lightPositionUniformIndex, 1, lightPositionInCameraSpace, 0);
-            //draw vertices.
-            gl.glBindVertexArray(vertexArrayObjectId);
-            for (int face = 0; face < 6; face++) {
-                gl.glDrawArrays(GL3.GL_TRIANGLE_STRIP, face*4, 4);
+            modelMatrix = createModelMatrix(cubeYaw);
+
+            //render shadow map (only if the light or the cube has moved).
+            if (shadowMap.update(gl, glState, getLightPositionInWorldSpace(radius, yaw, pitch), Collections.singletonList(cube))) labelDirty = true;
+
+            //render the scene and the post-processing passes.
+            frameGraph.execute(gl);
+            if (labelDirty && label != null) {
+                labelDirty = false;
+                String text = getLabelText(shadowMap.getRenderCount(), frameGraph, shaderReloadTime);
+                javax.swing.SwingUtilities.invokeLater(() -> label.setText(text));
             }
 
+            if (streamServer != null) streamServer.captureFrame(gl, drawable.getSurfaceWidth(), drawable.getSurfaceHeight());
+
             int error = gl.glGetError();
             if (error != 0) System.err.println("Error during rendering: " + error);
         }
 
+        /**
+         * Renders the scene pass of the frame graph.
+         */
+        private void drawScene(GL3 gl) {
+            glState.setEnabled(gl, GL3.GL_DEPTH_TEST, true);
+            glState.setEnabled(gl, GL3.GL_CULL_FACE, true);
+            gl.glClear(GL3.GL_COLOR_BUFFER_BIT | GL3.GL_DEPTH_BUFFER_BIT);
+
+            float[] lightPositionInWorldSpace = getLightPositionInWorldSpace(radius, yaw, pitch);
+            glState.useProgram(gl, shaderProgramId);
+            shadowMap.bind(gl, glState, shaderProgramId, 0, lightPositionInWorldSpace);
+            float[] lightPositionInCameraSpace = MatrixUtils.multiply(viewMatrix, lightPositionInWorldSpace);
+            glState.uniform3fv(gl, lightPositionUniformIndex, lightPositionInCameraSpace);
+
+            //draw cube.
+            setModelMatrix(gl, modelMatrix);
+            cube.draw(gl, glState);
+
+            //draw floor.
+            setModelMatrix(gl, floorModelMatrix);
+            glState.bindVertexArray(gl, floorVertexArrayObjectId);
+            gl.glDrawArrays(GL3.GL_TRIANGLE_STRIP, 0, 4);
+        }
+
+        /**
+         * Sets the matrix uniforms for drawing an object with the given model matrix.
+         */
+        private void setModelMatrix(GL3 gl, Matrix4 modelMatrix) {
+            glState.uniformMatrix4fv(gl, modelMatrixUniformIndex, modelMatrix.getMatrix());
+            Matrix4 modelViewMatrix = MatrixUtils.multiply(viewMatrix, modelMatrix);
+            glState.uniformMatrix4fv(gl, modelViewMatrixUniformIndex, modelViewMatrix.getMatrix());
+            Matrix4 modelViewProjectionMatrix = MatrixUtils.multiply(projectionMatrix, modelViewMatrix);
+            glState.uniformMatrix4fv(gl, modelViewProjectionMatrixUniformIndex, modelViewProjectionMatrix.getMatrix());
+        }
+
         @Override
         public void dispose(GLAutoDrawable drawable) {
+            if (resourceWatcher != null) {
+                try {
+                    resourceWatcher.close();
+                } catch (Exception e) {
+                    System.err.println("Error while closing resource watcher: " + e.getMessage());
+                }
+            }
+            GL3 gl = drawable.getGL().getGL3();
+            if (streamServer != null) streamServer.dispose(gl);
+            shadowMap.dispose(gl, glState);
+            frameGraph.dispose(gl);
+            resources.dispose(gl);
         }
     };
+
+    /**
+     * Memory-maps the cube from CUBE_MESH, it has positions, normal vectors and colors (attribute indices 0, 1 and 2).
+     */
+    static MappedMesh loadCubeMesh() throws IOException {
+        return MeshFile.load(new ResourceLoader("/rasterizer/meshes/"), CUBE_MESH);
+    }
+
+    /**
+     * @param cubeYaw in degrees.
+     * @return model matrix of the cube.
+     */
+    static Matrix4 createModelMatrix(float cubeYaw) {
+        return MatrixUtils.createModelMatrix(0, 0, 0, cubeYaw, 0, 0, 1, 1, 1);
+    }
+
+    /**
+     * @return view matrix of the camera, which does not move.
+     */
+    static Matrix4 createViewMatrix() {
+        return MatrixUtils.createViewMatrix(0, 1, 4, 0, -11, 0);
+    }
+
+    /**
+     * @return projection matrix for a viewport with the given aspect ratio (width/height).
+     */
+    static Matrix4 createProjectionMatrix(float aspectRatio) {
+        return MatrixUtils.createPerspectiveProjectionMatrix(45, aspectRatio, 1, 100);
+    }
+
+    /**
+     * @return homogeneous coordinates (x, y, z, 1) in world space of the light source at the given polar coordinates.
+     */
+    static float[] getLightPositionInWorldSpace(float radius, float yaw, float pitch) {
+        return new float[]{(float) (radius*Math.cos(pitch)*Math.cos(yaw)),
+                           (float) (radius*Math.sin(pitch)), (float) (radius*Math.cos(pitch)*-Math.sin(yaw)), 1};
+    }
+
+    /**
+     * @return copy of the vertex coordinates (x, y, z) of the cube in model space, 4 vertices (a triangle strip) per face.
+     */
+    static float[] getCubeCoordinates() {
+        return coordinates.clone();
+    }
+
+    /**
+     * @return copy of the vertex normal vectors (x, y, z) of the cube in model space.
+     */
+    static float[] getCubeNormalVectors() {
+        return normalVectors.clone();
+    }
+
+    /**
+     * @return copy of the vertex colors (r, g, b) of the cube.
+     */
+    static float[] getCubeColors() {
+        return colors.clone();
+    }
+
+    /**
+     * @return copy of the vertex coordinates (x, y, z) of the floor in world space, 4 vertices (a triangle strip).
+     */
+    static float[] getFloorCoordinates() {
+        return floorCoordinates.clone();
+    }
+
+    /**
+     * @return copy of the vertex normal vectors (x, y, z) of the floor.
+     */
+    static float[] getFloorNormalVectors() {
+        return floorNormalVectors.clone();
+    }
+
+    /**
+     * @return copy of the vertex colors (r, g, b) of the floor.
+     */
+    static float[] getFloorColors() {
+        return floorColors.clone();
+    }
+
+    /**
+     * @return copy of the light source intensity per color component (r, g, b).
+     */
+    static float[] getLightIntensity() {
+        return lightIntensity.clone();
+    }
+
+    /**
+     * @return copy of the ambient light intensity per color component (r, g, b).
+     */
+    static float[] getAmbientLightIntensity() {
+        return ambientLightIntensity.clone();
+    }
 }
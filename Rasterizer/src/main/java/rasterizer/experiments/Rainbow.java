@@ -3,55 +3,104 @@
  */
 package rasterizer.experiments;
 
+import com.jogamp.common.util.VersionNumber;
 import com.jogamp.opengl.GL3;
 import com.jogamp.opengl.GLAutoDrawable;
 import com.jogamp.opengl.GLEventListener;
 import com.jogamp.opengl.awt.GLCanvas;
 import com.jogamp.opengl.math.Matrix4;
-import com.jogamp.opengl.math.VectorUtil;
+import rasterizer.geometry.Ribbon;
+import rasterizer.util.GLResourceManager;
+import rasterizer.util.GLStateTracker;
 import rasterizer.util.MatrixUtils;
 import rasterizer.util.OpenGLUtils;
 import rasterizer.util.ResourceLoader;
+import rasterizer.util.ResourceWatcher;
+import rasterizer.util.ShaderReloader;
 import rasterizer.util.Utils;
 
-import java.util.Arrays;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+import java.util.Set;
 
 import static java.lang.Math.*;
 
 /**
  * Uses OpenGL 3 to draw a rainbow that follows a curve through 3D space.
  *
+ * With --geometry-shader only the points along the curve are uploaded and the cross-sections of the rainbow
+ * are extruded by a geometry shader (this requires OpenGL 3.2). Both ways should give the same image, which is checked by
+ * RegressionTests --gpu (test rainbow_geometry_shader_gpu), also without a GPU using Mesa's software renderer
+ * (environment variable LIBGL_ALWAYS_SOFTWARE=true). The geometry shader supports at most
+ * Ribbon.MAX_GEOMETRY_SHADER_CROSS_SECTION_VERTEX_COUNT vertices per cross-section, larger values of maxCrossSectionVertexCount are rejected.
+ *
+ * With --watch the shaders and the parameters of the rainbow (rainbow.properties) are loaded from the given resource directory
+ * (e.g. src/main/resources) and are loaded again when they are changed, without restarting.
+ * Then only the changed shader program is recompiled, or only the geometry of the rainbow is created again.
+ *
+ * Usage: Rainbow [--geometry-shader] [--watch resourceDirectory]
+ *
  * @author A.C. Kockx
  */
 public final class Rainbow {
     //colors of the rainbow (r, g, b).
-    private final float rainbowColors[] = new float[]{1,    0, 0,
+    static final float rainbowColors[] = new float[]{1,    0, 0,
                                                       1, 0.5f, 0,
                                                       1,    1, 0,
                                                       0,    1, 0,
                                                       0,    1, 1,
                                                       0,    0, 1,
                                                       0.5f, 0, 1};
-    private final float colorLocations[] = new float[]{0, 1/6f, 2/6f, 3/6f, 4/6f, 5/6f, 1};
+    static final float colorLocations[] = new float[]{0, 1/6f, 2/6f, 3/6f, 4/6f, 5/6f, 1};
+    private static final long VIDEO_MEMORY_BUDGET = 64L << 20;//bytes.
+    private static final String PARAMETERS = "rainbow.properties";
 
-    private final int dimensionCount = 3;
-    private final String vertexShaderSource;
-    private final String fragmentShaderSource;
+    private final boolean useGeometryShader;
+    private final ResourceLoader shaderLoader;
+    private final ResourceLoader parameterLoader;
+    //null if the resources are not watched.
+    private final ResourceWatcher resourceWatcher;
 
     public static void main(String[] args) throws Exception {
-        new Rainbow();
+        boolean useGeometryShader = false;
+        Path resourceDirectory = null;
+        for (int index = 0; index < args.length; index++) {
+            if ("--geometry-shader".equals(args[index])) {
+                useGeometryShader = true;
+            } else if ("--watch".equals(args[index]) && index + 1 < args.length) {
+                index++;
+                resourceDirectory = Paths.get(args[index]);
+            } else {
+                System.err.println("Usage: " + Rainbow.class.getSimpleName() + " [--geometry-shader] [--watch resourceDirectory]");
+                return;
+            }
+        }
+
+        new Rainbow(useGeometryShader, resourceDirectory);
     }
 
-    private Rainbow() throws Exception {
-        //load shader source.
-        ResourceLoader loader = new ResourceLoader("/rasterizer/shaders/");
-        vertexShaderSource = Utils.read(loader.loadResource("uv_vertex_shader.glsl"));
-        fragmentShaderSource = Utils.read(loader.loadResource("color_gradient_fragment_shader.glsl"));
+    /**
+     * @param resourceDirectory directory to load the resources from and to watch, or null to load the resources from the class path.
+     */
+    private Rainbow(boolean useGeometryShader, Path resourceDirectory) throws Exception {
+        this.useGeometryShader = useGeometryShader;
+        shaderLoader = new ResourceLoader("/rasterizer/shaders/", resourceDirectory);
+        parameterLoader = new ResourceLoader("/rasterizer/parameters/", resourceDirectory);
 
         //create OpenGL canvas.
         GLCanvas canvas = OpenGLUtils.createGLCanvas(800, 600);
         canvas.addGLEventListener(glEventListener);
 
+        //repaint when a resource has changed, so that it is loaded again.
+        if (resourceDirectory != null) {
+            resourceWatcher = new ResourceWatcher(resourceDirectory, canvas::repaint);
+            System.out.println("Watching " + resourceDirectory.toAbsolutePath());
+        } else {
+            resourceWatcher = null;
+        }
+
         //init GUI on event-dispatching thread.
         javax.swing.SwingUtilities.invokeAndWait(new Runnable() {
             @Override
@@ -61,15 +110,33 @@ public final class Rainbow {
         });
     }
 
+    /**
+     * Creates the experiment without a window, so that it can be rendered offscreen with the GLEventListener from getGLEventListener,
+     * e.g. by a regression test.
+     */
+    Rainbow(boolean useGeometryShader) {
+        this.useGeometryShader = useGeometryShader;
+        shaderLoader = new ResourceLoader("/rasterizer/shaders/");
+        parameterLoader = new ResourceLoader("/rasterizer/parameters/");
+        resourceWatcher = null;
+    }
+
+    GLEventListener getGLEventListener() {
+        return glEventListener;
+    }
+
     private final GLEventListener glEventListener = new GLEventListener() {
         private int shaderProgramId = -1;
         private int mvpMatrixUniformIndex = -1;
-        private int[] triangleStripIds = null;
-        private int vertexCountPerTriangleStrip = -1;
+        private int crossSectionVertexCountUniformIndex = -1;
+        private Ribbon ribbon = null;
+        private final GLStateTracker glState = new GLStateTracker();
+        private final GLResourceManager resources = new GLResourceManager(VIDEO_MEMORY_BUDGET);
+        private ShaderReloader shaders = null;
 
-        private Matrix4 modelMatrix = null;
-        private Matrix4 viewMatrix = null;
-        private Matrix4 projectionMatrix = null;
+        private Matrix4 mvpMatrix = null;
+        private int viewportWidth = 1;
+        private int viewportHeight = 1;
 
         @Override
         public void init(GLAutoDrawable drawable) {
@@ -78,72 +145,37 @@ public final class Rainbow {
             gl.glEnable(GL3.GL_DEPTH_TEST);
 
             //create shaders.
-            shaderProgramId = OpenGLUtils.createShaderProgram(gl,
-                    new int[]{GL3.GL_VERTEX_SHADER, GL3.GL_FRAGMENT_SHADER}, new String[]{vertexShaderSource, fragmentShaderSource},
-                    new String[]{OpenGLUtils.VERTEX_POSITION, OpenGLUtils.VERTEX_UV_COORDINATES});
-            mvpMatrixUniformIndex = gl.glGetUniformLocation(shaderProgramId, OpenGLUtils.MODEL_VIEW_PROJECTION_MATRIX);
-            int gradientColorsUniformIndex = gl.glGetUniformLocation(shaderProgramId, "gradientColors");
-            int locationsUniformIndex = gl.glGetUniformLocation(shaderProgramId, "locations");
-            int colorCountUniformIndex = gl.glGetUniformLocation(shaderProgramId, "colorCount");
-            gl.glUseProgram(shaderProgramId);
-            int colorCount = colorLocations.length;
-            gl.glUniform3fv(gradientColorsUniformIndex, colorCount, rainbowColors, 0);
-            gl.glUniform1fv(locationsUniformIndex, colorCount, colorLocations, 0);
-            gl.glUniform1i(colorCountUniformIndex, colorCount);
-
-            //create rainbow curve.
-            //The rainbow starts horizontal (i.e. in the xz-plane) at the origin in model space, going in the negative z direction.
-            int pointCount = 100;//to accomodate level of detail in the direction of the length of the rainbow (can be 2 if rainbow is completely straight and flat).
-            float[][] points = new float[pointCount][dimensionCount];
-            float[] firstSegmentDirectionUnitVector = new float[]{1, 0, 0};
-            float[] bankingAnglesInDegrees = new float[pointCount];
-            for (int pointIndex = 0; pointIndex < points.length; pointIndex++) {
-                float t = pointIndex/(pointCount - 1f);
-                float x = -0.5f + t - (float) sin(2*PI*t)/2;
-                float y = 0;
-                float z = -2*t - (float) sin(2*PI*t)/2;
-                points[pointIndex] = new float[]{x, y, z};
-                bankingAnglesInDegrees[pointIndex] = 0;
-            }
-            //create rainbow geometry.
-            float[][][] allVertices = createRainbowGeometry(points, 0.3f, firstSegmentDirectionUnitVector, bankingAnglesInDegrees);
-            int segmentCount = allVertices.length;
-            int vertexCountPerSegment = allVertices[0].length;
-            float[] uCoordinates = new float[vertexCountPerSegment];
-            int triangleStripCount = vertexCountPerSegment - 1;
-            triangleStripIds = new int[triangleStripCount];
-            vertexCountPerTriangleStrip = segmentCount*2;
-            //calculate u coordinates.
-            for (int vertexIndex = 0; vertexIndex < vertexCountPerSegment; vertexIndex++) {
-                uCoordinates[vertexIndex] = vertexIndex/(vertexCountPerSegment - 1f);
-            }
-            for (int triangleStripIndex = 0; triangleStripIndex < triangleStripCount; triangleStripIndex++) {
-                float[] coordinates = new float[vertexCountPerTriangleStrip*dimensionCount];
-                float[] uvCoordinates = new float[vertexCountPerTriangleStrip*2];
-                //set all u and v coordinates to 0.
-                Arrays.fill(uvCoordinates, 0);
-                int index = 0;
-                for (int segmentIndex = 0; segmentIndex < segmentCount; segmentIndex++) {
-                    //uneven vertex.
-                    for (int d = 0; d < dimensionCount; d++) {
-                        coordinates[index] = allVertices[segmentIndex][triangleStripIndex][d];
-                        index++;
-                    }
-                    uvCoordinates[4*segmentIndex] = uCoordinates[triangleStripIndex];//u.
-
-                    //even vertex.
-                    for (int d = 0; d < dimensionCount; d++) {
-                        coordinates[index] = allVertices[segmentIndex][triangleStripIndex + 1][d];
-                        index++;
-                    }
-                    uvCoordinates[4*segmentIndex + 2] = uCoordinates[triangleStripIndex + 1];//u.
+            shaders = new ShaderReloader(resources, glState, shaderLoader);
+            ShaderReloader.Listener shaderListener = (GL3 shaderGl, int id) -> {
+                shaderProgramId = id;
+                mvpMatrixUniformIndex = glState.getUniformLocation(shaderGl, id, OpenGLUtils.MODEL_VIEW_PROJECTION_MATRIX);
+                crossSectionVertexCountUniformIndex = glState.getUniformLocation(shaderGl, id, "crossSectionVertexCount");
+                glState.useProgram(shaderGl, id);
+                setGradientUniforms(shaderGl, glState, id);
+            };
+            if (useGeometryShader) {
+                if (gl.getContext().getGLVersionNumber().compareTo(new VersionNumber(3, 2, 0)) < 0) {
+                    System.err.println("Geometry shaders need OpenGL 3.2 or higher, this context is " + gl.getContext().getGLVersion());
                 }
-                triangleStripIds[triangleStripIndex] = OpenGLUtils.createVertexArray(gl, new int[]{dimensionCount, 2}, new float[][]{coordinates, uvCoordinates});
+                shaders.createShaderProgram(gl, new int[]{GL3.GL_VERTEX_SHADER, GL3.GL_GEOMETRY_SHADER, GL3.GL_FRAGMENT_SHADER},
+                        new String[]{"ribbon_centerline_vertex_shader.glsl", "ribbon_geometry_shader.glsl", "color_gradient_fragment_shader.glsl"},
+                        new String[]{OpenGLUtils.VERTEX_POSITION, Ribbon.VERTEX_HALF_WIDTH_VECTOR, Ribbon.VERTEX_TANGENT, Ribbon.VERTEX_BANKING_ANGLE}, shaderListener);
+            } else {
+                shaders.createShaderProgram(gl, new int[]{GL3.GL_VERTEX_SHADER, GL3.GL_FRAGMENT_SHADER},
+                        new String[]{"uv_vertex_shader.glsl", "color_gradient_fragment_shader.glsl"},
+                        new String[]{OpenGLUtils.VERTEX_POSITION, OpenGLUtils.VERTEX_UV_COORDINATES}, shaderListener);
+            }
+
+            //create rainbow.
+            //The geometry for each level of detail is created when it is drawn for the first time.
+            try {
+                ribbon = loadRainbow();
+            } catch (Exception e) {
+                throw new RuntimeException("Error while loading " + PARAMETERS + ": " + e.getMessage(), e);
             }
-            modelMatrix = MatrixUtils.createModelMatrix(-1, 0, 0, -90, 45, 90, 1, 1, 1);
 
-            //create camera.
-            viewMatrix = MatrixUtils.createViewMatrix(-0.3f, 0.7f, 4, 0, 0, 0);
+            //the state was changed directly above.
+            glState.invalidate();
 
             int error = gl.glGetError();
             if (error != 0) System.err.println("Error during initialization: " + error);
@@ -157,9 +189,11 @@ public final class Rainbow {
             if (width <= 0) width = 1;//to avoid divide by zero.
             if (height <= 0) height = 1;//to avoid divide by zero.
             float aspectRatio = width/((float) height);
+            viewportWidth = width;
+            viewportHeight = height;
 
-            //(re)initialize projection matrix.
-            projectionMatrix = MatrixUtils.createOrthographicProjectionMatrix(2, aspectRatio, 0.1f, 100);
+            //(re)initialize model-view-projection matrix, the rainbow and the camera do not move.
+            mvpMatrix = createModelViewProjectionMatrix(aspectRatio);
         }
 
         @Override
@@ -167,108 +201,138 @@ public final class Rainbow {
             GL3 gl = drawable.getGL().getGL3();
             gl.glClear(GL3.GL_COLOR_BUFFER_BIT | GL3.GL_DEPTH_BUFFER_BIT);
 
+            //load the resources that have changed again.
+            if (resourceWatcher != null) {
+                Set<String> changedResources = resourceWatcher.pollChangedResources();
+                long startTime = System.nanoTime();
+                int reloadedCount = shaders.reload(gl, changedResources);
+                if (changedResources.contains(parameterLoader.getResourcePathName(PARAMETERS)) && reloadRainbow(gl)) reloadedCount++;
+                if (reloadedCount > 0) {
+                    System.out.println("Reloaded changed resources in " + (System.nanoTime() - startTime)/1000000 + " ms");
+                }
+            }
+
             //draw rainbow.
-            gl.glUseProgram(shaderProgramId);
-            //calculate model-view-projection matrix for rainbow.
-            Matrix4 mvpMatrix = MatrixUtils.multiply(projectionMatrix, MatrixUtils.multiply(viewMatrix, modelMatrix));
+            glState.useProgram(gl, shaderProgramId);
             //set model-view-projection matrix in the "active" shader program.
-            gl.glUniformMatrix4fv(mvpMatrixUniformIndex, 1, false, mvpMatrix.getMatrix(), 0);
-            //draw triangle strips.
-            for (int triangleStripId : triangleStripIds) {
-                gl.glBindVertexArray(triangleStripId);
-                gl.glDrawArrays(GL3.GL_TRIANGLE_STRIP, 0, vertexCountPerTriangleStrip);
+            glState.uniformMatrix4fv(gl, mvpMatrixUniformIndex, mvpMatrix.getMatrix());
+            //draw triangle strips, using the level of detail that matches the current size of the rainbow on the screen.
+            int level = ribbon.selectLevel(mvpMatrix, viewportWidth, viewportHeight);
+            if (useGeometryShader) {
+                ribbon.drawWithGeometryShader(gl, glState, resources, level, crossSectionVertexCountUniformIndex);
+            } else {
+                ribbon.draw(gl, glState, resources, level);
             }
 
             int error = gl.glGetError();
             if (error != 0) System.err.println("Error during rendering: " + error);
         }
 
+        /**
+         * Creates the rainbow again with the changed parameters, only its geometry is replaced.
+         * If the parameters are invalid, then the previous rainbow is kept.
+         *
+         * @return true if the rainbow was replaced.
+         */
+        private boolean reloadRainbow(GL3 gl) {
+            Ribbon newRibbon;
+            try {
+                newRibbon = loadRainbow();
+            } catch (Exception e) {
+                System.err.println("Error while loading " + PARAMETERS + ": " + e.getMessage() + ", keeping previous rainbow");
+                return false;
+            }
+            ribbon.dispose(gl, resources);
+            ribbon = newRibbon;
+            return true;
+        }
+
         @Override
         public void dispose(GLAutoDrawable drawable) {
+            if (resourceWatcher != null) {
+                try {
+                    resourceWatcher.close();
+                } catch (Exception e) {
+                    System.err.println("Error while closing resource watcher: " + e.getMessage());
+                }
+            }
+            resources.dispose(drawable.getGL().getGL3());
         }
     };
 
     /**
-     * Creates a rainbow along the given curve.
-     *
-     * The rainbow follows a curve in 3D space that is described by the given list of points.
-     * For each point, the rainbow has one segment. A segment consists of a set of vertices,
-     * one for each color of the rainbow, that are positioned equidistantly along a line piece
-     * that is centered on the point corresponding to the segment. The line piece has a length
-     * equal to the given width.
-     * The line piece of the first segment is oriented along the given firstSegmentUAxisUnitVector,
-     * which must be perpendicular to the curve.
-     * The orientation of each next segment is such that it is perpendicular to the curve
-     * and as close as possible to the orientation of the previous segment.
-     * In other words if there is a bend in the curve, then the segments are rotated to follow the bend.
+     * Creates the rainbow with the parameters from PARAMETERS.
      *
-     * Afterwards the orientation of each segment is rotated by the corresponding banking angle
-     * about an axis tangential to the curve at the segment position.
+     * @throws IllegalArgumentException if the cross-sections are too large for the geometry shader, if it is used.
      */
-    private static float[][][] createRainbowGeometry(float[][] points, float width, float[] firstSegmentUAxisUnitVector, float[] bankingAnglesInDegrees) {
-        int segmentCount = points.length;
-        int vertexCountPerSegment = 20;//to accomodate level of detail in direction of width of rainbow (can be 2 if rainbow is completely flat).
-        int dimensionCount = points[0].length;
-        float[][][] allVertices = new float[segmentCount][vertexCountPerSegment][dimensionCount];
-
-        //create segments.
-        float[] previousPosition = points[0];
-        float[] previousUAxisUnitVector = firstSegmentUAxisUnitVector;
-        for (int segmentIndex = 0; segmentIndex < segmentCount; segmentIndex++) {
-            float[] currentPosition = points[segmentIndex];
-            float[] nextPosition;
-            if (segmentIndex < segmentCount - 1) {
-                nextPosition = points[segmentIndex + 1];
-            } else {//if last segment.
-                nextPosition = currentPosition;
-            }
+    private Ribbon loadRainbow() throws Exception {
+        Ribbon ribbon = createRainbow(loadParameters());
+        if (useGeometryShader && ribbon.getMaxCrossSectionVertexCount() > Ribbon.MAX_GEOMETRY_SHADER_CROSS_SECTION_VERTEX_COUNT) {
+            throw new IllegalArgumentException("maxCrossSectionVertexCount must be at most " + Ribbon.MAX_GEOMETRY_SHADER_CROSS_SECTION_VERTEX_COUNT
+                                               + " with --geometry-shader");
+        }
+        return ribbon;
+    }
 
-            //project previous u-axis on a plane perpendicular to the curve to get new u-axis.
-            float[] tangentUnitVector = new float[dimensionCount];
-            for (int d = 0; d < dimensionCount; d++) {
-                tangentUnitVector[d] = nextPosition[d] - previousPosition[d];
-            }
-            VectorUtil.normalizeVec3(tangentUnitVector);
-            //this code assumes that two consecutive pieces of the curve never make a 90 degree angle.
-            float[] vAxisUnitVector = VectorUtil.crossVec3(new float[dimensionCount], previousUAxisUnitVector, tangentUnitVector);
-            VectorUtil.normalizeVec3(vAxisUnitVector);
-            float[] uAxisUnitVector = VectorUtil.crossVec3(new float[dimensionCount], tangentUnitVector, vAxisUnitVector);
-            VectorUtil.normalizeVec3(uAxisUnitVector);
-
-            //rotate segment by bankingAngle about an axis parallel to tangentUnitVector in the direction from u-axis to v-axis.
-            Matrix4 rotationMatrix = new Matrix4();
-            rotationMatrix.rotate((float) Math.toRadians(bankingAnglesInDegrees[segmentIndex]), -tangentUnitVector[0], -tangentUnitVector[1], -tangentUnitVector[2]);
-            float[] segmentDirectionUnitVector = MatrixUtils.multiply(rotationMatrix, new float[]{uAxisUnitVector[0], uAxisUnitVector[1], uAxisUnitVector[2], 0});
-
-            //create segment.
-            allVertices[segmentIndex] = createRainbowSegment(currentPosition,
-                    new float[]{segmentDirectionUnitVector[0], segmentDirectionUnitVector[1], segmentDirectionUnitVector[2]}, width, vertexCountPerSegment);
-
-            previousPosition = currentPosition;
-            previousUAxisUnitVector = uAxisUnitVector;
+    private Properties loadParameters() throws Exception {
+        Properties parameters = new Properties();
+        try (InputStream inputStream = parameterLoader.loadResource(PARAMETERS)) {
+            parameters.load(inputStream);
         }
+        return parameters;
+    }
 
-        return allVertices;
+    /**
+     * @return model-view-projection matrix of the rainbow for a viewport with the given aspect ratio (width/height).
+     */
+    static Matrix4 createModelViewProjectionMatrix(float aspectRatio) {
+        Matrix4 modelMatrix = MatrixUtils.createModelMatrix(-1, 0, 0, -90, 45, 90, 1, 1, 1);
+        Matrix4 viewMatrix = MatrixUtils.createViewMatrix(-0.3f, 0.7f, 4, 0, 0, 0);
+        Matrix4 projectionMatrix = MatrixUtils.createOrthographicProjectionMatrix(2, aspectRatio, 0.1f, 100);
+        return MatrixUtils.multiply(projectionMatrix, MatrixUtils.multiply(viewMatrix, modelMatrix));
     }
 
     /**
-     * Creates vertexCount vertices positioned equidistantly along a line piece with the given length.
-     * The line piece is oriented along the direction of the given directionUnitVector and centered on the given centerCoordinates.
+     * Sets the colors of the rainbow in the given color gradient shader program, which must be the current program of the given tracker.
      */
-    private static float[][] createRainbowSegment(float[] centerCoordinates, float[] directionUnitVector, float length, int vertexCount) {
-        int dimensionCount = centerCoordinates.length;
-        float[][] segmentVertexCoordinates = new float[vertexCount][dimensionCount];
+    static void setGradientUniforms(GL3 gl, GLStateTracker glState, int shaderProgramId) {
+        int colorCount = colorLocations.length;
+        glState.uniform3fv(gl, glState.getUniformLocation(gl, shaderProgramId, "gradientColors"), colorCount, rainbowColors);
+        glState.uniform1fv(gl, glState.getUniformLocation(gl, shaderProgramId, "locations"), colorCount, colorLocations);
+        glState.uniform1i(gl, glState.getUniformLocation(gl, shaderProgramId, "colorCount"), colorCount);
+    }
 
-        for (int vertexIndex = 0; vertexIndex < vertexCount; vertexIndex++) {
-            //parameter u ranges from -length/2 to length/2 (both inclusive).
-            float u = length*vertexIndex/(vertexCount - 1f) - length/2;
+    /**
+     * Creates the rainbow ribbon with the default parameters.
+     */
+    static Ribbon createRainbow() {
+        return createRainbow(new Properties());
+    }
 
-            float[] vertexPosition = new float[dimensionCount];
-            for (int d = 0; d < dimensionCount; d++) {
-                segmentVertexCoordinates[vertexIndex][d] = centerCoordinates[d] + u*directionUnitVector[d];
+    /**
+     * Creates the rainbow ribbon.
+     * The rainbow starts horizontal (i.e. in the xz-plane) at the origin in model space, going in the negative z direction.
+     *
+     * @param parameters see rainbow.properties, parameters that are missing get their default value.
+     */
+    static Ribbon createRainbow(Properties parameters) {
+        Ribbon.Curve curve = new Ribbon.Curve() {
+            @Override
+            public float[] getPosition(float t) {
+                float x = -0.5f + t - (float) sin(2*PI*t)/2;
+                float y = 0;
+                float z = -2*t - (float) sin(2*PI*t)/2;
+                return new float[]{x, y, z};
             }
-        }
-
-        return segmentVertexCoordinates;
+        };
+        //by default level 0 is intended for a rainbow of which one unit in model space covers 4096 pixels on the screen.
+        //The chord error is at most a quarter of a pixel and each piece of a cross-section covers at least 8 pixels.
+        float width = Float.parseFloat(parameters.getProperty("width", "0.3"));
+        float maxPixelError = Float.parseFloat(parameters.getProperty("maxPixelError", "0.25"));
+        float pixelsPerCrossSectionVertex = Float.parseFloat(parameters.getProperty("pixelsPerCrossSectionVertex", "8"));
+        int maxCrossSectionVertexCount = Integer.parseInt(parameters.getProperty("maxCrossSectionVertexCount", "20").trim());
+        float finestPixelsPerUnit = Float.parseFloat(parameters.getProperty("finestPixelsPerUnit", "4096"));
+        int levelCount = Integer.parseInt(parameters.getProperty("levelCount", "10").trim());
+        return new Ribbon(curve, width, new float[]{1, 0, 0}, maxPixelError, pixelsPerCrossSectionVertex, maxCrossSectionVertexCount, finestPixelsPerUnit, levelCount);
     }
 }
@@ -0,0 +1,459 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.experiments;
+
+import com.jogamp.opengl.math.Matrix4;
+import rasterizer.cpu.BloomFilter;
+import rasterizer.cpu.ColorGradientShader;
+import rasterizer.cpu.CpuRasterizer;
+import rasterizer.cpu.DoubleFloatMandelbrotShader;
+import rasterizer.cpu.EdgeSampler;
+import rasterizer.cpu.FrameBuffer;
+import rasterizer.cpu.MandelbrotShader;
+import rasterizer.cpu.PhongShader;
+import rasterizer.cpu.RayCastShadowMap;
+import rasterizer.cpu.UVShader;
+import rasterizer.fractal.MandelbrotRenderer;
+import rasterizer.fractal.MandelbrotView;
+import rasterizer.geometry.Mesh;
+import rasterizer.geometry.MeshSimplifier;
+import rasterizer.geometry.Ribbon;
+import rasterizer.lighting.PointLightShadowMap;
+import rasterizer.regression.GpuRegressionTest;
+import rasterizer.regression.RegressionRunner;
+import rasterizer.regression.RegressionTest;
+import rasterizer.util.DoubleFloat;
+import rasterizer.util.MatrixUtils;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Image regression tests for the experiments. Each experiment is rendered without a GPU (using CpuRasterizer) at fixed parameters
+ * and the result is compared with a golden image. This catches e.g. changes in the matrix conventions of MatrixUtils
+ * or in the geometry of the experiments. The render times are checked as well, so that performance regressions also fail.
+ * The tests use the same matrices, geometry and parameters as the experiments themselves.
+ *
+ * The CPU tests render Java ports of the shaders. With --gpu the experiments are also rendered offscreen with OpenGL,
+ * by the same code and GLSL shaders that draw them on the screen (see GpuRegressionTest), and are compared with the same golden images.
+ * This needs OpenGL 3, e.g. Mesa's software renderer (LIBGL_ALWAYS_SOFTWARE=true).
+ *
+ * Usage: RegressionTests [--gpu] [--update goldenImageDirectory]
+ * With --update the golden images are (re)created in the given directory (normally src/main/resources/rasterizer/golden),
+ * this must only be done after checking that the changes in the rendered images are intended. The golden images are always rendered on the CPU.
+ *
+ * @author A.C. Kockx
+ */
+public final class RegressionTests {
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+    private static final float ASPECT_RATIO = WIDTH/((float) HEIGHT);
+    //identical images have an infinite PSNR, a small tolerance allows for rounding differences between Java versions.
+    private static final double MIN_PSNR = 40;
+    //the GLSL shaders are compared with the golden images of their Java ports. These differ in rounding (e.g. the GPU can use fused
+    //multiply-adds) and in the exact pixels that the edges of triangles cover, which changes e.g. the color of some pixels at the edges
+    //of the iteration bands of the Mandelbrot set.
+    private static final double GPU_MIN_PSNR = 25;
+    //the double-float shader is compared with MandelbrotRenderer, which calculates in double precision. Near the boundary of the set
+    //the small difference in precision is amplified by the many iterations, so that about 2% of the pixels of these views differ
+    //(the Java port of the shader has a PSNR of about 24 dB and 18 dB). With float precision (or if the compiler breaks the error-free
+    //transformations of the shader) most pixels differ, with a PSNR below 10 dB.
+    private static final double DOUBLE_REFERENCE_MIN_PSNR = 15;
+    //includes reading the image back, generous enough for Mesa's software renderer.
+    private static final double GPU_MAX_RENDER_TIME = 2000;
+
+    private RegressionTests() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        String usage = "Usage: " + RegressionTests.class.getSimpleName() + " [--gpu] [--update goldenImageDirectory]";
+        boolean gpu = false;
+        Path updateDirectory = null;
+        try {
+            for (int n = 0; n < args.length; n++) {
+                switch (args[n]) {
+                    case "--gpu":
+                        gpu = true;
+                        break;
+                    case "--update":
+                        updateDirectory = Paths.get(args[++n]);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("unknown argument " + args[n]);
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+            System.err.println(usage);
+            System.exit(1);
+        }
+        //the golden images are always rendered on the CPU.
+        if (gpu && updateDirectory != null) {
+            System.err.println(usage);
+            System.exit(1);
+        }
+
+        List<RegressionTest> tests = createTests();
+        if (gpu) {
+            String reason = GpuRegressionTest.getUnavailableReason();
+            if (reason != null) {
+                System.err.println("The GPU tests need OpenGL 3, which is not available: " + reason);
+                System.exit(1);
+            }
+            tests.addAll(createGpuTests());
+        }
+        if (!RegressionRunner.run(tests, updateDirectory)) System.exit(1);
+    }
+
+    static List<RegressionTest> createTests() {
+        List<RegressionTest> tests = new ArrayList<>();
+        //initial light position of MultiColoredCube.
+        tests.add(createMultiColoredCubeTest("multi_colored_cube", "multi_colored_cube.png", MultiColoredCube.INITIAL_LIGHT_RADIUS,
+                MultiColoredCube.INITIAL_LIGHT_YAW, MultiColoredCube.INITIAL_LIGHT_PITCH, null, false, 100));
+        //light above and behind the cube, so that the specular highlight is on a different face.
+        tests.add(createMultiColoredCubeTest("multi_colored_cube_light_above", "multi_colored_cube_light_above.png", 5, 2, (float) (Math.PI/4), null, false, 100));
+        //the same image drawn with the indexed triangles of the mesh file that MultiColoredCube draws, each vertex must be shaded only once.
+        Mesh cube;
+        try {
+            cube = MultiColoredCube.loadCubeMesh().toMesh();
+        } catch (Exception e) {
+            throw new RuntimeException("Error while loading " + MultiColoredCube.CUBE_MESH + ": " + e.getMessage(), e);
+        }
+        tests.add(createMultiColoredCubeTest("multi_colored_cube_indexed", "multi_colored_cube.png", MultiColoredCube.INITIAL_LIGHT_RADIUS,
+                MultiColoredCube.INITIAL_LIGHT_YAW, MultiColoredCube.INITIAL_LIGHT_PITCH, cube, false, 100));
+        //a finely divided cube simplified as far as possible, which must give the same cube: the seams between the faces (where the normals
+        //and colors change) must only move along the edges of the cube, onto its corners, without tearing the mesh open.
+        Mesh simplifiedCube = MeshSimplifier.simplify(createDividedCube(4), 0, Float.POSITIVE_INFINITY);
+        tests.add(createMultiColoredCubeTest("multi_colored_cube_simplified", "multi_colored_cube.png", MultiColoredCube.INITIAL_LIGHT_RADIUS,
+                MultiColoredCube.INITIAL_LIGHT_YAW, MultiColoredCube.INITIAL_LIGHT_PITCH, simplifiedCube, false, 100));
+        //the bright parts blurred and added to the image by the post-processing passes (the B key in MultiColoredCube).
+        tests.add(createMultiColoredCubeTest("multi_colored_cube_bloom", "multi_colored_cube_bloom.png", MultiColoredCube.INITIAL_LIGHT_RADIUS,
+                MultiColoredCube.INITIAL_LIGHT_YAW, MultiColoredCube.INITIAL_LIGHT_PITCH, null, true, 200));
+        //initial view of GpuMandelbrot.
+        tests.add(createMandelbrotTest("gpu_mandelbrot", -0.5, 0, 1, false, WIDTH, HEIGHT, 1000));
+        tests.add(createMandelbrotTest("gpu_mandelbrot_zoomed", -0.7453, 0.1127, 200, false, WIDTH, HEIGHT, 2000));
+        tests.add(createMandelbrotTest("gpu_mandelbrot_anti_aliased", -0.7453, 0.1127, 200, true, WIDTH, HEIGHT, 2000));
+        //beyond the precision of floats, so this uses the double-float shader (with 500 iterations, hence the smaller image).
+        tests.add(createMandelbrotTest("gpu_mandelbrot_double_float", -0.743643887037151, 0.131825904205330, 1e6, false, WIDTH/2, HEIGHT/2, 5000));
+        //the same view and a deeper one (1300 iterations) in double precision (MandelbrotRenderer), as references for the double-float shaders.
+        tests.add(createMandelbrotReferenceTest("mandelbrot_double_reference", -0.743643887037151, 0.131825904205330, 1e6, WIDTH/2, HEIGHT/2, 1000));
+        tests.add(createMandelbrotReferenceTest("mandelbrot_double_reference_deep", -0.743643887037151, 0.131825904205330, 1e10, WIDTH/2, HEIGHT/2, 2000));
+        tests.add(createRainbowTest("rainbow", 200));
+        return tests;
+    }
+
+    /**
+     * @return tests that render the experiments with OpenGL and compare them with the golden images of the CPU tests.
+     */
+    static List<RegressionTest> createGpuTests() {
+        List<RegressionTest> tests = new ArrayList<>();
+        tests.add(createMultiColoredCubeGpuTest("multi_colored_cube", MultiColoredCube.INITIAL_LIGHT_RADIUS, MultiColoredCube.INITIAL_LIGHT_YAW,
+                MultiColoredCube.INITIAL_LIGHT_PITCH, false));
+        tests.add(createMultiColoredCubeGpuTest("multi_colored_cube_light_above", 5, 2, (float) (Math.PI/4), false));
+        tests.add(createMultiColoredCubeGpuTest("multi_colored_cube_bloom", MultiColoredCube.INITIAL_LIGHT_RADIUS, MultiColoredCube.INITIAL_LIGHT_YAW,
+                MultiColoredCube.INITIAL_LIGHT_PITCH, true));
+        tests.add(createGpuMandelbrotTest("gpu_mandelbrot", -0.5, 0, 1, false, WIDTH, HEIGHT));
+        tests.add(createGpuMandelbrotTest("gpu_mandelbrot_zoomed", -0.7453, 0.1127, 200, false, WIDTH, HEIGHT));
+        tests.add(createGpuMandelbrotTest("gpu_mandelbrot_anti_aliased", -0.7453, 0.1127, 200, true, WIDTH, HEIGHT));
+        tests.add(createGpuMandelbrotTest("gpu_mandelbrot_double_float", -0.743643887037151, 0.131825904205330, 1e6, false, WIDTH/2, HEIGHT/2));
+        //the double-float shader compared with double precision.
+        tests.add(new GpuRegressionTest("gpu_mandelbrot_double_reference_gpu", "mandelbrot_double_reference.png", WIDTH/2, HEIGHT/2,
+                DOUBLE_REFERENCE_MIN_PSNR, GPU_MAX_RENDER_TIME, new GpuMandelbrot(-0.743643887037151, 0.131825904205330, 1e6, false).getGLEventListener()));
+        tests.add(new GpuRegressionTest("gpu_mandelbrot_double_reference_deep_gpu", "mandelbrot_double_reference_deep.png", WIDTH/2, HEIGHT/2,
+                DOUBLE_REFERENCE_MIN_PSNR, GPU_MAX_RENDER_TIME, new GpuMandelbrot(-0.743643887037151, 0.131825904205330, 1e10, false).getGLEventListener()));
+        tests.add(new GpuRegressionTest("rainbow_gpu", "rainbow.png", WIDTH, HEIGHT, GPU_MIN_PSNR, GPU_MAX_RENDER_TIME, new Rainbow(false).getGLEventListener()));
+        //the cross-sections extruded by ribbon_geometry_shader.glsl compared with the triangle strips created by Ribbon on the CPU.
+        tests.add(new GpuRegressionTest("rainbow_geometry_shader_gpu", "rainbow.png", WIDTH, HEIGHT, GPU_MIN_PSNR, GPU_MAX_RENDER_TIME,
+                new Rainbow(true).getGLEventListener()));
+        return tests;
+    }
+
+    /**
+     * @param indexedCube if not null, then the cube is drawn as the indexed triangles of this mesh (and the floor as indexed triangles as well)
+     *                    with CpuRasterizer.drawElements, and the mesh must be a closed cube with 12 triangles (see checkCube).
+     *                    Otherwise the triangle strips of the cube and the floor are drawn with drawArrays.
+     * @param bloomEnabled true to apply the bloom passes of MultiColoredCube to the image (see BloomFilter).
+     */
+    private static RegressionTest createMultiColoredCubeTest(String name, String goldenImageName, float lightRadius, float lightYaw, float lightPitch,
+                                                             Mesh indexedCube, boolean bloomEnabled, double maxRenderTime) {
+        return new RegressionTest(name, goldenImageName, WIDTH, HEIGHT, MIN_PSNR, maxRenderTime) {
+            //number of vertices that were shaded and that should have been shaded during the last render.
+            private long shadedVertexCount = 0;
+            private long expectedShadedVertexCount = 0;
+
+            @Override
+            public void render(FrameBuffer frameBuffer) {
+                Matrix4 modelMatrix = MultiColoredCube.createModelMatrix(MultiColoredCube.INITIAL_CUBE_YAW);
+                Matrix4 viewMatrix = MultiColoredCube.createViewMatrix();
+                Matrix4 projectionMatrix = MultiColoredCube.createProjectionMatrix(ASPECT_RATIO);
+                float[] lightPositionInWorldSpace = MultiColoredCube.getLightPositionInWorldSpace(lightRadius, lightYaw, lightPitch);
+
+                //the cube is the only shadow caster.
+                float[] cubeCoordinates = MultiColoredCube.getCubeCoordinates();
+                RayCastShadowMap shadowMap = new RayCastShadowMap(lightPositionInWorldSpace, MultiColoredCube.SHADOW_NEAR_PLANE, MultiColoredCube.SHADOW_FAR_PLANE);
+                for (int face = 0; face < 6; face++) {
+                    shadowMap.addTriangleStrip(cubeCoordinates, face*4, 4, modelMatrix.getMatrix());
+                }
+
+                PhongShader shader = (indexedCube == null) ? new PhongShader(cubeCoordinates, MultiColoredCube.getCubeNormalVectors(), MultiColoredCube.getCubeColors())
+                        : new PhongShader(indexedCube.getPositions(), indexedCube.getNormals(), indexedCube.getColors());
+                setUpPhongShader(shader, modelMatrix, viewMatrix, projectionMatrix, lightPositionInWorldSpace, shadowMap);
+                Matrix4 floorModelMatrix = new Matrix4();
+                PhongShader floorShader = new PhongShader(MultiColoredCube.getFloorCoordinates(), MultiColoredCube.getFloorNormalVectors(), MultiColoredCube.getFloorColors());
+                setUpPhongShader(floorShader, floorModelMatrix, viewMatrix, projectionMatrix, lightPositionInWorldSpace, shadowMap);
+
+                CpuRasterizer rasterizer = new CpuRasterizer(frameBuffer);
+                rasterizer.setDepthTestEnabled(true);
+                rasterizer.setBackFaceCullingEnabled(true);
+                if (indexedCube != null) {
+                    int[] cubeIndices = indexedCube.getIndices();
+                    rasterizer.drawElements(CpuRasterizer.TRIANGLES, cubeIndices, 0, cubeIndices.length, shader, shader);
+                    int[] floorIndices = createQuadTriangleIndices(1);
+                    rasterizer.drawElements(CpuRasterizer.TRIANGLES, floorIndices, 0, floorIndices.length, floorShader, floorShader);
+                } else {
+                    for (int face = 0; face < 6; face++) {
+                        rasterizer.drawArrays(CpuRasterizer.TRIANGLE_STRIP, face*4, 4, shader, shader);
+                    }
+                    rasterizer.drawArrays(CpuRasterizer.TRIANGLE_STRIP, 0, 4, floorShader, floorShader);
+                }
+                if (bloomEnabled) BloomFilter.apply(frameBuffer);
+                shadedVertexCount = rasterizer.getShadedVertexCount();
+                //one vertex per strip element, or each vertex of the indexed triangles once.
+                int cubeVertexCount = (indexedCube == null) ? cubeCoordinates.length/3 : indexedCube.getVertexCount();
+                expectedShadedVertexCount = cubeVertexCount + MultiColoredCube.getFloorCoordinates().length/3;
+            }
+
+            @Override
+            public String check() {
+                if (shadedVertexCount != expectedShadedVertexCount) return shadedVertexCount + " vertices shaded instead of " + expectedShadedVertexCount;
+                return (indexedCube == null) ? null : checkCube(indexedCube);
+            }
+        };
+    }
+
+    /**
+     * @param quadCount number of quads, each stored as a triangle strip of 4 vertices.
+     * @return vertex indices of the quads as separate triangles, 6 per quad, with the same winding order as the triangle strips.
+     */
+    private static int[] createQuadTriangleIndices(int quadCount) {
+        int[] indices = new int[6*quadCount];
+        for (int quad = 0; quad < quadCount; quad++) {
+            int vertex = 4*quad;
+            System.arraycopy(new int[]{vertex, vertex + 1, vertex + 2, vertex + 2, vertex + 1, vertex + 3}, 0, indices, 6*quad, 6);
+        }
+        return indices;
+    }
+
+    /**
+     * @param divisionCount number of parts that each edge of the cube is divided into, must be a power of 2,
+     *                      so that the vertices of neighbouring faces on the same edge have exactly the same coordinates.
+     * @return the cube of MultiColoredCube, with each face divided into divisionCount*divisionCount quads of 2 triangles.
+     *         As in MultiColoredCube, the faces do not share vertices, because each face has its own normal vector and color.
+     */
+    private static Mesh createDividedCube(int divisionCount) {
+        float[] cubeCoordinates = MultiColoredCube.getCubeCoordinates();
+        float[] cubeNormals = MultiColoredCube.getCubeNormalVectors();
+        float[] cubeColors = MultiColoredCube.getCubeColors();
+        int rowLength = divisionCount + 1;
+        int faceVertexCount = rowLength*rowLength;
+        float[] positions = new float[3*6*faceVertexCount];
+        float[] normals = new float[positions.length];
+        float[] colors = new float[positions.length];
+        int[] indices = new int[6*6*divisionCount*divisionCount];
+        int index = 0;
+        for (int face = 0; face < 6; face++) {
+            //the first three vertices of the triangle strip of the face span the face.
+            int origin = 3*4*face;
+            for (int j = 0; j < rowLength; j++) {
+                for (int i = 0; i < rowLength; i++) {
+                    int vertex = face*faceVertexCount + j*rowLength + i;
+                    for (int component = 0; component < 3; component++) {
+                        float start = cubeCoordinates[origin + component];
+                        float stepI = (cubeCoordinates[origin + 3 + component] - start)/divisionCount;
+                        float stepJ = (cubeCoordinates[origin + 6 + component] - start)/divisionCount;
+                        positions[3*vertex + component] = start + i*stepI + j*stepJ;
+                        normals[3*vertex + component] = cubeNormals[origin + component];
+                        colors[3*vertex + component] = cubeColors[origin + component];
+                    }
+                }
+            }
+            //same winding order as the triangle strip.
+            for (int j = 0; j < divisionCount; j++) {
+                for (int i = 0; i < divisionCount; i++) {
+                    int a = face*faceVertexCount + j*rowLength + i;
+                    int b = a + 1;
+                    int c = a + rowLength;
+                    int d = c + 1;
+                    System.arraycopy(new int[]{a, b, c, c, b, d}, 0, indices, index, 6);
+                    index += 6;
+                }
+            }
+        }
+        return new Mesh(positions, normals, colors, null, indices);
+    }
+
+    /**
+     * @return null if the given mesh is a cube with 12 triangles, that is closed (each edge is shared by exactly two triangles, in opposite directions)
+     *         and in which the normal vector and color are the same for all vertices of a triangle (the seams between the faces are intact).
+     *         Otherwise a description of the problem.
+     */
+    private static String checkCube(Mesh mesh) {
+        if (mesh.getTriangleCount() != 12) return mesh.getTriangleCount() + " triangles in the cube instead of 12";
+
+        //vertices of different faces at the same position are the same point of the surface.
+        float[] positions = mesh.getPositions();
+        Map<String, Integer> points = new HashMap<>();
+        int[] pointIndices = new int[mesh.getVertexCount()];
+        for (int vertex = 0; vertex < pointIndices.length; vertex++) {
+            String key = positions[3*vertex] + "," + positions[3*vertex + 1] + "," + positions[3*vertex + 2];
+            Integer point = points.get(key);
+            if (point == null) {
+                point = points.size();
+                points.put(key, point);
+            }
+            pointIndices[vertex] = point;
+        }
+
+        int[] indices = mesh.getIndices();
+        float[] normals = mesh.getNormals();
+        float[] colors = mesh.getColors();
+        Map<Long, Integer> edgeCounts = new HashMap<>();
+        for (int triangle = 0; triangle < indices.length; triangle += 3) {
+            for (int corner = 0; corner < 3; corner++) {
+                int vertex = indices[triangle + corner];
+                int firstVertex = indices[triangle];
+                for (int component = 0; component < 3; component++) {
+                    if (normals[3*vertex + component] != normals[3*firstVertex + component] || colors[3*vertex + component] != colors[3*firstVertex + component]) {
+                        return "triangle " + triangle/3 + " spans a seam between two faces";
+                    }
+                }
+                long edge = ((long) pointIndices[vertex] << 32) | pointIndices[indices[triangle + (corner + 1)%3]];
+                Integer count = edgeCounts.get(edge);
+                edgeCounts.put(edge, (count == null) ? 1 : count + 1);
+            }
+        }
+        for (Map.Entry<Long, Integer> entry : edgeCounts.entrySet()) {
+            long edge = entry.getKey();
+            long reversedEdge = (edge << 32) | (edge >>> 32);
+            if (entry.getValue() != 1 || !Integer.valueOf(1).equals(edgeCounts.get(reversedEdge))) return "the cube is not closed";
+        }
+        return null;
+    }
+
+    /**
+     * Sets the uniforms of the given shader in the same way as MultiColoredCube.
+     */
+    private static void setUpPhongShader(PhongShader shader, Matrix4 modelMatrix, Matrix4 viewMatrix, Matrix4 projectionMatrix,
+                                         float[] lightPositionInWorldSpace, RayCastShadowMap shadowMap) {
+        Matrix4 modelViewMatrix = MatrixUtils.multiply(viewMatrix, modelMatrix);
+        Matrix4 modelViewProjectionMatrix = MatrixUtils.multiply(projectionMatrix, modelViewMatrix);
+        shader.setMatrices(modelViewProjectionMatrix.getMatrix(), modelViewMatrix.getMatrix());
+        shader.setModelMatrix(modelMatrix.getMatrix());
+        shader.setLight(MatrixUtils.multiply(viewMatrix, lightPositionInWorldSpace), MultiColoredCube.getLightIntensity(), MultiColoredCube.getAmbientLightIntensity());
+        shader.setMaterial(MultiColoredCube.specularReflectionCoefficient, MultiColoredCube.shininess);
+        shader.setShadows(shadowMap, lightPositionInWorldSpace, PointLightShadowMap.DEFAULT_BIAS, MultiColoredCube.SHADOW_SAMPLE_COUNT, MultiColoredCube.SHADOW_SAMPLE_RADIUS);
+    }
+
+    private static RegressionTest createMultiColoredCubeGpuTest(String name, float lightRadius, float lightYaw, float lightPitch, boolean bloomEnabled) {
+        return new GpuRegressionTest(name + "_gpu", name + ".png", WIDTH, HEIGHT, GPU_MIN_PSNR, GPU_MAX_RENDER_TIME,
+                new MultiColoredCube(lightRadius, lightYaw, lightPitch, bloomEnabled).getGLEventListener());
+    }
+
+    private static RegressionTest createMandelbrotTest(String name, double u, double v, double magnification, boolean antiAliasingEnabled,
+                                                       int width, int height, double maxRenderTime) {
+        return new RegressionTest(name, width, height, MIN_PSNR, maxRenderTime) {
+            @Override
+            public void render(FrameBuffer frameBuffer) {
+                //same shader selection as in GpuMandelbrot.
+                float aspectRatio = width/((float) height);
+                UVShader vertexShader = new UVShader(GpuMandelbrot.getQuadCoordinates(), GpuMandelbrot.getQuadUVCoordinates());
+                CpuRasterizer.FragmentShader fragmentShader;
+                float[] textureMatrix;
+                if (magnification < GpuMandelbrot.DOUBLE_FLOAT_MAGNIFICATION) {
+                    textureMatrix = GpuMandelbrot.createTextureMatrix(u, v, magnification, aspectRatio);
+                    fragmentShader = new MandelbrotShader();
+                } else {
+                    textureMatrix = GpuMandelbrot.createTextureMatrix(0, 0, magnification, aspectRatio);
+                    DoubleFloatMandelbrotShader doubleFloatShader = new DoubleFloatMandelbrotShader();
+                    float[][] center = DoubleFloat.split(u, v);
+                    doubleFloatShader.setCenter(center[0], center[1]);
+                    doubleFloatShader.setMaxIterationCount(MandelbrotView.getMaxIterationCount(magnification));
+                    fragmentShader = doubleFloatShader;
+                }
+
+                vertexShader.setTextureMatrix(textureMatrix);
+
+                CpuRasterizer rasterizer = new CpuRasterizer(frameBuffer);
+                rasterizer.drawArrays(CpuRasterizer.TRIANGLE_STRIP, 0, 4, vertexShader, fragmentShader);
+                if (antiAliasingEnabled) {
+                    //second pass, u,v-coordinates of the quad (corners 0, 1 and 2 are the lower left, lower right and upper left corners).
+                    float[] quadUV = GpuMandelbrot.getQuadUVCoordinates();
+                    float[] uvAtOrigin = transformUV(textureMatrix, quadUV[0], quadUV[1], 1);
+                    float[] uvPerPixelX = transformUV(textureMatrix, (quadUV[2] - quadUV[0])/width, (quadUV[3] - quadUV[1])/width, 0);
+                    float[] uvPerPixelY = transformUV(textureMatrix, (quadUV[4] - quadUV[0])/height, (quadUV[5] - quadUV[1])/height, 0);
+                    new EdgeSampler(GpuMandelbrot.EDGE_SAMPLE_COUNT).sampleEdges(frameBuffer, fragmentShader, uvAtOrigin, uvPerPixelX, uvPerPixelY);
+                }
+            }
+        };
+    }
+
+    /**
+     * @param textureMatrix 3x3 matrix in column-major order.
+     * @param w 1 for a point, 0 for a direction.
+     * @return transformed u,v-coordinates (u, v).
+     */
+    private static float[] transformUV(float[] textureMatrix, float u, float v, float w) {
+        return new float[]{textureMatrix[0]*u + textureMatrix[3]*v + textureMatrix[6]*w, textureMatrix[1]*u + textureMatrix[4]*v + textureMatrix[7]*w};
+    }
+
+    /**
+     * Renders the given view with MandelbrotRenderer, which calculates in double precision.
+     */
+    private static RegressionTest createMandelbrotReferenceTest(String name, double u, double v, double magnification, int width, int height,
+                                                                double maxRenderTime) {
+        MandelbrotView view = new MandelbrotView(u, v, magnification, width, height);
+        return new RegressionTest(name, width, height, MIN_PSNR, maxRenderTime) {
+            @Override
+            public void render(FrameBuffer frameBuffer) {
+                int[] iterations = MandelbrotRenderer.calculateIterations(view, 0, 0, width, height);
+                MandelbrotRenderer.createImage(iterations, width, height).getRGB(0, 0, width, height, frameBuffer.getColors(), 0, width);
+            }
+        };
+    }
+
+    /**
+     * Renders GpuMandelbrot and compares it with the golden image of the CPU test with the given name.
+     */
+    private static RegressionTest createGpuMandelbrotTest(String name, double u, double v, double magnification, boolean antiAliasingEnabled,
+                                                          int width, int height) {
+        return new GpuRegressionTest(name + "_gpu", name + ".png", width, height, GPU_MIN_PSNR, GPU_MAX_RENDER_TIME,
+                new GpuMandelbrot(u, v, magnification, antiAliasingEnabled).getGLEventListener());
+    }
+
+    private static RegressionTest createRainbowTest(String name, double maxRenderTime) {
+        Ribbon ribbon = Rainbow.createRainbow();
+        return new RegressionTest(name, WIDTH, HEIGHT, MIN_PSNR, maxRenderTime) {
+            @Override
+            public void render(FrameBuffer frameBuffer) {
+                Matrix4 mvpMatrix = Rainbow.createModelViewProjectionMatrix(ASPECT_RATIO);
+
+                Ribbon.LevelOfDetail levelOfDetail = ribbon.getLevelOfDetail(ribbon.selectLevel(mvpMatrix, WIDTH, HEIGHT));
+                UVShader vertexShader = new UVShader(levelOfDetail.getCoordinates(), levelOfDetail.getUVCoordinates());
+                vertexShader.setModelViewProjectionMatrix(mvpMatrix.getMatrix());
+                ColorGradientShader fragmentShader = new ColorGradientShader(Rainbow.rainbowColors, Rainbow.colorLocations);
+
+                CpuRasterizer rasterizer = new CpuRasterizer(frameBuffer);
+                rasterizer.setDepthTestEnabled(true);
+                int vertexCountPerTriangleStrip = levelOfDetail.getVertexCountPerTriangleStrip();
+                for (int triangleStripIndex = 0; triangleStripIndex < levelOfDetail.getTriangleStripCount(); triangleStripIndex++) {
+                    rasterizer.drawArrays(CpuRasterizer.TRIANGLE_STRIP, triangleStripIndex*vertexCountPerTriangleStrip, vertexCountPerTriangleStrip,
+                            vertexShader, fragmentShader);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.experiments;
+
+import com.jogamp.opengl.GL3;
+import com.jogamp.opengl.GLAutoDrawable;
+import com.jogamp.opengl.GLEventListener;
+import com.jogamp.opengl.awt.GLCanvas;
+import com.jogamp.opengl.math.Matrix4;
+import rasterizer.util.GLResourceManager;
+import rasterizer.util.GLStateTracker;
+import rasterizer.util.MatrixUtils;
+import rasterizer.util.OpenGLUtils;
+import rasterizer.util.ResourceLoader;
+import rasterizer.util.TextureStreamer;
+import rasterizer.util.Utils;
+
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+import javax.swing.border.EmptyBorder;
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.awt.event.KeyListener;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Uses OpenGL 3 to show the given images as textured quads in a grid. The textures are loaded in the background by a TextureStreamer,
+ * each image appears as soon as its smallest mipmap level has been uploaded and becomes sharper as the larger levels arrive.
+ *
+ * @author A.C. Kockx
+ */
+public final class TextureViewer {
+    private static final String USAGE = "Usage: " + TextureViewer.class.getSimpleName() + " imageFileOrDirectory [imageFileOrDirectory ...]";
+    private static final float ZOOM_SPEED = 2;//ratio/second.
+    private static final float PAN_SPEED = 1;//view heights/second.
+    private static final float FRAME_RATE = 30;//frames/second.
+    private static final float DELTA_T = 1/FRAME_RATE;//in seconds.
+    private static final long VIDEO_MEMORY_BUDGET = 256L << 20;//bytes.
+    private static final int MAX_UPLOAD_BYTES_PER_FRAME = 2 << 20;
+    private static final float CELL_SPACING = 1.1f;
+
+    private static final float[] quadCoordinates = new float[]{-0.5f, -0.5f, 0,
+                                                                0.5f, -0.5f, 0,
+                                                               -0.5f,  0.5f, 0,
+                                                                0.5f,  0.5f, 0};
+    private static final float[] quadUVCoordinates = new float[]{0, 0,
+                                                                 1, 0,
+                                                                 0, 1,
+                                                                 1, 1};
+
+    private final List<Path> imageFiles;
+    private final String vertexShaderSource;
+    private final String fragmentShaderSource;
+    private final GLCanvas glCanvas;
+    private final JLabel label;
+    private final Set<Integer> pressedKeys = Collections.synchronizedSet(new HashSet<>());
+
+    //height of the view and horizontal position of its center, in grid cells.
+    private volatile float viewHeight;
+    private volatile float viewX = 0;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.out.println(USAGE);
+            return;
+        }
+
+        List<Path> imageFiles = new ArrayList<>();
+        for (String arg : args) {
+            Path path = Paths.get(arg);
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> files = Files.list(path)) {
+                    imageFiles.addAll(files.filter(Files::isRegularFile).sorted().collect(Collectors.toList()));
+                }
+            } else {
+                imageFiles.add(path);
+            }
+        }
+        if (imageFiles.isEmpty()) {
+            System.out.println("No image files found");
+            return;
+        }
+
+        new TextureViewer(imageFiles);
+    }
+
+    private TextureViewer(List<Path> imageFiles) throws Exception {
+        this.imageFiles = imageFiles;
+        int columnCount = getColumnCount();
+        viewHeight = CELL_SPACING*((imageFiles.size() + columnCount - 1)/columnCount);
+
+        //load shader source.
+        ResourceLoader loader = new ResourceLoader("/rasterizer/shaders/");
+        vertexShaderSource = Utils.read(loader.loadResource("uv_vertex_shader.glsl"));
+        fragmentShaderSource = Utils.read(loader.loadResource("texture_fragment_shader.glsl"));
+
+        //create OpenGL canvas.
+        glCanvas = OpenGLUtils.createGLCanvas(800, 600);
+        glCanvas.addGLEventListener(glEventListener);
+        label = new JLabel("UP/DOWN = zoom, LEFT/RIGHT = pan");
+
+        //init GUI on event-dispatching thread.
+        SwingUtilities.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                label.setBorder(new EmptyBorder(5, 5, 5, 5));
+                label.setForeground(Color.GREEN);
+                label.setBackground(Color.BLACK);
+                label.setOpaque(true);
+
+                JPanel panel = new JPanel(new BorderLayout());
+                panel.add(label, BorderLayout.NORTH);
+                panel.add(glCanvas, BorderLayout.CENTER);
+
+                Utils.createAndShowFrame(panel, TextureViewer.class.getSimpleName(), false);
+                glCanvas.addKeyListener(keyListener);
+                glCanvas.requestFocus();
+            }
+        });
+
+        //start interaction loop.
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        executor.scheduleAtFixedRate(interactionLoop, 0, (long) (1000*DELTA_T), TimeUnit.MILLISECONDS);
+    }
+
+    private int getColumnCount() {
+        return (int) Math.ceil(Math.sqrt(imageFiles.size()));
+    }
+
+    private final KeyListener keyListener = new KeyAdapter() {
+        @Override
+        public void keyPressed(KeyEvent e) {
+            pressedKeys.add(e.getExtendedKeyCode());
+        }
+
+        @Override
+        public void keyReleased(KeyEvent e) {
+            pressedKeys.remove(e.getExtendedKeyCode());
+        }
+    };
+
+    private final Runnable interactionLoop = new Runnable() {
+        @Override
+        public void run() {
+            if (pressedKeys.contains(KeyEvent.VK_UP)) {//zoom in.
+                viewHeight /= (float) Math.pow(ZOOM_SPEED, DELTA_T);
+            } else if (pressedKeys.contains(KeyEvent.VK_DOWN)) {//zoom out.
+                viewHeight *= (float) Math.pow(ZOOM_SPEED, DELTA_T);
+            }
+            if (pressedKeys.contains(KeyEvent.VK_RIGHT)) {
+                viewX += PAN_SPEED*viewHeight*DELTA_T;
+            } else if (pressedKeys.contains(KeyEvent.VK_LEFT)) {
+                viewX -= PAN_SPEED*viewHeight*DELTA_T;
+            }
+
+            //always repaint, so that the textures keep streaming in.
+            glCanvas.repaint();
+        }
+    };
+
+    private final GLEventListener glEventListener = new GLEventListener() {
+        private int shaderProgramId = -1;
+        private int mvpMatrixUniformIndex = -1;
+        private int quadVertexArrayObjectId = -1;
+        private final GLStateTracker glState = new GLStateTracker();
+        private final GLResourceManager resources = new GLResourceManager(VIDEO_MEMORY_BUDGET);
+        private TextureStreamer textureStreamer = null;
+        private final List<TextureStreamer.Texture> textures = new ArrayList<>();
+        private float aspectRatio = 1;
+
+        @Override
+        public void init(GLAutoDrawable drawable) {
+            GL3 gl = drawable.getGL().getGL3();
+            gl.glClearColor(0.1f, 0.1f, 0.1f, 1);
+            gl.glEnable(GL3.GL_BLEND);
+            gl.glBlendFunc(GL3.GL_SRC_ALPHA, GL3.GL_ONE_MINUS_SRC_ALPHA);
+
+            //create shaders.
+            shaderProgramId = resources.createShaderProgram(gl,
+                    new int[]{GL3.GL_VERTEX_SHADER, GL3.GL_FRAGMENT_SHADER}, new String[]{vertexShaderSource, fragmentShaderSource},
+                    new String[]{OpenGLUtils.VERTEX_POSITION, OpenGLUtils.VERTEX_UV_COORDINATES});
+            mvpMatrixUniformIndex = glState.getUniformLocation(gl, shaderProgramId, OpenGLUtils.MODEL_VIEW_PROJECTION_MATRIX);
+            glState.useProgram(gl, shaderProgramId);
+            glState.uniform1i(gl, glState.getUniformLocation(gl, shaderProgramId, "textureImage"), 0);
+
+            //create geometry.
+            quadVertexArrayObjectId = resources.createVertexArray(gl, new int[]{3, 2}, new float[][]{quadCoordinates, quadUVCoordinates});
+
+            //start loading textures.
+            textureStreamer = new TextureStreamer(resources, MAX_UPLOAD_BYTES_PER_FRAME, Runtime.getRuntime().availableProcessors());
+            for (Path imageFile : imageFiles) {
+                textures.add(textureStreamer.load(imageFile));
+            }
+
+            //createVertexArray changes the tracked state directly.
+            glState.invalidate();
+
+            int error = gl.glGetError();
+            if (error != 0) System.err.println("Error during initialization: " + error);
+        }
+
+        @Override
+        public void reshape(GLAutoDrawable drawable, int x, int y, int width, int height) {
+            if (width <= 0) width = 1;//to avoid divide by zero.
+            if (height <= 0) height = 1;//to avoid divide by zero.
+            aspectRatio = width/((float) height);
+        }
+
+        @Override
+        public void display(GLAutoDrawable drawable) {
+            GL3 gl = drawable.getGL().getGL3();
+            gl.glClear(GL3.GL_COLOR_BUFFER_BIT);
+
+            //upload the next part of the textures that are being loaded.
+            textureStreamer.update(gl);
+
+            //the grid is centered vertically, the first column is at x = 0.
+            int columnCount = getColumnCount();
+            int rowCount = (textures.size() + columnCount - 1)/columnCount;
+            Matrix4 viewProjectionMatrix = MatrixUtils.multiply(MatrixUtils.createOrthographicProjectionMatrix(viewHeight, aspectRatio, -1, 1),
+                    MatrixUtils.createViewMatrix(viewX, CELL_SPACING*(rowCount - 1)/2, 0, 0, 0, 0));
+            glState.useProgram(gl, shaderProgramId);
+            glState.bindVertexArray(gl, quadVertexArrayObjectId);
+            int usableCount = 0;
+            for (int index = 0; index < textures.size(); index++) {
+                TextureStreamer.Texture texture = textures.get(index);
+                if (!textureStreamer.bind(gl, texture, 0)) continue;
+                usableCount++;
+
+                //scale the quad to the aspect ratio of the image, so that it fits in its cell.
+                float width = texture.getWidth();
+                float height = texture.getHeight();
+                float scale = 1/Math.max(width, height);
+                Matrix4 modelMatrix = MatrixUtils.createModelMatrix(CELL_SPACING*(index%columnCount), CELL_SPACING*(rowCount - 1 - index/columnCount), 0,
+                        0, 0, 0, width*scale, height*scale, 1);
+                glState.uniformMatrix4fv(gl, mvpMatrixUniformIndex, MatrixUtils.multiply(viewProjectionMatrix, modelMatrix).getMatrix());
+                gl.glDrawArrays(GL3.GL_TRIANGLE_STRIP, 0, 4);
+            }
+            gl.glBindTexture(GL3.GL_TEXTURE_2D, 0);
+
+            int error = gl.glGetError();
+            if (error != 0) System.err.println("Error during rendering: " + error);
+
+            String text = "UP/DOWN = zoom, LEFT/RIGHT = pan, textures shown: " + usableCount + " of " + textures.size()
+                          + ", loading: " + textureStreamer.getLoadingCount() + ", uploaded: " + (textureStreamer.getUploadedByteCount() >> 20) + " MB"
+                          + ", video memory: " + (resources.getTotalSize() >> 20) + " MB (evicted: " + resources.getEvictedCount() + ")";
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    label.setText(text);
+                }
+            });
+        }
+
+        @Override
+        public void dispose(GLAutoDrawable drawable) {
+            GL3 gl = drawable.getGL().getGL3();
+            textureStreamer.dispose(gl);
+            resources.dispose(gl);
+        }
+    };
+}
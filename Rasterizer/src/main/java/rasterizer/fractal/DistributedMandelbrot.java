@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.fractal;
+
+import rasterizer.output.ImageSequenceWriter;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Command line tool that renders a frame, or a zoom animation of multiple frames, of the Mandelbrot set
+ * by distributing tiles over worker processes (see TileCoordinator and TileWorker). The frames are written as PNG files
+ * (or QOI files with --format qoi) by an ImageSequenceWriter, while the workers render the next frames.
+ *
+ * By default the workers are started as local processes, which stand in for the machines of a cluster.
+ * With --workers 0 no local workers are started and the coordinator waits for TileWorker processes
+ * that are started elsewhere with the host and port of the coordinator.
+ *
+ * Usage: DistributedMandelbrot [--view u v magnification] [--zoom-to magnification] [--frames n] [--size width height]
+ *                              [--workers n] [--port port] [--tile-size n] [--format png|qoi] outputDirectory
+ *
+ * @author A.C. Kockx
+ */
+public final class DistributedMandelbrot {
+    private static final String USAGE = "Usage: " + DistributedMandelbrot.class.getSimpleName()
+            + " [--view u v magnification] [--zoom-to magnification] [--frames n] [--size width height]"
+            + " [--workers n] [--port port] [--tile-size n] [--format png|qoi] outputDirectory";
+
+    private DistributedMandelbrot() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        //initial view of GpuMandelbrot.
+        double u = -0.5;
+        double v = 0;
+        double magnification = 1;
+        double endMagnification = Double.NaN;
+        int frameCount = 1;
+        int width = 1280;
+        int height = 720;
+        int workerCount = Math.max(2, Runtime.getRuntime().availableProcessors());
+        int port = 0;
+        int tileSize = 64;
+        ImageSequenceWriter.Format format = ImageSequenceWriter.Format.PNG;
+        Path outputDirectory = null;
+
+        try {
+            for (int n = 0; n < args.length; n++) {
+                switch (args[n]) {
+                    case "--view":
+                        u = Double.parseDouble(args[++n]);
+                        v = Double.parseDouble(args[++n]);
+                        magnification = Double.parseDouble(args[++n]);
+                        break;
+                    case "--zoom-to":
+                        endMagnification = Double.parseDouble(args[++n]);
+                        break;
+                    case "--frames":
+                        frameCount = Integer.parseInt(args[++n]);
+                        break;
+                    case "--size":
+                        width = Integer.parseInt(args[++n]);
+                        height = Integer.parseInt(args[++n]);
+                        break;
+                    case "--workers":
+                        workerCount = Integer.parseInt(args[++n]);
+                        break;
+                    case "--port":
+                        port = Integer.parseInt(args[++n]);
+                        break;
+                    case "--tile-size":
+                        tileSize = Integer.parseInt(args[++n]);
+                        break;
+                    case "--format":
+                        format = ImageSequenceWriter.Format.valueOf(args[++n].toUpperCase());
+                        break;
+                    default:
+                        if (outputDirectory != null || args[n].startsWith("--")) throw new IllegalArgumentException("unknown argument " + args[n]);
+                        outputDirectory = Paths.get(args[n]);
+                        break;
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+        if (outputDirectory == null || frameCount <= 0 || workerCount < 0) {
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+        if (Double.isNaN(endMagnification)) endMagnification = magnification;
+
+        List<MandelbrotView> frames = createZoom(u, v, magnification, endMagnification, frameCount, width, height);
+        Files.createDirectories(outputDirectory);
+        List<Process> workers = new ArrayList<>();
+        try (TileCoordinator coordinator = new TileCoordinator(frames, tileSize);
+             ImageSequenceWriter writer = new ImageSequenceWriter(outputDirectory, format)) {
+            coordinator.start(new InetSocketAddress(port));
+            System.out.println("Coordinator listening on port " + coordinator.getPort() + ", rendering " + frameCount + " frames of " + width + "x" + height + " pixels");
+            for (int n = 0; n < workerCount; n++) {
+                workers.add(startLocalWorker(coordinator.getPort()));
+            }
+
+            long startTime = System.nanoTime();
+            for (int frame = 0; frame < frameCount; frame++) {
+                int[] iterations = coordinator.awaitFrame(frame);
+                Path file = writer.write(MandelbrotRenderer.createImage(iterations, width, height));
+                System.out.println(String.format("Frame %d (%s) rendered after %.1f s, writing to %s", frame, frames.get(frame), (System.nanoTime() - startTime)/1e9, file));
+            }
+        } finally {
+            for (Process worker : workers) {
+                //the workers exit by themselves when there is no more work, this only matters if rendering failed.
+                if (!worker.waitFor(5, TimeUnit.SECONDS)) worker.destroy();
+            }
+        }
+    }
+
+    /**
+     * @return views with magnifications that increase geometrically from startMagnification to endMagnification,
+     *         so that the zoom speed appears constant.
+     */
+    static List<MandelbrotView> createZoom(double u, double v, double startMagnification, double endMagnification, int frameCount, int width, int height) {
+        List<MandelbrotView> frames = new ArrayList<>(frameCount);
+        for (int frame = 0; frame < frameCount; frame++) {
+            double fraction = frameCount == 1 ? 0 : frame/(double) (frameCount - 1);
+            double magnification = startMagnification*Math.pow(endMagnification/startMagnification, fraction);
+            frames.add(new MandelbrotView(u, v, magnification, width, height));
+        }
+        return frames;
+    }
+
+    /**
+     * Starts a TileWorker in a separate JVM with the same class path as this JVM.
+     */
+    private static Process startLocalWorker(int port) throws IOException {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        ProcessBuilder processBuilder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                TileWorker.class.getName(), "localhost", String.valueOf(port));
+        processBuilder.inheritIO();
+        return processBuilder.start();
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.fractal;
+
+import java.awt.image.BufferedImage;
+import java.util.stream.IntStream;
+
+/**
+ * Calculates the Mandelbrot set on the CPU in double precision, using all available processors.
+ * The result is an iteration buffer: per pixel the number of iterations after which the point diverged,
+ * or 0 if it did not diverge (i.e. if the point is considered to be in the Mandelbrot set).
+ *
+ * @author A.C. Kockx
+ */
+public final class MandelbrotRenderer {
+    private MandelbrotRenderer() {
+    }
+
+    /**
+     * Calculates the iteration counts of the given rectangle of pixels of the given view.
+     *
+     * @return iteration count per pixel of the rectangle, one row after the other.
+     */
+    public static int[] calculateIterations(MandelbrotView view, int x, int y, int width, int height) {
+        if (x < 0 || y < 0 || width <= 0 || height <= 0 || x + width > view.getWidth() || y + height > view.getHeight()) {
+            throw new IllegalArgumentException("rectangle " + x + ", " + y + ", " + width + "x" + height + " outside view");
+        }
+
+        int[] iterations = new int[width*height];
+        int maxIterationCount = view.getMaxIterationCount();
+        IntStream.range(0, height).parallel().forEach(row -> {
+            double cy = view.getPixelV(y + row);
+            for (int column = 0; column < width; column++) {
+                iterations[row*width + column] = iterate(view.getPixelU(x + column), cy, maxIterationCount);
+            }
+        });
+        return iterations;
+    }
+
+    /**
+     * @return the number of iterations after which abs(z) > 2, or 0 if that did not happen within maxIterationCount iterations.
+     */
+    public static int iterate(double cx, double cy, int maxIterationCount) {
+        double zx = 0;
+        double zy = 0;
+        for (int iteration = 1; iteration <= maxIterationCount; iteration++) {
+            //z_new = z_old^2 + c
+            double newZx = zx*zx - zy*zy + cx;
+            zy = 2*zx*zy + cy;
+            zx = newZx;
+
+            if (zx*zx + zy*zy > 2*2) return iteration;//if abs(z) > 2
+        }
+        return 0;
+    }
+
+    /**
+     * Colors the given iteration buffer like the GpuMandelbrot experiment: black inside the Mandelbrot set, 15 shades of grey outside.
+     */
+    public static BufferedImage createImage(int[] iterations, int width, int height) {
+        if (iterations.length != width*height) throw new IllegalArgumentException("iterations.length != width*height");
+
+        int[] pixels = new int[iterations.length];
+        for (int n = 0; n < iterations.length; n++) {
+            pixels[n] = getColor(iterations[n]);
+        }
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, width, height, pixels, 0, width);
+        return image;
+    }
+
+    /**
+     * @return RGB color of a pixel with the given iteration count, see method createImage.
+     */
+    static int getColor(int iteration) {
+        if (iteration == 0) return 0;//black.
+        int grey = Math.round((iteration%15 + 1)/15f*255);
+        return grey << 16 | grey << 8 | grey;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.fractal;
+
+/**
+ * View of the Mandelbrot set: the part of fractal space that is shown in an image of a given size.
+ * This uses the same view model as the GpuMandelbrot experiment: at magnification 1 the image height covers 4 units in fractal space
+ * and the width covers 4*aspectRatio units, around the center (u, v). Row 0 is the top row of the image.
+ *
+ * @author A.C. Kockx
+ */
+public final class MandelbrotView {
+    //magnification up to which the default maximum iteration count is 100.
+    private static final double BASE_MAGNIFICATION = 1e4;
+
+    private final double u;
+    private final double v;
+    private final double magnification;
+    private final int width;
+    private final int height;
+    private final int maxIterationCount;
+
+    /**
+     * @param u coordinate of the center of the view in fractal space (real part).
+     * @param v coordinate of the center of the view in fractal space (imaginary part).
+     * @param width of the image in pixels.
+     * @param height of the image in pixels.
+     * @param maxIterationCount points that have not diverged after this number of iterations are considered to be in the Mandelbrot set.
+     */
+    public MandelbrotView(double u, double v, double magnification, int width, int height, int maxIterationCount) {
+        if (!(magnification > 0)) throw new IllegalArgumentException("magnification <= 0");
+        if (width <= 0) throw new IllegalArgumentException("width <= 0");
+        if (height <= 0) throw new IllegalArgumentException("height <= 0");
+        if (maxIterationCount <= 0) throw new IllegalArgumentException("maxIterationCount <= 0");
+
+        this.u = u;
+        this.v = v;
+        this.magnification = magnification;
+        this.width = width;
+        this.height = height;
+        this.maxIterationCount = maxIterationCount;
+    }
+
+    /**
+     * Creates a view with the default maximum iteration count for the given magnification.
+     */
+    public MandelbrotView(double u, double v, double magnification, int width, int height) {
+        this(u, v, magnification, width, height, getMaxIterationCount(magnification));
+    }
+
+    public double getU() {
+        return u;
+    }
+
+    public double getV() {
+        return v;
+    }
+
+    public double getMagnification() {
+        return magnification;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getMaxIterationCount() {
+        return maxIterationCount;
+    }
+
+    public double getAspectRatio() {
+        return width/(double) height;
+    }
+
+    /**
+     * @return the size of a pixel in fractal space.
+     */
+    public double getPixelSize() {
+        return 4/(magnification*height);
+    }
+
+    /**
+     * @return u coordinate in fractal space of the center of the given pixel column.
+     */
+    public double getPixelU(int x) {
+        return u + (x + 0.5 - width/2.0)*getPixelSize();
+    }
+
+    /**
+     * @return v coordinate in fractal space of the center of the given pixel row.
+     */
+    public double getPixelV(int y) {
+        return v - (y + 0.5 - height/2.0)*getPixelSize();
+    }
+
+    /**
+     * Deeper zooms show finer details, which need more iterations.
+     *
+     * @return the default maximum iteration count for the given magnification:
+     *         100 up to a magnification of 10^4, then 200 more for each factor 10.
+     */
+    public static int getMaxIterationCount(double magnification) {
+        return 100 + (int) Math.max(0, 200*Math.log10(magnification/BASE_MAGNIFICATION));
+    }
+
+    @Override
+    public String toString() {
+        return "u = " + u + ", v = " + v + ", magnification = " + magnification + ", " + width + "x" + height + ", maxIterationCount = " + maxIterationCount;
+    }
+}
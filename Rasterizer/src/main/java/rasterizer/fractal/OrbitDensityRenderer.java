@@ -0,0 +1,424 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.fractal;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * Renders the orbit density of the Mandelbrot set (also known as the Buddhabrot): for many random points c outside the Mandelbrot set,
+ * all points of the orbit z_0, z_1, ... of c are counted in a histogram, until the orbit escapes. With multiple channels
+ * (e.g. red, green, blue with different maximum iteration counts, also known as the Nebulabrot) an orbit is counted in every channel
+ * whose maximum iteration count is not smaller than the number of iterations after which the orbit escaped.
+ *
+ * Each thread counts in its own histogram, so that the threads never wait for each other. Periodically each thread adds its histogram
+ * to the shared histogram, from which images can be created while rendering continues. Points c are not sampled uniformly:
+ * a coarse importance map of the region of c is calculated first, which estimates how much the orbits from each cell contribute to the view
+ * relative to their cost.
+ * Cells are sampled proportionally to that, and the hits are weighted inversely proportional to it, so that the result is the same as
+ * with uniform sampling, but converges much faster (especially when zoomed in). Points in the main cardioid and the period-2 bulb are skipped
+ * since they never escape, and since the Mandelbrot set is symmetric, each orbit is also counted mirrored in the real axis.
+ *
+ * @author A.C. Kockx
+ */
+public final class OrbitDensityRenderer {
+    //the Mandelbrot set lies within the circle with radius 2, because of the symmetry only the upper half is sampled.
+    private static final double MIN_CU = -2;
+    private static final double MAX_CU = 2;
+    private static final double MIN_CV = 0;
+    private static final double MAX_CV = 2;
+    private static final int IMPORTANCE_MAP_WIDTH = 256;
+    private static final int IMPORTANCE_MAP_HEIGHT = 128;
+    private static final int IMPORTANCE_SAMPLE_COUNT = 32;//per cell.
+    //cost of picking a sample, relative to the cost of one iteration.
+    private static final int SAMPLE_COST = 20;
+    //every cell is sampled with at least this fraction of the average cell probability, so that no region is missed completely.
+    private static final double MIN_RELATIVE_IMPORTANCE = 0.1;
+    //limits the ratio between the greatest and smallest hit weight (at most MIN_WEIGHT*MAX_RELATIVE_IMPORTANCE/MIN_RELATIVE_IMPORTANCE).
+    private static final double MAX_RELATIVE_IMPORTANCE = 50;
+    //weights are integers so that the histograms count exactly. The hits of the most important cells get this weight,
+    //so that rounding the weights to integers changes them by at most 1%.
+    private static final int MIN_WEIGHT = 50;
+    private static final int BATCH_SAMPLE_COUNT = 1024;
+    private static final long MERGE_INTERVAL_IN_NANOSECONDS = 500_000_000L;
+
+    private final MandelbrotView view;
+    private final int[] maxIterationCounts;
+    private final int maxIterationCount;
+    private final int pixelCount;
+    //cumulative probabilities and hit weights of the importance map cells.
+    private double[] cumulativeProbabilities = null;
+    private int[] weights = null;
+
+    //channel after channel, each width*height values. Guarded by this.
+    private final long[] histogram;
+    private long sampleCount = 0;
+    private final List<Thread> threads = new ArrayList<>();
+    private volatile boolean running = false;
+
+    /**
+     * @param view the part of the plane that is shown, the maximum iteration count of the view is not used.
+     * @param maxIterationCounts maximum iteration count per channel, one value for a greyscale image, three values for an RGB image.
+     */
+    public OrbitDensityRenderer(MandelbrotView view, int[] maxIterationCounts) {
+        if (view == null) throw new IllegalArgumentException("view == null");
+        if (maxIterationCounts == null) throw new IllegalArgumentException("maxIterationCounts == null");
+        if (maxIterationCounts.length != 1 && maxIterationCounts.length != 3) throw new IllegalArgumentException("maxIterationCounts.length must be 1 or 3");
+        for (int count : maxIterationCounts) {
+            if (count <= 0) throw new IllegalArgumentException("maxIterationCount <= 0");
+        }
+
+        this.view = view;
+        this.maxIterationCounts = maxIterationCounts.clone();
+        maxIterationCount = Arrays.stream(maxIterationCounts).max().getAsInt();
+        pixelCount = view.getWidth()*view.getHeight();
+        histogram = new long[maxIterationCounts.length*pixelCount];
+    }
+
+    /**
+     * Starts rendering in the given number of threads. The first call calculates the importance map first, which can take a few seconds.
+     */
+    public void start(int threadCount) {
+        if (threadCount <= 0) throw new IllegalArgumentException("threadCount <= 0");
+        if (running) throw new IllegalStateException("already running");
+
+        if (cumulativeProbabilities == null) calculateImportanceMap();
+        running = true;
+        long seed = System.nanoTime();
+        for (int n = 0; n < threadCount; n++) {
+            SplittableRandom random = new SplittableRandom(seed + n*0x9E3779B97F4A7C15L);
+            Thread thread = new Thread(() -> render(random), OrbitDensityRenderer.class.getSimpleName() + " thread " + n);
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+    }
+
+    /**
+     * Stops rendering and waits until all samples of the threads have been added to the histogram.
+     */
+    public void stop() throws InterruptedException {
+        running = false;
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        threads.clear();
+    }
+
+    /**
+     * @return the number of sampled points c whose hits have been added to the histogram.
+     */
+    public synchronized long getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * Creates an image of the current histogram. The counts are scaled per channel such that the greatest count is white,
+     * with a square root tone curve that shows the faint parts of the orbits.
+     */
+    public BufferedImage createImage() {
+        long[] histogram;
+        synchronized (this) {
+            histogram = this.histogram.clone();
+        }
+
+        int channelCount = maxIterationCounts.length;
+        double[] scales = new double[channelCount];
+        for (int channel = 0; channel < channelCount; channel++) {
+            long maxCount = 0;
+            for (int n = channel*pixelCount; n < (channel + 1)*pixelCount; n++) {
+                maxCount = Math.max(maxCount, histogram[n]);
+            }
+            scales[channel] = maxCount == 0 ? 0 : 1.0/maxCount;
+        }
+
+        int[] pixels = new int[pixelCount];
+        for (int n = 0; n < pixelCount; n++) {
+            int color = 0;
+            for (int channel = 0; channel < 3; channel++) {
+                int source = channelCount == 1 ? 0 : channel;
+                double value = Math.sqrt(Math.min(1, histogram[source*pixelCount + n]*scales[source]));
+                color = color << 8 | (int) Math.round(value*255);
+            }
+            pixels[n] = color;
+        }
+        BufferedImage image = new BufferedImage(view.getWidth(), view.getHeight(), BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, view.getWidth(), view.getHeight(), pixels, 0, view.getWidth());
+        return image;
+    }
+
+    private void render(SplittableRandom random) {
+        //counts of this thread since the last merge, in the same layout as the shared histogram. These are longs as well: with weights
+        //of up to 25000 an int would overflow after about 86000 hits of a pixel, which a bright pixel can get between two merges.
+        long[] localHistogram = new long[histogram.length];
+        //orbit of the current point.
+        double[] orbit = new double[2*maxIterationCount];
+        long localSampleCount = 0;
+        long lastMergeTime = System.nanoTime();
+
+        while (running) {
+            for (int n = 0; n < BATCH_SAMPLE_COUNT; n++) {
+                //pick a cell of the importance map, then a uniformly random point in the cell.
+                int cell = Arrays.binarySearch(cumulativeProbabilities, random.nextDouble());
+                if (cell < 0) cell = -cell - 1;
+                if (cell >= cumulativeProbabilities.length) cell = cumulativeProbabilities.length - 1;
+                double cu = MIN_CU + (cell%IMPORTANCE_MAP_WIDTH + random.nextDouble())*(MAX_CU - MIN_CU)/IMPORTANCE_MAP_WIDTH;
+                double cv = MIN_CV + (cell/IMPORTANCE_MAP_WIDTH + random.nextDouble())*(MAX_CV - MIN_CV)/IMPORTANCE_MAP_HEIGHT;
+                if (isInMainCardioidOrPeriod2Bulb(cu, cv)) continue;
+                int escapeIteration = iterate(cu, cv, orbit);
+                if (escapeIteration != 0) addHits(orbit, escapeIteration, localHistogram, weights[cell]);
+            }
+            localSampleCount += BATCH_SAMPLE_COUNT;
+
+            long time = System.nanoTime();
+            if (time - lastMergeTime >= MERGE_INTERVAL_IN_NANOSECONDS) {
+                merge(localHistogram, localSampleCount);
+                localSampleCount = 0;
+                lastMergeTime = time;
+            }
+        }
+        merge(localHistogram, localSampleCount);
+    }
+
+    /**
+     * Adds the given histogram of a thread to the shared histogram and clears it.
+     */
+    private void merge(long[] localHistogram, long localSampleCount) {
+        synchronized (this) {
+            for (int n = 0; n < localHistogram.length; n++) {
+                histogram[n] += localHistogram[n];
+            }
+            sampleCount += localSampleCount;
+        }
+        Arrays.fill(localHistogram, 0);
+    }
+
+    /**
+     * Adds weight to the histogram pixels of all points of the given escaped orbit (and of its mirror image).
+     *
+     * @param escapeIteration the number of iterations after which the orbit escaped.
+     * @param histogram to add the hits to, or null to only count the hits.
+     * @return the number of hits in the view (including mirrored hits) in the channel with the greatest maximum iteration count.
+     */
+    private int addHits(double[] orbit, int escapeIteration, long[] histogram, int weight) {
+        int width = view.getWidth();
+        int height = view.getHeight();
+        double pixelsPerUnit = 1/view.getPixelSize();
+        double centerX = width/2.0 - view.getU()*pixelsPerUnit;
+        double centerY = height/2.0 + view.getV()*pixelsPerUnit;
+        int hitCount = 0;
+        for (int channel = 0; channel < maxIterationCounts.length; channel++) {
+            if (escapeIteration > maxIterationCounts[channel]) continue;
+            boolean countHits = maxIterationCounts[channel] == maxIterationCount;
+            int offset = channel*pixelCount;
+            //z_0 = 0 and z_1 = c only show the distribution of the samples, the last point is outside the circle with radius 2.
+            for (int n = 1; n < escapeIteration - 1; n++) {
+                double zu = orbit[2*n];
+                double zv = orbit[2*n + 1];
+                double x = zu*pixelsPerUnit + centerX;
+                if (x < 0 || x >= width) continue;
+                int column = (int) x;
+                double y = centerY - zv*pixelsPerUnit;
+                if (y >= 0 && y < height) {
+                    if (histogram != null) histogram[offset + (int) y*width + column] += weight;
+                    if (countHits) hitCount++;
+                }
+                double mirroredY = centerY + zv*pixelsPerUnit;
+                if (mirroredY >= 0 && mirroredY < height) {
+                    if (histogram != null) histogram[offset + (int) mirroredY*width + column] += weight;
+                    if (countHits) hitCount++;
+                }
+            }
+        }
+        return hitCount;
+    }
+
+    /**
+     * Iterates z_new = z_old^2 + c and stores z_1, z_2, ... in the given orbit buffer.
+     *
+     * @return the number of iterations after which abs(z) > 2, or 0 if the orbit did not escape within maxIterationCount iterations.
+     */
+    private int iterate(double cu, double cv, double[] orbit) {
+        double zu = 0;
+        double zv = 0;
+        //periodicity check: if z returns to a previously saved value, then the orbit is periodic and never escapes.
+        double savedZu = 0;
+        double savedZv = 0;
+        int savePeriod = 8;
+        for (int iteration = 1; iteration <= maxIterationCount; iteration++) {
+            double newZu = zu*zu - zv*zv + cu;
+            zv = 2*zu*zv + cv;
+            zu = newZu;
+            orbit[2*iteration - 2] = zu;
+            orbit[2*iteration - 1] = zv;
+
+            if (zu*zu + zv*zv > 2*2) return iteration;
+            if (zu == savedZu && zv == savedZv) return 0;
+            if (iteration == savePeriod) {
+                savedZu = zu;
+                savedZv = zv;
+                savePeriod *= 2;
+            }
+        }
+        return 0;
+    }
+
+    private static boolean isInMainCardioidOrPeriod2Bulb(double cu, double cv) {
+        double cv2 = cv*cv;
+        double q = (cu - 0.25)*(cu - 0.25) + cv2;
+        if (q*(q + (cu - 0.25)) <= 0.25*cv2) return true;
+        return (cu + 1)*(cu + 1) + cv2 <= 1/16.0;
+    }
+
+    /**
+     * Estimates for each cell of the region of c how useful it is to sample it, by tracing a few random orbits per cell.
+     * To minimize the noise per unit of render time, the sampling probability of a cell should be proportional to
+     * sqrt(mean(hitCount^2)/mean(cost)) of its samples, where the cost of a sample is the number of iterations.
+     * The rows of the map are calculated in parallel, each with its own random generator, so that the map does not depend on the number of threads.
+     */
+    private void calculateImportanceMap() {
+        int cellCount = IMPORTANCE_MAP_WIDTH*IMPORTANCE_MAP_HEIGHT;
+        double[] estimates = new double[cellCount];
+        IntStream.range(0, IMPORTANCE_MAP_HEIGHT).parallel().forEach(y -> {
+            double[] orbit = new double[2*maxIterationCount];
+            SplittableRandom random = new SplittableRandom(y);
+            for (int x = 0; x < IMPORTANCE_MAP_WIDTH; x++) {
+                double sumOfSquaredHitCounts = 0;
+                //the constant is the cost of picking a sample.
+                double cost = SAMPLE_COST*IMPORTANCE_SAMPLE_COUNT;
+                for (int n = 0; n < IMPORTANCE_SAMPLE_COUNT; n++) {
+                    double cu = MIN_CU + (x + random.nextDouble())*(MAX_CU - MIN_CU)/IMPORTANCE_MAP_WIDTH;
+                    double cv = MIN_CV + (y + random.nextDouble())*(MAX_CV - MIN_CV)/IMPORTANCE_MAP_HEIGHT;
+                    if (isInMainCardioidOrPeriod2Bulb(cu, cv)) continue;
+
+                    int escapeIteration = iterate(cu, cv, orbit);
+                    if (escapeIteration == 0) {
+                        cost += maxIterationCount;
+                    } else {
+                        cost += escapeIteration;
+                        double hitCount = addHits(orbit, escapeIteration, null, 0);
+                        sumOfSquaredHitCounts += hitCount*hitCount;
+                    }
+                }
+                estimates[y*IMPORTANCE_MAP_WIDTH + x] = Math.sqrt(sumOfSquaredHitCounts/cost);
+            }
+        });
+
+        //the estimates are based on few samples, so a cell next to a cell that contributes is assumed to contribute as well.
+        double[] importances = new double[cellCount];
+        double totalImportance = 0;
+        for (int y = 0; y < IMPORTANCE_MAP_HEIGHT; y++) {
+            for (int x = 0; x < IMPORTANCE_MAP_WIDTH; x++) {
+                double importance = 0;
+                for (int neighbourY = Math.max(0, y - 1); neighbourY <= Math.min(IMPORTANCE_MAP_HEIGHT - 1, y + 1); neighbourY++) {
+                    for (int neighbourX = Math.max(0, x - 1); neighbourX <= Math.min(IMPORTANCE_MAP_WIDTH - 1, x + 1); neighbourX++) {
+                        importance = Math.max(importance, estimates[neighbourY*IMPORTANCE_MAP_WIDTH + neighbourX]);
+                    }
+                }
+                importances[y*IMPORTANCE_MAP_WIDTH + x] = importance;
+                totalImportance += importance;
+            }
+        }
+
+        double averageImportance = totalImportance == 0 ? 1 : totalImportance/cellCount;
+        double minImportance = MIN_RELATIVE_IMPORTANCE*averageImportance;
+        double maxImportance = MAX_RELATIVE_IMPORTANCE*averageImportance;
+        totalImportance = 0;
+        double greatestImportance = 0;
+        for (int cell = 0; cell < cellCount; cell++) {
+            importances[cell] = Math.max(minImportance, Math.min(maxImportance, importances[cell]));
+            totalImportance += importances[cell];
+            greatestImportance = Math.max(greatestImportance, importances[cell]);
+        }
+
+        //a cell that is sampled k times more often than another cell gets a k times smaller weight.
+        cumulativeProbabilities = new double[cellCount];
+        weights = new int[cellCount];
+        double cumulativeProbability = 0;
+        for (int cell = 0; cell < cellCount; cell++) {
+            cumulativeProbability += importances[cell]/totalImportance;
+            cumulativeProbabilities[cell] = cumulativeProbability;
+            weights[cell] = (int) Math.round(MIN_WEIGHT*greatestImportance/importances[cell]);
+        }
+        cumulativeProbabilities[cellCount - 1] = 1;
+    }
+
+    /**
+     * Usage: OrbitDensityRenderer [--view u v magnification] [--size width height] [--iterations n | --iterations red green blue]
+     *                             [--threads n] [--time seconds] outputFile
+     * Writes the image to the output file every few seconds while rendering, so that the progress can be followed.
+     */
+    public static void main(String[] args) throws Exception {
+        String usage = "Usage: " + OrbitDensityRenderer.class.getSimpleName() + " [--view u v magnification] [--size width height]"
+                + " [--iterations n | --iterations red green blue] [--threads n] [--time seconds] outputFile";
+        double u = -0.5;
+        double v = 0;
+        double magnification = 1;
+        int width = 1280;
+        int height = 720;
+        int[] maxIterationCounts = new int[]{5000, 500, 50};
+        int threadCount = Runtime.getRuntime().availableProcessors();
+        double time = 60;
+        File outputFile = null;
+
+        try {
+            for (int n = 0; n < args.length; n++) {
+                switch (args[n]) {
+                    case "--view":
+                        u = Double.parseDouble(args[++n]);
+                        v = Double.parseDouble(args[++n]);
+                        magnification = Double.parseDouble(args[++n]);
+                        break;
+                    case "--size":
+                        width = Integer.parseInt(args[++n]);
+                        height = Integer.parseInt(args[++n]);
+                        break;
+                    case "--iterations":
+                        List<Integer> counts = new ArrayList<>();
+                        while (n + 1 < args.length && !args[n + 1].startsWith("--") && counts.size() < 3 && args[n + 1].matches("\\d+")) {
+                            counts.add(Integer.parseInt(args[++n]));
+                        }
+                        maxIterationCounts = counts.stream().mapToInt(Integer::intValue).toArray();
+                        break;
+                    case "--threads":
+                        threadCount = Integer.parseInt(args[++n]);
+                        break;
+                    case "--time":
+                        time = Double.parseDouble(args[++n]);
+                        break;
+                    default:
+                        if (outputFile != null || args[n].startsWith("--")) throw new IllegalArgumentException("unknown argument " + args[n]);
+                        outputFile = new File(args[n]);
+                        break;
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+            System.err.println(usage);
+            System.exit(1);
+        }
+        if (outputFile == null || (maxIterationCounts.length != 1 && maxIterationCounts.length != 3)) {
+            System.err.println(usage);
+            System.exit(1);
+        }
+
+        OrbitDensityRenderer renderer = new OrbitDensityRenderer(new MandelbrotView(u, v, magnification, width, height), maxIterationCounts);
+        long startTime = System.nanoTime();
+        renderer.start(threadCount);
+        long endTime = startTime + (long) (time*1e9);
+        while (System.nanoTime() < endTime) {
+            Thread.sleep(Math.max(1, Math.min(10_000, (endTime - System.nanoTime())/1_000_000)));
+            ImageIO.write(renderer.createImage(), "png", outputFile);
+            System.out.println(String.format("%.0f s: %d samples", (System.nanoTime() - startTime)/1e9, renderer.getSampleCount()));
+        }
+        renderer.stop();
+        ImageIO.write(renderer.createImage(), "png", outputFile);
+        System.out.println(String.format("Rendered %d samples in %.1f s, written to %s", renderer.getSampleCount(), (System.nanoTime() - startTime)/1e9, outputFile));
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.fractal;
+
+import rasterizer.output.StripedTiffFile;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Renders an image of the Mandelbrot set that can be much larger than the available memory (e.g. 100000x100000 pixels for a poster)
+ * directly to a TIFF file on disk (see StripedTiffFile). The image is divided into horizontal strips that are rendered in parallel,
+ * each thread only needs memory for the strip it is rendering, independent of the size of the image. Optionally the iteration counts
+ * are also written to a raw file (little endian 32 bit integers, one row after the other), e.g. to color the image differently later.
+ *
+ * The completed strips are recorded in a journal (see StripJournal) next to the output file. If rendering is interrupted,
+ * then running it again with the same arguments only renders the strips that had not been completed. The journal is deleted when
+ * the image is complete. The journal is ignored if the output files no longer contain the completed strips, i.e. if the image file
+ * has been created again or has a different size, or if the iteration data file has been created again.
+ *
+ * @author A.C. Kockx
+ */
+public final class PosterRenderer implements Closeable {
+    //strips are about this size (RGB data), so that writing them is efficient.
+    private static final int TARGET_STRIP_SIZE = 4 << 20;
+    //interval at which the completed strips are forced to disk and recorded in the journal,
+    //at most the strips completed in this interval have to be rendered again after a crash.
+    private static final long COMMIT_INTERVAL_IN_MILLISECONDS = 5000;
+
+    private final MandelbrotView view;
+    private final StripedTiffFile image;
+    //null if the iteration counts are not written.
+    private final FileChannel iterationData;
+    private final StripJournal journal;
+
+    /**
+     * Opens the output files and the journal, or creates them if they do not exist.
+     *
+     * @param iterationDataFile file to write the iteration counts to, or null.
+     * @param rowsPerStrip number of rows per strip, or 0 for a strip size of a few megabytes.
+     * @throws IOException if the journal belongs to a different render.
+     */
+    public PosterRenderer(MandelbrotView view, Path imageFile, Path iterationDataFile, int rowsPerStrip) throws IOException {
+        if (view == null) throw new IllegalArgumentException("view == null");
+        if (imageFile == null) throw new IllegalArgumentException("imageFile == null");
+        if (rowsPerStrip < 0) throw new IllegalArgumentException("rowsPerStrip < 0");
+
+        this.view = view;
+        if (rowsPerStrip == 0) rowsPerStrip = Math.max(1, TARGET_STRIP_SIZE/(3*view.getWidth()));
+        rowsPerStrip = Math.min(rowsPerStrip, view.getHeight());
+        int stripCount = (view.getHeight() + rowsPerStrip - 1)/rowsPerStrip;
+        String description = view + ", rowsPerStrip = " + rowsPerStrip + ", iterationData = " + (iterationDataFile != null);
+        //the journal is opened first, so that the output files are not changed if it belongs to a different render.
+        journal = new StripJournal(imageFile.resolveSibling(imageFile.getFileName() + ".journal"), description, stripCount);
+        try {
+            image = new StripedTiffFile(imageFile, view.getWidth(), view.getHeight(), rowsPerStrip);
+            boolean iterationDataCreated = iterationDataFile != null && !Files.exists(iterationDataFile);
+            iterationData = iterationDataFile == null ? null : FileChannel.open(iterationDataFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            long iterationDataSize = 4L*view.getWidth()*view.getHeight();
+            if (iterationData != null && iterationData.size() > iterationDataSize) iterationData.truncate(iterationDataSize);
+
+            //e.g. the image has been deleted after an interrupted render, then the completed strips must be rendered again.
+            if (journal.getCompletedCount() > 0 && (!image.containsPreviousStrips() || iterationDataCreated)) {
+                System.err.println("Output files no longer contain the " + journal.getCompletedCount() + " completed strips of the journal, rendering all strips");
+                journal.clear();
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    public int getStripCount() {
+        return image.getStripCount();
+    }
+
+    public int getCompletedStripCount() {
+        return journal.getCompletedCount();
+    }
+
+    public boolean isBigTiff() {
+        return image.isBigTiff();
+    }
+
+    /**
+     * Renders the strips that have not been completed yet in the given number of threads and blocks until they are all written.
+     * Prints the progress to System.out. The journal is deleted when all strips have been completed.
+     */
+    public void render(int threadCount) throws IOException, InterruptedException {
+        if (threadCount <= 0) throw new IllegalArgumentException("threadCount <= 0");
+
+        List<Integer> remainingStrips = new ArrayList<>();
+        for (int strip = 0; strip < image.getStripCount(); strip++) {
+            if (!journal.isCompleted(strip)) remainingStrips.add(strip);
+        }
+
+        AtomicInteger nextIndex = new AtomicInteger();
+        BlockingQueue<Integer> writtenStrips = new LinkedBlockingQueue<>();
+        List<IOException> errors = new ArrayList<>();
+        CountDownLatch finished = new CountDownLatch(threadCount);
+        for (int n = 0; n < threadCount; n++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    //each thread reuses the buffers of a single strip.
+                    ByteBuffer pixels = ByteBuffer.allocateDirect(image.getRowsPerStrip()*view.getWidth()*3);
+                    ByteBuffer iterations = iterationData == null ? null
+                            : ByteBuffer.allocateDirect(image.getRowsPerStrip()*view.getWidth()*4).order(ByteOrder.LITTLE_ENDIAN);
+                    for (int index = nextIndex.getAndIncrement(); index < remainingStrips.size(); index = nextIndex.getAndIncrement()) {
+                        renderStrip(remainingStrips.get(index), pixels, iterations);
+                        writtenStrips.add(remainingStrips.get(index));
+                    }
+                } catch (IOException e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                    //stop the other threads.
+                    nextIndex.set(remainingStrips.size());
+                } finally {
+                    finished.countDown();
+                }
+            }, PosterRenderer.class.getSimpleName() + " thread " + n);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        long startTime = System.nanoTime();
+        int startCount = journal.getCompletedCount();
+        boolean done = false;
+        while (!done) {
+            done = finished.await(COMMIT_INTERVAL_IN_MILLISECONDS, TimeUnit.MILLISECONDS);
+            commit(writtenStrips);
+            int count = journal.getCompletedCount();
+            double time = (System.nanoTime() - startTime)/1e9;
+            double remainingTime = count == startCount ? Double.NaN : time*(image.getStripCount() - count)/(count - startCount);
+            System.out.println(String.format("%.0f s: %d of %d strips, about %.0f s remaining", time, count, image.getStripCount(), remainingTime));
+        }
+        if (!errors.isEmpty()) throw errors.get(0);
+
+        if (journal.isFinished()) journal.delete();
+    }
+
+    /**
+     * Forces the written strips to disk and then records them in the journal, so that the journal never contains a strip
+     * that would be lost in a crash.
+     */
+    private void commit(BlockingQueue<Integer> writtenStrips) throws IOException {
+        List<Integer> strips = new ArrayList<>();
+        writtenStrips.drainTo(strips);
+        if (strips.isEmpty()) return;
+
+        image.force();
+        if (iterationData != null) iterationData.force(false);
+        journal.record(strips);
+    }
+
+    private void renderStrip(int strip, ByteBuffer pixels, ByteBuffer iterations) throws IOException {
+        int width = view.getWidth();
+        int firstRow = strip*image.getRowsPerStrip();
+        int rowCount = image.getStripRowCount(strip);
+        int maxIterationCount = view.getMaxIterationCount();
+        pixels.clear();
+        if (iterations != null) iterations.clear();
+        for (int row = firstRow; row < firstRow + rowCount; row++) {
+            double cy = view.getPixelV(row);
+            for (int column = 0; column < width; column++) {
+                int iteration = MandelbrotRenderer.iterate(view.getPixelU(column), cy, maxIterationCount);
+                int color = MandelbrotRenderer.getColor(iteration);
+                pixels.put((byte) (color >> 16)).put((byte) (color >> 8)).put((byte) color);
+                if (iterations != null) iterations.putInt(iteration);
+            }
+        }
+
+        pixels.flip();
+        image.writeStrip(strip, pixels);
+        if (iterations != null) {
+            iterations.flip();
+            long position = 4L*firstRow*width;
+            while (iterations.hasRemaining()) {
+                position += iterationData.write(iterations, position);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (image != null) image.close();
+            if (iterationData != null) iterationData.close();
+        } finally {
+            //the journal is already closed if it has been deleted, closing it again has no effect.
+            journal.close();
+        }
+    }
+
+    /**
+     * Usage: PosterRenderer [--view u v magnification] [--size width height] [--iterations n] [--threads n] [--rows-per-strip n]
+     *                       [--iteration-data file] outputFile.tif
+     */
+    public static void main(String[] args) throws Exception {
+        String usage = "Usage: " + PosterRenderer.class.getSimpleName() + " [--view u v magnification] [--size width height] [--iterations n]"
+                + " [--threads n] [--rows-per-strip n] [--iteration-data file] outputFile.tif";
+        double u = -0.5;
+        double v = 0;
+        double magnification = 1;
+        int width = 16384;
+        int height = 16384;
+        int maxIterationCount = -1;
+        int threadCount = Runtime.getRuntime().availableProcessors();
+        int rowsPerStrip = 0;
+        Path iterationDataFile = null;
+        Path outputFile = null;
+
+        try {
+            for (int n = 0; n < args.length; n++) {
+                switch (args[n]) {
+                    case "--view":
+                        u = Double.parseDouble(args[++n]);
+                        v = Double.parseDouble(args[++n]);
+                        magnification = Double.parseDouble(args[++n]);
+                        break;
+                    case "--size":
+                        width = Integer.parseInt(args[++n]);
+                        height = Integer.parseInt(args[++n]);
+                        break;
+                    case "--iterations":
+                        maxIterationCount = Integer.parseInt(args[++n]);
+                        break;
+                    case "--threads":
+                        threadCount = Integer.parseInt(args[++n]);
+                        break;
+                    case "--rows-per-strip":
+                        rowsPerStrip = Integer.parseInt(args[++n]);
+                        break;
+                    case "--iteration-data":
+                        iterationDataFile = Paths.get(args[++n]);
+                        break;
+                    default:
+                        if (outputFile != null || args[n].startsWith("--")) throw new IllegalArgumentException("unknown argument " + args[n]);
+                        outputFile = Paths.get(args[n]);
+                        break;
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+            System.err.println(usage);
+            System.exit(1);
+        }
+        if (outputFile == null || threadCount <= 0 || rowsPerStrip < 0) {
+            System.err.println(usage);
+            System.exit(1);
+        }
+
+        MandelbrotView view = maxIterationCount > 0 ? new MandelbrotView(u, v, magnification, width, height, maxIterationCount)
+                                                    : new MandelbrotView(u, v, magnification, width, height);
+        long startTime = System.nanoTime();
+        try (PosterRenderer renderer = new PosterRenderer(view, outputFile, iterationDataFile, rowsPerStrip)) {
+            if (renderer.getCompletedStripCount() > 0) {
+                System.out.println("Resuming render, " + renderer.getCompletedStripCount() + " of " + renderer.getStripCount() + " strips already completed");
+            }
+            System.out.println("Rendering " + view + " to " + outputFile + (renderer.isBigTiff() ? " (BigTIFF)" : ""));
+            renderer.render(threadCount);
+        }
+        System.out.println(String.format("Rendered in %.1f s, written to %s", (System.nanoTime() - startTime)/1e9, outputFile));
+    }
+}
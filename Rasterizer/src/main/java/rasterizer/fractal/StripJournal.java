@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.fractal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Records which strips of a render have been written completely, so that a render that was interrupted (e.g. by a crash)
+ * can be resumed without rendering these strips again. The journal is a text file: the first line describes the render,
+ * followed by the index of each completed strip on a separate line. A strip must only be recorded after its data has been forced to disk.
+ * A line that was only partly written when the process stopped is ignored.
+ *
+ * @author A.C. Kockx
+ */
+final class StripJournal implements Closeable {
+    private final Path file;
+    private final int stripCount;
+    //size in bytes of the first line.
+    private final int descriptionSize;
+    private final FileChannel channel;
+    private final BitSet completedStrips = new BitSet();
+
+    /**
+     * Opens the given journal and reads the strips that have been completed, or creates the journal if it does not exist.
+     *
+     * @param description of the render, a journal with a different description belongs to a different render and is not used.
+     * @throws IOException if the journal belongs to a different render.
+     */
+    StripJournal(Path file, String description, int stripCount) throws IOException {
+        if (description.contains("\n")) throw new IllegalArgumentException("description contains a line break");
+
+        this.file = file;
+        this.stripCount = stripCount;
+        descriptionSize = (description + "\n").getBytes(StandardCharsets.UTF_8).length;
+        String text = Files.exists(file) ? new String(Files.readAllBytes(file), StandardCharsets.UTF_8) : "";
+        //ignore the last line if it is incomplete.
+        text = text.substring(0, text.lastIndexOf('\n') + 1);
+        String[] lines = text.split("\n");
+        if (!text.isEmpty() && !lines[0].equals(description)) {
+            throw new IOException("Journal " + file + " belongs to a different render (" + lines[0] + "), delete it to start again");
+        }
+        for (int n = 1; n < lines.length; n++) {
+            int strip = Integer.parseInt(lines[n]);
+            if (strip < 0 || strip >= stripCount) throw new IOException("Journal " + file + " contains invalid strip " + strip);
+            completedStrips.set(strip);
+        }
+
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        channel.truncate(text.getBytes(StandardCharsets.UTF_8).length);
+        if (text.isEmpty()) append(description + "\n");
+    }
+
+    int getCompletedCount() {
+        return completedStrips.cardinality();
+    }
+
+    boolean isCompleted(int strip) {
+        return completedStrips.get(strip);
+    }
+
+    boolean isFinished() {
+        return getCompletedCount() == stripCount;
+    }
+
+    /**
+     * Records the given strips as completed and forces the journal to disk.
+     */
+    void record(List<Integer> strips) throws IOException {
+        if (strips.isEmpty()) return;
+
+        StringBuilder lines = new StringBuilder();
+        for (int strip : strips) {
+            lines.append(strip).append('\n');
+        }
+        append(lines.toString());
+        for (int strip : strips) {
+            completedStrips.set(strip);
+        }
+    }
+
+    /**
+     * Forgets all completed strips and removes them from the journal, e.g. when the output file has been created again
+     * and no longer contains them.
+     */
+    void clear() throws IOException {
+        channel.truncate(descriptionSize);
+        channel.force(false);
+        completedStrips.clear();
+    }
+
+    /**
+     * Closes and deletes the journal, e.g. when the render is finished.
+     */
+    void delete() throws IOException {
+        close();
+        Files.delete(file);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void append(String text) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, channel.size());
+        }
+        channel.force(false);
+    }
+}
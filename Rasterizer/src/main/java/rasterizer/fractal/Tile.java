@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.fractal;
+
+/**
+ * Rectangle of pixels in a frame, the unit of work that TileCoordinator hands out to workers.
+ *
+ * @author A.C. Kockx
+ */
+final class Tile {
+    final int frame;
+    final int x;
+    final int y;
+    final int width;
+    final int height;
+
+    Tile(int frame, int x, int y, int width, int height) {
+        this.frame = frame;
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (!(object instanceof Tile)) return false;
+        Tile other = (Tile) object;
+        return frame == other.frame && x == other.x && y == other.y && width == other.width && height == other.height;
+    }
+
+    @Override
+    public int hashCode() {
+        return ((frame*31 + x)*31 + y)*31 + width*7 + height;
+    }
+
+    @Override
+    public String toString() {
+        return "frame " + frame + " tile " + x + ", " + y + ", " + width + "x" + height;
+    }
+}
@@ -0,0 +1,358 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.fractal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Splits a range of frames of the Mandelbrot set into tiles and hands them out to TileWorker processes over sockets,
+ * then stitches the returned iteration buffers into frames. See TileProtocol for the protocol.
+ *
+ * Workers pull tiles: a worker requests a new tile as soon as it has finished the previous one, so fast workers automatically do more work.
+ * Tiles are handed out frame by frame, so that frames are finished in order. When no unassigned tiles are left,
+ * an idle worker steals a tile that another worker is still rendering (the first result wins), so that a single slow
+ * or hanging worker cannot hold up the last frame. If a worker disconnects (e.g. because its process died),
+ * then its tile is put back at the front of the queue, to be rendered by another worker. If no worker has been connected
+ * for LOCAL_FALLBACK_DELAY_IN_MILLISECONDS (e.g. because all workers died), then awaitFrame renders the tiles itself,
+ * so that the frames are still finished.
+ *
+ * When all tiles have been finished, close waits (at most DRAIN_TIMEOUT_IN_MILLISECONDS) until the workers have returned
+ * the tiles that they were still rendering (stolen tiles) and have been sent DONE, so that they are not disconnected in the middle of a tile.
+ *
+ * @author A.C. Kockx
+ */
+public final class TileCoordinator implements Closeable {
+    //a tile is rendered by at most this number of workers at the same time.
+    private static final int MAX_ASSIGNMENT_COUNT = 2;
+    private static final long LOCAL_FALLBACK_DELAY_IN_MILLISECONDS = 10000;
+    private static final long DRAIN_TIMEOUT_IN_MILLISECONDS = 5000;
+
+    private final List<MandelbrotView> frames;
+    private final Object lock = new Object();
+    //tiles that have not been assigned to a worker.
+    private final Deque<Tile> pendingTiles = new ArrayDeque<>();
+    //tiles that are being rendered, with the number of workers that are rendering each of them.
+    private final Map<Tile, Integer> assignmentCounts = new HashMap<>();
+    //a finished tile can still be assigned to a worker that is rendering it as well.
+    private final Set<Tile> finishedTiles = new HashSet<>();
+    private final int tileCount;
+    //iteration buffer per frame, created when the first tile of the frame is finished, released by method awaitFrame.
+    private final int[][] frameIterations;
+    private final int[] remainingTileCounts;
+    private final boolean[] frameTaken;
+    private final List<Socket> workerSockets = new ArrayList<>();
+    private ServerSocket serverSocket = null;
+    private boolean closed = false;
+    //time (System.nanoTime) since which no worker has been connected.
+    private long noWorkerStartTime = System.nanoTime();
+
+    /**
+     * @param frames views to render.
+     * @param tileSize width and height of a tile in pixels (tiles at the right and bottom edges of a frame can be smaller).
+     */
+    public TileCoordinator(List<MandelbrotView> frames, int tileSize) {
+        if (frames == null) throw new IllegalArgumentException("frames == null");
+        if (tileSize <= 0) throw new IllegalArgumentException("tileSize <= 0");
+
+        this.frames = new ArrayList<>(frames);
+        frameIterations = new int[frames.size()][];
+        remainingTileCounts = new int[frames.size()];
+        frameTaken = new boolean[frames.size()];
+        for (int frame = 0; frame < frames.size(); frame++) {
+            MandelbrotView view = frames.get(frame);
+            for (int y = 0; y < view.getHeight(); y += tileSize) {
+                for (int x = 0; x < view.getWidth(); x += tileSize) {
+                    pendingTiles.add(new Tile(frame, x, y, Math.min(tileSize, view.getWidth() - x), Math.min(tileSize, view.getHeight() - y)));
+                    remainingTileCounts[frame]++;
+                }
+            }
+        }
+        tileCount = pendingTiles.size();
+    }
+
+    /**
+     * Starts accepting worker connections on the given address in a background thread.
+     *
+     * @param address to listen on, use port 0 to use any free port.
+     */
+    public void start(InetSocketAddress address) throws IOException {
+        synchronized (lock) {
+            if (serverSocket != null) throw new IllegalStateException("already started");
+            serverSocket = new ServerSocket();
+            serverSocket.bind(address);
+        }
+
+        Thread acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    Socket socket;
+                    try {
+                        socket = serverSocket.accept();
+                    } catch (IOException e) {
+                        //server socket closed.
+                        return;
+                    }
+                    synchronized (lock) {
+                        if (closed) {
+                            closeQuietly(socket);
+                            return;
+                        }
+                        workerSockets.add(socket);
+                    }
+                    Thread workerThread = new Thread(() -> serveWorker(socket), "TileCoordinator worker " + socket.getRemoteSocketAddress());
+                    workerThread.setDaemon(true);
+                    workerThread.start();
+                }
+            }
+        }, "TileCoordinator accept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    /**
+     * @return the port on which the coordinator listens for workers.
+     */
+    public int getPort() {
+        synchronized (lock) {
+            if (serverSocket == null) throw new IllegalStateException("not started");
+            return serverSocket.getLocalPort();
+        }
+    }
+
+    /**
+     * Waits until all tiles of the given frame have been rendered. The coordinator releases the iteration buffer of the frame,
+     * so this method can be called only once per frame. While no worker is connected, tiles are rendered in the calling thread
+     * (see LOCAL_FALLBACK_DELAY_IN_MILLISECONDS).
+     *
+     * @return iteration buffer of the frame, see MandelbrotRenderer.
+     */
+    public int[] awaitFrame(int frame) throws InterruptedException {
+        synchronized (lock) {
+            if (frame < 0 || frame >= frames.size()) throw new IllegalArgumentException("frame " + frame + " out of range");
+            if (frameTaken[frame]) throw new IllegalStateException("frame " + frame + " already taken");
+        }
+
+        while (true) {
+            Tile localTile = null;
+            synchronized (lock) {
+                if (remainingTileCounts[frame] == 0) {
+                    frameTaken[frame] = true;
+                    int[] iterations = frameIterations[frame];
+                    frameIterations[frame] = null;
+                    return iterations;
+                }
+                if (closed) throw new IllegalStateException("coordinator closed");
+
+                if (workerSockets.isEmpty()) {
+                    long delay = LOCAL_FALLBACK_DELAY_IN_MILLISECONDS - (System.nanoTime() - noWorkerStartTime)/1000000;
+                    if (delay <= 0) {
+                        localTile = assignTile();
+                    } else {
+                        lock.wait(delay);
+                        continue;
+                    }
+                }
+                if (localTile == null) {
+                    lock.wait();
+                    continue;
+                }
+            }
+
+            //render outside the lock, so that workers that connect in the meantime can take tiles.
+            storeResult(localTile, MandelbrotRenderer.calculateIterations(frames.get(localTile.frame),
+                    localTile.x, localTile.y, localTile.width, localTile.height));
+        }
+    }
+
+    /**
+     * Stops accepting workers and disconnects all workers. If all tiles have been finished, then this first waits for the workers
+     * to return the tiles that they are still rendering, see class description.
+     */
+    @Override
+    public void close() {
+        synchronized (lock) {
+            if (closed) return;
+            long deadline = System.nanoTime() + DRAIN_TIMEOUT_IN_MILLISECONDS*1000000;
+            while (finishedTiles.size() == tileCount && !workerSockets.isEmpty()) {
+                long timeout = (deadline - System.nanoTime())/1000000;
+                if (timeout <= 0) break;
+                try {
+                    lock.wait(timeout);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            closed = true;
+            if (serverSocket != null) closeQuietly(serverSocket);
+            for (Socket socket : workerSockets) {
+                closeQuietly(socket);
+            }
+            lock.notifyAll();
+        }
+    }
+
+    private void serveWorker(Socket socket) {
+        Tile currentTile = null;
+        try {
+            socket.setTcpNoDelay(true);
+            DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            if (input.readInt() != TileProtocol.MAGIC) throw new IOException("not a tile worker");
+            int version = input.readInt();
+            if (version != TileProtocol.VERSION) throw new IOException("unsupported protocol version " + version);
+
+            while (true) {
+                byte messageType = input.readByte();
+                if (messageType == TileProtocol.RESULT) {
+                    Tile tile = TileProtocol.readTile(input);
+                    if (!tile.equals(currentTile)) throw new IOException("unexpected result for " + tile);
+                    int[] iterations = TileProtocol.readIterations(input, tile);
+                    storeResult(tile, iterations);
+                    currentTile = null;
+                } else if (messageType == TileProtocol.REQUEST) {
+                    if (currentTile != null) throw new IOException("tile requested before result of " + currentTile);
+                    currentTile = takeTile();
+                    if (currentTile == null) {
+                        output.writeByte(TileProtocol.DONE);
+                        output.flush();
+                        return;
+                    }
+                    TileProtocol.writeTile(output, currentTile, frames.get(currentTile.frame));
+                } else {
+                    throw new IOException("unknown message type " + messageType);
+                }
+            }
+        } catch (SocketException e) {
+            if (!isClosed()) System.err.println("Lost worker " + socket.getRemoteSocketAddress() + ": " + e.getMessage());
+        } catch (IOException | InterruptedException e) {
+            if (!isClosed()) System.err.println("Lost worker " + socket.getRemoteSocketAddress() + ": " + e);
+        } finally {
+            if (currentTile != null) releaseTile(currentTile);
+            closeQuietly(socket);
+            synchronized (lock) {
+                workerSockets.remove(socket);
+                if (workerSockets.isEmpty()) noWorkerStartTime = System.nanoTime();
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Waits until a tile is available.
+     *
+     * @return tile to render, or null if all tiles have been finished.
+     */
+    private Tile takeTile() throws InterruptedException {
+        synchronized (lock) {
+            while (!closed && finishedTiles.size() < tileCount) {
+                Tile tile = assignTile();
+                if (tile != null) return tile;
+                lock.wait();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Must be called while holding the lock.
+     *
+     * @return the next pending tile or a tile to steal, which is assigned to the caller, or null if there is none.
+     */
+    private Tile assignTile() {
+        Tile tile = pendingTiles.pollFirst();
+        if (tile == null) tile = findTileToSteal();
+        if (tile != null) assignmentCounts.merge(tile, 1, Integer::sum);
+        return tile;
+    }
+
+    /**
+     * @return the unfinished tile of the earliest frame that is being rendered by the fewest workers, or null if no tile can be stolen.
+     */
+    private Tile findTileToSteal() {
+        Tile bestTile = null;
+        int bestAssignmentCount = MAX_ASSIGNMENT_COUNT;
+        for (Map.Entry<Tile, Integer> entry : assignmentCounts.entrySet()) {
+            Tile tile = entry.getKey();
+            int assignmentCount = entry.getValue();
+            //a worker that is still rendering a finished tile will return it soon, its result is ignored.
+            if (finishedTiles.contains(tile)) continue;
+            if (assignmentCount < bestAssignmentCount || (assignmentCount == bestAssignmentCount && bestTile != null && tile.frame < bestTile.frame)) {
+                bestTile = tile;
+                bestAssignmentCount = assignmentCount;
+            }
+        }
+        return bestTile;
+    }
+
+    private void storeResult(Tile tile, int[] iterations) {
+        synchronized (lock) {
+            unassign(tile);
+            if (!finishedTiles.add(tile)) return;//already finished by another worker.
+
+            //stitch tile into frame.
+            MandelbrotView view = frames.get(tile.frame);
+            if (frameIterations[tile.frame] == null) frameIterations[tile.frame] = new int[view.getWidth()*view.getHeight()];
+            for (int row = 0; row < tile.height; row++) {
+                System.arraycopy(iterations, row*tile.width, frameIterations[tile.frame], (tile.y + row)*view.getWidth() + tile.x, tile.width);
+            }
+            remainingTileCounts[tile.frame]--;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Called if a worker is lost while rendering the given tile.
+     */
+    private void releaseTile(Tile tile) {
+        synchronized (lock) {
+            unassign(tile);
+            //if no other worker is rendering the tile, then put it back at the front of the queue.
+            if (!finishedTiles.contains(tile) && !assignmentCounts.containsKey(tile)) pendingTiles.addFirst(tile);
+            lock.notifyAll();
+        }
+    }
+
+    private void unassign(Tile tile) {
+        Integer assignmentCount = assignmentCounts.get(tile);
+        if (assignmentCount == null) return;
+        if (assignmentCount <= 1) {
+            assignmentCounts.remove(tile);
+        } else {
+            assignmentCounts.put(tile, assignmentCount - 1);
+        }
+    }
+
+    private boolean isClosed() {
+        synchronized (lock) {
+            return closed;
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            //ignore.
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.fractal;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Socket protocol between TileCoordinator and TileWorker. All values are big-endian (DataOutputStream).
+ *
+ * The worker connects and sends HELLO: int MAGIC, int VERSION.
+ * Then the worker repeatedly sends REQUEST: byte REQUEST.
+ * The coordinator answers with either
+ * TILE: byte TILE, int frame, int x, int y, int width, int height,
+ *       double u, double v, double magnification, int imageWidth, int imageHeight, int maxIterationCount
+ * or DONE: byte DONE, after which the worker disconnects.
+ * After rendering a tile the worker sends
+ * RESULT: byte RESULT, int frame, int x, int y, int width, int height, width*height ints (iterations, one row after the other).
+ *
+ * @author A.C. Kockx
+ */
+final class TileProtocol {
+    static final int MAGIC = 0x4D54494C;//"MTIL".
+    static final int VERSION = 1;
+
+    static final byte REQUEST = 1;
+    static final byte TILE = 2;
+    static final byte DONE = 3;
+    static final byte RESULT = 4;
+
+    private TileProtocol() {
+    }
+
+    static void writeTile(DataOutputStream output, Tile tile, MandelbrotView view) throws IOException {
+        output.writeByte(TILE);
+        writeTileRectangle(output, tile);
+        output.writeDouble(view.getU());
+        output.writeDouble(view.getV());
+        output.writeDouble(view.getMagnification());
+        output.writeInt(view.getWidth());
+        output.writeInt(view.getHeight());
+        output.writeInt(view.getMaxIterationCount());
+        output.flush();
+    }
+
+    /**
+     * Reads the view at the end of a TILE message.
+     */
+    static MandelbrotView readView(DataInputStream input) throws IOException {
+        double u = input.readDouble();
+        double v = input.readDouble();
+        double magnification = input.readDouble();
+        int width = input.readInt();
+        int height = input.readInt();
+        int maxIterationCount = input.readInt();
+        return new MandelbrotView(u, v, magnification, width, height, maxIterationCount);
+    }
+
+    static void writeResult(DataOutputStream output, Tile tile, int[] iterations) throws IOException {
+        output.writeByte(RESULT);
+        writeTileRectangle(output, tile);
+        for (int iteration : iterations) {
+            output.writeInt(iteration);
+        }
+        output.flush();
+    }
+
+    static int[] readIterations(DataInputStream input, Tile tile) throws IOException {
+        int[] iterations = new int[tile.width*tile.height];
+        for (int n = 0; n < iterations.length; n++) {
+            iterations[n] = input.readInt();
+        }
+        return iterations;
+    }
+
+    private static void writeTileRectangle(DataOutputStream output, Tile tile) throws IOException {
+        output.writeInt(tile.frame);
+        output.writeInt(tile.x);
+        output.writeInt(tile.y);
+        output.writeInt(tile.width);
+        output.writeInt(tile.height);
+    }
+
+    /**
+     * Reads the tile of a TILE or RESULT message (which follows the message type).
+     */
+    static Tile readTile(DataInputStream input) throws IOException {
+        int frame = input.readInt();
+        int x = input.readInt();
+        int y = input.readInt();
+        int width = input.readInt();
+        int height = input.readInt();
+        if (width <= 0 || height <= 0 || width > 1 << 14 || height > 1 << 14) throw new IOException("invalid tile size " + width + "x" + height);
+        return new Tile(frame, x, y, width, height);
+    }
+}
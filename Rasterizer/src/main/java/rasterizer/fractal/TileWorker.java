@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.fractal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.Socket;
+
+/**
+ * Worker process that connects to a TileCoordinator and renders tiles of the Mandelbrot set
+ * until the coordinator has no more work. See TileProtocol for the protocol. If the coordinator closes the connection
+ * (e.g. because it has finished without waiting for this worker), then the worker stops as if it had received DONE.
+ *
+ * Usage: TileWorker host port
+ *
+ * @author A.C. Kockx
+ */
+public final class TileWorker {
+    private static final int CONNECT_ATTEMPT_COUNT = 50;
+    private static final long CONNECT_RETRY_DELAY_IN_MILLISECONDS = 200;
+
+    private TileWorker() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("Usage: " + TileWorker.class.getSimpleName() + " host port");
+            System.exit(1);
+        }
+        String host = args[0];
+        int port = Integer.parseInt(args[1]);
+
+        int tileCount = 0;
+        try (Socket socket = connect(host, port)) {
+            socket.setTcpNoDelay(true);
+            DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            output.writeInt(TileProtocol.MAGIC);
+            output.writeInt(TileProtocol.VERSION);
+
+            while (true) {
+                output.writeByte(TileProtocol.REQUEST);
+                output.flush();
+
+                byte messageType;
+                try {
+                    messageType = input.readByte();
+                } catch (EOFException e) {
+                    System.out.println("Coordinator closed the connection");
+                    break;
+                }
+                if (messageType == TileProtocol.DONE) break;
+                if (messageType != TileProtocol.TILE) throw new IOException("unknown message type " + messageType);
+                Tile tile = TileProtocol.readTile(input);
+                MandelbrotView view = TileProtocol.readView(input);
+
+                int[] iterations = MandelbrotRenderer.calculateIterations(view, tile.x, tile.y, tile.width, tile.height);
+                TileProtocol.writeResult(output, tile, iterations);
+                tileCount++;
+            }
+        }
+        System.out.println("Worker rendered " + tileCount + " tiles");
+    }
+
+    /**
+     * The coordinator may not be listening yet when the worker starts, so this retries for a while.
+     */
+    private static Socket connect(String host, int port) throws IOException, InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return new Socket(host, port);
+            } catch (ConnectException e) {
+                if (attempt >= CONNECT_ATTEMPT_COUNT) throw e;
+                Thread.sleep(CONNECT_RETRY_DELAY_IN_MILLISECONDS);
+            }
+        }
+    }
+}
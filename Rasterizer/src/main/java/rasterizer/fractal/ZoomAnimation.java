@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.fractal;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Animation of the view of the Mandelbrot set, defined by keyframes.
+ *
+ * Between keyframes the logarithm of the magnification is interpolated with a monotone cubic spline,
+ * so that the zoom speed is constant between two keyframes that are zoomed the same amount, changes smoothly at keyframes
+ * and never overshoots (i.e. a zoom in never briefly zooms out). The center of the view moves such that its
+ * on-screen speed matches the zoom: when zooming in on a point, that point stays at the same place on the screen.
+ *
+ * Keyframe files contain one keyframe per line: time (in seconds) u v magnification. Lines starting with # are ignored.
+ * The GpuMandelbrot experiment prints keyframes in this format when pressing K.
+ *
+ * @author A.C. Kockx
+ */
+public final class ZoomAnimation {
+    private final List<Keyframe> keyframes;
+    //tangents of the log magnification spline at the keyframes, in log magnification per second.
+    private final double[] tangents;
+
+    /**
+     * @param keyframes at least one keyframe, in order of increasing time.
+     */
+    public ZoomAnimation(List<Keyframe> keyframes) {
+        if (keyframes == null) throw new IllegalArgumentException("keyframes == null");
+        if (keyframes.isEmpty()) throw new IllegalArgumentException("keyframes.isEmpty()");
+        for (int n = 1; n < keyframes.size(); n++) {
+            if (!(keyframes.get(n).time > keyframes.get(n - 1).time)) throw new IllegalArgumentException("keyframe times must be increasing");
+        }
+
+        this.keyframes = Collections.unmodifiableList(new ArrayList<>(keyframes));
+        tangents = calculateTangents(this.keyframes);
+    }
+
+    public List<Keyframe> getKeyframes() {
+        return keyframes;
+    }
+
+    /**
+     * @return the time of the first keyframe, in seconds.
+     */
+    public double getStartTime() {
+        return keyframes.get(0).time;
+    }
+
+    /**
+     * @return the time of the last keyframe, in seconds.
+     */
+    public double getEndTime() {
+        return keyframes.get(keyframes.size() - 1).time;
+    }
+
+    /**
+     * @return the view at the given time, the view before the first keyframe and after the last keyframe does not change.
+     */
+    public MandelbrotView getView(double time, int width, int height) {
+        if (time <= getStartTime()) {
+            Keyframe first = keyframes.get(0);
+            return new MandelbrotView(first.u, first.v, first.magnification, width, height);
+        }
+        if (time >= getEndTime()) {
+            Keyframe last = keyframes.get(keyframes.size() - 1);
+            return new MandelbrotView(last.u, last.v, last.magnification, width, height);
+        }
+
+        //at the time of a keyframe this uses the segment that starts at that keyframe, so that the view equals the keyframe exactly.
+        int index = 0;
+        while (keyframes.get(index + 1).time <= time) index++;
+        Keyframe start = keyframes.get(index);
+        Keyframe end = keyframes.get(index + 1);
+
+        //cubic Hermite interpolation of the log magnification.
+        double duration = end.time - start.time;
+        double t = (time - start.time)/duration;
+        double t2 = t*t;
+        double t3 = t2*t;
+        double logMagnification = (2*t3 - 3*t2 + 1)*Math.log(start.magnification) + (t3 - 2*t2 + t)*duration*tangents[index]
+                + (-2*t3 + 3*t2)*Math.log(end.magnification) + (t3 - t2)*duration*tangents[index + 1];
+        double magnification = Math.exp(logMagnification);
+
+        //a point that moves on the screen with constant speed in screen space moves in fractal space proportionally to 1/magnification.
+        double fraction;
+        if (start.magnification == end.magnification) {
+            fraction = t;
+        } else {
+            fraction = (1/start.magnification - 1/magnification)/(1/start.magnification - 1/end.magnification);
+        }
+        double u = start.u + fraction*(end.u - start.u);
+        double v = start.v + fraction*(end.v - start.v);
+        return new MandelbrotView(u, v, magnification, width, height);
+    }
+
+    /**
+     * Calculates the tangents of a monotone cubic spline through the log magnifications of the given keyframes (Fritsch-Carlson method).
+     */
+    private static double[] calculateTangents(List<Keyframe> keyframes) {
+        int count = keyframes.size();
+        double[] tangents = new double[count];
+        if (count < 2) return tangents;
+
+        double[] slopes = new double[count - 1];
+        for (int n = 0; n < count - 1; n++) {
+            Keyframe start = keyframes.get(n);
+            Keyframe end = keyframes.get(n + 1);
+            slopes[n] = (Math.log(end.magnification) - Math.log(start.magnification))/(end.time - start.time);
+        }
+
+        tangents[0] = slopes[0];
+        tangents[count - 1] = slopes[count - 2];
+        for (int n = 1; n < count - 1; n++) {
+            //zero tangent at a local minimum or maximum, so that the spline does not overshoot.
+            tangents[n] = slopes[n - 1]*slopes[n] <= 0 ? 0 : (slopes[n - 1] + slopes[n])/2;
+        }
+
+        //limit the tangents, so that the spline is monotone between keyframes.
+        for (int n = 0; n < count - 1; n++) {
+            if (slopes[n] == 0) {
+                tangents[n] = 0;
+                tangents[n + 1] = 0;
+                continue;
+            }
+            double alpha = tangents[n]/slopes[n];
+            double beta = tangents[n + 1]/slopes[n];
+            double length = Math.sqrt(alpha*alpha + beta*beta);
+            if (length > 3) {
+                tangents[n] = 3*alpha/length*slopes[n];
+                tangents[n + 1] = 3*beta/length*slopes[n];
+            }
+        }
+        return tangents;
+    }
+
+    /**
+     * Reads a keyframe file, see class comment for the format.
+     */
+    public static ZoomAnimation read(Path path) throws IOException {
+        List<Keyframe> keyframes = new ArrayList<>();
+        int lineNumber = 0;
+        for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+
+            String[] values = line.split("\\s+");
+            if (values.length != 4) throw new IOException(path + " line " + lineNumber + ": expected time u v magnification");
+            try {
+                keyframes.add(new Keyframe(Double.parseDouble(values[0]), Double.parseDouble(values[1]),
+                        Double.parseDouble(values[2]), Double.parseDouble(values[3])));
+            } catch (IllegalArgumentException e) {
+                throw new IOException(path + " line " + lineNumber + ": " + e.getMessage(), e);
+            }
+        }
+        if (keyframes.isEmpty()) throw new IOException(path + " contains no keyframes");
+        return new ZoomAnimation(keyframes);
+    }
+
+    /**
+     * View of the Mandelbrot set at a given time.
+     */
+    public static final class Keyframe {
+        private final double time;
+        private final double u;
+        private final double v;
+        private final double magnification;
+
+        /**
+         * @param time in seconds.
+         * @param u coordinate of the center of the view in fractal space (real part).
+         * @param v coordinate of the center of the view in fractal space (imaginary part).
+         */
+        public Keyframe(double time, double u, double v, double magnification) {
+            if (!(magnification > 0)) throw new IllegalArgumentException("magnification <= 0");
+
+            this.time = time;
+            this.u = u;
+            this.v = v;
+            this.magnification = magnification;
+        }
+
+        public double getTime() {
+            return time;
+        }
+
+        public double getU() {
+            return u;
+        }
+
+        public double getV() {
+            return v;
+        }
+
+        public double getMagnification() {
+            return magnification;
+        }
+
+        /**
+         * @return this keyframe as a line of a keyframe file.
+         */
+        @Override
+        public String toString() {
+            return time + " " + u + " " + v + " " + magnification;
+        }
+    }
+}
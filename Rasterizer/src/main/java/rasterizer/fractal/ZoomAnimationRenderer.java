@@ -0,0 +1,319 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.fractal;
+
+import rasterizer.output.ImageSequenceWriter;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Renders all frames of a ZoomAnimation without a GPU.
+ *
+ * Frames in which the view only zooms (i.e. the center does not move) are not all calculated. Instead key images are calculated
+ * at magnifications that are KEY_IMAGE_SCALE times apart, each KEY_IMAGE_SCALE times larger than a frame in both dimensions.
+ * A frame with a magnification between that of key image k and k + 1 is then a scaled down part of key image k,
+ * with the center replaced by the part of key image k + 1 that it covers. So a zoom of a factor 2 costs
+ * 4 frames worth of calculation, however many frames are in it. Frames in which the center moves are calculated directly.
+ *
+ * The frames are written as PNG files, or as QOI files with --format qoi (faster, for intermediate sequences), see ImageSequenceWriter.
+ *
+ * Usage: ZoomAnimationRenderer [--size width height] [--frame-rate n] [--direct] [--format png|qoi] keyframeFile outputDirectory
+ *
+ * @author A.C. Kockx
+ */
+public final class ZoomAnimationRenderer {
+    private static final int KEY_IMAGE_SCALE = 2;
+    //key images are only used for at least this many frames per key image, otherwise calculating the frames directly is cheaper.
+    private static final int MIN_FRAME_COUNT_PER_KEY_IMAGE = KEY_IMAGE_SCALE*KEY_IMAGE_SCALE;
+    //number of samples per frame pixel in each dimension when scaling down a key image.
+    private static final int SAMPLE_COUNT = 2;
+    private static final String USAGE = "Usage: " + ZoomAnimationRenderer.class.getSimpleName()
+            + " [--size width height] [--frame-rate n] [--direct] [--format png|qoi] keyframeFile outputDirectory";
+
+    /**
+     * Receives the rendered frames in order.
+     */
+    public interface FrameConsumer {
+        void accept(int frame, MandelbrotView view, BufferedImage image) throws IOException;
+    }
+
+    private final ZoomAnimation animation;
+    private final int width;
+    private final int height;
+    private final double frameRate;
+    private boolean keyImagesEnabled = true;
+    private int directFrameCount = 0;
+    private int keyImageCount = 0;
+
+    /**
+     * @param frameRate in frames per second.
+     */
+    public ZoomAnimationRenderer(ZoomAnimation animation, int width, int height, double frameRate) {
+        if (animation == null) throw new IllegalArgumentException("animation == null");
+        if (width <= 0) throw new IllegalArgumentException("width <= 0");
+        if (height <= 0) throw new IllegalArgumentException("height <= 0");
+        if (!(frameRate > 0)) throw new IllegalArgumentException("frameRate <= 0");
+
+        this.animation = animation;
+        this.width = width;
+        this.height = height;
+        this.frameRate = frameRate;
+    }
+
+    /**
+     * @param keyImagesEnabled if false, then all frames are calculated directly.
+     */
+    public void setKeyImagesEnabled(boolean keyImagesEnabled) {
+        this.keyImagesEnabled = keyImagesEnabled;
+    }
+
+    public int getFrameCount() {
+        return (int) Math.floor((animation.getEndTime() - animation.getStartTime())*frameRate + 1e-9) + 1;
+    }
+
+    /**
+     * @return the number of frames that were calculated directly by the last call to method render.
+     */
+    public int getDirectFrameCount() {
+        return directFrameCount;
+    }
+
+    /**
+     * @return the number of key images that were calculated by the last call to method render.
+     */
+    public int getKeyImageCount() {
+        return keyImageCount;
+    }
+
+    public void render(FrameConsumer consumer) throws IOException {
+        directFrameCount = 0;
+        keyImageCount = 0;
+
+        int frameCount = getFrameCount();
+        MandelbrotView[] views = new MandelbrotView[frameCount];
+        for (int frame = 0; frame < frameCount; frame++) {
+            views[frame] = animation.getView(animation.getStartTime() + frame/frameRate, width, height);
+        }
+
+        //split the frames into runs of frames with the same center.
+        int runStart = 0;
+        while (runStart < frameCount) {
+            int runEnd = runStart + 1;
+            while (runEnd < frameCount && views[runEnd].getU() == views[runStart].getU() && views[runEnd].getV() == views[runStart].getV()) runEnd++;
+            renderRun(views, runStart, runEnd, consumer);
+            runStart = runEnd;
+        }
+    }
+
+    private void renderRun(MandelbrotView[] views, int runStart, int runEnd, FrameConsumer consumer) throws IOException {
+        double minMagnification = Double.POSITIVE_INFINITY;
+        double maxMagnification = 0;
+        for (int frame = runStart; frame < runEnd; frame++) {
+            minMagnification = Math.min(minMagnification, views[frame].getMagnification());
+            maxMagnification = Math.max(maxMagnification, views[frame].getMagnification());
+        }
+        //key images 0 up to and including the one after the last zoom level.
+        int requiredKeyImageCount = getKeyImageIndex(minMagnification, maxMagnification) + 2;
+        boolean useKeyImages = keyImagesEnabled && runEnd - runStart >= requiredKeyImageCount*MIN_FRAME_COUNT_PER_KEY_IMAGE;
+
+        //only the key images for the current and next zoom level are needed at any time.
+        Map<Integer, int[]> keyImages = new LinkedHashMap<Integer, int[]>(4, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, int[]> eldest) {
+                return size() > 3;
+            }
+        };
+        for (int frame = runStart; frame < runEnd; frame++) {
+            MandelbrotView view = views[frame];
+            int[] pixels;
+            if (useKeyImages) {
+                int keyIndex = getKeyImageIndex(minMagnification, view.getMagnification());
+                pixels = resample(view, minMagnification, keyIndex, getKeyImage(keyImages, view, minMagnification, keyIndex),
+                        getKeyImage(keyImages, view, minMagnification, keyIndex + 1));
+            } else {
+                int[] iterations = MandelbrotRenderer.calculateIterations(view, 0, 0, width, height);
+                pixels = new int[iterations.length];
+                for (int n = 0; n < iterations.length; n++) {
+                    pixels[n] = MandelbrotRenderer.getColor(iterations[n]);
+                }
+                directFrameCount++;
+            }
+
+            BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            image.setRGB(0, 0, width, height, pixels, 0, width);
+            consumer.accept(frame, view, image);
+        }
+    }
+
+    /**
+     * @return index of the key image with the greatest magnification that is not greater than the given magnification.
+     */
+    private static int getKeyImageIndex(double baseMagnification, double magnification) {
+        int index = Math.max(0, (int) Math.floor(Math.log(magnification/baseMagnification)/Math.log(KEY_IMAGE_SCALE)));
+        //correct for rounding errors.
+        while (index > 0 && getKeyImageMagnification(baseMagnification, index) > magnification) index--;
+        while (getKeyImageMagnification(baseMagnification, index + 1) <= magnification) index++;
+        return index;
+    }
+
+    private static double getKeyImageMagnification(double baseMagnification, int index) {
+        return baseMagnification*Math.pow(KEY_IMAGE_SCALE, index);
+    }
+
+    /**
+     * @return the colors of the key image with the given index, calculated if not cached.
+     */
+    private int[] getKeyImage(Map<Integer, int[]> keyImages, MandelbrotView frameView, double baseMagnification, int index) {
+        int[] keyImage = keyImages.get(index);
+        if (keyImage != null) return keyImage;
+
+        //a key image is used for frames with up to KEY_IMAGE_SCALE times its magnification, so it needs the iterations of those.
+        double magnification = getKeyImageMagnification(baseMagnification, index);
+        MandelbrotView keyView = new MandelbrotView(frameView.getU(), frameView.getV(), magnification, KEY_IMAGE_SCALE*width, KEY_IMAGE_SCALE*height,
+                MandelbrotView.getMaxIterationCount(KEY_IMAGE_SCALE*magnification));
+        int[] iterations = MandelbrotRenderer.calculateIterations(keyView, 0, 0, keyView.getWidth(), keyView.getHeight());
+        keyImage = new int[iterations.length];
+        for (int n = 0; n < iterations.length; n++) {
+            keyImage[n] = MandelbrotRenderer.getColor(iterations[n]);
+        }
+        keyImages.put(index, keyImage);
+        keyImageCount++;
+        return keyImage;
+    }
+
+    /**
+     * Scales down the parts of the given key images that are visible in the given view.
+     */
+    private int[] resample(MandelbrotView view, double baseMagnification, int keyIndex, int[] keyImage, int[] nextKeyImage) {
+        int keyWidth = KEY_IMAGE_SCALE*width;
+        int keyHeight = KEY_IMAGE_SCALE*height;
+        //size of a frame pixel in key image pixels.
+        double scale = KEY_IMAGE_SCALE*getKeyImageMagnification(baseMagnification, keyIndex)/view.getMagnification();
+        double nextScale = KEY_IMAGE_SCALE*scale;
+
+        int[] pixels = new int[width*height];
+        IntStream.range(0, height).parallel().forEach(y -> {
+            for (int x = 0; x < width; x++) {
+                int red = 0;
+                int green = 0;
+                int blue = 0;
+                for (int sampleY = 0; sampleY < SAMPLE_COUNT; sampleY++) {
+                    //position relative to the center of the frame, in frame pixels.
+                    double frameY = y + (sampleY + 0.5)/SAMPLE_COUNT - height/2.0;
+                    for (int sampleX = 0; sampleX < SAMPLE_COUNT; sampleX++) {
+                        double frameX = x + (sampleX + 0.5)/SAMPLE_COUNT - width/2.0;
+
+                        //use the next key image where it covers the frame, since it has more detail.
+                        double keyX = frameX*nextScale + keyWidth/2.0 - 0.5;
+                        double keyY = frameY*nextScale + keyHeight/2.0 - 0.5;
+                        int color;
+                        if (keyX >= 0 && keyY >= 0 && keyX <= keyWidth - 1 && keyY <= keyHeight - 1) {
+                            color = sampleBilinear(nextKeyImage, keyWidth, keyHeight, keyX, keyY);
+                        } else {
+                            keyX = frameX*scale + keyWidth/2.0 - 0.5;
+                            keyY = frameY*scale + keyHeight/2.0 - 0.5;
+                            color = sampleBilinear(keyImage, keyWidth, keyHeight, keyX, keyY);
+                        }
+                        red += color >> 16 & 0xFF;
+                        green += color >> 8 & 0xFF;
+                        blue += color & 0xFF;
+                    }
+                }
+                int sampleCount = SAMPLE_COUNT*SAMPLE_COUNT;
+                pixels[y*width + x] = (red + sampleCount/2)/sampleCount << 16 | (green + sampleCount/2)/sampleCount << 8 | (blue + sampleCount/2)/sampleCount;
+            }
+        });
+        return pixels;
+    }
+
+    private static int sampleBilinear(int[] image, int width, int height, double x, double y) {
+        x = Math.max(0, Math.min(width - 1, x));
+        y = Math.max(0, Math.min(height - 1, y));
+        int x0 = Math.min((int) x, width - 2);
+        int y0 = Math.min((int) y, height - 2);
+        double fx = x - x0;
+        double fy = y - y0;
+
+        int color00 = image[y0*width + x0];
+        int color10 = image[y0*width + x0 + 1];
+        int color01 = image[(y0 + 1)*width + x0];
+        int color11 = image[(y0 + 1)*width + x0 + 1];
+        int result = 0;
+        for (int shift = 0; shift <= 16; shift += 8) {
+            double top = (color00 >> shift & 0xFF)*(1 - fx) + (color10 >> shift & 0xFF)*fx;
+            double bottom = (color01 >> shift & 0xFF)*(1 - fx) + (color11 >> shift & 0xFF)*fx;
+            result |= (int) Math.round(top*(1 - fy) + bottom*fy) << shift;
+        }
+        return result;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int width = 1280;
+        int height = 720;
+        double frameRate = 30;
+        boolean direct = false;
+        ImageSequenceWriter.Format format = ImageSequenceWriter.Format.PNG;
+        Path keyframePath = null;
+        Path outputDirectory = null;
+
+        try {
+            for (int n = 0; n < args.length; n++) {
+                switch (args[n]) {
+                    case "--size":
+                        width = Integer.parseInt(args[++n]);
+                        height = Integer.parseInt(args[++n]);
+                        break;
+                    case "--frame-rate":
+                        frameRate = Double.parseDouble(args[++n]);
+                        break;
+                    case "--direct":
+                        direct = true;
+                        break;
+                    case "--format":
+                        format = ImageSequenceWriter.Format.valueOf(args[++n].toUpperCase());
+                        break;
+                    default:
+                        if (args[n].startsWith("--")) throw new IllegalArgumentException("unknown argument " + args[n]);
+                        if (keyframePath == null) {
+                            keyframePath = Paths.get(args[n]);
+                        } else if (outputDirectory == null) {
+                            outputDirectory = Paths.get(args[n]);
+                        } else {
+                            throw new IllegalArgumentException("unknown argument " + args[n]);
+                        }
+                        break;
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+        if (outputDirectory == null) {
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+
+        ZoomAnimationRenderer renderer = new ZoomAnimationRenderer(ZoomAnimation.read(keyframePath), width, height, frameRate);
+        renderer.setKeyImagesEnabled(!direct);
+        Files.createDirectories(outputDirectory);
+        int frameCount = renderer.getFrameCount();
+        long startTime = System.nanoTime();
+        //frames are encoded and written while the next frames are rendered.
+        try (ImageSequenceWriter writer = new ImageSequenceWriter(outputDirectory, format)) {
+            renderer.render((frame, view, image) -> {
+                Path file = writer.write(image);
+                System.out.println(String.format("Frame %d of %d (magnification %.3g) rendered, writing to %s", frame + 1, frameCount, view.getMagnification(), file));
+            });
+        }
+        System.out.println(String.format("Rendered %d frames in %.1f s: %d frames calculated directly, %d key images.",
+                frameCount, (System.nanoTime() - startTime)/1e9, renderer.getDirectFrameCount(), renderer.getKeyImageCount()));
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.geometry;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Scans numbers and tokens in a range of an ASCII text buffer, without creating any String objects.
+ * Each thread must use its own scanner.
+ *
+ * @author A.C. Kockx
+ */
+final class AsciiScanner {
+    //mantissa digits beyond this count do not change a float value.
+    private static final int MAX_MANTISSA_DIGITS = 18;
+    private static final double[] POWERS_OF_TEN = new double[23];
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int n = 1; n < POWERS_OF_TEN.length; n++) {
+            POWERS_OF_TEN[n] = POWERS_OF_TEN[n - 1]*10;
+        }
+    }
+
+    private final ByteBuffer buffer;
+    private final int end;
+    private int position;
+
+    /**
+     * @param start index of the first byte to scan.
+     * @param end index after the last byte to scan.
+     */
+    AsciiScanner(ByteBuffer buffer, int start, int end) {
+        this.buffer = buffer;
+        this.position = start;
+        this.end = end;
+    }
+
+    int getPosition() {
+        return position;
+    }
+
+    boolean hasMore() {
+        return position < end;
+    }
+
+    /**
+     * @return the current byte, or 0 if the end has been reached.
+     */
+    byte peek() {
+        return position < end ? buffer.get(position) : 0;
+    }
+
+    /**
+     * @return the byte at the given distance from the current position, or 0 if that is beyond the end.
+     */
+    byte peek(int distance) {
+        return position + distance < end ? buffer.get(position + distance) : 0;
+    }
+
+    void skip(int byteCount) {
+        position += byteCount;
+    }
+
+    /**
+     * Skips spaces and tabs (not line breaks).
+     */
+    void skipSpaces() {
+        while (position < end) {
+            byte c = buffer.get(position);
+            if (c != ' ' && c != '\t') break;
+            position++;
+        }
+    }
+
+    /**
+     * Moves to the start of the next line.
+     */
+    void skipLine() {
+        while (position < end) {
+            if (buffer.get(position++) == '\n') break;
+        }
+    }
+
+    /**
+     * Skips spaces and tabs.
+     *
+     * @return true if there are no more values on the current line (a comment also ends the values on a line).
+     */
+    boolean isAtEndOfLine() {
+        skipSpaces();
+        if (position >= end) return true;
+        byte c = buffer.get(position);
+        return c == '\n' || c == '\r' || c == '#';
+    }
+
+    /**
+     * Skips the next token (a sequence of non-whitespace characters).
+     */
+    void skipToken() {
+        skipSpaces();
+        while (position < end) {
+            byte c = buffer.get(position);
+            if (c == ' ' || c == '\t' || c == '\n' || c == '\r') break;
+            position++;
+        }
+    }
+
+    /**
+     * Skips spaces and tabs, then parses a decimal integer with an optional sign.
+     */
+    int nextInt() {
+        skipSpaces();
+        boolean negative = false;
+        byte c = peek();
+        if (c == '-' || c == '+') {
+            negative = c == '-';
+            position++;
+        }
+
+        int start = position;
+        int value = 0;
+        while (position < end) {
+            c = buffer.get(position);
+            if (c < '0' || c > '9') break;
+            value = 10*value + (c - '0');
+            position++;
+        }
+        if (position == start) throw new IllegalArgumentException("Expected an integer at byte offset " + position);
+        return negative ? -value : value;
+    }
+
+    /**
+     * Skips spaces and tabs, then parses a decimal floating point number with an optional sign, fraction and exponent.
+     * The digits are accumulated in a long and scaled by a power of ten at the end, which is accurate to within one ulp of a float.
+     */
+    float nextFloat() {
+        skipSpaces();
+        boolean negative = false;
+        byte c = peek();
+        if (c == '-' || c == '+') {
+            negative = c == '-';
+            position++;
+        }
+
+        long mantissa = 0;
+        int mantissaDigitCount = 0;
+        int exponent = 0;
+        boolean hasDigits = false;
+        //integer part.
+        while (position < end) {
+            c = buffer.get(position);
+            if (c < '0' || c > '9') break;
+            if (mantissaDigitCount < MAX_MANTISSA_DIGITS) {
+                mantissa = 10*mantissa + (c - '0');
+                if (mantissa != 0) mantissaDigitCount++;
+            } else {
+                exponent++;
+            }
+            hasDigits = true;
+            position++;
+        }
+        //fraction.
+        if (position < end && buffer.get(position) == '.') {
+            position++;
+            while (position < end) {
+                c = buffer.get(position);
+                if (c < '0' || c > '9') break;
+                if (mantissaDigitCount < MAX_MANTISSA_DIGITS) {
+                    mantissa = 10*mantissa + (c - '0');
+                    if (mantissa != 0) mantissaDigitCount++;
+                    exponent--;
+                }
+                hasDigits = true;
+                position++;
+            }
+        }
+        if (!hasDigits) return parseSpecialValue(negative);
+
+        //exponent.
+        if (position < end && (buffer.get(position) | 0x20) == 'e') {
+            position++;
+            exponent += nextInt();
+        }
+
+        double value = mantissa;
+        if (exponent < 0) {
+            value = -exponent < POWERS_OF_TEN.length ? value/POWERS_OF_TEN[-exponent] : value/Math.pow(10, -exponent);
+        } else if (exponent > 0) {
+            value = exponent < POWERS_OF_TEN.length ? value*POWERS_OF_TEN[exponent] : value*Math.pow(10, exponent);
+        }
+        return (float) (negative ? -value : value);
+    }
+
+    /**
+     * Parses "nan" and "inf" (case insensitive), as written by some exporters.
+     */
+    private float parseSpecialValue(boolean negative) {
+        if ((peek() | 0x20) == 'n' && (peek(1) | 0x20) == 'a' && (peek(2) | 0x20) == 'n') {
+            position += 3;
+            return Float.NaN;
+        }
+        if ((peek() | 0x20) == 'i' && (peek(1) | 0x20) == 'n' && (peek(2) | 0x20) == 'f') {
+            skipToken();
+            return negative ? Float.NEGATIVE_INFINITY : Float.POSITIVE_INFINITY;
+        }
+        throw new IllegalArgumentException("Expected a number at byte offset " + position);
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.geometry;
+
+import com.jogamp.opengl.GL3;
+import rasterizer.util.GLResourceManager;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Mesh of which the interleaved vertex data and the index data are stored outside the Java heap,
+ * usually in a memory-mapped mesh file, see MeshFile.
+ *
+ * @author A.C. Kockx
+ */
+public final class MappedMesh {
+    private final int attributeFlags;
+    private final int vertexCount;
+    private final int indexCount;
+    private final int vertexStride;
+    private final float[] bounds;
+    private final ByteBuffer vertexData;
+    private final ByteBuffer indexData;
+
+    MappedMesh(int attributeFlags, int vertexCount, int indexCount, int vertexStride, float[] bounds, ByteBuffer vertexData, ByteBuffer indexData) {
+        this.attributeFlags = attributeFlags;
+        this.vertexCount = vertexCount;
+        this.indexCount = indexCount;
+        this.vertexStride = vertexStride;
+        this.bounds = bounds;
+        this.vertexData = vertexData;
+        this.indexData = indexData;
+    }
+
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    public int getIndexCount() {
+        return indexCount;
+    }
+
+    public int getVertexStride() {
+        return vertexStride;
+    }
+
+    public boolean hasNormals() {
+        return (attributeFlags & MeshFile.NORMALS) != 0;
+    }
+
+    public boolean hasColors() {
+        return (attributeFlags & MeshFile.COLORS) != 0;
+    }
+
+    public boolean hasUVCoordinates() {
+        return (attributeFlags & MeshFile.UV_COORDINATES) != 0;
+    }
+
+    /**
+     * @return min and max coordinates of all vertices in the order minX, minY, minZ, maxX, maxY, maxZ.
+     */
+    public float[] getBounds() {
+        return bounds.clone();
+    }
+
+    /**
+     * @return read-only view of the interleaved vertex data (little-endian).
+     */
+    public ByteBuffer getVertexData() {
+        return vertexData.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * @return read-only view of the unsigned int vertex indices (little-endian).
+     */
+    public ByteBuffer getIndexData() {
+        return indexData.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * @return dimension of each present attribute, in the order position, normal, color, u,v-coordinates.
+     */
+    public int[] getAttributeDimensions() {
+        int[] dimensions = new int[getAttributeCount()];
+        int attributeIndex = 0;
+        dimensions[attributeIndex++] = 3;
+        if (hasNormals()) dimensions[attributeIndex++] = 3;
+        if (hasColors()) dimensions[attributeIndex++] = 3;
+        if (hasUVCoordinates()) dimensions[attributeIndex] = 2;
+        return dimensions;
+    }
+
+    /**
+     * @return offset in bytes within a vertex of each present attribute, in the order position, normal, color, u,v-coordinates.
+     */
+    public int[] getAttributeOffsets() {
+        int[] dimensions = getAttributeDimensions();
+        int[] offsets = new int[dimensions.length];
+        for (int attributeIndex = 1; attributeIndex < dimensions.length; attributeIndex++) {
+            offsets[attributeIndex] = offsets[attributeIndex - 1] + dimensions[attributeIndex - 1]*Float.BYTES;
+        }
+        return offsets;
+    }
+
+    /**
+     * Uploads this mesh to the GPU straight from the mapped buffers, without copying the data to the Java heap.
+     * The present attributes are linked to attribute indices 0, 1, 2, etc. in the order position, normal, color, u,v-coordinates.
+     * Draw the created vertex array using glDrawElements(GL_TRIANGLES, getIndexCount(), GL_UNSIGNED_INT, 0).
+     * This changes the vertex array and array buffer bindings.
+     *
+     * @return id of created vertex array object, owned by the given resource manager.
+     */
+    public int createVertexArray(GL3 gl, GLResourceManager resources) {
+        //OpenGL reads the data in native byte order.
+        if (ByteOrder.nativeOrder() != ByteOrder.LITTLE_ENDIAN) throw new IllegalStateException("Mapped meshes can only be uploaded on little-endian platforms");
+
+        return resources.createInterleavedVertexArray(gl, vertexData.duplicate(), vertexStride, getAttributeDimensions(), getAttributeOffsets(),
+                indexData.duplicate());
+    }
+
+    /**
+     * Copies this mesh to the Java heap.
+     */
+    public Mesh toMesh() {
+        float[] positions = new float[3*vertexCount];
+        float[] normals = hasNormals() ? new float[3*vertexCount] : null;
+        float[] colors = hasColors() ? new float[3*vertexCount] : null;
+        float[] uvCoordinates = hasUVCoordinates() ? new float[2*vertexCount] : null;
+
+        FloatBuffer vertexFloats = vertexData.duplicate().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+        for (int vertex = 0; vertex < vertexCount; vertex++) {
+            vertexFloats.get(positions, 3*vertex, 3);
+            if (normals != null) vertexFloats.get(normals, 3*vertex, 3);
+            if (colors != null) vertexFloats.get(colors, 3*vertex, 3);
+            if (uvCoordinates != null) vertexFloats.get(uvCoordinates, 2*vertex, 2);
+        }
+
+        int[] indices = new int[indexCount];
+        indexData.duplicate().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(indices);
+        return new Mesh(positions, normals, colors, uvCoordinates, indices);
+    }
+
+    private int getAttributeCount() {
+        return 1 + (hasNormals() ? 1 : 0) + (hasColors() ? 1 : 0) + (hasUVCoordinates() ? 1 : 0);
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.geometry;
+
+/**
+ * Indexed triangle mesh, stored in flat arrays (one array per attribute).
+ *
+ * The arrays are not copied, neither by the constructor nor by the getters,
+ * so that large meshes can be passed around without copying.
+ *
+ * @author A.C. Kockx
+ */
+public final class Mesh {
+    //vertex coordinates (x, y, z) in model space.
+    private final float[] positions;
+    //vertex normal vectors (x, y, z) in model space, or null.
+    private final float[] normals;
+    //vertex colors (r, g, b), or null.
+    private final float[] colors;
+    //vertex u,v-coordinates, or null.
+    private final float[] uvCoordinates;
+    //three vertex indices per triangle.
+    private final int[] indices;
+
+    /**
+     * @param positions vertex coordinates (x, y, z) in model space.
+     * @param normals vertex normal vectors (x, y, z) in model space, or null.
+     * @param colors vertex colors (r, g, b), or null.
+     * @param uvCoordinates vertex u,v-coordinates, or null.
+     * @param indices three vertex indices per triangle.
+     */
+    public Mesh(float[] positions, float[] normals, float[] colors, float[] uvCoordinates, int[] indices) {
+        if (positions == null) throw new IllegalArgumentException("positions == null");
+        if (positions.length%3 != 0) throw new IllegalArgumentException("positions.length is not a multiple of 3");
+        int vertexCount = positions.length/3;
+        if (normals != null && normals.length != 3*vertexCount) throw new IllegalArgumentException("normals.length != 3*vertexCount");
+        if (colors != null && colors.length != 3*vertexCount) throw new IllegalArgumentException("colors.length != 3*vertexCount");
+        if (uvCoordinates != null && uvCoordinates.length != 2*vertexCount) throw new IllegalArgumentException("uvCoordinates.length != 2*vertexCount");
+        if (indices == null) throw new IllegalArgumentException("indices == null");
+        if (indices.length%3 != 0) throw new IllegalArgumentException("indices.length is not a multiple of 3");
+
+        this.positions = positions;
+        this.normals = normals;
+        this.colors = colors;
+        this.uvCoordinates = uvCoordinates;
+        this.indices = indices;
+    }
+
+    public int getVertexCount() {
+        return positions.length/3;
+    }
+
+    public int getTriangleCount() {
+        return indices.length/3;
+    }
+
+    public float[] getPositions() {
+        return positions;
+    }
+
+    public float[] getNormals() {
+        return normals;
+    }
+
+    public float[] getColors() {
+        return colors;
+    }
+
+    public float[] getUVCoordinates() {
+        return uvCoordinates;
+    }
+
+    public int[] getIndices() {
+        return indices;
+    }
+
+    /**
+     * @return min and max coordinates of all vertices in the order minX, minY, minZ, maxX, maxY, maxZ.
+     */
+    public float[] calculateBounds() {
+        float[] bounds = new float[]{Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
+                                     Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+        if (positions.length == 0) return new float[6];
+
+        for (int index = 0; index < positions.length; index += 3) {
+            for (int d = 0; d < 3; d++) {
+                bounds[d] = Math.min(bounds[d], positions[index + d]);
+                bounds[3 + d] = Math.max(bounds[3 + d], positions[index + d]);
+            }
+        }
+        return bounds;
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.geometry;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Command line tool that converts OBJ and PLY files to the binary mesh format of MeshFile.
+ *
+ * Usage: MeshConverter inputFile outputFile
+ *
+ * @author A.C. Kockx
+ */
+public final class MeshConverter {
+    private MeshConverter() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("Usage: " + MeshConverter.class.getSimpleName() + " inputFile outputFile");
+            System.exit(1);
+        }
+        Path inputPath = Paths.get(args[0]);
+        Path outputPath = Paths.get(args[1]);
+
+        long startTime = System.nanoTime();
+        Mesh mesh = MeshImporter.importMesh(inputPath);
+        long importTime = System.nanoTime();
+        MeshFile.write(mesh, outputPath);
+        long writeTime = System.nanoTime();
+
+        //check the result and measure how long it takes to load it.
+        MappedMesh mappedMesh = MeshFile.map(outputPath);
+        long mapTime = System.nanoTime();
+        if (mappedMesh.getVertexCount() != mesh.getVertexCount() || mappedMesh.getIndexCount() != mesh.getIndices().length) {
+            throw new IllegalStateException("Written mesh does not match input mesh");
+        }
+
+        System.out.println("Converted " + inputPath + " to " + outputPath + ": " + mesh.getVertexCount() + " vertices, " + mesh.getTriangleCount() + " triangles.");
+        System.out.println(String.format("import %.1f ms, write %.1f ms, map %.3f ms", (importTime - startTime)/1e6, (writeTime - importTime)/1e6, (mapTime - writeTime)/1e6));
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.geometry;
+
+import rasterizer.util.ResourceLoader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads and writes meshes in a compact binary format that can be memory-mapped.
+ *
+ * All values are little-endian. The file starts with a header of HEADER_SIZE bytes:
+ *
+ * offset  type      description
+ * 0       byte[4]   magic number "RMSH".
+ * 4       int       format version.
+ * 8       int       attribute flags (NORMALS, COLORS, UV_COORDINATES). Positions are always present.
+ * 12      int       vertex count.
+ * 16      int       index count (three indices per triangle).
+ * 20      int       vertex stride in bytes.
+ * 24      float[6]  bounds in the order minX, minY, minZ, maxX, maxY, maxZ.
+ * 48      long      offset of the vertex data in bytes from the start of the file.
+ * 56      long      offset of the index data in bytes from the start of the file.
+ *
+ * The vertex data contains all attributes of a vertex interleaved as floats, one vertex after the other,
+ * in the order position (x, y, z), normal (x, y, z), color (r, g, b), u,v-coordinates. Absent attributes are skipped.
+ * The index data contains unsigned int vertex indices.
+ * Both data blocks start at a multiple of 4 bytes.
+ *
+ * @author A.C. Kockx
+ */
+public final class MeshFile {
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 64;
+
+    public static final int NORMALS = 1;
+    public static final int COLORS = 1 << 1;
+    public static final int UV_COORDINATES = 1 << 2;
+
+    private static final byte[] MAGIC_NUMBER = new byte[]{'R', 'M', 'S', 'H'};
+    //size of the buffer that is used to write vertex and index data.
+    private static final int WRITE_BUFFER_SIZE = 1 << 20;
+
+    private MeshFile() {
+    }
+
+    /**
+     * Memory-maps the mesh in the given file. The vertex and index data are not copied.
+     * They are mapped separately, so the file can be larger than 2 GB as long as each of them is smaller than 2 GB.
+     */
+    public static MappedMesh map(Path path) throws IOException {
+        String name = path.toString();
+        //the mappings stay valid after the channel has been closed.
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer headerBuffer = ByteBuffer.allocate(HEADER_SIZE);
+            while (headerBuffer.hasRemaining()) {
+                if (channel.read(headerBuffer, headerBuffer.position()) < 0) break;
+            }
+            headerBuffer.flip();
+            Header header = readHeader(headerBuffer, channel.size(), name);
+
+            ByteBuffer vertexData = channel.map(FileChannel.MapMode.READ_ONLY, header.vertexDataOffset, header.getVertexDataSize());
+            ByteBuffer indexData = channel.map(FileChannel.MapMode.READ_ONLY, header.indexDataOffset, header.getIndexDataSize());
+            return createMesh(header, vertexData.order(ByteOrder.LITTLE_ENDIAN), indexData.order(ByteOrder.LITTLE_ENDIAN), name);
+        }
+    }
+
+    /**
+     * Loads the mesh in the given resource. If the resource is a file on disk, then it is memory-mapped.
+     */
+    public static MappedMesh load(ResourceLoader loader, String resourceName) throws IOException {
+        return read(loader.mapResource(resourceName), resourceName);
+    }
+
+    /**
+     * Reads the header in the given buffer and returns a mesh that uses slices of the buffer for its vertex and index data.
+     *
+     * @param name used in error messages.
+     * @throws IOException if the buffer does not contain a valid mesh, e.g. if an index refers to a vertex that does not exist.
+     */
+    public static MappedMesh read(ByteBuffer buffer, String name) throws IOException {
+        buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        Header header = readHeader(buffer, buffer.limit(), name);
+
+        //the buffer is smaller than 2 GB, so the offsets and sizes fit in an int.
+        ByteBuffer vertexData = slice(buffer, (int) header.vertexDataOffset, (int) header.getVertexDataSize());
+        ByteBuffer indexData = slice(buffer, (int) header.indexDataOffset, (int) header.getIndexDataSize());
+        return createMesh(header, vertexData, indexData, name);
+    }
+
+    /**
+     * Reads and checks the header at the start of the given buffer.
+     *
+     * @param fileSize size of the whole mesh file in bytes.
+     */
+    private static Header readHeader(ByteBuffer buffer, long fileSize, String name) throws IOException {
+        buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.limit() < HEADER_SIZE) throw new IOException(name + " is too small to contain a mesh header");
+
+        for (int n = 0; n < MAGIC_NUMBER.length; n++) {
+            if (buffer.get(n) != MAGIC_NUMBER[n]) throw new IOException(name + " is not a mesh file");
+        }
+        int version = buffer.getInt(4);
+        if (version != VERSION) throw new IOException(name + " has unsupported mesh format version " + version);
+
+        Header header = new Header();
+        header.attributeFlags = buffer.getInt(8);
+        header.vertexCount = buffer.getInt(12);
+        header.indexCount = buffer.getInt(16);
+        header.vertexStride = buffer.getInt(20);
+        for (int n = 0; n < header.bounds.length; n++) {
+            header.bounds[n] = buffer.getFloat(24 + n*Float.BYTES);
+        }
+        header.vertexDataOffset = buffer.getLong(48);
+        header.indexDataOffset = buffer.getLong(56);
+
+        if (header.vertexCount < 0 || header.indexCount < 0 || header.indexCount%3 != 0) throw new IOException(name + " has invalid vertex or index count");
+        if (header.vertexStride != getVertexStride(header.attributeFlags)) throw new IOException(name + " has invalid vertex stride " + header.vertexStride);
+        if (header.vertexDataOffset < HEADER_SIZE || header.vertexDataOffset + header.getVertexDataSize() > fileSize
+            || header.indexDataOffset < HEADER_SIZE || header.indexDataOffset + header.getIndexDataSize() > fileSize) {
+            throw new IOException(name + " is truncated");
+        }
+        //a buffer (and therefore a mapping) cannot be larger than 2 GB.
+        if (header.getVertexDataSize() > Integer.MAX_VALUE || header.getIndexDataSize() > Integer.MAX_VALUE) {
+            throw new IOException(name + " has more than 2 GB of vertex or index data");
+        }
+        return header;
+    }
+
+    /**
+     * Checks that all indices refer to existing vertices, so that drawing the mesh never reads outside the vertex data.
+     */
+    private static MappedMesh createMesh(Header header, ByteBuffer vertexData, ByteBuffer indexData, String name) throws IOException {
+        IntBuffer indices = indexData.duplicate().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        for (int n = 0; n < indices.limit(); n++) {
+            //the indices are unsigned, so an index larger than Integer.MAX_VALUE is negative here.
+            int index = indices.get(n);
+            if (index < 0 || index >= header.vertexCount) {
+                throw new IOException(name + " has invalid vertex index " + Integer.toUnsignedLong(index) + " at position " + n);
+            }
+        }
+        return new MappedMesh(header.attributeFlags, header.vertexCount, header.indexCount, header.vertexStride, header.bounds, vertexData, indexData);
+    }
+
+    /**
+     * Writes the given mesh to the given file.
+     */
+    public static void write(Mesh mesh, Path path) throws IOException {
+        int attributeFlags = (mesh.getNormals() != null ? NORMALS : 0) | (mesh.getColors() != null ? COLORS : 0)
+                             | (mesh.getUVCoordinates() != null ? UV_COORDINATES : 0);
+        int vertexCount = mesh.getVertexCount();
+        int vertexStride = getVertexStride(attributeFlags);
+        int[] indices = mesh.getIndices();
+        long vertexDataOffset = HEADER_SIZE;
+        long indexDataOffset = vertexDataOffset + (long) vertexCount*vertexStride;
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+            //write header.
+            buffer.put(MAGIC_NUMBER);
+            buffer.putInt(VERSION);
+            buffer.putInt(attributeFlags);
+            buffer.putInt(vertexCount);
+            buffer.putInt(indices.length);
+            buffer.putInt(vertexStride);
+            for (float bound : mesh.calculateBounds()) {
+                buffer.putFloat(bound);
+            }
+            buffer.putLong(vertexDataOffset);
+            buffer.putLong(indexDataOffset);
+
+            //write interleaved vertex data.
+            float[][] attributes = new float[][]{mesh.getPositions(), mesh.getNormals(), mesh.getColors(), mesh.getUVCoordinates()};
+            int[] dimensions = new int[]{3, 3, 3, 2};
+            for (int vertex = 0; vertex < vertexCount; vertex++) {
+                if (buffer.remaining() < vertexStride) flush(buffer, channel);
+                for (int attribute = 0; attribute < attributes.length; attribute++) {
+                    if (attributes[attribute] == null) continue;
+                    int dimension = dimensions[attribute];
+                    for (int d = 0; d < dimension; d++) {
+                        buffer.putFloat(attributes[attribute][dimension*vertex + d]);
+                    }
+                }
+            }
+
+            //write index data.
+            for (int index : indices) {
+                if (buffer.remaining() < Integer.BYTES) flush(buffer, channel);
+                buffer.putInt(index);
+            }
+            flush(buffer, channel);
+        }
+    }
+
+    /**
+     * @return number of bytes per vertex for the given attribute flags.
+     */
+    public static int getVertexStride(int attributeFlags) {
+        int floatCount = 3;
+        if ((attributeFlags & NORMALS) != 0) floatCount += 3;
+        if ((attributeFlags & COLORS) != 0) floatCount += 3;
+        if ((attributeFlags & UV_COORDINATES) != 0) floatCount += 2;
+        return floatCount*Float.BYTES;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int size) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit(offset + size);
+        slice.position(offset);
+        return slice.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static void flush(ByteBuffer buffer, FileChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static final class Header {
+        private int attributeFlags;
+        private int vertexCount;
+        private int indexCount;
+        private int vertexStride;
+        private final float[] bounds = new float[6];
+        private long vertexDataOffset;
+        private long indexDataOffset;
+
+        private long getVertexDataSize() {
+            return (long) vertexCount*vertexStride;
+        }
+
+        private long getIndexDataSize() {
+            return (long) indexCount*Integer.BYTES;
+        }
+    }
+}
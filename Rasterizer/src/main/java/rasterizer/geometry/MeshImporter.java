@@ -0,0 +1,990 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.geometry;
+
+import rasterizer.util.ResourceLoader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Imports meshes from Wavefront OBJ files and PLY files (ASCII and binary).
+ *
+ * The file is memory-mapped and split into chunks of whole lines (or whole elements for binary PLY),
+ * which are parsed in parallel with a hand-written number parser that does not create any String objects.
+ * OBJ vertices with the same combination of position, u,v-coordinates and normal are merged in parallel: such vertices
+ * have the same position, so only the corners of each position are compared with each other, which needs no global hash table.
+ * If the file contains no normals, then smooth normals are calculated in parallel.
+ *
+ * OBJ: supports v (with optional r g b vertex colors), vt, vn and f elements. Polygons are triangulated as a fan.
+ * PLY: supports vertex properties x, y, z, nx, ny, nz, red, green, blue, s, t (or u, v) and face vertex index lists.
+ *
+ * Files must be smaller than 2 GB, because that is the maximum size of a single memory mapping.
+ *
+ * @author A.C. Kockx
+ */
+public final class MeshImporter {
+    private static final int CHUNKS_PER_THREAD = 4;
+    private static final int MIN_CHUNK_SIZE = 64*1024;//in bytes.
+    private static final int MIN_CHUNK_ELEMENT_COUNT = 4096;
+    //positions with more corners than this use a hash map instead of comparing each corner with all previous corners.
+    private static final int MAX_LINEAR_SEARCH_CORNER_COUNT = 32;
+
+    private MeshImporter() {
+    }
+
+    /**
+     * Imports the mesh in the given file. The file format is derived from the file name extension (.obj or .ply).
+     */
+    public static Mesh importMesh(Path path) throws IOException {
+        String fileName = path.getFileName().toString().toLowerCase(Locale.ROOT);
+        boolean obj = fileName.endsWith(".obj");
+        if (!obj && !fileName.endsWith(".ply")) throw new IOException("Unsupported mesh file format: " + path);
+
+        ByteBuffer buffer = ResourceLoader.map(path);
+        try {
+            return obj ? importObj(buffer) : importPly(buffer);
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new IOException("Invalid mesh file " + path + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Imports the OBJ mesh in the given buffer.
+     */
+    public static Mesh importObj(ByteBuffer buffer) {
+        ObjParser parser = new ObjParser(buffer);
+        return parser.parse();
+    }
+
+    /**
+     * Imports the PLY mesh in the given buffer.
+     */
+    public static Mesh importPly(ByteBuffer buffer) {
+        PlyParser parser = new PlyParser(buffer);
+        return parser.parse();
+    }
+
+    /**
+     * Calculates smooth vertex normals as the area-weighted average of the normals of the triangles that share each vertex.
+     * The calculation is split over all available processors: first the triangle normals are calculated in parallel,
+     * then the triangles of each vertex are found in parallel (see groupByValue) and the vertex normals are gathered in parallel.
+     *
+     * @param positions vertex coordinates (x, y, z).
+     * @param indices three vertex indices per triangle.
+     * @return vertex normal unit vectors (x, y, z).
+     */
+    public static float[] calculateSmoothNormals(float[] positions, int[] indices) {
+        int vertexCount = positions.length/3;
+        int triangleCount = indices.length/3;
+
+        //calculate triangle normals, with a length proportional to the area of the triangle.
+        float[] triangleNormals = new float[3*triangleCount];
+        parallelFor(getChunkCount(triangleCount), triangleCount, (start, end) -> {
+            for (int triangle = start; triangle < end; triangle++) {
+                int a = 3*indices[3*triangle];
+                int b = 3*indices[3*triangle + 1];
+                int c = 3*indices[3*triangle + 2];
+                float abx = positions[b] - positions[a];
+                float aby = positions[b + 1] - positions[a + 1];
+                float abz = positions[b + 2] - positions[a + 2];
+                float acx = positions[c] - positions[a];
+                float acy = positions[c + 1] - positions[a + 1];
+                float acz = positions[c + 2] - positions[a + 2];
+                triangleNormals[3*triangle] = aby*acz - abz*acy;
+                triangleNormals[3*triangle + 1] = abz*acx - abx*acz;
+                triangleNormals[3*triangle + 2] = abx*acy - aby*acx;
+            }
+        });
+
+        //find the corners (and therefore the triangles) that share each vertex.
+        int[][] cornersOfVertex = groupByValue(indices, vertexCount);
+        int[] firstCornerOfVertex = cornersOfVertex[0];
+        int[] corners = cornersOfVertex[1];
+
+        //gather and normalize vertex normals.
+        float[] normals = new float[3*vertexCount];
+        parallelFor(getChunkCount(vertexCount), vertexCount, (start, end) -> {
+            for (int vertex = start; vertex < end; vertex++) {
+                float x = 0;
+                float y = 0;
+                float z = 0;
+                for (int n = firstCornerOfVertex[vertex]; n < firstCornerOfVertex[vertex + 1]; n++) {
+                    int triangle = corners[n]/3;
+                    x += triangleNormals[3*triangle];
+                    y += triangleNormals[3*triangle + 1];
+                    z += triangleNormals[3*triangle + 2];
+                }
+                float length = (float) Math.sqrt(x*x + y*y + z*z);
+                if (length > 0) {
+                    normals[3*vertex] = x/length;
+                    normals[3*vertex + 1] = y/length;
+                    normals[3*vertex + 2] = z/length;
+                }
+            }
+        });
+        return normals;
+    }
+
+    /**
+     * Parses OBJ files in two parallel passes: the first pass counts the elements in each chunk,
+     * so that the second pass can write the elements of each chunk straight to their final place in shared arrays.
+     */
+    private static final class ObjParser {
+        private final ByteBuffer buffer;
+        private int[] chunkStarts;
+
+        //per chunk: element counts (from pass 1) and offsets (prefix sums of the counts).
+        private int[] positionCounts;
+        private int[] uvCounts;
+        private int[] normalCounts;
+        private int[] triangleCounts;
+        private int[] positionOffsets;
+        private int[] uvOffsets;
+        private int[] normalOffsets;
+        private int[] triangleOffsets;
+        private boolean hasColors = false;
+
+        private float[] positions;
+        private float[] colors;
+        private float[] uvCoordinates;
+        private float[] normals;
+        //position, u,v-coordinates and normal index of each triangle corner, -1 if absent.
+        private int[] cornerPositions;
+        private int[] cornerUVCoordinates;
+        private int[] cornerNormals;
+
+        private ObjParser(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        private Mesh parse() {
+            chunkStarts = splitIntoLines(buffer, 0, buffer.limit());
+            int chunkCount = chunkStarts.length - 1;
+            positionCounts = new int[chunkCount];
+            uvCounts = new int[chunkCount];
+            normalCounts = new int[chunkCount];
+            triangleCounts = new int[chunkCount];
+            boolean[] chunkHasColors = new boolean[chunkCount];
+
+            //pass 1.
+            parallelFor(chunkCount, chunk -> chunkHasColors[chunk] = count(chunk));
+            for (boolean colorsFound : chunkHasColors) {
+                hasColors |= colorsFound;
+            }
+            positionOffsets = prefixSums(positionCounts);
+            uvOffsets = prefixSums(uvCounts);
+            normalOffsets = prefixSums(normalCounts);
+            triangleOffsets = prefixSums(triangleCounts);
+
+            int positionCount = positionOffsets[chunkCount];
+            int triangleCount = triangleOffsets[chunkCount];
+            positions = new float[3*positionCount];
+            colors = hasColors ? new float[3*positionCount] : null;
+            uvCoordinates = new float[2*uvOffsets[chunkCount]];
+            normals = new float[3*normalOffsets[chunkCount]];
+            cornerPositions = new int[3*triangleCount];
+            cornerUVCoordinates = new int[3*triangleCount];
+            cornerNormals = new int[3*triangleCount];
+
+            //pass 2.
+            parallelFor(chunkCount, this::parseChunk);
+
+            return createMesh();
+        }
+
+        /**
+         * @return true if a vertex with colors was found.
+         */
+        private boolean count(int chunk) {
+            AsciiScanner scanner = new AsciiScanner(buffer, chunkStarts[chunk], chunkStarts[chunk + 1]);
+            boolean colorsFound = false;
+            while (scanner.hasMore()) {
+                scanner.skipSpaces();
+                byte c = scanner.peek();
+                byte next = scanner.peek(1);
+                if (c == 'v' && (next == ' ' || next == '\t')) {
+                    //check the first vertex of each chunk for colors.
+                    if (positionCounts[chunk] == 0) {
+                        scanner.skip(1);
+                        int valueCount = 0;
+                        while (!scanner.isAtEndOfLine()) {
+                            scanner.skipToken();
+                            valueCount++;
+                        }
+                        colorsFound = valueCount >= 6;
+                    }
+                    positionCounts[chunk]++;
+                } else if (c == 'v' && next == 't') {
+                    uvCounts[chunk]++;
+                } else if (c == 'v' && next == 'n') {
+                    normalCounts[chunk]++;
+                } else if (c == 'f' && (next == ' ' || next == '\t')) {
+                    scanner.skip(1);
+                    int cornerCount = 0;
+                    while (!scanner.isAtEndOfLine()) {
+                        scanner.skipToken();
+                        cornerCount++;
+                    }
+                    if (cornerCount >= 3) triangleCounts[chunk] += cornerCount - 2;
+                }
+                scanner.skipLine();
+            }
+            return colorsFound;
+        }
+
+        private void parseChunk(int chunk) {
+            AsciiScanner scanner = new AsciiScanner(buffer, chunkStarts[chunk], chunkStarts[chunk + 1]);
+            //global index of the next element of each type.
+            int position = positionOffsets[chunk];
+            int uv = uvOffsets[chunk];
+            int normal = normalOffsets[chunk];
+            int corner = 3*triangleOffsets[chunk];
+            int[] polygonCorners = new int[3*16];
+            while (scanner.hasMore()) {
+                scanner.skipSpaces();
+                byte c = scanner.peek();
+                byte next = scanner.peek(1);
+                if (c == 'v' && (next == ' ' || next == '\t')) {
+                    scanner.skip(1);
+                    for (int d = 0; d < 3; d++) {
+                        positions[3*position + d] = scanner.nextFloat();
+                    }
+                    if (colors != null) {
+                        boolean vertexHasColor = !scanner.isAtEndOfLine();
+                        for (int d = 0; d < 3; d++) {
+                            //vertices without color are white.
+                            colors[3*position + d] = vertexHasColor ? scanner.nextFloat() : 1;
+                        }
+                    }
+                    position++;
+                } else if (c == 'v' && next == 't') {
+                    scanner.skip(2);
+                    uvCoordinates[2*uv] = scanner.nextFloat();
+                    uvCoordinates[2*uv + 1] = scanner.isAtEndOfLine() ? 0 : scanner.nextFloat();
+                    uv++;
+                } else if (c == 'v' && next == 'n') {
+                    scanner.skip(2);
+                    for (int d = 0; d < 3; d++) {
+                        normals[3*normal + d] = scanner.nextFloat();
+                    }
+                    normal++;
+                } else if (c == 'f' && (next == ' ' || next == '\t')) {
+                    scanner.skip(1);
+                    int cornerCount = 0;
+                    while (!scanner.isAtEndOfLine()) {
+                        if (3*cornerCount == polygonCorners.length) polygonCorners = Arrays.copyOf(polygonCorners, 2*polygonCorners.length);
+                        //corner has the form p, p/t, p//n or p/t/n.
+                        int p = resolveIndex(scanner.nextInt(), position);
+                        int t = -1;
+                        int n = -1;
+                        if (scanner.peek() == '/') {
+                            scanner.skip(1);
+                            if (scanner.peek() != '/') t = resolveIndex(scanner.nextInt(), uv);
+                            if (scanner.peek() == '/') {
+                                scanner.skip(1);
+                                n = resolveIndex(scanner.nextInt(), normal);
+                            }
+                        }
+                        polygonCorners[3*cornerCount] = p;
+                        polygonCorners[3*cornerCount + 1] = t;
+                        polygonCorners[3*cornerCount + 2] = n;
+                        cornerCount++;
+                    }
+                    //triangulate polygon as a fan.
+                    for (int k = 2; k < cornerCount; k++) {
+                        corner = addCorner(corner, polygonCorners, 0);
+                        corner = addCorner(corner, polygonCorners, k - 1);
+                        corner = addCorner(corner, polygonCorners, k);
+                    }
+                }
+                scanner.skipLine();
+            }
+        }
+
+        private int addCorner(int corner, int[] polygonCorners, int polygonCorner) {
+            cornerPositions[corner] = polygonCorners[3*polygonCorner];
+            cornerUVCoordinates[corner] = polygonCorners[3*polygonCorner + 1];
+            cornerNormals[corner] = polygonCorners[3*polygonCorner + 2];
+            return corner + 1;
+        }
+
+        /**
+         * OBJ indices start at 1, negative indices are relative to the elements that have been defined so far.
+         */
+        private static int resolveIndex(int index, int definedCount) {
+            return index < 0 ? definedCount + index : index - 1;
+        }
+
+        private Mesh createMesh() {
+            int positionCount = positions.length/3;
+            boolean hasUVCoordinates = uvCoordinates.length > 0;
+            boolean hasNormals = normals.length > 0;
+            checkIndices(cornerPositions, positionCount, "position");
+            if (hasUVCoordinates) checkIndices(cornerUVCoordinates, uvCoordinates.length/2, "u,v-coordinates");
+            if (hasNormals) checkIndices(cornerNormals, normals.length/3, "normal");
+
+            if (!hasUVCoordinates && !hasNormals) {
+                //every position is a vertex.
+                return new Mesh(positions, calculateSmoothNormals(positions, cornerPositions), colors, null, cornerPositions);
+            }
+
+            //merge corners with the same position, u,v-coordinates and normal into a single vertex.
+            int cornerCount = cornerPositions.length;
+            int[] representatives = findRepresentatives(positionCount);
+            //number the vertices in the order of their first corner, in parallel: first the representatives of each chunk of corners
+            //are counted, so that each chunk knows the index of its first new vertex.
+            int chunkCount = getChunkCount(cornerCount);
+            int cornerCountPerChunk = getElementCountPerChunk(cornerCount, chunkCount);
+            int[] chunkVertexCounts = new int[chunkCount];
+            parallelFor(chunkCount, chunk -> {
+                for (int corner = chunk*cornerCountPerChunk; corner < Math.min(cornerCount, (chunk + 1)*cornerCountPerChunk); corner++) {
+                    if (representatives[corner] == corner) chunkVertexCounts[chunk]++;
+                }
+            });
+            int[] chunkVertexOffsets = prefixSums(chunkVertexCounts);
+            int vertexCount = chunkVertexOffsets[chunkCount];
+            int[] indices = new int[cornerCount];
+            //corner that defines each vertex.
+            int[] vertexCorners = new int[vertexCount];
+            parallelFor(chunkCount, chunk -> {
+                int vertex = chunkVertexOffsets[chunk];
+                for (int corner = chunk*cornerCountPerChunk; corner < Math.min(cornerCount, (chunk + 1)*cornerCountPerChunk); corner++) {
+                    if (representatives[corner] != corner) continue;
+
+                    vertexCorners[vertex] = corner;
+                    indices[corner] = vertex;
+                    vertex++;
+                }
+            });
+            //the other corners use the vertex of their representative, which can be in a different chunk.
+            parallelFor(chunkCount, cornerCount, (start, end) -> {
+                for (int corner = start; corner < end; corner++) {
+                    if (representatives[corner] != corner) indices[corner] = indices[representatives[corner]];
+                }
+            });
+
+            //copy attributes of merged vertices.
+            float[] vertexPositions = new float[3*vertexCount];
+            float[] vertexColors = colors != null ? new float[3*vertexCount] : null;
+            float[] vertexUVCoordinates = hasUVCoordinates ? new float[2*vertexCount] : null;
+            float[] vertexNormals = new float[3*vertexCount];
+            //if the file has no normals, calculate smooth normals per position, so that vertices at u,v-seams get the same normal.
+            float[] positionNormals = hasNormals ? normals : calculateSmoothNormals(positions, cornerPositions);
+            parallelFor(getChunkCount(vertexCount), vertexCount, (start, end) -> {
+                for (int vertex = start; vertex < end; vertex++) {
+                    int corner = vertexCorners[vertex];
+                    int p = cornerPositions[corner];
+                    int n = hasNormals ? cornerNormals[corner] : p;
+                    System.arraycopy(positions, 3*p, vertexPositions, 3*vertex, 3);
+                    if (vertexColors != null) System.arraycopy(colors, 3*p, vertexColors, 3*vertex, 3);
+                    if (n >= 0) System.arraycopy(positionNormals, 3*n, vertexNormals, 3*vertex, 3);
+                    int t = cornerUVCoordinates[corner];
+                    if (vertexUVCoordinates != null && t >= 0) System.arraycopy(uvCoordinates, 2*t, vertexUVCoordinates, 2*vertex, 2);
+                }
+            });
+            return new Mesh(vertexPositions, vertexNormals, vertexColors, vertexUVCoordinates, indices);
+        }
+
+        /**
+         * Finds the first corner with the same position, u,v-coordinates and normal as each corner. Only corners with the same position
+         * can be the same, so the corners are grouped by position and the positions are processed in parallel.
+         *
+         * @return representative corner for each corner, a corner that is its own representative defines a new vertex.
+         */
+        private int[] findRepresentatives(int positionCount) {
+            int[][] cornersOfPosition = groupByValue(cornerPositions, positionCount);
+            int[] firstCornerOfPosition = cornersOfPosition[0];
+            int[] corners = cornersOfPosition[1];
+            int[] representatives = new int[cornerPositions.length];
+            parallelFor(getChunkCount(positionCount), positionCount, (start, end) -> {
+                Map<Long, Integer> representativesByKey = new HashMap<>();
+                for (int position = start; position < end; position++) {
+                    int first = firstCornerOfPosition[position];
+                    int last = firstCornerOfPosition[position + 1];
+                    if (last - first > MAX_LINEAR_SEARCH_CORNER_COUNT) {
+                        //e.g. the center of a large fan.
+                        representativesByKey.clear();
+                        for (int n = first; n < last; n++) {
+                            int corner = corners[n];
+                            Integer representative = representativesByKey.putIfAbsent(getKey(corner), corner);
+                            representatives[corner] = representative == null ? corner : representative;
+                        }
+                        continue;
+                    }
+
+                    //the corners of a position are in ascending order, so the first match is the representative.
+                    for (int n = first; n < last; n++) {
+                        int corner = corners[n];
+                        representatives[corner] = corner;
+                        for (int m = first; m < n; m++) {
+                            int other = corners[m];
+                            if (cornerUVCoordinates[other] == cornerUVCoordinates[corner] && cornerNormals[other] == cornerNormals[corner]) {
+                                representatives[corner] = representatives[other];
+                                break;
+                            }
+                        }
+                    }
+                }
+            });
+            return representatives;
+        }
+
+        /**
+         * @return u,v-coordinates and normal index of the given corner.
+         */
+        private long getKey(int corner) {
+            return ((long) cornerUVCoordinates[corner] << 32) | (cornerNormals[corner] & 0xFFFFFFFFL);
+        }
+
+        private static void checkIndices(int[] indices, int count, String name) {
+            for (int index : indices) {
+                if (index >= count || index < -1) throw new IllegalArgumentException(name + " index " + (index + 1) + " out of range");
+            }
+        }
+    }
+
+    /**
+     * Parses PLY files. Binary vertex data with a fixed size per vertex is split into ranges of vertices,
+     * ASCII vertex and face data is split into chunks of whole lines. The chunks are parsed in parallel.
+     */
+    private static final class PlyParser {
+        private static final String END_HEADER = "end_header";
+
+        private final ByteBuffer buffer;
+        private final List<Element> elements = new ArrayList<>();
+        private boolean ascii;
+        private int dataStart;
+
+        private float[] positions;
+        private float[] normals;
+        private float[] colors;
+        private float[] uvCoordinates;
+        private int[] indices = new int[0];
+
+        private static final class Element {
+            private final String name;
+            private final int count;
+            private final List<Property> properties = new ArrayList<>();
+
+            private Element(String name, int count) {
+                this.name = name;
+                this.count = count;
+            }
+
+            private int indexOf(String... propertyNames) {
+                for (String propertyName : propertyNames) {
+                    for (int n = 0; n < properties.size(); n++) {
+                        if (properties.get(n).name.equals(propertyName)) return n;
+                    }
+                }
+                return -1;
+            }
+
+            /**
+             * @return size of each element in bytes in a binary file, or -1 if the element contains lists.
+             */
+            private int getFixedSize() {
+                int size = 0;
+                for (Property property : properties) {
+                    if (property.listCountType != null) return -1;
+                    size += getSize(property.type);
+                }
+                return size;
+            }
+        }
+
+        private static final class Property {
+            private final String name;
+            private final String type;
+            //type of the item count if this property is a list, otherwise null.
+            private final String listCountType;
+
+            private Property(String name, String type, String listCountType) {
+                this.name = name;
+                this.type = type;
+                this.listCountType = listCountType;
+            }
+        }
+
+        private PlyParser(ByteBuffer buffer) {
+            this.buffer = buffer.duplicate();
+        }
+
+        private Mesh parse() {
+            parseHeader();
+
+            int offset = dataStart;
+            for (Element element : elements) {
+                if ("vertex".equals(element.name)) {
+                    offset = ascii ? parseAsciiVertices(element, offset) : parseBinaryVertices(element, offset);
+                } else if ("face".equals(element.name)) {
+                    offset = ascii ? parseAsciiFaces(element, offset) : parseBinaryFaces(element, offset);
+                } else {
+                    offset = ascii ? skipLines(offset, element.count) : skipBinaryElements(element, offset);
+                }
+            }
+            if (positions == null) throw new IllegalArgumentException("PLY file has no vertex positions");
+
+            int vertexCount = positions.length/3;
+            for (int index : indices) {
+                if (index < 0 || index >= vertexCount) throw new IllegalArgumentException("vertex index " + index + " out of range");
+            }
+            if (normals == null) normals = calculateSmoothNormals(positions, indices);
+            return new Mesh(positions, normals, colors, uvCoordinates, indices);
+        }
+
+        private void parseHeader() {
+            //the header is short, so it is read into a String.
+            int searchEnd = Math.min(buffer.limit(), 64*1024);
+            byte[] headerBytes = new byte[searchEnd];
+            buffer.duplicate().get(headerBytes);
+            String headerText = new String(headerBytes, StandardCharsets.US_ASCII);
+            int endHeaderIndex = headerText.indexOf(END_HEADER);
+            if (!headerText.startsWith("ply") || endHeaderIndex == -1) throw new IllegalArgumentException("not a PLY file");
+            int headerEnd = headerText.indexOf('\n', endHeaderIndex);
+            if (headerEnd == -1) throw new IllegalArgumentException("PLY header is not terminated");
+            dataStart = headerEnd + 1;
+
+            Element currentElement = null;
+            for (String line : headerText.substring(0, endHeaderIndex).split("\r?\n")) {
+                String[] tokens = line.trim().split("\\s+");
+                switch (tokens[0]) {
+                    case "format":
+                        ascii = "ascii".equals(tokens[1]);
+                        if (!ascii && !"binary_little_endian".equals(tokens[1]) && !"binary_big_endian".equals(tokens[1])) {
+                            throw new IllegalArgumentException("unsupported PLY format " + tokens[1]);
+                        }
+                        buffer.order("binary_big_endian".equals(tokens[1]) ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+                        break;
+                    case "element":
+                        currentElement = new Element(tokens[1], Integer.parseInt(tokens[2]));
+                        elements.add(currentElement);
+                        break;
+                    case "property":
+                        if (currentElement == null) throw new IllegalArgumentException("property without element");
+                        if ("list".equals(tokens[1])) {
+                            currentElement.properties.add(new Property(tokens[4], tokens[3], tokens[2]));
+                        } else {
+                            currentElement.properties.add(new Property(tokens[2], tokens[1], null));
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+
+        private void createVertexArrays(Element element) {
+            int vertexCount = element.count;
+            if (element.indexOf("x") == -1) throw new IllegalArgumentException("PLY file has no vertex positions");
+            positions = new float[3*vertexCount];
+            if (element.indexOf("nx") != -1) normals = new float[3*vertexCount];
+            if (element.indexOf("red", "r") != -1) colors = new float[3*vertexCount];
+            if (element.indexOf("s", "u", "texture_u") != -1) uvCoordinates = new float[2*vertexCount];
+        }
+
+        /**
+         * @return for each vertex property the attribute array component that it is stored in: position x, y, z = 0, 1, 2,
+         *         normal x, y, z = 3, 4, 5, color r, g, b = 6, 7, 8, u, v = 9, 10 and -1 for other properties.
+         */
+        private static int[] getPropertyTargets(Element element) {
+            int[] targets = new int[element.properties.size()];
+            Arrays.fill(targets, -1);
+            String[][] names = {{"x"}, {"y"}, {"z"}, {"nx"}, {"ny"}, {"nz"}, {"red", "r"}, {"green", "g"}, {"blue", "b"},
+                                {"s", "u", "texture_u"}, {"t", "v", "texture_v"}};
+            for (int target = 0; target < names.length; target++) {
+                int property = element.indexOf(names[target]);
+                if (property != -1) targets[property] = target;
+            }
+            return targets;
+        }
+
+        private void storeVertexValue(int vertex, int target, float value, String type) {
+            if (target < 3) {
+                positions[3*vertex + target] = value;
+            } else if (target < 6) {
+                normals[3*vertex + target - 3] = value;
+            } else if (target < 9) {
+                //integer colors range from 0 to 255.
+                colors[3*vertex + target - 6] = isFloatType(type) ? value : value/255;
+            } else {
+                uvCoordinates[2*vertex + target - 9] = value;
+            }
+        }
+
+        private int parseBinaryVertices(Element element, int offset) {
+            int vertexSize = element.getFixedSize();
+            if (vertexSize == -1) throw new IllegalArgumentException("vertex lists are not supported");
+            createVertexArrays(element);
+            int[] targets = getPropertyTargets(element);
+            int[] propertyOffsets = new int[targets.length];
+            for (int property = 1; property < targets.length; property++) {
+                propertyOffsets[property] = propertyOffsets[property - 1] + getSize(element.properties.get(property - 1).type);
+            }
+
+            //every vertex has the same size, so vertex ranges can be parsed in parallel.
+            int vertexCount = element.count;
+            parallelFor(getChunkCount(vertexCount), vertexCount, (start, end) -> {
+                for (int vertex = start; vertex < end; vertex++) {
+                    int vertexOffset = offset + vertex*vertexSize;
+                    for (int property = 0; property < targets.length; property++) {
+                        if (targets[property] == -1) continue;
+                        String type = element.properties.get(property).type;
+                        storeVertexValue(vertex, targets[property], (float) readValue(vertexOffset + propertyOffsets[property], type), type);
+                    }
+                }
+            });
+            return offset + vertexCount*vertexSize;
+        }
+
+        private int parseAsciiVertices(Element element, int offset) {
+            createVertexArrays(element);
+            int[] targets = getPropertyTargets(element);
+            int vertexCountPerChunk = getElementCountPerChunk(element.count, getChunkCount(element.count));
+            int[] chunkStarts = splitIntoLines(offset, element.count, vertexCountPerChunk);
+
+            parallelFor(chunkStarts.length - 1, chunk -> {
+                AsciiScanner scanner = new AsciiScanner(buffer, chunkStarts[chunk], chunkStarts[chunk + 1]);
+                int vertex = chunk*vertexCountPerChunk;
+                while (scanner.hasMore()) {
+                    for (int property = 0; property < targets.length; property++) {
+                        float value = scanner.nextFloat();
+                        if (targets[property] != -1) storeVertexValue(vertex, targets[property], value, element.properties.get(property).type);
+                    }
+                    scanner.skipLine();
+                    vertex++;
+                }
+            });
+            return chunkStarts[chunkStarts.length - 1];
+        }
+
+        private int parseBinaryFaces(Element element, int offset) {
+            int indexListProperty = element.indexOf("vertex_indices", "vertex_index");
+            if (indexListProperty == -1) throw new IllegalArgumentException("PLY faces have no vertex index list");
+
+            //faces have a variable size, so they are parsed sequentially. This is fast, because no text needs to be parsed.
+            IntList triangleIndices = new IntList(3*element.count);
+            int[] polygon = new int[16];
+            for (int face = 0; face < element.count; face++) {
+                for (int property = 0; property < element.properties.size(); property++) {
+                    Property currentProperty = element.properties.get(property);
+                    if (currentProperty.listCountType == null) {
+                        offset += getSize(currentProperty.type);
+                        continue;
+                    }
+
+                    int itemCount = (int) readValue(offset, currentProperty.listCountType);
+                    offset += getSize(currentProperty.listCountType);
+                    int itemSize = getSize(currentProperty.type);
+                    if (property == indexListProperty) {
+                        if (itemCount > polygon.length) polygon = new int[itemCount];
+                        for (int item = 0; item < itemCount; item++) {
+                            polygon[item] = (int) readValue(offset + item*itemSize, currentProperty.type);
+                        }
+                        triangleIndices.addFan(polygon, itemCount);
+                    }
+                    offset += itemCount*itemSize;
+                }
+            }
+            indices = triangleIndices.toArray();
+            return offset;
+        }
+
+        private int parseAsciiFaces(Element element, int offset) {
+            int indexListProperty = element.indexOf("vertex_indices", "vertex_index");
+            if (indexListProperty == -1) throw new IllegalArgumentException("PLY faces have no vertex index list");
+            int faceCountPerChunk = getElementCountPerChunk(element.count, getChunkCount(element.count));
+            int[] chunkStarts = splitIntoLines(offset, element.count, faceCountPerChunk);
+            int chunkCount = chunkStarts.length - 1;
+
+            //each chunk collects its own triangles, afterwards the triangles of all chunks are concatenated.
+            IntList[] chunkIndices = new IntList[chunkCount];
+            parallelFor(chunkCount, chunk -> {
+                AsciiScanner scanner = new AsciiScanner(buffer, chunkStarts[chunk], chunkStarts[chunk + 1]);
+                IntList triangleIndices = new IntList(3*faceCountPerChunk);
+                int[] polygon = new int[16];
+                while (scanner.hasMore()) {
+                    for (int property = 0; property < element.properties.size(); property++) {
+                        if (element.properties.get(property).listCountType == null) {
+                            scanner.skipToken();
+                            continue;
+                        }
+                        int itemCount = scanner.nextInt();
+                        if (itemCount > polygon.length) polygon = new int[itemCount];
+                        for (int item = 0; item < itemCount; item++) {
+                            polygon[item] = scanner.nextInt();
+                        }
+                        if (property == indexListProperty) triangleIndices.addFan(polygon, itemCount);
+                    }
+                    scanner.skipLine();
+                }
+                chunkIndices[chunk] = triangleIndices;
+            });
+
+            int[] chunkSizes = new int[chunkCount];
+            for (int chunk = 0; chunk < chunkCount; chunk++) {
+                chunkSizes[chunk] = chunkIndices[chunk].size;
+            }
+            int[] chunkOffsets = prefixSums(chunkSizes);
+            indices = new int[chunkOffsets[chunkCount]];
+            parallelFor(chunkCount, chunk -> System.arraycopy(chunkIndices[chunk].values, 0, indices, chunkOffsets[chunk], chunkSizes[chunk]));
+            return chunkStarts[chunkCount];
+        }
+
+        private int skipBinaryElements(Element element, int offset) {
+            int fixedSize = element.getFixedSize();
+            if (fixedSize != -1) return offset + element.count*fixedSize;
+
+            for (int n = 0; n < element.count; n++) {
+                for (Property property : element.properties) {
+                    if (property.listCountType == null) {
+                        offset += getSize(property.type);
+                    } else {
+                        int itemCount = (int) readValue(offset, property.listCountType);
+                        offset += getSize(property.listCountType) + itemCount*getSize(property.type);
+                    }
+                }
+            }
+            return offset;
+        }
+
+        private int skipLines(int offset, int lineCount) {
+            AsciiScanner scanner = new AsciiScanner(buffer, offset, buffer.limit());
+            for (int n = 0; n < lineCount; n++) {
+                scanner.skipLine();
+            }
+            return scanner.getPosition();
+        }
+
+        /**
+         * Finds the start of every chunk of lines, by scanning for line breaks (which is much faster than parsing the lines).
+         *
+         * @return chunk start offsets, followed by the offset after the last line.
+         */
+        private int[] splitIntoLines(int offset, int lineCount, int lineCountPerChunk) {
+            int chunkCount = Math.max(1, (lineCount + lineCountPerChunk - 1)/lineCountPerChunk);
+            int[] chunkStarts = new int[chunkCount + 1];
+            chunkStarts[0] = offset;
+            AsciiScanner scanner = new AsciiScanner(buffer, offset, buffer.limit());
+            for (int line = 0; line < lineCount; line++) {
+                if (line%lineCountPerChunk == 0) chunkStarts[line/lineCountPerChunk] = scanner.getPosition();
+                scanner.skipLine();
+            }
+            chunkStarts[chunkStarts.length - 1] = scanner.getPosition();
+            return chunkStarts;
+        }
+
+        private double readValue(int offset, String type) {
+            switch (type) {
+                case "char":
+                case "int8":
+                    return buffer.get(offset);
+                case "uchar":
+                case "uint8":
+                    return buffer.get(offset) & 0xFF;
+                case "short":
+                case "int16":
+                    return buffer.getShort(offset);
+                case "ushort":
+                case "uint16":
+                    return buffer.getShort(offset) & 0xFFFF;
+                case "int":
+                case "int32":
+                    return buffer.getInt(offset);
+                case "uint":
+                case "uint32":
+                    return buffer.getInt(offset) & 0xFFFFFFFFL;
+                case "float":
+                case "float32":
+                    return buffer.getFloat(offset);
+                case "double":
+                case "float64":
+                    return buffer.getDouble(offset);
+                default:
+                    throw new IllegalArgumentException("unsupported PLY property type " + type);
+            }
+        }
+
+        private static int getSize(String type) {
+            switch (type) {
+                case "char":
+                case "int8":
+                case "uchar":
+                case "uint8":
+                    return 1;
+                case "short":
+                case "int16":
+                case "ushort":
+                case "uint16":
+                    return 2;
+                case "int":
+                case "int32":
+                case "uint":
+                case "uint32":
+                case "float":
+                case "float32":
+                    return 4;
+                case "double":
+                case "float64":
+                    return 8;
+                default:
+                    throw new IllegalArgumentException("unsupported PLY property type " + type);
+            }
+        }
+
+        private static boolean isFloatType(String type) {
+            return type.startsWith("float") || type.equals("double");
+        }
+    }
+
+    /**
+     * Growable list of primitive ints.
+     */
+    private static final class IntList {
+        private int[] values;
+        private int size = 0;
+
+        private IntList(int initialCapacity) {
+            values = new int[Math.max(16, initialCapacity)];
+        }
+
+        /**
+         * Adds the triangles of the given polygon, triangulated as a fan.
+         */
+        private void addFan(int[] polygon, int cornerCount) {
+            int triangleCount = Math.max(0, cornerCount - 2);
+            if (size + 3*triangleCount > values.length) values = Arrays.copyOf(values, Math.max(2*values.length, size + 3*triangleCount));
+            for (int n = 2; n < cornerCount; n++) {
+                values[size++] = polygon[0];
+                values[size++] = polygon[n - 1];
+                values[size++] = polygon[n];
+            }
+        }
+
+        private int[] toArray() {
+            return size == values.length ? values : Arrays.copyOf(values, size);
+        }
+    }
+
+    /**
+     * Splits the given byte range into chunks that each consist of whole lines.
+     *
+     * @return chunk start offsets, followed by the end offset.
+     */
+    private static int[] splitIntoLines(ByteBuffer buffer, int start, int end) {
+        int chunkCount = Math.max(1, Math.min(getChunkCount(Integer.MAX_VALUE), (end - start)/MIN_CHUNK_SIZE));
+        int[] chunkStarts = new int[chunkCount + 1];
+        chunkStarts[0] = start;
+        for (int chunk = 1; chunk < chunkCount; chunk++) {
+            //move the boundary forward to the start of the next line.
+            int boundary = Math.max(chunkStarts[chunk - 1], start + (int) ((long) (end - start)*chunk/chunkCount));
+            while (boundary < end && buffer.get(boundary - 1) != '\n') {
+                boundary++;
+            }
+            chunkStarts[chunk] = boundary;
+        }
+        chunkStarts[chunkCount] = end;
+        return chunkStarts;
+    }
+
+    /**
+     * Groups the indices of the given values by value (compressed sparse rows), in parallel. The indices with value v are stored
+     * in ascending order in items[offsets[v]] to items[offsets[v + 1]] (exclusive), so the result does not depend on the thread scheduling.
+     *
+     * @param values between 0 (inclusive) and valueCount (exclusive).
+     * @return offsets (valueCount + 1 elements) and items (values.length elements).
+     */
+    private static int[][] groupByValue(int[] values, int valueCount) {
+        AtomicIntegerArray counts = new AtomicIntegerArray(valueCount);
+        parallelFor(getChunkCount(values.length), values.length, (start, end) -> {
+            for (int n = start; n < end; n++) {
+                counts.getAndIncrement(values[n]);
+            }
+        });
+
+        //offsets are the prefix sums of the counts, first per chunk of values, then within each chunk.
+        int chunkCount = getChunkCount(valueCount);
+        int valueCountPerChunk = getElementCountPerChunk(valueCount, chunkCount);
+        int[] chunkSums = new int[chunkCount];
+        parallelFor(chunkCount, chunk -> {
+            for (int value = chunk*valueCountPerChunk; value < Math.min(valueCount, (chunk + 1)*valueCountPerChunk); value++) {
+                chunkSums[chunk] += counts.get(value);
+            }
+        });
+        int[] chunkOffsets = prefixSums(chunkSums);
+        int[] offsets = new int[valueCount + 1];
+        offsets[valueCount] = values.length;
+        //from here on counts contains the position at which the next index of each value is stored.
+        parallelFor(chunkCount, chunk -> {
+            int offset = chunkOffsets[chunk];
+            for (int value = chunk*valueCountPerChunk; value < Math.min(valueCount, (chunk + 1)*valueCountPerChunk); value++) {
+                offsets[value] = offset;
+                offset += counts.getAndSet(value, offset);
+            }
+        });
+
+        int[] items = new int[values.length];
+        parallelFor(getChunkCount(values.length), values.length, (start, end) -> {
+            for (int n = start; n < end; n++) {
+                items[counts.getAndIncrement(values[n])] = n;
+            }
+        });
+        //the threads fill each group in any order.
+        parallelFor(chunkCount, valueCount, (start, end) -> {
+            for (int value = start; value < end; value++) {
+                if (offsets[value + 1] - offsets[value] > 1) Arrays.sort(items, offsets[value], offsets[value + 1]);
+            }
+        });
+        return new int[][]{offsets, items};
+    }
+
+    private static int getChunkCount(int elementCount) {
+        int maxChunkCount = Runtime.getRuntime().availableProcessors()*CHUNKS_PER_THREAD;
+        return Math.max(1, Math.min(maxChunkCount, elementCount/MIN_CHUNK_ELEMENT_COUNT));
+    }
+
+    private static int getElementCountPerChunk(int elementCount, int chunkCount) {
+        return Math.max(1, (elementCount + chunkCount - 1)/chunkCount);
+    }
+
+    /**
+     * @return array with one more element than the given counts: the sum of all counts before each index.
+     */
+    private static int[] prefixSums(int[] counts) {
+        int[] sums = new int[counts.length + 1];
+        for (int n = 0; n < counts.length; n++) {
+            sums[n + 1] = sums[n] + counts[n];
+        }
+        return sums;
+    }
+
+    private static void parallelFor(int count, IntConsumer body) {
+        IntStream.range(0, count).parallel().forEach(body);
+    }
+
+    /**
+     * Splits the range 0 (inclusive) to elementCount (exclusive) into chunkCount ranges that are processed in parallel.
+     */
+    private static void parallelFor(int chunkCount, int elementCount, RangeConsumer body) {
+        int elementCountPerChunk = getElementCountPerChunk(elementCount, chunkCount);
+        parallelFor(chunkCount, chunk -> body.accept(Math.min(elementCount, chunk*elementCountPerChunk), Math.min(elementCount, (chunk + 1)*elementCountPerChunk)));
+    }
+
+    private interface RangeConsumer {
+        void accept(int start, int end);
+    }
+}
@@ -0,0 +1,750 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.geometry;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+/**
+ * Reduces the number of triangles of a mesh by collapsing edges in the order of the quadric error metric
+ * (Garland and Heckbert, "Surface Simplification Using Quadric Error Metrics"), e.g. to create levels of detail for distant objects.
+ *
+ * Each vertex position has a quadric that measures the squared distances to the planes of its triangles, weighted by their area.
+ * The error of collapsing an edge is the weighted mean squared distance of the remaining vertex to the planes of both ends,
+ * and the edges are kept in a binary heap ordered by this error. An edge is collapsed by moving one of its vertices onto
+ * the other one (a half-edge collapse), so the simplified mesh only contains vertices of the original mesh and no attributes are interpolated.
+ *
+ * Vertices at the same position but with different attributes (seams in the normals, colors or u,v-coordinates, e.g. at the edges of a cube)
+ * are treated as one position. A position on a seam, or on the border of an open mesh, is only moved along the seam or the border
+ * (possibly onto the end of the seam or border), and planes perpendicular to the seam or the border keep their shape, so that seams
+ * are never torn open. Positions where seams or borders meet or cross, or with non-manifold edges, are never moved. A collapse is rejected if it would change
+ * the topology of the mesh or flip a triangle.
+ *
+ * All data are kept in flat primitive arrays. Each mesh is simplified on a single thread, multiple meshes are simplified in parallel.
+ *
+ * @author A.C. Kockx
+ */
+public final class MeshSimplifier {
+    //weight of the planes that keep borders and seams in place, relative to the planes of the triangles.
+    private static final double BORDER_WEIGHT = 10;
+    //added to the error per squared length of the edge, so that of edges with the same error (e.g. in a flat region) the shortest
+    //is collapsed first. Otherwise the same position could be the target of many collapses, which makes its number of neighbors grow.
+    private static final double EDGE_LENGTH_WEIGHT = 1e-6;
+    private static final int INITIAL_HEAP_CAPACITY = 1024;
+    //per position: the 10 values of the symmetric 4x4 quadric matrix, followed by the sum of the weights of its planes.
+    private static final int QUADRIC_SIZE = 11;
+
+    //kinds of positions, see method canCollapse.
+    private static final byte MANIFOLD = 0;
+    private static final byte BORDER = 1;
+    private static final byte SEAM = 2;
+    private static final byte LOCKED = 3;
+
+    private MeshSimplifier() {
+    }
+
+    /**
+     * Simplifies the given mesh until it has at most the given number of triangles, or until no edge can be collapsed
+     * without exceeding the given error.
+     *
+     * @param maxError maximum error of a collapse, as a distance in model space (root mean square of the distances to the planes
+     *                 of the collapsed vertices), or Float.POSITIVE_INFINITY to only stop at the target triangle count.
+     * @return simplified mesh, or the given mesh if it already has at most targetTriangleCount triangles.
+     */
+    public static Mesh simplify(Mesh mesh, int targetTriangleCount, float maxError) {
+        if (mesh == null) throw new IllegalArgumentException("mesh == null");
+        if (targetTriangleCount < 0) throw new IllegalArgumentException("targetTriangleCount < 0");
+        if (!(maxError >= 0)) throw new IllegalArgumentException("maxError < 0");
+        if (mesh.getTriangleCount() <= targetTriangleCount) return mesh;
+
+        return new Simplifier(mesh).simplify(targetTriangleCount, (double) maxError*maxError);
+    }
+
+    /**
+     * Creates a chain of levels of detail, each level is created by simplifying the previous level.
+     *
+     * @param levelCount maximum number of levels, including the given mesh. There are fewer levels if a level cannot be simplified further.
+     * @param triangleRatio ratio between the triangle counts of successive levels, e.g. 0.5.
+     * @param maxError maximum error of each level relative to the previous level, see method simplify.
+     * @return levels of detail, starting with the given mesh.
+     */
+    public static List<Mesh> createLevelsOfDetail(Mesh mesh, int levelCount, float triangleRatio, float maxError) {
+        if (mesh == null) throw new IllegalArgumentException("mesh == null");
+        if (levelCount <= 0) throw new IllegalArgumentException("levelCount <= 0");
+        if (!(triangleRatio > 0 && triangleRatio < 1)) throw new IllegalArgumentException("triangleRatio must be between 0 and 1");
+
+        List<Mesh> levels = new ArrayList<>(levelCount);
+        levels.add(mesh);
+        for (int level = 1; level < levelCount; level++) {
+            Mesh previous = levels.get(level - 1);
+            Mesh simplified = simplify(previous, (int) (previous.getTriangleCount()*triangleRatio), maxError);
+            if (simplified.getTriangleCount() == previous.getTriangleCount()) break;
+            levels.add(simplified);
+        }
+        return levels;
+    }
+
+    /**
+     * Creates the levels of detail of the given meshes in parallel, see method createLevelsOfDetail(Mesh, int, float, float).
+     *
+     * @return levels of detail per mesh, in the same order as the given meshes.
+     */
+    public static List<List<Mesh>> createLevelsOfDetail(List<Mesh> meshes, int levelCount, float triangleRatio, float maxError) {
+        return meshes.parallelStream().map(mesh -> createLevelsOfDetail(mesh, levelCount, triangleRatio, maxError)).collect(Collectors.toList());
+    }
+
+    /**
+     * Simplifies a single mesh. The positions are identified by the index of the first vertex that has that position,
+     * the wedges (combinations of a position and attributes) by the index of the first vertex that has these attributes.
+     */
+    private static final class Simplifier {
+        private final Mesh mesh;
+        private final float[] positions;
+        //per vertex: its position.
+        private final int[] positionOfVertex;
+
+        //wedge per triangle corner, three corners per triangle.
+        private final int[] corners;
+        private final boolean[] removedTriangles;
+        private int triangleCount;
+
+        //per position: linked list of the corners that use the position, these can include corners of removed triangles.
+        private final int[] firstCorner;
+        private final int[] nextCorner;
+        //per position: quadric, see QUADRIC_SIZE.
+        private final double[] quadrics;
+        private final byte[] kinds;
+        private final boolean[] removedPositions;
+        //per position: used to find the neighbors of positions without allocating sets.
+        private final int[] marks;
+        private int markStamp = 0;
+
+        //binary heap of edge collapses (from, to) ordered by cost. Entries are not removed when the quadrics change,
+        //instead the edges are pushed again and entries whose cost is no longer up to date are skipped.
+        private double[] heapCosts = new double[INITIAL_HEAP_CAPACITY];
+        private int[] heapFroms = new int[INITIAL_HEAP_CAPACITY];
+        private int[] heapTos = new int[INITIAL_HEAP_CAPACITY];
+        private int heapSize = 0;
+
+        //wedges of the collapsed position and the wedges they are replaced with.
+        private final int[] wedgeMapFroms = new int[2];
+        private final int[] wedgeMapTos = new int[2];
+        private int wedgeMapSize = 0;
+
+        private Simplifier(Mesh mesh) {
+            this.mesh = mesh;
+            positions = mesh.getPositions();
+            int vertexCount = mesh.getVertexCount();
+            positionOfVertex = weld(mesh, false);
+            int[] wedgeOfVertex = weld(mesh, true);
+
+            //remove triangles of which two corners have the same position.
+            int[] indices = mesh.getIndices();
+            corners = new int[indices.length];
+            removedTriangles = new boolean[indices.length/3];
+            for (int corner = 0; corner < indices.length; corner++) {
+                corners[corner] = wedgeOfVertex[indices[corner]];
+            }
+            for (int triangle = 0; triangle < removedTriangles.length; triangle++) {
+                int a = getPosition(3*triangle);
+                int b = getPosition(3*triangle + 1);
+                int c = getPosition(3*triangle + 2);
+                removedTriangles[triangle] = a == b || b == c || c == a;
+                if (!removedTriangles[triangle]) triangleCount++;
+            }
+
+            firstCorner = new int[vertexCount];
+            nextCorner = new int[corners.length];
+            Arrays.fill(firstCorner, -1);
+            for (int corner = corners.length - 1; corner >= 0; corner--) {
+                if (removedTriangles[corner/3]) continue;
+                int position = getPosition(corner);
+                nextCorner[corner] = firstCorner[position];
+                firstCorner[position] = corner;
+            }
+
+            quadrics = new double[QUADRIC_SIZE*vertexCount];
+            kinds = new byte[vertexCount];
+            removedPositions = new boolean[vertexCount];
+            marks = new int[vertexCount];
+        }
+
+        private Mesh simplify(int targetTriangleCount, double maxSquaredError) {
+            addTriangleQuadrics();
+            classifyPositions();
+            for (int position = 0; position < positionOfVertex.length; position++) {
+                if (positionOfVertex[position] == position) pushEdges(position, true);
+            }
+
+            while (triangleCount > targetTriangleCount && heapSize > 0) {
+                double cost = heapCosts[0];
+                int from = heapFroms[0];
+                int to = heapTos[0];
+                removeTop();
+                //every edge also has an entry with its current cost, so if the cheapest entry exceeds the maximum error, then all edges do.
+                if (cost > maxSquaredError) break;
+                if (removedPositions[from] || removedPositions[to]) continue;
+                //skip outdated entries, the edge has been pushed again with its current cost.
+                if (getCost(from, to) != cost) continue;
+                collapse(from, to);
+            }
+            return createMesh();
+        }
+
+        /**
+         * Adds the plane of each triangle to the quadrics of its positions, weighted by the area of the triangle.
+         */
+        private void addTriangleQuadrics() {
+            for (int triangle = 0; triangle < removedTriangles.length; triangle++) {
+                if (removedTriangles[triangle]) continue;
+
+                int a = getPosition(3*triangle);
+                int b = getPosition(3*triangle + 1);
+                int c = getPosition(3*triangle + 2);
+                double[] normal = getNormal(a, b, c);
+                double length = Math.sqrt(normal[0]*normal[0] + normal[1]*normal[1] + normal[2]*normal[2]);
+                if (length == 0) continue;
+
+                double nx = normal[0]/length;
+                double ny = normal[1]/length;
+                double nz = normal[2]/length;
+                double d = -(nx*positions[3*a] + ny*positions[3*a + 1] + nz*positions[3*a + 2]);
+                double area = length/2;
+                addPlane(a, nx, ny, nz, d, area);
+                addPlane(b, nx, ny, nz, d, area);
+                addPlane(c, nx, ny, nz, d, area);
+            }
+        }
+
+        /**
+         * Finds the border edges (used by one triangle) and seam edges (whose triangles have different wedges) of each position,
+         * adds planes that keep them in place and determines the kind of each position.
+         */
+        private void classifyPositions() {
+            int vertexCount = positionOfVertex.length;
+            boolean[] nonManifold = new boolean[vertexCount];
+            int[] borderOutCounts = new int[vertexCount];
+            int[] borderInCounts = new int[vertexCount];
+            int[] seamOutCounts = new int[vertexCount];
+            int[] seamInCounts = new int[vertexCount];
+
+            for (int corner = 0; corner < corners.length; corner++) {
+                if (removedTriangles[corner/3]) continue;
+
+                //half-edge a -> b.
+                int a = getPosition(corner);
+                int b = getPosition(next(corner));
+                int forwardCount = countHalfEdges(a, b, -1, -1);
+                int backwardCount = countHalfEdges(b, a, -1, -1);
+                if (forwardCount > 1 || backwardCount > 1) {
+                    nonManifold[a] = true;
+                    nonManifold[b] = true;
+                } else if (backwardCount == 0) {
+                    borderOutCounts[a]++;
+                    borderInCounts[b]++;
+                    addEdgePlane(corner);
+                } else if (countHalfEdges(b, a, corners[next(corner)], corners[corner]) == 0) {
+                    seamOutCounts[a]++;
+                    seamInCounts[b]++;
+                    addEdgePlane(corner);
+                }
+            }
+
+            //count the wedges of each position that are used by the triangles.
+            int[] wedgeCounts = new int[vertexCount];
+            boolean[] usedWedges = new boolean[vertexCount];
+            for (int corner = 0; corner < corners.length; corner++) {
+                if (removedTriangles[corner/3] || usedWedges[corners[corner]]) continue;
+                usedWedges[corners[corner]] = true;
+                wedgeCounts[getPosition(corner)]++;
+            }
+
+            for (int position = 0; position < vertexCount; position++) {
+                boolean border = borderOutCounts[position] > 0 || borderInCounts[position] > 0;
+                boolean seam = seamOutCounts[position] > 0 || seamInCounts[position] > 0;
+                if (nonManifold[position] || (border && seam)) {
+                    kinds[position] = LOCKED;
+                } else if (border) {
+                    //a position where the border touches itself is locked.
+                    boolean simple = borderOutCounts[position] == 1 && borderInCounts[position] == 1 && wedgeCounts[position] == 1;
+                    kinds[position] = simple ? BORDER : LOCKED;
+                } else if (seam) {
+                    //a position where seams meet (e.g. the corner of a cube) is locked.
+                    boolean simple = seamOutCounts[position] == 2 && seamInCounts[position] == 2 && wedgeCounts[position] == 2;
+                    kinds[position] = simple ? SEAM : LOCKED;
+                } else {
+                    kinds[position] = wedgeCounts[position] <= 1 ? MANIFOLD : LOCKED;
+                }
+            }
+        }
+
+        /**
+         * @param fromWedge wedge of a, or -1 to count half-edges with any wedges.
+         * @param toWedge wedge of b, or -1 to count half-edges with any wedges.
+         * @return the number of half-edges a -> b in the remaining triangles.
+         */
+        private int countHalfEdges(int a, int b, int fromWedge, int toWedge) {
+            int count = 0;
+            for (int corner = firstCorner[a]; corner != -1; corner = nextCorner[corner]) {
+                if (removedTriangles[corner/3] || getPosition(next(corner)) != b) continue;
+                if (fromWedge != -1 && (corners[corner] != fromWedge || corners[next(corner)] != toWedge)) continue;
+                count++;
+            }
+            return count;
+        }
+
+        /**
+         * Adds the plane through the half-edge that starts at the given corner and perpendicular to its triangle to the quadrics of both ends,
+         * weighted by the squared length of the edge.
+         */
+        private void addEdgePlane(int corner) {
+            int a = getPosition(corner);
+            int b = getPosition(next(corner));
+            int c = getPosition(previous(corner));
+            double[] normal = getNormal(a, b, c);
+            double ex = positions[3*b] - positions[3*a];
+            double ey = positions[3*b + 1] - positions[3*a + 1];
+            double ez = positions[3*b + 2] - positions[3*a + 2];
+            double nx = ey*normal[2] - ez*normal[1];
+            double ny = ez*normal[0] - ex*normal[2];
+            double nz = ex*normal[1] - ey*normal[0];
+            double length = Math.sqrt(nx*nx + ny*ny + nz*nz);
+            if (length == 0) return;
+
+            nx /= length;
+            ny /= length;
+            nz /= length;
+            double d = -(nx*positions[3*a] + ny*positions[3*a + 1] + nz*positions[3*a + 2]);
+            double weight = BORDER_WEIGHT*(ex*ex + ey*ey + ez*ez);
+            addPlane(a, nx, ny, nz, d, weight);
+            addPlane(b, nx, ny, nz, d, weight);
+        }
+
+        /**
+         * Pushes the edges between the given position and its neighbors on the heap.
+         * Also removes the corners of removed triangles from the corner list of the position.
+         *
+         * @param onlyGreater if true, then only the edges to neighbors with a greater index are pushed, so that each edge is pushed once.
+         */
+        private void pushEdges(int position, boolean onlyGreater) {
+            int stamp = nextMarkStamp();
+            int previousCorner = -1;
+            for (int corner = firstCorner[position]; corner != -1; corner = nextCorner[corner]) {
+                if (removedTriangles[corner/3]) {
+                    if (previousCorner == -1) {
+                        firstCorner[position] = nextCorner[corner];
+                    } else {
+                        nextCorner[previousCorner] = nextCorner[corner];
+                    }
+                    continue;
+                }
+                previousCorner = corner;
+
+                for (int side = 0; side < 2; side++) {
+                    int neighbor = getPosition(side == 0 ? next(corner) : previous(corner));
+                    if (marks[neighbor] == stamp) continue;
+                    marks[neighbor] = stamp;
+                    if (onlyGreater && neighbor < position) continue;
+
+                    //push the cheapest direction of the edge.
+                    double cost = getCost(position, neighbor);
+                    double reverseCost = getCost(neighbor, position);
+                    if (cost <= reverseCost && cost != Double.POSITIVE_INFINITY) {
+                        push(cost, position, neighbor);
+                    } else if (reverseCost < cost) {
+                        push(reverseCost, neighbor, position);
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return the mean squared distance of position to to the planes of both positions (see EDGE_LENGTH_WEIGHT), or infinity
+         *         if moving position from onto position to is not allowed for the kinds of the positions.
+         */
+        private double getCost(int from, int to) {
+            if (!canCollapse(kinds[from], kinds[to])) return Double.POSITIVE_INFINITY;
+
+            int f = QUADRIC_SIZE*from;
+            int t = QUADRIC_SIZE*to;
+            double x = positions[3*to];
+            double y = positions[3*to + 1];
+            double z = positions[3*to + 2];
+            double error = (quadrics[f] + quadrics[t])*x*x + 2*(quadrics[f + 1] + quadrics[t + 1])*x*y + 2*(quadrics[f + 2] + quadrics[t + 2])*x*z
+                           + 2*(quadrics[f + 3] + quadrics[t + 3])*x + (quadrics[f + 4] + quadrics[t + 4])*y*y + 2*(quadrics[f + 5] + quadrics[t + 5])*y*z
+                           + 2*(quadrics[f + 6] + quadrics[t + 6])*y + (quadrics[f + 7] + quadrics[t + 7])*z*z + 2*(quadrics[f + 8] + quadrics[t + 8])*z
+                           + quadrics[f + 9] + quadrics[t + 9];
+            double weight = quadrics[f + 10] + quadrics[t + 10];
+            double dx = positions[3*from] - x;
+            double dy = positions[3*from + 1] - y;
+            double dz = positions[3*from + 2] - z;
+            return (weight > 0 ? Math.max(0, error)/weight : 0) + EDGE_LENGTH_WEIGHT*(dx*dx + dy*dy + dz*dz);
+        }
+
+        /**
+         * Manifold positions can be moved onto any neighbor, positions on a border or seam only onto a neighbor on the same border or seam,
+         * which can be a locked position where the border or seam ends or meets other seams (e.g. the corner of a cube). Method collapse checks
+         * that the edge lies on the border or seam. Locked positions are never moved.
+         */
+        private static boolean canCollapse(byte fromKind, byte toKind) {
+            return fromKind == MANIFOLD || (fromKind != LOCKED && (fromKind == toKind || toKind == LOCKED));
+        }
+
+        /**
+         * Moves position from onto position to, unless that would change the topology, tear a seam or border, or flip a triangle.
+         */
+        private boolean collapse(int from, int to) {
+            //find the triangles of the edge and the wedges of to that replace the wedges of from.
+            int sharedCount = 0;
+            wedgeMapSize = 0;
+            for (int corner = firstCorner[from]; corner != -1; corner = nextCorner[corner]) {
+                if (removedTriangles[corner/3]) continue;
+                int toCorner = getPosition(next(corner)) == to ? next(corner) : getPosition(previous(corner)) == to ? previous(corner) : -1;
+                if (toCorner == -1) continue;
+
+                sharedCount++;
+                int mappedWedge = getMappedWedge(corners[corner]);
+                if (mappedWedge == -1) {
+                    if (wedgeMapSize == wedgeMapFroms.length) return false;
+                    wedgeMapFroms[wedgeMapSize] = corners[corner];
+                    wedgeMapTos[wedgeMapSize] = corners[toCorner];
+                    wedgeMapSize++;
+                } else if (mappedWedge != corners[toCorner]) {
+                    return false;
+                }
+            }
+            switch (kinds[from]) {
+                case BORDER:
+                    //the edge must be on the border, so it has only one triangle.
+                    if (sharedCount != 1) return false;
+                    break;
+                case SEAM:
+                    //the edge must be on the seam, so both wedges of from are mapped.
+                    if (sharedCount != 2 || wedgeMapSize != 2) return false;
+                    break;
+                default:
+                    if (sharedCount != 2) return false;
+                    break;
+            }
+
+            //link condition: the only neighbors that from and to have in common are the third corners of the triangles of the edge.
+            int stamp = nextMarkStamp();
+            markNeighbors(from, stamp);
+            int commonCount = 0;
+            for (int corner = firstCorner[to]; corner != -1; corner = nextCorner[corner]) {
+                if (removedTriangles[corner/3]) continue;
+                for (int side = 0; side < 2; side++) {
+                    int neighbor = getPosition(side == 0 ? next(corner) : previous(corner));
+                    if (marks[neighbor] != stamp) continue;
+                    marks[neighbor] = stamp + 1;
+                    commonCount++;
+                }
+            }
+            if (commonCount != sharedCount) return false;
+
+            //the other triangles of from must not flip.
+            for (int corner = firstCorner[from]; corner != -1; corner = nextCorner[corner]) {
+                if (removedTriangles[corner/3] || containsPosition(corner, to)) continue;
+                if (getMappedWedge(corners[corner]) == -1) return false;
+                int b = getPosition(next(corner));
+                int c = getPosition(previous(corner));
+                double[] normal = getNormal(from, b, c);
+                double[] newNormal = getNormal(to, b, c);
+                if (normal[0]*newNormal[0] + normal[1]*newNormal[1] + normal[2]*newNormal[2] <= 0) return false;
+            }
+
+            //collapse: remove the triangles of the edge, move the other corners of from to to.
+            int lastCorner = -1;
+            for (int corner = firstCorner[from]; corner != -1; corner = nextCorner[corner]) {
+                lastCorner = corner;
+                if (removedTriangles[corner/3]) continue;
+                if (containsPosition(corner, to)) {
+                    removedTriangles[corner/3] = true;
+                    triangleCount--;
+                } else {
+                    corners[corner] = getMappedWedge(corners[corner]);
+                }
+            }
+            nextCorner[lastCorner] = firstCorner[to];
+            firstCorner[to] = firstCorner[from];
+            firstCorner[from] = -1;
+            for (int n = 0; n < QUADRIC_SIZE; n++) {
+                quadrics[QUADRIC_SIZE*to + n] += quadrics[QUADRIC_SIZE*from + n];
+            }
+            removedPositions[from] = true;
+
+            pushEdges(to, false);
+            return true;
+        }
+
+        /**
+         * @return the wedge that replaces the given wedge of the collapsed position, or -1 if it is not mapped.
+         */
+        private int getMappedWedge(int wedge) {
+            for (int n = 0; n < wedgeMapSize; n++) {
+                if (wedgeMapFroms[n] == wedge) return wedgeMapTos[n];
+            }
+            return -1;
+        }
+
+        private void markNeighbors(int position, int stamp) {
+            for (int corner = firstCorner[position]; corner != -1; corner = nextCorner[corner]) {
+                if (removedTriangles[corner/3]) continue;
+                marks[getPosition(next(corner))] = stamp;
+                marks[getPosition(previous(corner))] = stamp;
+            }
+        }
+
+        /**
+         * @return a stamp that has not been used to mark positions before, the next stamp is also reserved.
+         */
+        private int nextMarkStamp() {
+            markStamp += 2;
+            return markStamp;
+        }
+
+        private boolean containsPosition(int corner, int position) {
+            return getPosition(next(corner)) == position || getPosition(previous(corner)) == position;
+        }
+
+        private int getPosition(int corner) {
+            return positionOfVertex[corners[corner]];
+        }
+
+        private static int next(int corner) {
+            return corner%3 == 2 ? corner - 2 : corner + 1;
+        }
+
+        private static int previous(int corner) {
+            return corner%3 == 0 ? corner + 2 : corner - 1;
+        }
+
+        /**
+         * @return normal vector of triangle (a, b, c), with a length of twice its area.
+         */
+        private double[] getNormal(int a, int b, int c) {
+            double abx = positions[3*b] - positions[3*a];
+            double aby = positions[3*b + 1] - positions[3*a + 1];
+            double abz = positions[3*b + 2] - positions[3*a + 2];
+            double acx = positions[3*c] - positions[3*a];
+            double acy = positions[3*c + 1] - positions[3*a + 1];
+            double acz = positions[3*c + 2] - positions[3*a + 2];
+            return new double[]{aby*acz - abz*acy, abz*acx - abx*acz, abx*acy - aby*acx};
+        }
+
+        /**
+         * Adds the squared distance to plane ax + by + cz + d = 0 (with (a, b, c) a unit vector), times the given weight,
+         * to the quadric of the given position.
+         */
+        private void addPlane(int position, double a, double b, double c, double d, double weight) {
+            int q = QUADRIC_SIZE*position;
+            quadrics[q] += weight*a*a;
+            quadrics[q + 1] += weight*a*b;
+            quadrics[q + 2] += weight*a*c;
+            quadrics[q + 3] += weight*a*d;
+            quadrics[q + 4] += weight*b*b;
+            quadrics[q + 5] += weight*b*c;
+            quadrics[q + 6] += weight*b*d;
+            quadrics[q + 7] += weight*c*c;
+            quadrics[q + 8] += weight*c*d;
+            quadrics[q + 9] += weight*d*d;
+            quadrics[q + 10] += weight;
+        }
+
+        private void push(double cost, int from, int to) {
+            if (heapSize == heapCosts.length) {
+                heapCosts = Arrays.copyOf(heapCosts, 2*heapSize);
+                heapFroms = Arrays.copyOf(heapFroms, 2*heapSize);
+                heapTos = Arrays.copyOf(heapTos, 2*heapSize);
+            }
+
+            //sift up.
+            int index = heapSize++;
+            while (index > 0) {
+                int parent = (index - 1)/2;
+                if (heapCosts[parent] <= cost) break;
+                setHeapEntry(index, heapCosts[parent], heapFroms[parent], heapTos[parent]);
+                index = parent;
+            }
+            setHeapEntry(index, cost, from, to);
+        }
+
+        private void removeTop() {
+            heapSize--;
+            if (heapSize == 0) return;
+
+            //sift the last entry down from the top.
+            double cost = heapCosts[heapSize];
+            int from = heapFroms[heapSize];
+            int to = heapTos[heapSize];
+            int index = 0;
+            while (true) {
+                int child = 2*index + 1;
+                if (child >= heapSize) break;
+                if (child + 1 < heapSize && heapCosts[child + 1] < heapCosts[child]) child++;
+                if (cost <= heapCosts[child]) break;
+                setHeapEntry(index, heapCosts[child], heapFroms[child], heapTos[child]);
+                index = child;
+            }
+            setHeapEntry(index, cost, from, to);
+        }
+
+        private void setHeapEntry(int index, double cost, int from, int to) {
+            heapCosts[index] = cost;
+            heapFroms[index] = from;
+            heapTos[index] = to;
+        }
+
+        /**
+         * @return mesh with the remaining triangles, which only contains the vertices that are used, in the order of first use.
+         */
+        private Mesh createMesh() {
+            int vertexCount = positionOfVertex.length;
+            int[] newVertices = new int[vertexCount];
+            Arrays.fill(newVertices, -1);
+            int[] oldVertices = new int[vertexCount];
+            int newVertexCount = 0;
+            int[] indices = new int[3*triangleCount];
+            int index = 0;
+            for (int corner = 0; corner < corners.length; corner++) {
+                if (removedTriangles[corner/3]) continue;
+                int vertex = corners[corner];
+                if (newVertices[vertex] == -1) {
+                    newVertices[vertex] = newVertexCount;
+                    oldVertices[newVertexCount++] = vertex;
+                }
+                indices[index++] = newVertices[vertex];
+            }
+
+            float[] normals = mesh.getNormals();
+            float[] colors = mesh.getColors();
+            float[] uvCoordinates = mesh.getUVCoordinates();
+            return new Mesh(gather(positions, 3, oldVertices, newVertexCount), normals == null ? null : gather(normals, 3, oldVertices, newVertexCount),
+                    colors == null ? null : gather(colors, 3, oldVertices, newVertexCount),
+                    uvCoordinates == null ? null : gather(uvCoordinates, 2, oldVertices, newVertexCount), indices);
+        }
+
+        private static float[] gather(float[] values, int dimension, int[] vertices, int vertexCount) {
+            float[] result = new float[dimension*vertexCount];
+            for (int vertex = 0; vertex < vertexCount; vertex++) {
+                System.arraycopy(values, dimension*vertices[vertex], result, dimension*vertex, dimension);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Finds vertices with equal positions (and optionally equal attributes) using a primitive open-addressing hash table.
+     *
+     * @return per vertex the index of the first vertex that is equal to it.
+     */
+    private static int[] weld(Mesh mesh, boolean compareAttributes) {
+        int vertexCount = mesh.getVertexCount();
+        float[][] attributes = compareAttributes ? new float[][]{mesh.getPositions(), mesh.getNormals(), mesh.getColors(), mesh.getUVCoordinates()}
+                                                 : new float[][]{mesh.getPositions()};
+        int[] dimensions = new int[]{3, 3, 3, 2};
+
+        int[] table = new int[Integer.highestOneBit(Math.max(1, 2*vertexCount - 1))*2];
+        Arrays.fill(table, -1);
+        int[] result = new int[vertexCount];
+        for (int vertex = 0; vertex < vertexCount; vertex++) {
+            int hash = 0;
+            for (int n = 0; n < attributes.length; n++) {
+                if (attributes[n] == null) continue;
+                for (int d = 0; d < dimensions[n]; d++) {
+                    hash = hash*31 + Float.floatToIntBits(attributes[n][dimensions[n]*vertex + d]);
+                }
+            }
+            //spread the bits, since the low bits of float bits are often 0.
+            hash ^= hash >>> 16;
+            hash *= 0x45D9F3B;
+            hash ^= hash >>> 16;
+
+            int slot = hash & (table.length - 1);
+            while (table[slot] != -1 && !isEqual(attributes, dimensions, table[slot], vertex)) {
+                slot = (slot + 1) & (table.length - 1);
+            }
+            if (table[slot] == -1) table[slot] = vertex;
+            result[vertex] = table[slot];
+        }
+        return result;
+    }
+
+    private static boolean isEqual(float[][] attributes, int[] dimensions, int vertex1, int vertex2) {
+        for (int n = 0; n < attributes.length; n++) {
+            if (attributes[n] == null) continue;
+            for (int d = 0; d < dimensions[n]; d++) {
+                if (Float.floatToIntBits(attributes[n][dimensions[n]*vertex1 + d]) != Float.floatToIntBits(attributes[n][dimensions[n]*vertex2 + d])) return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Command line tool that writes the levels of detail of a mesh (OBJ, PLY or mesh file) as mesh files (see MeshFile),
+     * named after the output file with the level inserted before the extension, e.g. bunny.lod0.mesh, bunny.lod1.mesh, etc.
+     * The maximum error of each level is given as a fraction of the diagonal of the bounding box of the mesh.
+     *
+     * Usage: MeshSimplifier [--levels n] [--ratio r] [--max-error fraction] inputFile outputFile
+     */
+    public static void main(String[] args) throws Exception {
+        String usage = "Usage: " + MeshSimplifier.class.getSimpleName() + " [--levels n] [--ratio r] [--max-error fraction] inputFile outputFile";
+        int levelCount = 5;
+        float triangleRatio = 0.5f;
+        float maxRelativeError = 0.01f;
+        List<Path> files = new ArrayList<>();
+        try {
+            for (int n = 0; n < args.length; n++) {
+                switch (args[n]) {
+                    case "--levels":
+                        levelCount = Integer.parseInt(args[++n]);
+                        break;
+                    case "--ratio":
+                        triangleRatio = Float.parseFloat(args[++n]);
+                        break;
+                    case "--max-error":
+                        maxRelativeError = Float.parseFloat(args[++n]);
+                        break;
+                    default:
+                        if (files.size() == 2 || args[n].startsWith("--")) throw new IllegalArgumentException("unknown argument " + args[n]);
+                        files.add(Paths.get(args[n]));
+                        break;
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+            System.err.println(usage);
+            System.exit(1);
+        }
+        if (files.size() != 2 || levelCount <= 0 || !(triangleRatio > 0 && triangleRatio < 1) || !(maxRelativeError >= 0)) {
+            System.err.println(usage);
+            System.exit(1);
+        }
+
+        long startTime = System.nanoTime();
+        Path inputFile = files.get(0);
+        String inputName = inputFile.getFileName().toString().toLowerCase(Locale.ROOT);
+        Mesh mesh = inputName.endsWith(".obj") || inputName.endsWith(".ply") ? MeshImporter.importMesh(inputFile) : MeshFile.map(inputFile).toMesh();
+        long importTime = System.nanoTime();
+        float[] bounds = mesh.calculateBounds();
+        float diagonal = (float) Math.sqrt((bounds[3] - bounds[0])*(bounds[3] - bounds[0]) + (bounds[4] - bounds[1])*(bounds[4] - bounds[1])
+                                           + (bounds[5] - bounds[2])*(bounds[5] - bounds[2]));
+        List<Mesh> levels = createLevelsOfDetail(mesh, levelCount, triangleRatio, maxRelativeError*diagonal);
+        long simplifyTime = System.nanoTime();
+
+        String outputName = files.get(1).getFileName().toString();
+        int extensionStart = outputName.lastIndexOf('.') == -1 ? outputName.length() : outputName.lastIndexOf('.');
+        for (int level = 0; level < levels.size(); level++) {
+            Path file = files.get(1).resolveSibling(outputName.substring(0, extensionStart) + ".lod" + level + outputName.substring(extensionStart));
+            MeshFile.write(levels.get(level), file);
+            System.out.println("Level " + level + ": " + levels.get(level).getVertexCount() + " vertices, " + levels.get(level).getTriangleCount()
+                               + " triangles, written to " + file);
+        }
+        System.out.println(String.format("import %.1f ms, simplify %.1f ms", (importTime - startTime)/1e6, (simplifyTime - importTime)/1e6));
+    }
+}
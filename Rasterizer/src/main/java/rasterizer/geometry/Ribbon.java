@@ -0,0 +1,588 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.geometry;
+
+import com.jogamp.opengl.GL3;
+import com.jogamp.opengl.math.Matrix4;
+import com.jogamp.opengl.math.VectorUtil;
+import rasterizer.util.GLResourceManager;
+import rasterizer.util.GLStateTracker;
+import rasterizer.util.MatrixUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A ribbon that follows a curve through 3D space, with multiple levels of detail.
+ *
+ * Level 0 is the most detailed level. Each next level is intended for a ribbon that is twice as small on the screen.
+ * The points along the curve are placed adaptively, such that the distance between the curve and the straight
+ * line pieces between the points (the chord error) is at most maxPixelError pixels on the screen.
+ * The number of vertices in each cross-section of the ribbon is chosen from the projected width of the ribbon.
+ * The geometry for each level is only created (and uploaded) when the level is used for the first time.
+ * The uploaded geometry of levels that have not been used recently can be evicted by the GLResourceManager, it is uploaded again when needed.
+ *
+ * A ribbon can be drawn in two ways. Method draw uploads the triangle strips with every vertex of every cross-section.
+ * Method drawWithGeometryShader only uploads the points along the curve, together with the orientation of the cross-section at each point,
+ * and a geometry shader (see ribbon_geometry_shader.glsl) extrudes each piece of the curve into the cross-sections at draw time.
+ * This uploads 2*(crossSectionVertexCount - 1) times fewer vertices, or crossSectionVertexCount - 1 times fewer bytes.
+ *
+ * @author A.C. Kockx
+ */
+public final class Ribbon {
+    private static final int DIMENSION_COUNT = 3;
+    //the curve is always split into at least this many pieces, so that no bend can be missed completely.
+    private static final int MIN_PIECE_COUNT = 8;
+    //maximum recursion depth when subdividing the curve.
+    private static final int MAX_SUBDIVISION_DEPTH = 12;
+
+    /**
+     * Names of the vertex attributes for method drawWithGeometryShader, besides OpenGLUtils.VERTEX_POSITION.
+     */
+    public static final String VERTEX_HALF_WIDTH_VECTOR = "vertexHalfWidthVector";
+    public static final String VERTEX_TANGENT = "vertexTangent";
+    public static final String VERTEX_BANKING_ANGLE = "vertexBankingAngle";
+    /**
+     * Maximum number of vertices in a cross-section that ribbon_geometry_shader.glsl can create (its max_vertices is twice this).
+     * Method drawWithGeometryShader rejects ribbons whose maxCrossSectionVertexCount is larger.
+     */
+    public static final int MAX_GEOMETRY_SHADER_CROSS_SECTION_VERTEX_COUNT = 64;
+
+    private final Curve curve;
+    private final float width;
+    private final float[] firstSegmentUAxisUnitVector;
+    private final float maxPixelError;
+    private final float pixelsPerCrossSectionVertex;
+    private final int maxCrossSectionVertexCount;
+    //pixels per unit in model space for which level 0 is intended.
+    private final float finestPixelsPerUnit;
+    private final LevelOfDetail[] levels;
+
+    //center and radius of a sphere in model space that contains the entire ribbon.
+    private final float[] boundingSphereCenter;
+    private final float boundingSphereRadius;
+
+    /**
+     * A curve through 3D space.
+     */
+    public interface Curve {
+        /**
+         * @param t ranges from 0 to 1 (both inclusive).
+         * @return coordinates (x, y, z) of the point on the curve for parameter t.
+         */
+        float[] getPosition(float t);
+
+        /**
+         * @param t ranges from 0 to 1 (both inclusive).
+         * @return angle by which the ribbon is rotated about the curve at the point for parameter t.
+         */
+        default float getBankingAngleInDegrees(float t) {
+            return 0;
+        }
+    }
+
+    /**
+     * Geometry of the ribbon for a single level of detail.
+     */
+    public static final class LevelOfDetail {
+        private final int segmentCount;
+        private final int crossSectionVertexCount;
+        private final float width;
+        //for each point along the curve: coordinates (x, y, z), u-axis before banking, tangent (both unit vectors) and banking angle in radians.
+        private final float[] centerlineCoordinates;
+        private final float[] uAxisUnitVectors;
+        private final float[] tangentUnitVectors;
+        private final float[] bankingAngles;
+        //coordinates and u,v-coordinates of all triangle strips, one strip after the other. Only created when needed.
+        private float[] coordinates = null;
+        private float[] uvCoordinates = null;
+        private int vertexArrayObjectId = -1;
+        private int centerlineVertexArrayObjectId = -1;
+
+        private LevelOfDetail(int crossSectionVertexCount, float width, float[] centerlineCoordinates, float[] uAxisUnitVectors,
+                              float[] tangentUnitVectors, float[] bankingAngles) {
+            this.segmentCount = bankingAngles.length;
+            this.crossSectionVertexCount = crossSectionVertexCount;
+            this.width = width;
+            this.centerlineCoordinates = centerlineCoordinates;
+            this.uAxisUnitVectors = uAxisUnitVectors;
+            this.tangentUnitVectors = tangentUnitVectors;
+            this.bankingAngles = bankingAngles;
+        }
+
+        public int getSegmentCount() {
+            return segmentCount;
+        }
+
+        public int getCrossSectionVertexCount() {
+            return crossSectionVertexCount;
+        }
+
+        public int getTriangleStripCount() {
+            return crossSectionVertexCount - 1;
+        }
+
+        public int getVertexCountPerTriangleStrip() {
+            return segmentCount*2;
+        }
+
+        /**
+         * @return coordinates (x, y, z) in model space of all triangle strips, one strip after the other.
+         */
+        public float[] getCoordinates() {
+            if (coordinates == null) createTriangleStrips();
+            return coordinates;
+        }
+
+        /**
+         * @return u,v-coordinates of all triangle strips, one strip after the other.
+         */
+        public float[] getUVCoordinates() {
+            if (uvCoordinates == null) createTriangleStrips();
+            return uvCoordinates;
+        }
+
+        /**
+         * @return coordinates (x, y, z) in model space of the points along the curve, one for each segment.
+         */
+        public float[] getCenterlineCoordinates() {
+            return centerlineCoordinates;
+        }
+
+        private void createTriangleStrips() {
+            //create the vertices of each segment.
+            float[][][] allVertices = new float[segmentCount][][];
+            for (int segmentIndex = 0; segmentIndex < segmentCount; segmentIndex++) {
+                int offset = segmentIndex*DIMENSION_COUNT;
+                float[] center = Arrays.copyOfRange(centerlineCoordinates, offset, offset + DIMENSION_COUNT);
+                float[] uAxisUnitVector = Arrays.copyOfRange(uAxisUnitVectors, offset, offset + DIMENSION_COUNT);
+                float[] tangentUnitVector = Arrays.copyOfRange(tangentUnitVectors, offset, offset + DIMENSION_COUNT);
+                allVertices[segmentIndex] = createRibbonSegment(center, getSegmentDirectionUnitVector(uAxisUnitVector, tangentUnitVector, bankingAngles[segmentIndex]),
+                        width, crossSectionVertexCount);
+            }
+
+            int triangleStripCount = getTriangleStripCount();
+            int vertexCountPerTriangleStrip = getVertexCountPerTriangleStrip();
+            float[] coordinates = new float[triangleStripCount*vertexCountPerTriangleStrip*DIMENSION_COUNT];
+            //all v coordinates are 0.
+            float[] uvCoordinates = new float[triangleStripCount*vertexCountPerTriangleStrip*2];
+            int index = 0;
+            int uvIndex = 0;
+            for (int triangleStripIndex = 0; triangleStripIndex < triangleStripCount; triangleStripIndex++) {
+                float u1 = triangleStripIndex/(crossSectionVertexCount - 1f);
+                float u2 = (triangleStripIndex + 1)/(crossSectionVertexCount - 1f);
+                for (int segmentIndex = 0; segmentIndex < segmentCount; segmentIndex++) {
+                    //uneven vertex.
+                    for (int d = 0; d < DIMENSION_COUNT; d++) {
+                        coordinates[index] = allVertices[segmentIndex][triangleStripIndex][d];
+                        index++;
+                    }
+                    uvCoordinates[uvIndex] = u1;
+                    uvIndex += 2;
+
+                    //even vertex.
+                    for (int d = 0; d < DIMENSION_COUNT; d++) {
+                        coordinates[index] = allVertices[segmentIndex][triangleStripIndex + 1][d];
+                        index++;
+                    }
+                    uvCoordinates[uvIndex] = u2;
+                    uvIndex += 2;
+                }
+            }
+            this.coordinates = coordinates;
+            this.uvCoordinates = uvCoordinates;
+        }
+    }
+
+    /**
+     * @param curve the curve that the center of the ribbon follows.
+     * @param width of the ribbon in model space.
+     * @param firstSegmentUAxisUnitVector orientation of the first cross-section, must be perpendicular to the curve.
+     * @param maxPixelError maximum allowed distance in pixels between the curve and the ribbon on the screen.
+     * @param pixelsPerCrossSectionVertex the number of pixels across the width of the ribbon that is covered by each piece of a cross-section.
+     * @param maxCrossSectionVertexCount the maximum number of vertices in a cross-section.
+     * @param finestPixelsPerUnit the number of pixels per unit in model space for which level 0 is intended.
+     * @param levelCount number of levels of detail.
+     */
+    public Ribbon(Curve curve, float width, float[] firstSegmentUAxisUnitVector, float maxPixelError, float pixelsPerCrossSectionVertex,
+                  int maxCrossSectionVertexCount, float finestPixelsPerUnit, int levelCount) {
+        if (curve == null) throw new IllegalArgumentException("curve == null");
+        if (width <= 0) throw new IllegalArgumentException("width <= 0");
+        if (firstSegmentUAxisUnitVector == null || firstSegmentUAxisUnitVector.length != DIMENSION_COUNT) throw new IllegalArgumentException("firstSegmentUAxisUnitVector must contain " + DIMENSION_COUNT + " coordinates");
+        if (maxPixelError <= 0) throw new IllegalArgumentException("maxPixelError <= 0");
+        if (pixelsPerCrossSectionVertex <= 0) throw new IllegalArgumentException("pixelsPerCrossSectionVertex <= 0");
+        if (maxCrossSectionVertexCount < 2) throw new IllegalArgumentException("maxCrossSectionVertexCount < 2");
+        if (finestPixelsPerUnit <= 0) throw new IllegalArgumentException("finestPixelsPerUnit <= 0");
+        if (levelCount < 1) throw new IllegalArgumentException("levelCount < 1");
+
+        this.curve = curve;
+        this.width = width;
+        this.firstSegmentUAxisUnitVector = firstSegmentUAxisUnitVector.clone();
+        this.maxPixelError = maxPixelError;
+        this.pixelsPerCrossSectionVertex = pixelsPerCrossSectionVertex;
+        this.maxCrossSectionVertexCount = maxCrossSectionVertexCount;
+        this.finestPixelsPerUnit = finestPixelsPerUnit;
+        levels = new LevelOfDetail[levelCount];
+
+        //calculate bounding sphere from a dense sampling of the curve.
+        int sampleCount = 256;
+        float[] min = {Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY};
+        float[] max = {Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+        for (int n = 0; n <= sampleCount; n++) {
+            float[] position = curve.getPosition(n/(float) sampleCount);
+            for (int d = 0; d < DIMENSION_COUNT; d++) {
+                min[d] = Math.min(min[d], position[d]);
+                max[d] = Math.max(max[d], position[d]);
+            }
+        }
+        boundingSphereCenter = new float[DIMENSION_COUNT];
+        for (int d = 0; d < DIMENSION_COUNT; d++) {
+            boundingSphereCenter[d] = (min[d] + max[d])/2;
+        }
+        //the ribbon extends at most width/2 from the curve.
+        boundingSphereRadius = VectorUtil.distVec3(min, max)/2 + width/2;
+    }
+
+    public int getLevelCount() {
+        return levels.length;
+    }
+
+    public float[] getBoundingSphereCenter() {
+        return boundingSphereCenter.clone();
+    }
+
+    public float getBoundingSphereRadius() {
+        return boundingSphereRadius;
+    }
+
+    /**
+     * Selects the level of detail that is needed to draw this ribbon with the given model-view-projection matrix.
+     *
+     * @param mvpMatrix model-view-projection matrix in column-major order.
+     * @param viewportWidth in pixels.
+     * @param viewportHeight in pixels.
+     * @return index of the least detailed level that is still detailed enough.
+     */
+    public int selectLevel(Matrix4 mvpMatrix, int viewportWidth, int viewportHeight) {
+        float pixelsPerUnit = getPixelsPerUnit(mvpMatrix, viewportWidth, viewportHeight);
+        if (pixelsPerUnit <= 0) return levels.length - 1;//if not in front of camera.
+
+        //each next level is intended for half as many pixels per unit.
+        int level = (int) Math.floor(Math.log(finestPixelsPerUnit/pixelsPerUnit)/Math.log(2));
+        return Math.max(0, Math.min(level, levels.length - 1));
+    }
+
+    /**
+     * @return geometry for the given level of detail. The geometry is created if it does not exist yet.
+     */
+    public LevelOfDetail getLevelOfDetail(int level) {
+        if (level < 0 || level >= levels.length) throw new IllegalArgumentException("level " + level + " out of range");
+
+        if (levels[level] == null) {
+            float pixelsPerUnit = finestPixelsPerUnit/(1 << level);
+            float chordTolerance = maxPixelError/pixelsPerUnit;
+            int crossSectionVertexCount = (int) Math.ceil(width*pixelsPerUnit/pixelsPerCrossSectionVertex) + 1;
+            crossSectionVertexCount = Math.max(2, Math.min(crossSectionVertexCount, maxCrossSectionVertexCount));
+            levels[level] = createLevelOfDetail(chordTolerance, crossSectionVertexCount);
+        }
+        return levels[level];
+    }
+
+    /**
+     * Draws the given level of detail using the currently active shader program.
+     * The geometry for the level is uploaded if this has not been done before.
+     * Ribbons that share the same level of detail also share its vertex array object, so drawing them one after the other
+     * binds it only once (see GLStateTracker).
+     */
+    public void draw(GL3 gl, GLStateTracker glState, GLResourceManager resources, int level) {
+        LevelOfDetail levelOfDetail = getLevelOfDetail(level);
+        if (levelOfDetail.vertexArrayObjectId == -1) {
+            levelOfDetail.vertexArrayObjectId = resources.createVertexArray(gl, new int[]{DIMENSION_COUNT, 2},
+                    new float[][]{levelOfDetail.getCoordinates(), levelOfDetail.getUVCoordinates()},
+                    vertexArrayObjectId -> levelOfDetail.vertexArrayObjectId = -1);
+            //createVertexArray changes the bindings directly.
+            glState.invalidate();
+        } else {
+            resources.touch(GLResourceManager.ResourceType.VERTEX_ARRAY, levelOfDetail.vertexArrayObjectId);
+        }
+
+        glState.bindVertexArray(gl, levelOfDetail.vertexArrayObjectId);
+        int vertexCountPerTriangleStrip = levelOfDetail.getVertexCountPerTriangleStrip();
+        for (int triangleStripIndex = 0; triangleStripIndex < levelOfDetail.getTriangleStripCount(); triangleStripIndex++) {
+            gl.glDrawArrays(GL3.GL_TRIANGLE_STRIP, triangleStripIndex*vertexCountPerTriangleStrip, vertexCountPerTriangleStrip);
+        }
+    }
+
+    public int getMaxCrossSectionVertexCount() {
+        return maxCrossSectionVertexCount;
+    }
+
+    /**
+     * Draws the given level of detail as a single line strip along the curve, using the currently active shader program,
+     * which must consist of ribbon_centerline_vertex_shader.glsl, ribbon_geometry_shader.glsl and a fragment shader.
+     * The vertex attributes of the program must be OpenGLUtils.VERTEX_POSITION, VERTEX_HALF_WIDTH_VECTOR, VERTEX_TANGENT and VERTEX_BANKING_ANGLE, in that order.
+     * Only the points along the curve are uploaded, if this has not been done before.
+     * The geometry shader can only create cross-sections of at most MAX_GEOMETRY_SHADER_CROSS_SECTION_VERTEX_COUNT vertices,
+     * so this throws an IllegalStateException for a ribbon with a larger maxCrossSectionVertexCount, instead of drawing fewer vertices than method draw.
+     *
+     * @param crossSectionVertexCountUniformIndex location of uniform crossSectionVertexCount in the active shader program.
+     */
+    public void drawWithGeometryShader(GL3 gl, GLStateTracker glState, GLResourceManager resources, int level, int crossSectionVertexCountUniformIndex) {
+        if (maxCrossSectionVertexCount > MAX_GEOMETRY_SHADER_CROSS_SECTION_VERTEX_COUNT) {
+            throw new IllegalStateException("maxCrossSectionVertexCount " + maxCrossSectionVertexCount + " > "
+                                            + MAX_GEOMETRY_SHADER_CROSS_SECTION_VERTEX_COUNT + ", too large for the geometry shader");
+        }
+        LevelOfDetail levelOfDetail = getLevelOfDetail(level);
+        if (levelOfDetail.centerlineVertexArrayObjectId == -1) {
+            //the width is included in the uploaded u-axes, so that all ribbons can share the same shader program.
+            float[] halfWidthVectors = new float[levelOfDetail.uAxisUnitVectors.length];
+            for (int index = 0; index < halfWidthVectors.length; index++) {
+                halfWidthVectors[index] = levelOfDetail.uAxisUnitVectors[index]*width/2;
+            }
+            levelOfDetail.centerlineVertexArrayObjectId = resources.createVertexArray(gl, new int[]{DIMENSION_COUNT, DIMENSION_COUNT, DIMENSION_COUNT, 1},
+                    new float[][]{levelOfDetail.centerlineCoordinates, halfWidthVectors, levelOfDetail.tangentUnitVectors, levelOfDetail.bankingAngles},
+                    vertexArrayObjectId -> levelOfDetail.centerlineVertexArrayObjectId = -1);
+            //createVertexArray changes the bindings directly.
+            glState.invalidate();
+        } else {
+            resources.touch(GLResourceManager.ResourceType.VERTEX_ARRAY, levelOfDetail.centerlineVertexArrayObjectId);
+        }
+
+        glState.bindVertexArray(gl, levelOfDetail.centerlineVertexArrayObjectId);
+        glState.uniform1i(gl, crossSectionVertexCountUniformIndex, levelOfDetail.crossSectionVertexCount);
+        gl.glDrawArrays(GL3.GL_LINE_STRIP, 0, levelOfDetail.segmentCount);
+    }
+
+    /**
+     * Deletes the uploaded geometry of all levels of detail, e.g. when this ribbon is replaced by a ribbon with other parameters.
+     */
+    public void dispose(GL3 gl, GLResourceManager resources) {
+        for (LevelOfDetail levelOfDetail : levels) {
+            if (levelOfDetail == null) continue;
+
+            if (levelOfDetail.vertexArrayObjectId != -1) {
+                resources.release(gl, GLResourceManager.ResourceType.VERTEX_ARRAY, levelOfDetail.vertexArrayObjectId);
+                levelOfDetail.vertexArrayObjectId = -1;
+            }
+            if (levelOfDetail.centerlineVertexArrayObjectId != -1) {
+                resources.release(gl, GLResourceManager.ResourceType.VERTEX_ARRAY, levelOfDetail.centerlineVertexArrayObjectId);
+                levelOfDetail.centerlineVertexArrayObjectId = -1;
+            }
+        }
+    }
+
+    /**
+     * @return the number of pixels on the screen that corresponds to one unit in model space at the center of this ribbon,
+     *         or 0 if the center of this ribbon is not in front of the camera.
+     */
+    private float getPixelsPerUnit(Matrix4 mvpMatrix, int viewportWidth, int viewportHeight) {
+        float[] center = MatrixUtils.multiply(mvpMatrix, new float[]{boundingSphereCenter[0], boundingSphereCenter[1], boundingSphereCenter[2], 1});
+        if (center[3] <= 0) return 0;
+
+        //project a displacement along each model axis and use the largest resulting distance on the screen.
+        float maxPixelDistance = 0;
+        for (int axis = 0; axis < DIMENSION_COUNT; axis++) {
+            float[] point = new float[]{boundingSphereCenter[0], boundingSphereCenter[1], boundingSphereCenter[2], 1};
+            point[axis] += boundingSphereRadius;
+            float[] projectedPoint = MatrixUtils.multiply(mvpMatrix, point);
+            if (projectedPoint[3] <= 0) continue;
+
+            //convert normalized device coordinates to pixels.
+            float dx = (projectedPoint[0]/projectedPoint[3] - center[0]/center[3])*viewportWidth/2;
+            float dy = (projectedPoint[1]/projectedPoint[3] - center[1]/center[3])*viewportHeight/2;
+            maxPixelDistance = Math.max(maxPixelDistance, (float) Math.sqrt(dx*dx + dy*dy));
+        }
+        return maxPixelDistance/boundingSphereRadius;
+    }
+
+    private LevelOfDetail createLevelOfDetail(float chordTolerance, int crossSectionVertexCount) {
+        //place points along the curve.
+        float[] parameters = sampleCurve(chordTolerance);
+        int pointCount = parameters.length;
+        float[][] points = new float[pointCount][];
+        float[] bankingAnglesInDegrees = new float[pointCount];
+        for (int pointIndex = 0; pointIndex < pointCount; pointIndex++) {
+            points[pointIndex] = curve.getPosition(parameters[pointIndex]);
+            bankingAnglesInDegrees[pointIndex] = curve.getBankingAngleInDegrees(parameters[pointIndex]);
+        }
+
+        //calculate the orientation of each segment, the triangle strips are only created when needed.
+        float[][][] frames = createRibbonFrames(points, firstSegmentUAxisUnitVector);
+        float[] centerlineCoordinates = new float[pointCount*DIMENSION_COUNT];
+        float[] uAxisUnitVectors = new float[pointCount*DIMENSION_COUNT];
+        float[] tangentUnitVectors = new float[pointCount*DIMENSION_COUNT];
+        float[] bankingAngles = new float[pointCount];
+        for (int pointIndex = 0; pointIndex < pointCount; pointIndex++) {
+            System.arraycopy(points[pointIndex], 0, centerlineCoordinates, pointIndex*DIMENSION_COUNT, DIMENSION_COUNT);
+            System.arraycopy(frames[pointIndex][0], 0, uAxisUnitVectors, pointIndex*DIMENSION_COUNT, DIMENSION_COUNT);
+            System.arraycopy(frames[pointIndex][1], 0, tangentUnitVectors, pointIndex*DIMENSION_COUNT, DIMENSION_COUNT);
+            bankingAngles[pointIndex] = (float) Math.toRadians(bankingAnglesInDegrees[pointIndex]);
+        }
+
+        return new LevelOfDetail(crossSectionVertexCount, width, centerlineCoordinates, uAxisUnitVectors, tangentUnitVectors, bankingAngles);
+    }
+
+    /**
+     * Places points along the curve, such that the distance between the curve and the straight
+     * line pieces between consecutive points is at most the given chordTolerance.
+     * Strongly curved parts of the curve get more points than straight parts.
+     *
+     * @return the curve parameter t for each point, in increasing order.
+     */
+    private float[] sampleCurve(float chordTolerance) {
+        List<Float> parameters = new ArrayList<>();
+        parameters.add(0f);
+        for (int piece = 0; piece < MIN_PIECE_COUNT; piece++) {
+            float t1 = piece/(float) MIN_PIECE_COUNT;
+            float t2 = (piece + 1)/(float) MIN_PIECE_COUNT;
+            subdivide(t1, curve.getPosition(t1), t2, curve.getPosition(t2), chordTolerance, 0, parameters);
+        }
+
+        float[] result = new float[parameters.size()];
+        for (int n = 0; n < result.length; n++) {
+            result[n] = parameters.get(n);
+        }
+        return result;
+    }
+
+    /**
+     * Adds the parameters of all points after t1 up to and including t2 to the given list.
+     */
+    private void subdivide(float t1, float[] p1, float t2, float[] p2, float chordTolerance, int depth, List<Float> parameters) {
+        float tMiddle = (t1 + t2)/2;
+        float[] pMiddle = curve.getPosition(tMiddle);
+
+        //check the middle and the quarter points, so that an S-shaped piece of which the middle lies on the chord is not missed.
+        boolean withinTolerance = getDistanceToLineSegment(pMiddle, p1, p2) <= chordTolerance
+                && getDistanceToLineSegment(curve.getPosition((t1 + tMiddle)/2), p1, p2) <= chordTolerance
+                && getDistanceToLineSegment(curve.getPosition((tMiddle + t2)/2), p1, p2) <= chordTolerance;
+        if (withinTolerance || depth >= MAX_SUBDIVISION_DEPTH) {
+            parameters.add(t2);
+            return;
+        }
+
+        subdivide(t1, p1, tMiddle, pMiddle, chordTolerance, depth + 1, parameters);
+        subdivide(tMiddle, pMiddle, t2, p2, chordTolerance, depth + 1, parameters);
+    }
+
+    private static float getDistanceToLineSegment(float[] point, float[] start, float[] end) {
+        float[] direction = VectorUtil.subVec3(new float[DIMENSION_COUNT], end, start);
+        float[] offset = VectorUtil.subVec3(new float[DIMENSION_COUNT], point, start);
+        float lengthSquared = VectorUtil.normSquareVec3(direction);
+        float s = lengthSquared > 0 ? VectorUtil.dotVec3(offset, direction)/lengthSquared : 0;
+        s = Math.max(0, Math.min(s, 1));
+
+        float[] closestPoint = new float[DIMENSION_COUNT];
+        for (int d = 0; d < DIMENSION_COUNT; d++) {
+            closestPoint[d] = start[d] + s*direction[d];
+        }
+        return VectorUtil.distVec3(point, closestPoint);
+    }
+
+    /**
+     * Creates a ribbon along the given curve.
+     *
+     * The ribbon follows a curve in 3D space that is described by the given list of points.
+     * For each point, the ribbon has one segment. A segment consists of a set of vertices,
+     * that are positioned equidistantly along a line piece that is centered on the point corresponding to the segment.
+     * The line piece has a length equal to the given width.
+     * The line piece of the first segment is oriented along the given firstSegmentUAxisUnitVector,
+     * which must be perpendicular to the curve.
+     * The orientation of each next segment is such that it is perpendicular to the curve
+     * and as close as possible to the orientation of the previous segment.
+     * In other words if there is a bend in the curve, then the segments are rotated to follow the bend.
+     *
+     * Afterwards the orientation of each segment is rotated by the corresponding banking angle
+     * about an axis tangential to the curve at the segment position.
+     */
+    public static float[][][] createRibbonGeometry(float[][] points, float width, float[] firstSegmentUAxisUnitVector, float[] bankingAnglesInDegrees,
+                                                   int vertexCountPerSegment) {
+        int segmentCount = points.length;
+        float[][][] allVertices = new float[segmentCount][][];
+
+        //create segments.
+        float[][][] frames = createRibbonFrames(points, firstSegmentUAxisUnitVector);
+        for (int segmentIndex = 0; segmentIndex < segmentCount; segmentIndex++) {
+            float[] segmentDirectionUnitVector = getSegmentDirectionUnitVector(frames[segmentIndex][0], frames[segmentIndex][1],
+                    (float) Math.toRadians(bankingAnglesInDegrees[segmentIndex]));
+            allVertices[segmentIndex] = createRibbonSegment(points[segmentIndex], segmentDirectionUnitVector, width, vertexCountPerSegment);
+        }
+
+        return allVertices;
+    }
+
+    /**
+     * Calculates the orientation of each segment before banking, as described for method createRibbonGeometry.
+     *
+     * @return for each point the u-axis unit vector (index 0) and the unit vector tangential to the curve (index 1).
+     */
+    private static float[][][] createRibbonFrames(float[][] points, float[] firstSegmentUAxisUnitVector) {
+        int segmentCount = points.length;
+        int dimensionCount = points[0].length;
+        float[][][] frames = new float[segmentCount][][];
+
+        float[] previousPosition = points[0];
+        float[] previousUAxisUnitVector = firstSegmentUAxisUnitVector;
+        for (int segmentIndex = 0; segmentIndex < segmentCount; segmentIndex++) {
+            float[] currentPosition = points[segmentIndex];
+            float[] nextPosition;
+            if (segmentIndex < segmentCount - 1) {
+                nextPosition = points[segmentIndex + 1];
+            } else {//if last segment.
+                nextPosition = currentPosition;
+            }
+
+            //project previous u-axis on a plane perpendicular to the curve to get new u-axis.
+            float[] tangentUnitVector = new float[dimensionCount];
+            for (int d = 0; d < dimensionCount; d++) {
+                tangentUnitVector[d] = nextPosition[d] - previousPosition[d];
+            }
+            VectorUtil.normalizeVec3(tangentUnitVector);
+            //this code assumes that two consecutive pieces of the curve never make a 90 degree angle.
+            float[] vAxisUnitVector = VectorUtil.crossVec3(new float[dimensionCount], previousUAxisUnitVector, tangentUnitVector);
+            VectorUtil.normalizeVec3(vAxisUnitVector);
+            float[] uAxisUnitVector = VectorUtil.crossVec3(new float[dimensionCount], tangentUnitVector, vAxisUnitVector);
+            VectorUtil.normalizeVec3(uAxisUnitVector);
+
+            frames[segmentIndex] = new float[][]{uAxisUnitVector, tangentUnitVector};
+
+            previousPosition = currentPosition;
+            previousUAxisUnitVector = uAxisUnitVector;
+        }
+
+        return frames;
+    }
+
+    /**
+     * Rotates the given u-axis by bankingAngle about an axis parallel to tangentUnitVector in the direction from u-axis to v-axis.
+     * ribbon_centerline_vertex_shader.glsl does the same on the GPU.
+     */
+    private static float[] getSegmentDirectionUnitVector(float[] uAxisUnitVector, float[] tangentUnitVector, float bankingAngle) {
+        Matrix4 rotationMatrix = new Matrix4();
+        rotationMatrix.rotate(bankingAngle, -tangentUnitVector[0], -tangentUnitVector[1], -tangentUnitVector[2]);
+        float[] segmentDirectionUnitVector = MatrixUtils.multiply(rotationMatrix, new float[]{uAxisUnitVector[0], uAxisUnitVector[1], uAxisUnitVector[2], 0});
+        return new float[]{segmentDirectionUnitVector[0], segmentDirectionUnitVector[1], segmentDirectionUnitVector[2]};
+    }
+
+    /**
+     * Creates vertexCount vertices positioned equidistantly along a line piece with the given length.
+     * The line piece is oriented along the direction of the given directionUnitVector and centered on the given centerCoordinates.
+     */
+    private static float[][] createRibbonSegment(float[] centerCoordinates, float[] directionUnitVector, float length, int vertexCount) {
+        int dimensionCount = centerCoordinates.length;
+        float[][] segmentVertexCoordinates = new float[vertexCount][dimensionCount];
+
+        for (int vertexIndex = 0; vertexIndex < vertexCount; vertexIndex++) {
+            //parameter u ranges from -length/2 to length/2 (both inclusive).
+            float u = length*vertexIndex/(vertexCount - 1f) - length/2;
+
+            for (int d = 0; d < dimensionCount; d++) {
+                segmentVertexCoordinates[vertexIndex][d] = centerCoordinates[d] + u*directionUnitVector[d];
+            }
+        }
+
+        return segmentVertexCoordinates;
+    }
+}
@@ -0,0 +1,443 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.lighting;
+
+import com.jogamp.common.nio.Buffers;
+import com.jogamp.opengl.GL3;
+import com.jogamp.opengl.math.Matrix4;
+import rasterizer.util.GLStateTracker;
+
+import java.nio.Buffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Clustered forward shading: divides the view frustum into a 3D grid of clusters and stores for each cluster
+ * the lights whose range overlaps it. A fragment shader then only evaluates the lights of the cluster that contains the fragment
+ * (see clustered_phong_fragment_shader.glsl), so the cost per fragment depends on the number of lights nearby,
+ * not on the total number of lights.
+ *
+ * The clusters divide the screen into tiles of equal size and the depth range into slices whose thickness increases
+ * exponentially with the distance from the camera, so that clusters are roughly cube-shaped at all distances.
+ * The lights are assigned to the clusters on the CPU every frame (in parallel, one depth slice per task)
+ * and are uploaded to buffer textures. The number of lights per cluster is limited, when more lights overlap a cluster
+ * then the lights that are brightest at the center of the cluster are used.
+ *
+ * @author A.C. Kockx
+ */
+public final class ClusteredLights {
+    public static final String LIGHT_DATA = "lightData";
+    public static final String CLUSTERS = "clusters";
+    public static final String LIGHT_INDICES = "lightIndices";
+    public static final String CLUSTER_COUNTS = "clusterCounts";
+    public static final String VIEWPORT_SIZE = "viewportSize";
+    public static final String CLUSTER_DEPTH_SCALE = "clusterDepthScale";
+    public static final String CLUSTER_DEPTH_BIAS = "clusterDepthBias";
+
+    private final int clusterCountX;
+    private final int clusterCountY;
+    private final int clusterCountZ;
+    private final int maxLightsPerCluster;
+
+    //bounding box of each cluster in camera space (minX, minY, minZ, maxX, maxY, maxZ), null until setProjection is called.
+    private float[] clusterBounds = null;
+    private float zNear = 0;
+    private float zFar = 0;
+
+    //lights in camera space (x, y, z, range) and intensities, as of the last update.
+    private float[] lightPositions = new float[0];
+    private float[] lightIntensities = new float[0];
+    private int lightCount = 0;
+    //result of the last update: offset in lightIndices and light count for each cluster.
+    private final int[] clusterOffsets;
+    private final int[] clusterLightCounts;
+    private int[] lightIndices = new int[0];
+    private int maxClusterLightCount = 0;
+    private final SliceWorkspace[] workspaces;
+
+    //buffers (and the buffer textures that give the shader access to them) for the light data, the clusters and the light indices.
+    private final int[] bufferIds = new int[3];
+    private final int[] textureIds = new int[3];
+    //data to upload to the buffers, reused between frames.
+    private FloatBuffer lightData = Buffers.newDirectFloatBuffer(8);
+    private final IntBuffer clusterData;
+    private IntBuffer indexData = Buffers.newDirectIntBuffer(1);
+
+    /**
+     * Creates the buffers and buffer textures that are used to pass the lights to the shader.
+     *
+     * @param clusterCountX number of clusters in horizontal direction on the screen.
+     * @param clusterCountY number of clusters in vertical direction on the screen.
+     * @param clusterCountZ number of depth slices.
+     * @param maxLightsPerCluster maximum number of lights that is evaluated per fragment.
+     */
+    public ClusteredLights(GL3 gl, int clusterCountX, int clusterCountY, int clusterCountZ, int maxLightsPerCluster) {
+        if (clusterCountX <= 0) throw new IllegalArgumentException("clusterCountX <= 0");
+        if (clusterCountY <= 0) throw new IllegalArgumentException("clusterCountY <= 0");
+        if (clusterCountZ <= 0) throw new IllegalArgumentException("clusterCountZ <= 0");
+        if (maxLightsPerCluster <= 0) throw new IllegalArgumentException("maxLightsPerCluster <= 0");
+
+        this.clusterCountX = clusterCountX;
+        this.clusterCountY = clusterCountY;
+        this.clusterCountZ = clusterCountZ;
+        this.maxLightsPerCluster = maxLightsPerCluster;
+        int clusterCount = clusterCountX*clusterCountY*clusterCountZ;
+        clusterOffsets = new int[clusterCount];
+        clusterLightCounts = new int[clusterCount];
+        clusterData = Buffers.newDirectIntBuffer(clusterCount*2);
+        workspaces = new SliceWorkspace[clusterCountZ];
+        for (int slice = 0; slice < clusterCountZ; slice++) {
+            workspaces[slice] = new SliceWorkspace();
+        }
+
+        gl.glGenBuffers(3, bufferIds, 0);
+        gl.glGenTextures(3, textureIds, 0);
+        int[] internalFormats = new int[]{GL3.GL_RGBA32F, GL3.GL_RG32UI, GL3.GL_R32UI};
+        for (int n = 0; n < 3; n++) {
+            gl.glBindBuffer(GL3.GL_TEXTURE_BUFFER, bufferIds[n]);
+            //a buffer texture must not be attached to an empty buffer.
+            gl.glBufferData(GL3.GL_TEXTURE_BUFFER, 16, null, GL3.GL_STREAM_DRAW);
+            gl.glBindTexture(GL3.GL_TEXTURE_BUFFER, textureIds[n]);
+            gl.glTexBuffer(GL3.GL_TEXTURE_BUFFER, internalFormats[n], bufferIds[n]);
+        }
+        gl.glBindTexture(GL3.GL_TEXTURE_BUFFER, 0);
+        gl.glBindBuffer(GL3.GL_TEXTURE_BUFFER, 0);
+    }
+
+    /**
+     * Calculates the bounds of the clusters. This must be called (at least) whenever the projection matrix changes,
+     * with the same arguments as used for MatrixUtils.createPerspectiveProjectionMatrix.
+     */
+    public void setProjection(float fieldOfViewInDegrees, float aspectRatio, float zNear, float zFar) {
+        if (fieldOfViewInDegrees <= 0) throw new IllegalArgumentException("fieldOfViewInDegrees <= 0");
+        if (fieldOfViewInDegrees >= 180) throw new IllegalArgumentException("fieldOfViewInDegrees >= 180");
+        if (aspectRatio <= 0) throw new IllegalArgumentException("aspectRatio <= 0");
+        if (zNear <= 0) throw new IllegalArgumentException("zNear <= 0");
+        if (zFar <= zNear) throw new IllegalArgumentException("zFar <= zNear");
+
+        this.zNear = zNear;
+        this.zFar = zFar;
+        float tanY = (float) Math.tan(Math.toRadians(fieldOfViewInDegrees)/2);
+        float tanX = tanY*aspectRatio;
+
+        float[] bounds = new float[clusterCountX*clusterCountY*clusterCountZ*6];
+        for (int k = 0; k < clusterCountZ; k++) {
+            //distances from the camera to the near and far side of the slice.
+            float near = getSliceDistance(k);
+            float far = getSliceDistance(k + 1);
+            for (int j = 0; j < clusterCountY; j++) {
+                float bottom = (2*j/(float) clusterCountY - 1)*tanY;
+                float top = (2*(j + 1)/(float) clusterCountY - 1)*tanY;
+                for (int i = 0; i < clusterCountX; i++) {
+                    float left = (2*i/(float) clusterCountX - 1)*tanX;
+                    float right = (2*(i + 1)/(float) clusterCountX - 1)*tanX;
+
+                    //the sides of a cluster are planes through the camera, so the extremes are at the near or at the far side.
+                    int offset = getClusterIndex(i, j, k)*6;
+                    bounds[offset] = Math.min(left*near, left*far);
+                    bounds[offset + 1] = Math.min(bottom*near, bottom*far);
+                    bounds[offset + 2] = -far;
+                    bounds[offset + 3] = Math.max(right*near, right*far);
+                    bounds[offset + 4] = Math.max(top*near, top*far);
+                    bounds[offset + 5] = -near;
+                }
+            }
+        }
+        clusterBounds = bounds;
+    }
+
+    private float getSliceDistance(int slice) {
+        return (float) (zNear*Math.pow(zFar/zNear, slice/(double) clusterCountZ));
+    }
+
+    private int getClusterIndex(int i, int j, int k) {
+        return (k*clusterCountY + j)*clusterCountX + i;
+    }
+
+    /**
+     * Assigns the given lights to the clusters and uploads the result. This must be called every frame
+     * (or whenever the view matrix or a light changes) before drawing with the lights.
+     *
+     * @param viewMatrix in column-major order.
+     */
+    public void update(GL3 gl, Matrix4 viewMatrix, List<PointLight> lights) {
+        if (clusterBounds == null) throw new IllegalStateException("setProjection has not been called");
+
+        //transform lights to camera space.
+        lightCount = lights.size();
+        if (lightPositions.length < lightCount*4) {
+            lightPositions = new float[lightCount*4];
+            lightIntensities = new float[lightCount*4];
+        }
+        float[] m = viewMatrix.getMatrix();
+        for (int n = 0; n < lightCount; n++) {
+            PointLight light = lights.get(n);
+            float x = light.getX();
+            float y = light.getY();
+            float z = light.getZ();
+            lightPositions[n*4] = m[0]*x + m[4]*y + m[8]*z + m[12];
+            lightPositions[n*4 + 1] = m[1]*x + m[5]*y + m[9]*z + m[13];
+            lightPositions[n*4 + 2] = m[2]*x + m[6]*y + m[10]*z + m[14];
+            lightPositions[n*4 + 3] = light.getRange();
+            for (int component = 0; component < 3; component++) {
+                lightIntensities[n*4 + component] = light.getIntensity(component);
+            }
+            lightIntensities[n*4 + 3] = 0;
+        }
+
+        //each slice is assigned independently into its own workspace, then the results are concatenated.
+        IntStream.range(0, clusterCountZ).parallel().forEach(this::assignSlice);
+        int totalCount = 0;
+        for (SliceWorkspace workspace : workspaces) {
+            totalCount += workspace.size;
+        }
+        if (lightIndices.length < totalCount) lightIndices = new int[totalCount];
+        int offset = 0;
+        maxClusterLightCount = 0;
+        for (int k = 0; k < clusterCountZ; k++) {
+            SliceWorkspace workspace = workspaces[k];
+            System.arraycopy(workspace.indices, 0, lightIndices, offset, workspace.size);
+            int sliceStart = getClusterIndex(0, 0, k);
+            for (int cluster = sliceStart; cluster < sliceStart + clusterCountX*clusterCountY; cluster++) {
+                clusterOffsets[cluster] += offset;
+                maxClusterLightCount = Math.max(maxClusterLightCount, clusterLightCounts[cluster]);
+            }
+            offset += workspace.size;
+        }
+
+        upload(gl, totalCount);
+    }
+
+    /**
+     * Assigns the lights to the clusters of the given depth slice. Writes only to the workspace of the slice
+     * and to the clusters of the slice, so slices can be processed concurrently.
+     */
+    private void assignSlice(int k) {
+        SliceWorkspace workspace = workspaces[k];
+        workspace.size = 0;
+        workspace.ensureCandidateCapacity(lightCount);
+
+        //lights that overlap the depth range of the slice.
+        float sliceMinZ = -getSliceDistance(k + 1);
+        float sliceMaxZ = -getSliceDistance(k);
+        int sliceCandidateCount = 0;
+        for (int n = 0; n < lightCount; n++) {
+            float z = lightPositions[n*4 + 2];
+            float range = lightPositions[n*4 + 3];
+            if (z - range <= sliceMaxZ && z + range >= sliceMinZ) workspace.sliceCandidates[sliceCandidateCount++] = n;
+        }
+
+        for (int j = 0; j < clusterCountY; j++) {
+            //lights that overlap the row of clusters.
+            int rowStart = getClusterIndex(0, j, k)*6;
+            int rowEnd = getClusterIndex(clusterCountX - 1, j, k)*6;
+            float rowMinY = Math.min(clusterBounds[rowStart + 1], clusterBounds[rowEnd + 1]);
+            float rowMaxY = Math.max(clusterBounds[rowStart + 4], clusterBounds[rowEnd + 4]);
+            int rowCandidateCount = 0;
+            for (int c = 0; c < sliceCandidateCount; c++) {
+                int n = workspace.sliceCandidates[c];
+                float y = lightPositions[n*4 + 1];
+                float range = lightPositions[n*4 + 3];
+                if (y - range <= rowMaxY && y + range >= rowMinY) workspace.rowCandidates[rowCandidateCount++] = n;
+            }
+
+            for (int i = 0; i < clusterCountX; i++) {
+                int cluster = getClusterIndex(i, j, k);
+                int start = workspace.size;
+                for (int c = 0; c < rowCandidateCount; c++) {
+                    int n = workspace.rowCandidates[c];
+                    if (overlaps(cluster, n)) workspace.add(n);
+                }
+                int count = workspace.size - start;
+                if (count > maxLightsPerCluster) {
+                    selectBrightest(workspace, cluster, start, count);
+                    count = maxLightsPerCluster;
+                    workspace.size = start + count;
+                }
+
+                //offset relative to the start of the slice, made absolute when the slices are concatenated.
+                clusterOffsets[cluster] = start;
+                clusterLightCounts[cluster] = count;
+            }
+        }
+    }
+
+    /**
+     * @return true if the sphere of influence of the given light intersects the bounding box of the given cluster.
+     */
+    private boolean overlaps(int cluster, int light) {
+        float distanceSquared = 0;
+        for (int axis = 0; axis < 3; axis++) {
+            float value = lightPositions[light*4 + axis];
+            float min = clusterBounds[cluster*6 + axis];
+            float max = clusterBounds[cluster*6 + 3 + axis];
+            if (value < min) {
+                distanceSquared += (min - value)*(min - value);
+            } else if (value > max) {
+                distanceSquared += (value - max)*(value - max);
+            }
+        }
+        float range = lightPositions[light*4 + 3];
+        return distanceSquared <= range*range;
+    }
+
+    /**
+     * Moves the maxLightsPerCluster lights with the highest incident intensity at the center of the given cluster
+     * to the start of the given part of the workspace.
+     */
+    private void selectBrightest(SliceWorkspace workspace, int cluster, int start, int count) {
+        float centerX = (clusterBounds[cluster*6] + clusterBounds[cluster*6 + 3])/2;
+        float centerY = (clusterBounds[cluster*6 + 1] + clusterBounds[cluster*6 + 4])/2;
+        float centerZ = (clusterBounds[cluster*6 + 2] + clusterBounds[cluster*6 + 5])/2;
+        float[] scores = workspace.ensureScoreCapacity(count);
+        for (int c = 0; c < count; c++) {
+            int n = workspace.indices[start + c];
+            float dx = lightPositions[n*4] - centerX;
+            float dy = lightPositions[n*4 + 1] - centerY;
+            float dz = lightPositions[n*4 + 2] - centerZ;
+            float maxIntensity = Math.max(lightIntensities[n*4], Math.max(lightIntensities[n*4 + 1], lightIntensities[n*4 + 2]));
+            scores[c] = maxIntensity/Math.max(dx*dx + dy*dy + dz*dz, 1e-6f);
+        }
+
+        //partial selection sort, maxLightsPerCluster is small.
+        for (int selected = 0; selected < maxLightsPerCluster; selected++) {
+            int best = selected;
+            for (int c = selected + 1; c < count; c++) {
+                if (scores[c] > scores[best]) best = c;
+            }
+            float score = scores[selected];
+            scores[selected] = scores[best];
+            scores[best] = score;
+            int index = workspace.indices[start + selected];
+            workspace.indices[start + selected] = workspace.indices[start + best];
+            workspace.indices[start + best] = index;
+        }
+    }
+
+    private void upload(GL3 gl, int indexCount) {
+        //the buffers are orphaned every frame, so that the driver does not have to wait until the previous frame is drawn.
+        if (lightData.capacity() < lightCount*8) lightData = Buffers.newDirectFloatBuffer(lightCount*8);
+        lightData.clear();
+        for (int n = 0; n < lightCount; n++) {
+            lightData.put(lightPositions, n*4, 4);
+            lightData.put(lightIntensities, n*4, 4);
+        }
+        lightData.flip();
+        clusterData.clear();
+        for (int cluster = 0; cluster < clusterOffsets.length; cluster++) {
+            clusterData.put(clusterOffsets[cluster]);
+            clusterData.put(clusterLightCounts[cluster]);
+        }
+        clusterData.flip();
+        if (indexData.capacity() < indexCount) indexData = Buffers.newDirectIntBuffer(indexCount);
+        indexData.clear();
+        indexData.put(lightIndices, 0, indexCount);
+        indexData.flip();
+
+        uploadBuffer(gl, bufferIds[0], lightData, Buffers.SIZEOF_FLOAT);
+        uploadBuffer(gl, bufferIds[1], clusterData, Buffers.SIZEOF_INT);
+        uploadBuffer(gl, bufferIds[2], indexData, Buffers.SIZEOF_INT);
+    }
+
+    private static void uploadBuffer(GL3 gl, int bufferId, Buffer data, int elementSize) {
+        gl.glBindBuffer(GL3.GL_TEXTURE_BUFFER, bufferId);
+        if (data.limit() == 0) {
+            //a buffer texture must not be attached to an empty buffer.
+            gl.glBufferData(GL3.GL_TEXTURE_BUFFER, 16, null, GL3.GL_STREAM_DRAW);
+        } else {
+            gl.glBufferData(GL3.GL_TEXTURE_BUFFER, data.limit()*elementSize, data, GL3.GL_STREAM_DRAW);
+        }
+        gl.glBindBuffer(GL3.GL_TEXTURE_BUFFER, 0);
+    }
+
+    /**
+     * Binds the buffer textures to the given texture unit and the two texture units after it, and sets the uniforms
+     * of the given shader program (which must use clustered_phong_fragment_shader.glsl).
+     *
+     * @param viewportWidth in pixels.
+     * @param viewportHeight in pixels.
+     */
+    public void bind(GL3 gl, GLStateTracker glState, int shaderProgramId, int firstTextureUnit, int viewportWidth, int viewportHeight) {
+        if (clusterBounds == null) throw new IllegalStateException("setProjection has not been called");
+
+        for (int n = 0; n < 3; n++) {
+            gl.glActiveTexture(GL3.GL_TEXTURE0 + firstTextureUnit + n);
+            gl.glBindTexture(GL3.GL_TEXTURE_BUFFER, textureIds[n]);
+        }
+        gl.glActiveTexture(GL3.GL_TEXTURE0);
+
+        glState.useProgram(gl, shaderProgramId);
+        glState.uniform1i(gl, glState.getUniformLocation(gl, shaderProgramId, LIGHT_DATA), firstTextureUnit);
+        glState.uniform1i(gl, glState.getUniformLocation(gl, shaderProgramId, CLUSTERS), firstTextureUnit + 1);
+        glState.uniform1i(gl, glState.getUniformLocation(gl, shaderProgramId, LIGHT_INDICES), firstTextureUnit + 2);
+        glState.uniform3i(gl, glState.getUniformLocation(gl, shaderProgramId, CLUSTER_COUNTS), clusterCountX, clusterCountY, clusterCountZ);
+        glState.uniform2f(gl, glState.getUniformLocation(gl, shaderProgramId, VIEWPORT_SIZE), viewportWidth, viewportHeight);
+        //slice = log(distance/zNear)/log(zFar/zNear)*clusterCountZ = log(distance)*scale + bias.
+        float scale = (float) (clusterCountZ/Math.log(zFar/zNear));
+        glState.uniform1f(gl, glState.getUniformLocation(gl, shaderProgramId, CLUSTER_DEPTH_SCALE), scale);
+        glState.uniform1f(gl, glState.getUniformLocation(gl, shaderProgramId, CLUSTER_DEPTH_BIAS), (float) (-Math.log(zNear)*scale));
+    }
+
+    /**
+     * @return the number of lights in the last update.
+     */
+    public int getLightCount() {
+        return lightCount;
+    }
+
+    /**
+     * @return the greatest number of lights in a single cluster in the last update, at most maxLightsPerCluster.
+     */
+    public int getMaxClusterLightCount() {
+        return maxClusterLightCount;
+    }
+
+    /**
+     * @return the lights of the given cluster in the last update, as indices in the list of lights.
+     */
+    public int[] getClusterLights(int i, int j, int k) {
+        int cluster = getClusterIndex(i, j, k);
+        return Arrays.copyOfRange(lightIndices, clusterOffsets[cluster], clusterOffsets[cluster] + clusterLightCounts[cluster]);
+    }
+
+    /**
+     * Deletes the OpenGL objects of this object.
+     */
+    public void dispose(GL3 gl) {
+        gl.glDeleteTextures(3, textureIds, 0);
+        gl.glDeleteBuffers(3, bufferIds, 0);
+    }
+
+    /**
+     * Arrays that are used to assign the lights to the clusters of one depth slice, reused between frames.
+     */
+    private static final class SliceWorkspace {
+        private int[] sliceCandidates = new int[0];
+        private int[] rowCandidates = new int[0];
+        private float[] scores = new float[0];
+        //light indices of the clusters of the slice, in cluster order.
+        private int[] indices = new int[64];
+        private int size = 0;
+
+        private void ensureCandidateCapacity(int lightCount) {
+            if (sliceCandidates.length < lightCount) {
+                sliceCandidates = new int[lightCount];
+                rowCandidates = new int[lightCount];
+            }
+        }
+
+        private float[] ensureScoreCapacity(int count) {
+            if (scores.length < count) scores = new float[count];
+            return scores;
+        }
+
+        private void add(int light) {
+            if (size == indices.length) indices = Arrays.copyOf(indices, size*2);
+            indices[size++] = light;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.lighting;
+
+/**
+ * Point light for use with ClusteredLights.
+ *
+ * The intensity of the light falls off with the square of the distance, like in phong_fragment_shader.glsl,
+ * but the light has a limited range: at its range the incident intensity has become so small (see MIN_INTENSITY)
+ * that it can be faded out to zero without visible difference. Only lights whose range reaches a fragment
+ * need to be evaluated for that fragment.
+ *
+ * @author A.C. Kockx
+ */
+public final class PointLight {
+    /**
+     * Incident intensity at the range of a light.
+     */
+    public static final float MIN_INTENSITY = 0.01f;
+
+    private final float[] position = new float[3];
+    private final float[] intensity;
+    private final float range;
+
+    /**
+     * @param x coordinate in world space.
+     * @param y coordinate in world space.
+     * @param z coordinate in world space.
+     * @param intensity light source intensity per color component (r, g, b).
+     */
+    public PointLight(float x, float y, float z, float[] intensity) {
+        if (intensity == null) throw new IllegalArgumentException("intensity == null");
+        if (intensity.length != 3) throw new IllegalArgumentException("intensity.length != 3");
+        for (float component : intensity) {
+            if (component < 0) throw new IllegalArgumentException("intensity < 0");
+        }
+
+        setPosition(x, y, z);
+        this.intensity = intensity.clone();
+        float maxIntensity = Math.max(intensity[0], Math.max(intensity[1], intensity[2]));
+        range = (float) Math.sqrt(maxIntensity/MIN_INTENSITY);
+    }
+
+    /**
+     * @return (x, y, z) in world space.
+     */
+    public float[] getPosition() {
+        return position.clone();
+    }
+
+    public void setPosition(float x, float y, float z) {
+        position[0] = x;
+        position[1] = y;
+        position[2] = z;
+    }
+
+    /**
+     * @return light source intensity per color component (r, g, b).
+     */
+    public float[] getIntensity() {
+        return intensity.clone();
+    }
+
+    /**
+     * @return distance from the light beyond which the light has no effect.
+     */
+    public float getRange() {
+        return range;
+    }
+
+    float getX() {
+        return position[0];
+    }
+
+    float getY() {
+        return position[1];
+    }
+
+    float getZ() {
+        return position[2];
+    }
+
+    float getIntensity(int component) {
+        return intensity[component];
+    }
+}
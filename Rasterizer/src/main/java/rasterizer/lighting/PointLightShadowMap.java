@@ -0,0 +1,289 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.lighting;
+
+import com.jogamp.opengl.GL3;
+import com.jogamp.opengl.math.FloatUtil;
+import com.jogamp.opengl.math.Matrix4;
+import rasterizer.util.GLStateTracker;
+import rasterizer.util.MatrixUtils;
+import rasterizer.util.OpenGLUtils;
+import rasterizer.util.ResourceLoader;
+import rasterizer.util.Utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Omnidirectional shadow map for a point light: a depth cube map that stores, for each direction from the light,
+ * the distance to the nearest shadow caster. The cube map is cached: it is only rendered again when the position of the light
+ * or the model matrix of a caster has changed, so a static scene pays for the shadow map once instead of every frame.
+ *
+ * The shadow map is used by phong_fragment_shader.glsl, see method bind.
+ *
+ * @author A.C. Kockx
+ */
+public final class PointLightShadowMap {
+    public static final String SHADOWS_ENABLED = "shadowsEnabled";
+    public static final String SHADOW_MAP = "shadowMap";
+    public static final String LIGHT_POSITION_IN_WORLD_SPACE = "lightPositionInWorldSpace";
+    public static final String SHADOW_FAR_PLANE = "shadowFarPlane";
+    public static final String SHADOW_BIAS = "shadowBias";
+    public static final String SHADOW_SAMPLE_COUNT = "shadowSampleCount";
+    public static final String SHADOW_SAMPLE_RADIUS = "shadowSampleRadius";
+    //maximum number of samples for percentage-closer filtering, see phong_fragment_shader.glsl.
+    public static final int MAX_SAMPLE_COUNT = 21;
+    public static final float DEFAULT_BIAS = 0.02f;
+
+    //view direction and up vector for each cube map face (+x, -x, +y, -y, +z, -z), such that the rendered images
+    //have the orientation that OpenGL uses when sampling a cube map.
+    private static final float[][] FACE_DIRECTIONS = new float[][]{{1, 0, 0}, {-1, 0, 0}, {0, 1, 0}, {0, -1, 0}, {0, 0, 1}, {0, 0, -1}};
+    private static final float[][] FACE_UP_VECTORS = new float[][]{{0, -1, 0}, {0, -1, 0}, {0, 0, 1}, {0, 0, -1}, {0, -1, 0}, {0, -1, 0}};
+
+    /**
+     * An object that casts shadows.
+     */
+    public interface ShadowCaster {
+        /**
+         * @return model matrix in column-major order.
+         */
+        Matrix4 getModelMatrix();
+
+        /**
+         * Draws this caster. The vertex positions (in model space) must be at attribute index 0.
+         * The vertex array object must be bound with glState.
+         */
+        void draw(GL3 gl, GLStateTracker glState);
+    }
+
+    private final int resolution;
+    private final float nearPlane;
+    private final float farPlane;
+    private int sampleCount = 1;
+    private float sampleRadius = 0;
+    private float bias = DEFAULT_BIAS;
+
+    private final int textureId;
+    private final int framebufferId;
+    private final int shaderProgramId;
+    private final int modelMatrixUniformIndex;
+    private final int lightViewProjectionMatrixUniformIndex;
+    private final int lightPositionUniformIndex;
+
+    //light position and caster model matrices with which the cube map was last rendered, null if it needs to be rendered.
+    private float[] renderedLightPosition = null;
+    private final List<float[]> renderedModelMatrices = new ArrayList<>();
+    private int renderCount = 0;
+
+    /**
+     * Creates the cube map and the shader program that renders it.
+     *
+     * @param resolution width and height of each face of the cube map in pixels.
+     * @param nearPlane casters closer to the light than this are ignored.
+     * @param farPlane casters further from the light than this are ignored.
+     */
+    public PointLightShadowMap(GL3 gl, GLStateTracker glState, int resolution, float nearPlane, float farPlane) {
+        if (resolution <= 0) throw new IllegalArgumentException("resolution <= 0");
+        if (nearPlane <= 0) throw new IllegalArgumentException("nearPlane <= 0");
+        if (farPlane <= nearPlane) throw new IllegalArgumentException("farPlane <= nearPlane");
+
+        this.resolution = resolution;
+        this.nearPlane = nearPlane;
+        this.farPlane = farPlane;
+
+        //create cube map.
+        int[] ids = new int[1];
+        gl.glGenTextures(1, ids, 0);
+        textureId = ids[0];
+        gl.glBindTexture(GL3.GL_TEXTURE_CUBE_MAP, textureId);
+        for (int face = 0; face < 6; face++) {
+            gl.glTexImage2D(GL3.GL_TEXTURE_CUBE_MAP_POSITIVE_X + face, 0, GL3.GL_DEPTH_COMPONENT24, resolution, resolution, 0,
+                    GL3.GL_DEPTH_COMPONENT, GL3.GL_FLOAT, null);
+        }
+        //distances must not be interpolated, percentage-closer filtering is done in the fragment shader.
+        gl.glTexParameteri(GL3.GL_TEXTURE_CUBE_MAP, GL3.GL_TEXTURE_MIN_FILTER, GL3.GL_NEAREST);
+        gl.glTexParameteri(GL3.GL_TEXTURE_CUBE_MAP, GL3.GL_TEXTURE_MAG_FILTER, GL3.GL_NEAREST);
+        gl.glTexParameteri(GL3.GL_TEXTURE_CUBE_MAP, GL3.GL_TEXTURE_WRAP_S, GL3.GL_CLAMP_TO_EDGE);
+        gl.glTexParameteri(GL3.GL_TEXTURE_CUBE_MAP, GL3.GL_TEXTURE_WRAP_T, GL3.GL_CLAMP_TO_EDGE);
+        gl.glTexParameteri(GL3.GL_TEXTURE_CUBE_MAP, GL3.GL_TEXTURE_WRAP_R, GL3.GL_CLAMP_TO_EDGE);
+        gl.glBindTexture(GL3.GL_TEXTURE_CUBE_MAP, 0);
+
+        //create framebuffer without color buffer.
+        int[] previousFramebufferId = new int[1];
+        gl.glGetIntegerv(GL3.GL_FRAMEBUFFER_BINDING, previousFramebufferId, 0);
+        gl.glGenFramebuffers(1, ids, 0);
+        framebufferId = ids[0];
+        gl.glBindFramebuffer(GL3.GL_FRAMEBUFFER, framebufferId);
+        gl.glFramebufferTexture2D(GL3.GL_FRAMEBUFFER, GL3.GL_DEPTH_ATTACHMENT, GL3.GL_TEXTURE_CUBE_MAP_POSITIVE_X, textureId, 0);
+        gl.glDrawBuffer(GL3.GL_NONE);
+        gl.glReadBuffer(GL3.GL_NONE);
+        int status = gl.glCheckFramebufferStatus(GL3.GL_FRAMEBUFFER);
+        if (status != GL3.GL_FRAMEBUFFER_COMPLETE) System.err.println("Shadow map framebuffer status: " + status);
+        gl.glBindFramebuffer(GL3.GL_FRAMEBUFFER, previousFramebufferId[0]);
+
+        //create shaders.
+        ResourceLoader loader = new ResourceLoader("/rasterizer/shaders/");
+        String vertexShaderSource;
+        String fragmentShaderSource;
+        try {
+            vertexShaderSource = Utils.read(loader.loadResource("shadow_depth_vertex_shader.glsl"));
+            fragmentShaderSource = Utils.read(loader.loadResource("shadow_depth_fragment_shader.glsl"));
+        } catch (Exception e) {
+            throw new RuntimeException("Error while loading shader source: " + e.getMessage(), e);
+        }
+        shaderProgramId = OpenGLUtils.createShaderProgram(gl,
+                new int[]{GL3.GL_VERTEX_SHADER, GL3.GL_FRAGMENT_SHADER}, new String[]{vertexShaderSource, fragmentShaderSource},
+                new String[]{OpenGLUtils.VERTEX_POSITION});
+        modelMatrixUniformIndex = glState.getUniformLocation(gl, shaderProgramId, OpenGLUtils.MODEL_MATRIX);
+        lightViewProjectionMatrixUniformIndex = glState.getUniformLocation(gl, shaderProgramId, "lightViewProjectionMatrix");
+        lightPositionUniformIndex = glState.getUniformLocation(gl, shaderProgramId, "lightPosition");
+        glState.useProgram(gl, shaderProgramId);
+        glState.uniform1f(gl, glState.getUniformLocation(gl, shaderProgramId, "farPlane"), farPlane);
+    }
+
+    public int getResolution() {
+        return resolution;
+    }
+
+    /**
+     * @param sampleCount number of shadow map samples per fragment for percentage-closer filtering, 1 (no filtering) to MAX_SAMPLE_COUNT.
+     * @param sampleRadius distance in world space between the samples, this determines the width of the soft shadow edges.
+     */
+    public void setFiltering(int sampleCount, float sampleRadius) {
+        if (sampleCount < 1 || sampleCount > MAX_SAMPLE_COUNT) throw new IllegalArgumentException("sampleCount must be 1 to " + MAX_SAMPLE_COUNT);
+        if (sampleRadius < 0) throw new IllegalArgumentException("sampleRadius < 0");
+
+        this.sampleCount = sampleCount;
+        this.sampleRadius = sampleRadius;
+    }
+
+    /**
+     * @param bias distance in world space that a surface must be behind a caster to be in its shadow,
+     *             this prevents surfaces from shadowing themselves because of the limited resolution of the shadow map.
+     */
+    public void setBias(float bias) {
+        this.bias = bias;
+    }
+
+    /**
+     * @return the number of times the cube map has been rendered.
+     */
+    public int getRenderCount() {
+        return renderCount;
+    }
+
+    /**
+     * Forces the cube map to be rendered again at the next call to method update, e.g. when the geometry of a caster has changed.
+     */
+    public void invalidate() {
+        renderedLightPosition = null;
+    }
+
+    /**
+     * Renders the cube map if the light position or the model matrix of a caster has changed since the cube map was last rendered.
+     * This must be called before drawing the scene with the shadow map, with all shadow casters.
+     *
+     * @param lightPositionInWorldSpace (x, y, z).
+     * @return true if the cube map was rendered.
+     */
+    public boolean update(GL3 gl, GLStateTracker glState, float[] lightPositionInWorldSpace, List<? extends ShadowCaster> casters) {
+        float[] lightPosition = Arrays.copyOf(lightPositionInWorldSpace, 3);
+        if (!isChanged(lightPosition, casters)) return false;
+
+        //save state that is changed below.
+        int[] previousFramebufferId = new int[1];
+        gl.glGetIntegerv(GL3.GL_FRAMEBUFFER_BINDING, previousFramebufferId, 0);
+        int[] previousViewport = new int[4];
+        gl.glGetIntegerv(GL3.GL_VIEWPORT, previousViewport, 0);
+        int[] previousCullFaceMode = new int[1];
+        gl.glGetIntegerv(GL3.GL_CULL_FACE_MODE, previousCullFaceMode, 0);
+
+        gl.glBindFramebuffer(GL3.GL_FRAMEBUFFER, framebufferId);
+        gl.glViewport(0, 0, resolution, resolution);
+        //render only the back faces of closed casters, so that the lit front faces are not shadowed by themselves.
+        gl.glCullFace(GL3.GL_FRONT);
+        glState.useProgram(gl, shaderProgramId);
+        glState.uniform3fv(gl, lightPositionUniformIndex, lightPosition);
+
+        //90 degrees field of view per face, so that the 6 faces cover all directions.
+        Matrix4 projectionMatrix = MatrixUtils.createPerspectiveProjectionMatrix(90, 1, nearPlane, farPlane);
+        for (int face = 0; face < 6; face++) {
+            gl.glFramebufferTexture2D(GL3.GL_FRAMEBUFFER, GL3.GL_DEPTH_ATTACHMENT, GL3.GL_TEXTURE_CUBE_MAP_POSITIVE_X + face, textureId, 0);
+            gl.glClear(GL3.GL_DEPTH_BUFFER_BIT);
+
+            Matrix4 lightViewProjectionMatrix = MatrixUtils.multiply(projectionMatrix, createFaceViewMatrix(lightPosition, face));
+            glState.uniformMatrix4fv(gl, lightViewProjectionMatrixUniformIndex, lightViewProjectionMatrix.getMatrix());
+            for (ShadowCaster caster : casters) {
+                glState.uniformMatrix4fv(gl, modelMatrixUniformIndex, caster.getModelMatrix().getMatrix());
+                caster.draw(gl, glState);
+            }
+        }
+
+        //restore state.
+        gl.glCullFace(previousCullFaceMode[0]);
+        gl.glViewport(previousViewport[0], previousViewport[1], previousViewport[2], previousViewport[3]);
+        gl.glBindFramebuffer(GL3.GL_FRAMEBUFFER, previousFramebufferId[0]);
+
+        //remember with what the cube map was rendered.
+        renderedLightPosition = lightPosition;
+        renderedModelMatrices.clear();
+        for (ShadowCaster caster : casters) {
+            renderedModelMatrices.add(caster.getModelMatrix().getMatrix().clone());
+        }
+        renderCount++;
+        return true;
+    }
+
+    private boolean isChanged(float[] lightPosition, List<? extends ShadowCaster> casters) {
+        if (renderedLightPosition == null || !Arrays.equals(renderedLightPosition, lightPosition)) return true;
+        if (casters.size() != renderedModelMatrices.size()) return true;
+        for (int n = 0; n < casters.size(); n++) {
+            if (!Arrays.equals(casters.get(n).getModelMatrix().getMatrix(), renderedModelMatrices.get(n))) return true;
+        }
+        return false;
+    }
+
+    private static Matrix4 createFaceViewMatrix(float[] lightPosition, int face) {
+        float[] center = new float[3];
+        for (int n = 0; n < 3; n++) {
+            center[n] = lightPosition[n] + FACE_DIRECTIONS[face][n];
+        }
+        Matrix4 viewMatrix = new Matrix4();
+        FloatUtil.makeLookAt(viewMatrix.getMatrix(), 0, lightPosition, 0, center, 0, FACE_UP_VECTORS[face], 0, new float[16]);
+        return viewMatrix;
+    }
+
+    /**
+     * Binds the cube map to the given texture unit and sets the shadow uniforms of the given shader program
+     * (which must use phong_vertex_shader.glsl and phong_fragment_shader.glsl). The model matrix of each object
+     * that is drawn with the shader program must be set in uniform OpenGLUtils.MODEL_MATRIX.
+     *
+     * @param lightPositionInWorldSpace (x, y, z).
+     */
+    public void bind(GL3 gl, GLStateTracker glState, int shaderProgramId, int textureUnit, float[] lightPositionInWorldSpace) {
+        gl.glActiveTexture(GL3.GL_TEXTURE0 + textureUnit);
+        gl.glBindTexture(GL3.GL_TEXTURE_CUBE_MAP, textureId);
+        gl.glActiveTexture(GL3.GL_TEXTURE0);
+
+        glState.useProgram(gl, shaderProgramId);
+        glState.uniform1i(gl, glState.getUniformLocation(gl, shaderProgramId, SHADOWS_ENABLED), 1);
+        glState.uniform1i(gl, glState.getUniformLocation(gl, shaderProgramId, SHADOW_MAP), textureUnit);
+        glState.uniform3fv(gl, glState.getUniformLocation(gl, shaderProgramId, LIGHT_POSITION_IN_WORLD_SPACE), lightPositionInWorldSpace);
+        glState.uniform1f(gl, glState.getUniformLocation(gl, shaderProgramId, SHADOW_FAR_PLANE), farPlane);
+        glState.uniform1f(gl, glState.getUniformLocation(gl, shaderProgramId, SHADOW_BIAS), bias);
+        glState.uniform1i(gl, glState.getUniformLocation(gl, shaderProgramId, SHADOW_SAMPLE_COUNT), sampleCount);
+        glState.uniform1f(gl, glState.getUniformLocation(gl, shaderProgramId, SHADOW_SAMPLE_RADIUS), sampleRadius);
+    }
+
+    /**
+     * Deletes the OpenGL objects of this shadow map.
+     */
+    public void dispose(GL3 gl, GLStateTracker glState) {
+        gl.glDeleteTextures(1, new int[]{textureId}, 0);
+        gl.glDeleteFramebuffers(1, new int[]{framebufferId}, 0);
+        gl.glDeleteProgram(shaderProgramId);
+        glState.forgetProgram(shaderProgramId);
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.output;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Ring of direct buffers that passes rendered frames from a single producer (the rendering thread) to any number of readers,
+ * without copying them on the rendering thread: the producer writes each frame directly into a free buffer of the ring
+ * (e.g. using glReadPixels) and then publishes it. Readers always get the latest published frame.
+ *
+ * The producer never waits for readers. If all buffers other than the latest frame are still being read,
+ * then the new frame is dropped (see method beginFrame). Readers that are slower than the producer simply skip frames.
+ *
+ * @author A.C. Kockx
+ */
+public final class FrameRing {
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private final Object lock = new Object();
+    private final Slot[] slots;
+    //slot that contains the latest published frame, null if no frame was published yet.
+    private Slot latest = null;
+    //slot that the producer is writing to, null if none.
+    private Slot writing = null;
+    private long frameCount = 0;
+    private long droppedFrameCount = 0;
+
+    /**
+     * @param slotCount number of buffers, at least 2. With more buffers, fewer frames are dropped
+     *                  if multiple readers are reading different frames at the same time.
+     */
+    public FrameRing(int slotCount) {
+        if (slotCount < 2) throw new IllegalArgumentException("slotCount < 2");
+
+        slots = new Slot[slotCount];
+        for (int n = 0; n < slotCount; n++) {
+            slots[n] = new Slot();
+        }
+    }
+
+    /**
+     * Reserves a buffer for a new frame. Must be followed by a call to method endFrame, after the frame has been written to the buffer.
+     *
+     * @return direct buffer for width*height pixels in RGBA format (one byte per component), one row after the other,
+     *         starting with the bottom row (as returned by glReadPixels). Null if no buffer is free, in which case the frame must be dropped.
+     */
+    public ByteBuffer beginFrame(int width, int height) {
+        if (width <= 0) throw new IllegalArgumentException("width <= 0");
+        if (height <= 0) throw new IllegalArgumentException("height <= 0");
+
+        Slot slot = null;
+        synchronized (lock) {
+            if (writing != null) throw new IllegalStateException("endFrame not called");
+            for (Slot candidate : slots) {
+                if (candidate != latest && candidate.readerCount == 0) {
+                    slot = candidate;
+                    break;
+                }
+            }
+            if (slot == null) {
+                droppedFrameCount++;
+                return null;
+            }
+            writing = slot;
+        }
+
+        //no reader can access this slot until it is published, so it can be changed without the lock.
+        int size = width*height*BYTES_PER_PIXEL;
+        if (slot.buffer == null || slot.buffer.capacity() < size) slot.buffer = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+        slot.width = width;
+        slot.height = height;
+        slot.buffer.clear();
+        slot.buffer.limit(size);
+        return slot.buffer;
+    }
+
+    /**
+     * Publishes the frame that was written to the buffer returned by method beginFrame.
+     */
+    public void endFrame() {
+        synchronized (lock) {
+            if (writing == null) throw new IllegalStateException("beginFrame not called");
+            frameCount++;
+            writing.sequenceNumber = frameCount;
+            latest = writing;
+            writing = null;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Waits until a frame newer than the given frame has been published and returns it.
+     * The returned frame must be released when it has been read.
+     *
+     * @param previousSequenceNumber sequence number of the last frame that was read by the caller, or 0 to get any frame.
+     * @return the latest frame, or null if no newer frame was published within the given time.
+     */
+    public Frame acquireFrame(long previousSequenceNumber, long timeoutMilliseconds) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMilliseconds;
+        synchronized (lock) {
+            while (latest == null || latest.sequenceNumber <= previousSequenceNumber) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) return null;
+                lock.wait(remaining);
+            }
+            latest.readerCount++;
+            return new Frame(latest);
+        }
+    }
+
+    /**
+     * @return number of frames that were published.
+     */
+    public long getFrameCount() {
+        synchronized (lock) {
+            return frameCount;
+        }
+    }
+
+    /**
+     * @return number of frames that were dropped because no buffer was free.
+     */
+    public long getDroppedFrameCount() {
+        synchronized (lock) {
+            return droppedFrameCount;
+        }
+    }
+
+    private static final class Slot {
+        private ByteBuffer buffer = null;
+        private int width = 0;
+        private int height = 0;
+        private long sequenceNumber = 0;
+        private int readerCount = 0;
+    }
+
+    /**
+     * Read access to a published frame. The frame is not overwritten until it has been released.
+     */
+    public final class Frame {
+        private final Slot slot;
+        private final ByteBuffer pixels;
+        private boolean released = false;
+
+        private Frame(Slot slot) {
+            this.slot = slot;
+            //a view of the buffer per reader, so that readers do not change each other's position.
+            pixels = slot.buffer.asReadOnlyBuffer();
+        }
+
+        public int getWidth() {
+            return slot.width;
+        }
+
+        public int getHeight() {
+            return slot.height;
+        }
+
+        /**
+         * @return number of the frame, starting at 1 for the first published frame.
+         */
+        public long getSequenceNumber() {
+            return slot.sequenceNumber;
+        }
+
+        /**
+         * @return pixels in RGBA format, starting with the bottom row, see method beginFrame.
+         */
+        public ByteBuffer getPixels() {
+            return pixels;
+        }
+
+        /**
+         * Copies the pixels to the given array in ARGB format, starting with the top row.
+         */
+        public void getColors(int[] colors) {
+            int width = slot.width;
+            int height = slot.height;
+            if (colors.length < width*height) throw new IllegalArgumentException("colors.length < width*height");
+
+            for (int y = 0; y < height; y++) {
+                int offset = (height - 1 - y)*width*BYTES_PER_PIXEL;
+                for (int x = 0; x < width; x++) {
+                    int index = offset + x*BYTES_PER_PIXEL;
+                    colors[y*width + x] = (pixels.get(index + 3) & 0xFF) << 24 | (pixels.get(index) & 0xFF) << 16
+                            | (pixels.get(index + 1) & 0xFF) << 8 | (pixels.get(index + 2) & 0xFF);
+                }
+            }
+        }
+
+        /**
+         * Allows the producer to overwrite this frame. After this the frame must not be accessed anymore.
+         */
+        public void release() {
+            synchronized (lock) {
+                if (released) return;
+                released = true;
+                slot.readerCount--;
+            }
+        }
+    }
+}
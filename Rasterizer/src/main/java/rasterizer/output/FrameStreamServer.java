@@ -0,0 +1,471 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.output;
+
+import com.jogamp.opengl.GL3;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.swing.SwingUtilities;
+import java.awt.event.KeyEvent;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Embedded HTTP server that streams rendered frames, so that an experiment can be viewed and controlled remotely with a web browser.
+ *
+ * The rendering thread calls method captureFrame at the end of each frame, which starts reading the frame back from OpenGL
+ * into one of PIXEL_BUFFER_COUNT pixel buffer objects. The read finishes asynchronously, so the rendering thread does not wait
+ * for the GPU to finish the frame. Finished reads are copied into a FrameRing by later calls to captureFrame,
+ * or by method flush when the experiment stops rendering. Each client is served on its own thread, always with the latest frame,
+ * so slow clients skip frames instead of slowing down rendering. Frames are encoded as JPEG once, for all clients that request the same frame.
+ *
+ * By default the server only accepts connections from the same machine, see method createAddress.
+ *
+ * Endpoints:
+ * /            web page that shows the stream and forwards key presses to /key.
+ * /stream.mjpg MJPEG stream (multipart/x-mixed-replace), which browsers show as a continuously updating image.
+ * /frame.jpg   latest frame as JPEG.
+ * /frame.raw   latest frame as raw pixels, 4 bytes (r, g, b, a) per pixel, starting with the top row.
+ *              The size is in the response headers X-Frame-Width and X-Frame-Height.
+ * /key?name=LEFT&action=press (or release) presses or releases a key, see KeyInput. The name is that of a KeyEvent.VK_ constant without VK_.
+ *
+ * @author A.C. Kockx
+ */
+public final class FrameStreamServer implements Closeable {
+    private static final String BOUNDARY = "frame";
+    private static final float JPEG_QUALITY = 0.85f;
+    //a connected stream client checks whether it is still connected after waiting this long for a new frame.
+    private static final long FRAME_TIMEOUT = 1000;//in milliseconds.
+    private static final int RING_SLOT_COUNT = 3;
+    //number of frames that can be read back at the same time.
+    private static final int PIXEL_BUFFER_COUNT = 3;
+    private static final String PAGE = "<!DOCTYPE html>\n<html><head><title>%s</title></head>\n"
+            + "<body style=\"margin: 0; background: black\">\n<img src=\"/stream.mjpg\" style=\"display: block; margin: auto\">\n<script>\n"
+            + "var pressed = {};\n"
+            + "function send(event, action) {\n"
+            + "  var name = event.key.startsWith('Arrow') ? event.key.substring(5).toUpperCase() : event.key.toUpperCase();\n"
+            + "  if (action == 'press') { if (pressed[name]) return; pressed[name] = true; } else { delete pressed[name]; }\n"
+            + "  fetch('/key?name=' + encodeURIComponent(name) + '&action=' + action, {method: 'POST'});\n"
+            + "  event.preventDefault();\n"
+            + "}\n"
+            + "document.addEventListener('keydown', function(event) { send(event, 'press'); });\n"
+            + "document.addEventListener('keyup', function(event) { send(event, 'release'); });\n"
+            + "</script></body></html>\n";
+
+    /**
+     * Receives key presses from remote clients, with the same meaning as the key presses of a KeyListener.
+     * The methods are called on the event-dispatching thread.
+     */
+    public interface KeyInput {
+        /**
+         * @param keyCode one of the KeyEvent.VK_ constants.
+         */
+        void keyPressed(int keyCode);
+
+        void keyReleased(int keyCode);
+    }
+
+    private final String title;
+    private final KeyInput keyInput;
+    private final FrameRing ring = new FrameRing(RING_SLOT_COUNT);
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Object encodeLock = new Object();
+    //latest encoded frame, shared by all clients.
+    private volatile EncodedFrame encodedFrame = null;
+    private volatile boolean closed = false;
+    //pixel buffer objects for asynchronous reads, created by the first call to method captureFrame. Only used on the rendering thread.
+    private int[] pixelBufferIds = null;
+    private final long[] pixelBufferSizes = new long[PIXEL_BUFFER_COUNT];
+    //size of the frame in each pixel buffer and the fence that is signaled when it has been read, 0 if the buffer is not being read.
+    private final int[] readWidths = new int[PIXEL_BUFFER_COUNT];
+    private final int[] readHeights = new int[PIXEL_BUFFER_COUNT];
+    private final long[] readSyncs = new long[PIXEL_BUFFER_COUNT];
+    //pixel buffer for the next read, the buffers are used in turn, so this is also the oldest read.
+    private int nextPixelBuffer = 0;
+    private volatile int pendingReadCount = 0;
+
+    /**
+     * Starts the server in background threads.
+     *
+     * @param address to listen on, see method createAddress. Port 0 means any free port, see method getPort.
+     * @param title of the web page.
+     * @param keyInput receives key presses from clients, or null to ignore them.
+     */
+    public FrameStreamServer(InetSocketAddress address, String title, KeyInput keyInput) throws IOException {
+        if (address == null) throw new IllegalArgumentException("address == null");
+        if (title == null) throw new IllegalArgumentException("title == null");
+
+        this.title = title;
+        this.keyInput = keyInput;
+        server = HttpServer.create(address, 0);
+        server.createContext("/", this::handlePage);
+        server.createContext("/stream.mjpg", this::handleStream);
+        server.createContext("/frame.jpg", this::handleJpeg);
+        server.createContext("/frame.raw", this::handleRaw);
+        server.createContext("/key", this::handleKey);
+        //one thread per connection, since a stream keeps its thread busy for as long as the client is connected.
+        executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, FrameStreamServer.class.getSimpleName());
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Remote clients can control the experiment with key presses, so they must be allowed explicitly.
+     *
+     * @param remoteAccessEnabled true to accept connections on all network interfaces, false to accept only connections from the same machine.
+     * @return address for the constructor.
+     */
+    public static InetSocketAddress createAddress(int port, boolean remoteAccessEnabled) {
+        return remoteAccessEnabled ? new InetSocketAddress(port) : new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @return the ring that captured frames are stored in. Frames can also be published to it directly, instead of with method captureFrame.
+     */
+    public FrameRing getFrameRing() {
+        return ring;
+    }
+
+    /**
+     * Starts reading the current frame from the read buffer of the given context (normally the back buffer at the end of method display),
+     * and makes the frames whose reads have finished available to clients. Only waits for the GPU if all pixel buffers are still being read.
+     * A frame is dropped if no ring buffer is free when its read has finished, see FrameRing.beginFrame.
+     */
+    public void captureFrame(GL3 gl, int width, int height) {
+        if (pixelBufferIds == null) {
+            pixelBufferIds = new int[PIXEL_BUFFER_COUNT];
+            gl.glGenBuffers(PIXEL_BUFFER_COUNT, pixelBufferIds, 0);
+        }
+        publishReads(gl, false);
+        int index = nextPixelBuffer;
+        if (readSyncs[index] != 0) publishRead(gl, index);
+
+        long size = (long) width*height*4;
+        gl.glBindBuffer(GL3.GL_PIXEL_PACK_BUFFER, pixelBufferIds[index]);
+        if (pixelBufferSizes[index] != size) {
+            gl.glBufferData(GL3.GL_PIXEL_PACK_BUFFER, size, null, GL3.GL_STREAM_READ);
+            pixelBufferSizes[index] = size;
+        }
+        gl.glPixelStorei(GL3.GL_PACK_ALIGNMENT, 1);
+        gl.glReadPixels(0, 0, width, height, GL3.GL_RGBA, GL3.GL_UNSIGNED_BYTE, 0);
+        gl.glBindBuffer(GL3.GL_PIXEL_PACK_BUFFER, 0);
+        readWidths[index] = width;
+        readHeights[index] = height;
+        readSyncs[index] = gl.glFenceSync(GL3.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        nextPixelBuffer = (index + 1)%PIXEL_BUFFER_COUNT;
+        pendingReadCount++;
+    }
+
+    /**
+     * @return true if frames are being read that have not been made available to clients yet, see method flush.
+     */
+    public boolean hasPendingFrames() {
+        return pendingReadCount > 0;
+    }
+
+    /**
+     * Waits until all frames that are being read have been read and makes them available to clients.
+     * Must be called when the experiment stops rendering, otherwise clients do not get the last frames. Must be called on the rendering thread.
+     */
+    public void flush(GL3 gl) {
+        publishReads(gl, true);
+    }
+
+    /**
+     * Deletes the pixel buffers, must be called on the rendering thread when the OpenGL context is disposed.
+     */
+    public void dispose(GL3 gl) {
+        if (pixelBufferIds == null) return;
+
+        for (int index = 0; index < PIXEL_BUFFER_COUNT; index++) {
+            if (readSyncs[index] != 0) gl.glDeleteSync(readSyncs[index]);
+            readSyncs[index] = 0;
+            pixelBufferSizes[index] = 0;
+        }
+        gl.glDeleteBuffers(PIXEL_BUFFER_COUNT, pixelBufferIds, 0);
+        pixelBufferIds = null;
+        pendingReadCount = 0;
+    }
+
+    /**
+     * Publishes the pending reads in the order in which they were started.
+     *
+     * @param wait true to wait for all reads, false to stop at the first read that has not finished yet.
+     */
+    private void publishReads(GL3 gl, boolean wait) {
+        for (int n = 0; n < PIXEL_BUFFER_COUNT; n++) {
+            int index = (nextPixelBuffer + n)%PIXEL_BUFFER_COUNT;
+            if (readSyncs[index] == 0) continue;
+            if (!wait) {
+                int status = gl.glClientWaitSync(readSyncs[index], 0, 0);
+                if (status != GL3.GL_ALREADY_SIGNALED && status != GL3.GL_CONDITION_SATISFIED) return;
+            }
+            publishRead(gl, index);
+        }
+    }
+
+    /**
+     * Copies the frame in the given pixel buffer to the ring, this waits until it has been read.
+     */
+    private void publishRead(GL3 gl, int index) {
+        gl.glDeleteSync(readSyncs[index]);
+        readSyncs[index] = 0;
+        pendingReadCount--;
+
+        int width = readWidths[index];
+        int height = readHeights[index];
+        gl.glBindBuffer(GL3.GL_PIXEL_PACK_BUFFER, pixelBufferIds[index]);
+        ByteBuffer pixels = gl.glMapBufferRange(GL3.GL_PIXEL_PACK_BUFFER, 0, (long) width*height*4, GL3.GL_MAP_READ_BIT);
+        if (pixels != null) {
+            ByteBuffer buffer = ring.beginFrame(width, height);
+            if (buffer != null) {
+                buffer.duplicate().put(pixels);
+                ring.endFrame();
+            }
+            gl.glUnmapBuffer(GL3.GL_PIXEL_PACK_BUFFER);
+        }
+        gl.glBindBuffer(GL3.GL_PIXEL_PACK_BUFFER, 0);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handlePage(HttpExchange exchange) throws IOException {
+        try {
+            if (!"/".equals(exchange.getRequestURI().getPath())) {
+                sendError(exchange, 404, "Not found");
+                return;
+            }
+            byte[] page = String.format(PAGE, title).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+            exchange.sendResponseHeaders(200, page.length);
+            exchange.getResponseBody().write(page);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleStream(HttpExchange exchange) throws IOException {
+        try {
+            exchange.getResponseHeaders().set("Content-Type", "multipart/x-mixed-replace; boundary=" + BOUNDARY);
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            exchange.sendResponseHeaders(200, 0);
+            OutputStream output = exchange.getResponseBody();
+            long sequenceNumber = 0;
+            while (!closed) {
+                EncodedFrame frame = getEncodedFrame(sequenceNumber);
+                //if there is no new frame, then send the last frame again, to detect clients that have disconnected.
+                if (frame == null) frame = encodedFrame;
+                if (frame == null) continue;
+                sequenceNumber = Math.max(sequenceNumber, frame.sequenceNumber);
+
+                String header = "--" + BOUNDARY + "\r\nContent-Type: image/jpeg\r\nContent-Length: " + frame.jpeg.length + "\r\n\r\n";
+                output.write(header.getBytes(StandardCharsets.US_ASCII));
+                output.write(frame.jpeg);
+                output.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+                output.flush();
+            }
+        } catch (IOException e) {
+            //client disconnected.
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleJpeg(HttpExchange exchange) throws IOException {
+        try {
+            EncodedFrame frame = getEncodedFrame(0);
+            if (frame == null) {
+                sendError(exchange, 503, "No frame rendered yet");
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", "image/jpeg");
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            exchange.sendResponseHeaders(200, frame.jpeg.length);
+            exchange.getResponseBody().write(frame.jpeg);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleRaw(HttpExchange exchange) throws IOException {
+        try {
+            FrameRing.Frame frame = ring.acquireFrame(0, FRAME_TIMEOUT);
+            if (frame == null) {
+                sendError(exchange, 503, "No frame rendered yet");
+                return;
+            }
+            int width;
+            int height;
+            byte[] pixels;
+            try {
+                //copy the rows in top to bottom order, then release the frame before sending, so that a slow client does not hold it.
+                width = frame.getWidth();
+                height = frame.getHeight();
+                pixels = new byte[width*height*4];
+                ByteBuffer source = frame.getPixels();
+                for (int y = 0; y < height; y++) {
+                    source.position((height - 1 - y)*width*4);
+                    source.get(pixels, y*width*4, width*4);
+                }
+            } finally {
+                frame.release();
+            }
+
+            exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            exchange.getResponseHeaders().set("X-Frame-Width", String.valueOf(width));
+            exchange.getResponseHeaders().set("X-Frame-Height", String.valueOf(height));
+            exchange.sendResponseHeaders(200, pixels.length);
+            exchange.getResponseBody().write(pixels);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleKey(HttpExchange exchange) throws IOException {
+        try {
+            Map<String, String> parameters = parseQuery(exchange.getRequestURI());
+            String name = parameters.get("name");
+            String action = parameters.get("action");
+            int keyCode = name == null ? KeyEvent.VK_UNDEFINED : getKeyCode(name);
+            if (keyCode == KeyEvent.VK_UNDEFINED || !("press".equals(action) || "release".equals(action))) {
+                sendError(exchange, 400, "Usage: /key?name=KEY&action=press|release");
+                return;
+            }
+
+            if (keyInput != null) {
+                //same thread as key events from the keyboard.
+                SwingUtilities.invokeLater(() -> {
+                    if ("press".equals(action)) {
+                        keyInput.keyPressed(keyCode);
+                    } else {
+                        keyInput.keyReleased(keyCode);
+                    }
+                });
+            }
+            exchange.sendResponseHeaders(204, -1);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * @return JPEG of a frame newer than the given frame, or null if no newer frame was published within FRAME_TIMEOUT.
+     */
+    private EncodedFrame getEncodedFrame(long previousSequenceNumber) throws InterruptedException, IOException {
+        FrameRing.Frame frame = ring.acquireFrame(previousSequenceNumber, FRAME_TIMEOUT);
+        if (frame == null) return null;
+
+        try {
+            //encode each frame only once, for all clients.
+            synchronized (encodeLock) {
+                EncodedFrame encoded = encodedFrame;
+                if (encoded != null && encoded.sequenceNumber >= frame.getSequenceNumber()) return encoded;
+
+                BufferedImage image = new BufferedImage(frame.getWidth(), frame.getHeight(), BufferedImage.TYPE_INT_RGB);
+                int[] colors = new int[frame.getWidth()*frame.getHeight()];
+                frame.getColors(colors);
+                image.setRGB(0, 0, frame.getWidth(), frame.getHeight(), colors, 0, frame.getWidth());
+                encoded = new EncodedFrame(frame.getSequenceNumber(), encodeJpeg(image));
+                encodedFrame = encoded;
+                return encoded;
+            }
+        } finally {
+            frame.release();
+        }
+    }
+
+    private static byte[] encodeJpeg(BufferedImage image) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (ImageOutputStream imageOutput = ImageIO.createImageOutputStream(output)) {
+            ImageWriteParam parameters = writer.getDefaultWriteParam();
+            parameters.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            parameters.setCompressionQuality(JPEG_QUALITY);
+            writer.setOutput(imageOutput);
+            writer.write(null, new IIOImage(image, null, null), parameters);
+        } finally {
+            writer.dispose();
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * @return KeyEvent.VK_ constant with the given name (without VK_), or VK_UNDEFINED if it does not exist.
+     */
+    private static int getKeyCode(String name) {
+        try {
+            return KeyEvent.class.getField("VK_" + name.toUpperCase()).getInt(null);
+        } catch (NoSuchFieldException | IllegalAccessException e) {
+            return KeyEvent.VK_UNDEFINED;
+        }
+    }
+
+    private static Map<String, String> parseQuery(URI uri) {
+        Map<String, String> parameters = new HashMap<>();
+        String query = uri.getQuery();
+        if (query == null) return parameters;
+
+        for (String parameter : query.split("&")) {
+            int index = parameter.indexOf('=');
+            if (index > 0) parameters.put(parameter.substring(0, index), parameter.substring(index + 1));
+        }
+        return parameters;
+    }
+
+    private static void sendError(HttpExchange exchange, int statusCode, String message) throws IOException {
+        byte[] body = (message + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(statusCode, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    private static final class EncodedFrame {
+        private final long sequenceNumber;
+        private final byte[] jpeg;
+
+        private EncodedFrame(long sequenceNumber, byte[] jpeg) {
+            this.sequenceNumber = sequenceNumber;
+            this.jpeg = jpeg;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.output;
+
+import rasterizer.cpu.FrameBuffer;
+
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Writes a sequence of frames as image files frame_00000.png, frame_00001.png, etc. (or .qoi) to a directory.
+ *
+ * Frames are encoded and written on background threads, so that rendering the next frame overlaps with encoding
+ * and writing the previous frames. At most maxPendingFrames frames are waiting or being encoded at the same time,
+ * method write blocks when this limit is reached, so that memory use stays bounded if rendering is faster than encoding.
+ *
+ * @author A.C. Kockx
+ */
+public final class ImageSequenceWriter implements Closeable {
+    public enum Format {
+        /**
+         * Compressed, for final output.
+         */
+        PNG("png"),
+        /**
+         * Encoded many times faster than PNG but larger, for intermediate sequences (see QoiEncoder).
+         */
+        QOI("qoi");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+    }
+
+    private final Path directory;
+    private final Format format;
+    private final PngEncoder pngEncoder = new PngEncoder();
+    private final ExecutorService executor;
+    private final Semaphore pendingFrames;
+    private final int maxPendingFrames;
+    private int frameCount = 0;
+    //first error that occurred while writing a frame, thrown by the next call to write or close.
+    private volatile IOException error = null;
+    private boolean closed = false;
+
+    public ImageSequenceWriter(Path directory, Format format) {
+        this(directory, format, 2*Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param maxPendingFrames maximum number of frames that have not been written yet. Frames are encoded in parallel,
+     *                         which is mainly useful for QOI, since each PNG frame is already encoded using multiple threads.
+     */
+    public ImageSequenceWriter(Path directory, Format format, int maxPendingFrames) {
+        if (directory == null) throw new IllegalArgumentException("directory == null");
+        if (format == null) throw new IllegalArgumentException("format == null");
+        if (maxPendingFrames <= 0) throw new IllegalArgumentException("maxPendingFrames <= 0");
+
+        this.directory = directory;
+        this.format = format;
+        this.maxPendingFrames = maxPendingFrames;
+        int threadCount = format == Format.PNG ? 1 : Math.min(maxPendingFrames, Runtime.getRuntime().availableProcessors());
+        executor = Executors.newFixedThreadPool(threadCount, runnable -> {
+            Thread thread = new Thread(runnable, ImageSequenceWriter.class.getSimpleName());
+            thread.setDaemon(true);
+            return thread;
+        });
+        pendingFrames = new Semaphore(maxPendingFrames);
+    }
+
+    /**
+     * Writes the color buffer of the given frame buffer as the next frame.
+     */
+    public Path write(FrameBuffer frameBuffer) throws IOException {
+        if (frameBuffer == null) throw new IllegalArgumentException("frameBuffer == null");
+
+        return write(frameBuffer.getColors(), frameBuffer.getWidth(), frameBuffer.getHeight());
+    }
+
+    public Path write(BufferedImage image) throws IOException {
+        if (image == null) throw new IllegalArgumentException("image == null");
+
+        int width = image.getWidth();
+        int height = image.getHeight();
+        return write(image.getRGB(0, 0, width, height, null, 0, width), width, height);
+    }
+
+    /**
+     * Writes the given pixels as the next frame. The pixels are copied, so the caller can reuse the given array immediately.
+     *
+     * @param pixels color per pixel in ARGB format, one row after the other, starting with the top row.
+     * @return the file that the frame will be written to. The file is complete after method close has returned.
+     * @throws IOException if writing a previous frame failed.
+     */
+    public Path write(int[] pixels, int width, int height) throws IOException {
+        if (pixels == null) throw new IllegalArgumentException("pixels == null");
+        if (width <= 0) throw new IllegalArgumentException("width <= 0");
+        if (height <= 0) throw new IllegalArgumentException("height <= 0");
+        if (pixels.length < width*height) throw new IllegalArgumentException("pixels.length < width*height");
+        if (closed) throw new IllegalStateException("closed");
+        if (error != null) throw error;
+
+        try {
+            pendingFrames.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        int[] copy = new int[width*height];
+        System.arraycopy(pixels, 0, copy, 0, copy.length);
+        Path file = directory.resolve(String.format("frame_%05d.%s", frameCount, format.getExtension()));
+        frameCount++;
+        executor.execute(() -> {
+            try {
+                byte[] data = format == Format.PNG ? pngEncoder.encode(copy, width, height) : QoiEncoder.encode(copy, width, height);
+                Files.write(file, data);
+            } catch (IOException e) {
+                if (error == null) error = e;
+            } catch (RuntimeException e) {
+                if (error == null) error = new IOException("Could not write " + file, e);
+            } finally {
+                pendingFrames.release();
+            }
+        });
+        return file;
+    }
+
+    /**
+     * @return number of frames passed to method write.
+     */
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Waits until all frames have been written.
+     *
+     * @throws IOException if writing a frame failed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            executor.shutdown();
+            try {
+                pendingFrames.acquire(maxPendingFrames);
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+        if (error != null) throw error;
+    }
+}
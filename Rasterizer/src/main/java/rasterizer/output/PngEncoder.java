@@ -0,0 +1,296 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.output;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.stream.IntStream;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Encodes images as PNG files (see https://www.w3.org/TR/PNG/) using multiple threads.
+ *
+ * The filtered image data is split into chunks of at least MIN_CHUNK_SIZE bytes, which are compressed in parallel.
+ * Like pigz does, each chunk is compressed separately with the last 32 kB of the previous chunk as dictionary
+ * and ends with a sync flush (so it ends on a byte boundary), except for the last chunk. The compressed chunks together then form
+ * a single valid deflate stream, which compresses almost as well as compressing all data at once.
+ * Each row is filtered with the filter type that gives the smallest sum of absolute differences (like libpng does).
+ *
+ * @author A.C. Kockx
+ */
+public final class PngEncoder {
+    private static final byte[] SIGNATURE = new byte[]{(byte) 137, 'P', 'N', 'G', '\r', '\n', 26, '\n'};
+    //minimum number of bytes of filtered image data per chunk, like the block size of pigz.
+    private static final int MIN_CHUNK_SIZE = 128*1024;
+    //size of the deflate window.
+    private static final int DICTIONARY_SIZE = 32*1024;
+    private static final int FILTER_NONE = 0;
+    private static final int FILTER_SUB = 1;
+    private static final int FILTER_UP = 2;
+    private static final int FILTER_AVERAGE = 3;
+    private static final int FILTER_PAETH = 4;
+
+    private final int compressionLevel;
+
+    public PngEncoder() {
+        this(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param compressionLevel 0 (no compression) to 9 (best compression), or Deflater.DEFAULT_COMPRESSION.
+     */
+    public PngEncoder(int compressionLevel) {
+        if ((compressionLevel < 0 || compressionLevel > 9) && compressionLevel != Deflater.DEFAULT_COMPRESSION) {
+            throw new IllegalArgumentException("compressionLevel must be 0 to 9");
+        }
+
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * @param pixels color per pixel in ARGB format, one row after the other, starting with the top row.
+     *               The image is stored without alpha channel if all pixels are opaque.
+     * @return the PNG file.
+     */
+    public byte[] encode(int[] pixels, int width, int height) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try {
+            write(pixels, width, height, output);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);//cannot happen with a ByteArrayOutputStream.
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * Writes the given pixels as a PNG file to the given stream, see method encode.
+     */
+    public void write(int[] pixels, int width, int height, OutputStream output) throws IOException {
+        if (pixels == null) throw new IllegalArgumentException("pixels == null");
+        if (width <= 0) throw new IllegalArgumentException("width <= 0");
+        if (height <= 0) throw new IllegalArgumentException("height <= 0");
+        if (pixels.length < width*height) throw new IllegalArgumentException("pixels.length < width*height");
+
+        boolean alpha = false;
+        for (int n = 0; n < width*height; n++) {
+            if (pixels[n] >>> 24 != 0xFF) {
+                alpha = true;
+                break;
+            }
+        }
+        int bytesPerPixel = alpha ? 4 : 3;
+        int rowSize = 1 + width*bytesPerPixel;//filter type and pixels.
+        int rowsPerChunk = Math.max(1, (MIN_CHUNK_SIZE + rowSize - 1)/rowSize);
+        int chunkCount = (height + rowsPerChunk - 1)/rowsPerChunk;
+
+        //filter and compress the chunks in parallel. Compression needs the filtered data of the previous chunk as dictionary,
+        //so all chunks are filtered first.
+        byte[] filtered = new byte[rowSize*height];
+        IntStream.range(0, chunkCount).parallel().forEach(chunk -> {
+            int endRow = Math.min((chunk + 1)*rowsPerChunk, height);
+            filterRows(pixels, width, chunk*rowsPerChunk, endRow, bytesPerPixel, filtered);
+        });
+        byte[][] compressed = new byte[chunkCount][];
+        IntStream.range(0, chunkCount).parallel().forEach(chunk -> {
+            int start = chunk*rowsPerChunk*rowSize;
+            int end = Math.min((chunk + 1)*rowsPerChunk, height)*rowSize;
+            compressed[chunk] = compress(filtered, start, end, chunk == chunkCount - 1);
+        });
+        Adler32 adler32 = new Adler32();
+        adler32.update(filtered, 0, filtered.length);
+
+        //IHDR: width, height, bit depth 8, color type RGB (2) or RGBA (6), default compression, filter and interlace methods.
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        writeInt(header, width);
+        writeInt(header, height);
+        header.write(8);
+        header.write(alpha ? 6 : 2);
+        header.write(0);
+        header.write(0);
+        header.write(0);
+
+        //IDAT: zlib stream, consisting of a header, the deflate stream and the Adler-32 checksum of the uncompressed data.
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        data.write(0x78);
+        data.write(0x9C);
+        for (byte[] chunk : compressed) {
+            data.write(chunk);
+        }
+        writeInt(data, (int) adler32.getValue());
+
+        output.write(SIGNATURE);
+        writeChunk(output, "IHDR", header.toByteArray());
+        writeChunk(output, "IDAT", data.toByteArray());
+        writeChunk(output, "IEND", new byte[0]);
+        output.flush();
+    }
+
+    /**
+     * Filters the given rows and stores them (each preceded by its filter type) in filtered.
+     */
+    private static void filterRows(int[] pixels, int width, int startRow, int endRow, int bytesPerPixel, byte[] filtered) {
+        int rowSize = 1 + width*bytesPerPixel;
+        byte[] previousRow = new byte[width*bytesPerPixel];//zero for the top row.
+        byte[] row = new byte[width*bytesPerPixel];
+        byte[] candidate = new byte[width*bytesPerPixel];
+        byte[] best = new byte[width*bytesPerPixel];
+        if (startRow > 0) toBytes(pixels, width, startRow - 1, bytesPerPixel, previousRow);
+
+        for (int y = startRow; y < endRow; y++) {
+            toBytes(pixels, width, y, bytesPerPixel, row);
+            int offset = y*rowSize;
+            long bestSum = Long.MAX_VALUE;
+            for (int filterType = FILTER_NONE; filterType <= FILTER_PAETH; filterType++) {
+                long sum = filter(filterType, row, previousRow, bytesPerPixel, candidate, bestSum);
+                if (sum < bestSum) {
+                    bestSum = sum;
+                    filtered[offset] = (byte) filterType;
+                    byte[] swap = best;
+                    best = candidate;
+                    candidate = swap;
+                }
+            }
+            System.arraycopy(best, 0, filtered, offset + 1, best.length);
+
+            byte[] swap = previousRow;
+            previousRow = row;
+            row = swap;
+        }
+    }
+
+    private static void toBytes(int[] pixels, int width, int y, int bytesPerPixel, byte[] row) {
+        int offset = y*width;
+        for (int x = 0; x < width; x++) {
+            int color = pixels[offset + x];
+            row[x*bytesPerPixel] = (byte) (color >> 16);
+            row[x*bytesPerPixel + 1] = (byte) (color >> 8);
+            row[x*bytesPerPixel + 2] = (byte) color;
+            if (bytesPerPixel == 4) row[x*bytesPerPixel + 3] = (byte) (color >>> 24);
+        }
+    }
+
+    /**
+     * @param result output: the filtered row.
+     * @param limit filtering stops as soon as the sum reaches this value, since then another filter type compresses better.
+     * @return sum of the absolute values of the filtered bytes (interpreted as signed bytes), a heuristic for how well the row compresses.
+     */
+    private static long filter(int filterType, byte[] row, byte[] previousRow, int bytesPerPixel, byte[] result, long limit) {
+        //separate loops per filter type, so that the inner loops have no branches.
+        long sum = 0;
+        int length = row.length;
+        switch (filterType) {
+            case FILTER_NONE:
+                for (int n = 0; n < length && sum < limit; n++) {
+                    result[n] = row[n];
+                    sum += Math.abs(row[n]);
+                }
+                break;
+            case FILTER_SUB:
+                for (int n = 0; n < bytesPerPixel; n++) {
+                    result[n] = row[n];
+                    sum += Math.abs(row[n]);
+                }
+                for (int n = bytesPerPixel; n < length && sum < limit; n++) {
+                    byte value = (byte) (row[n] - row[n - bytesPerPixel]);
+                    result[n] = value;
+                    sum += Math.abs(value);
+                }
+                break;
+            case FILTER_UP:
+                for (int n = 0; n < length && sum < limit; n++) {
+                    byte value = (byte) (row[n] - previousRow[n]);
+                    result[n] = value;
+                    sum += Math.abs(value);
+                }
+                break;
+            case FILTER_AVERAGE:
+                for (int n = 0; n < bytesPerPixel; n++) {
+                    byte value = (byte) (row[n] - ((previousRow[n] & 0xFF) >> 1));
+                    result[n] = value;
+                    sum += Math.abs(value);
+                }
+                for (int n = bytesPerPixel; n < length && sum < limit; n++) {
+                    byte value = (byte) (row[n] - (((row[n - bytesPerPixel] & 0xFF) + (previousRow[n] & 0xFF)) >> 1));
+                    result[n] = value;
+                    sum += Math.abs(value);
+                }
+                break;
+            default:
+                for (int n = 0; n < bytesPerPixel; n++) {
+                    byte value = (byte) (row[n] - previousRow[n]);//paeth(0, up, 0) = up.
+                    result[n] = value;
+                    sum += Math.abs(value);
+                }
+                for (int n = bytesPerPixel; n < length && sum < limit; n++) {
+                    int predictor = paeth(row[n - bytesPerPixel] & 0xFF, previousRow[n] & 0xFF, previousRow[n - bytesPerPixel] & 0xFF);
+                    byte value = (byte) (row[n] - predictor);
+                    result[n] = value;
+                    sum += Math.abs(value);
+                }
+                break;
+        }
+        return sum;
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) return a;
+        if (pb <= pc) return b;
+        return c;
+    }
+
+    /**
+     * Compresses data[start] to data[end - 1] as part of a deflate stream, using the preceding data as dictionary.
+     *
+     * @param last if false, then the output ends with a sync flush instead of the end of the stream.
+     */
+    private byte[] compress(byte[] data, int start, int end, boolean last) {
+        Deflater deflater = new Deflater(compressionLevel, true);
+        try {
+            int dictionaryStart = Math.max(0, start - DICTIONARY_SIZE);
+            if (start > dictionaryStart) deflater.setDictionary(data, dictionaryStart, start - dictionaryStart);
+            deflater.setInput(data, start, end - start);
+            if (last) deflater.finish();
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream((end - start)/2);
+            byte[] buffer = new byte[64*1024];
+            while (true) {
+                int length = deflater.deflate(buffer, 0, buffer.length, last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+                output.write(buffer, 0, length);
+                //a sync flush is complete when it does not fill the buffer.
+                if (last ? deflater.finished() : length < buffer.length) break;
+            }
+            return output.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void writeChunk(OutputStream output, String type, byte[] data) throws IOException {
+        byte[] typeBytes = type.getBytes("US-ASCII");
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data);
+
+        byte[] length = new byte[]{(byte) (data.length >>> 24), (byte) (data.length >>> 16), (byte) (data.length >>> 8), (byte) data.length};
+        output.write(length);
+        output.write(typeBytes);
+        output.write(data);
+        int checksum = (int) crc.getValue();
+        output.write(new byte[]{(byte) (checksum >>> 24), (byte) (checksum >>> 16), (byte) (checksum >>> 8), (byte) checksum});
+    }
+
+    private static void writeInt(ByteArrayOutputStream output, int value) {
+        output.write(value >>> 24);
+        output.write(value >>> 16);
+        output.write(value >>> 8);
+        output.write(value);
+    }
+}
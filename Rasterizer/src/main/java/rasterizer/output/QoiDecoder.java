@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.output;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static rasterizer.output.QoiEncoder.*;
+
+/**
+ * Decodes images in the QOI format, see QoiEncoder.
+ *
+ * @author A.C. Kockx
+ */
+public final class QoiDecoder {
+    private QoiDecoder() {
+    }
+
+    public static BufferedImage read(Path file) throws IOException {
+        if (file == null) throw new IllegalArgumentException("file == null");
+
+        return decode(Files.readAllBytes(file));
+    }
+
+    /**
+     * @param data QOI file.
+     * @return decoded image of type TYPE_INT_ARGB.
+     * @throws IOException if data is not a valid QOI file.
+     */
+    public static BufferedImage decode(byte[] data) throws IOException {
+        if (data == null) throw new IllegalArgumentException("data == null");
+        if (data.length < HEADER_SIZE + END_MARKER.length || readInt(data, 0) != MAGIC) throw new IOException("Not a QOI file");
+        int width = readInt(data, 4);
+        int height = readInt(data, 8);
+        if (width <= 0 || height <= 0 || (long) width*height > Integer.MAX_VALUE) throw new IOException("Invalid image size " + width + "x" + height);
+
+        int pixelCount = width*height;
+        int[] pixels = new int[pixelCount];
+        int[] index = new int[64];//previously seen pixels.
+        int pixel = 0xFF000000;
+        int end = data.length - END_MARKER.length;
+        int position = HEADER_SIZE;
+        try {
+            for (int n = 0; n < pixelCount; n++) {
+                if (position >= end) throw new IOException("Unexpected end of data");
+                int op = data[position++] & 0xFF;
+                if (op == OP_RGB) {
+                    pixel = (pixel & 0xFF000000) | (data[position] & 0xFF) << 16 | (data[position + 1] & 0xFF) << 8 | (data[position + 2] & 0xFF);
+                    position += 3;
+                } else if (op == OP_RGBA) {
+                    pixel = (data[position + 3] & 0xFF) << 24 | (data[position] & 0xFF) << 16 | (data[position + 1] & 0xFF) << 8 | (data[position + 2] & 0xFF);
+                    position += 4;
+                } else if ((op & MASK) == OP_INDEX) {
+                    pixel = index[op];
+                } else if ((op & MASK) == OP_DIFF) {
+                    pixel = add(pixel, ((op >> 4) & 3) - 2, ((op >> 2) & 3) - 2, (op & 3) - 2);
+                } else if ((op & MASK) == OP_LUMA) {
+                    int dg = (op & 0x3F) - 32;
+                    int second = data[position++] & 0xFF;
+                    pixel = add(pixel, dg + (second >> 4) - 8, dg, dg + (second & 0x0F) - 8);
+                } else {//OP_RUN.
+                    int run = Math.min((op & 0x3F) + 1, pixelCount - n);
+                    for (int r = 0; r < run; r++) {
+                        pixels[n + r] = pixel;
+                    }
+                    n += run - 1;
+                    continue;
+                }
+
+                index[hash(pixel)] = pixel;
+                pixels[n] = pixel;
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Unexpected end of data");
+        }
+
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, width, height, pixels, 0, width);
+        return image;
+    }
+
+    private static int add(int argb, int dr, int dg, int db) {
+        int r = (argb >> 16) + dr;
+        int g = (argb >> 8) + dg;
+        int b = argb + db;
+        return (argb & 0xFF000000) | (r & 0xFF) << 16 | (g & 0xFF) << 8 | (b & 0xFF);
+    }
+
+    private static int readInt(byte[] data, int position) {
+        return (data[position] & 0xFF) << 24 | (data[position + 1] & 0xFF) << 16 | (data[position + 2] & 0xFF) << 8 | (data[position + 3] & 0xFF);
+    }
+}
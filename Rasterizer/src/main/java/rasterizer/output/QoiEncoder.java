@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.output;
+
+import java.util.Arrays;
+
+/**
+ * Encodes images in the QOI format ("Quite OK Image format", see https://qoiformat.org/qoi-specification.pdf).
+ *
+ * QOI is lossless like PNG, but encodes each pixel with a few simple operations in a single pass (no entropy coding),
+ * which makes it many times faster than PNG at a somewhat larger file size. This makes it suitable for intermediate
+ * image sequences (e.g. frames of an animation that are converted to a video afterwards), where encoding speed matters more than file size.
+ * See QoiDecoder for reading QOI files.
+ *
+ * @author A.C. Kockx
+ */
+public final class QoiEncoder {
+    static final int MAGIC = 0x716F6966;//"qoif".
+    static final int HEADER_SIZE = 14;
+    static final byte[] END_MARKER = new byte[]{0, 0, 0, 0, 0, 0, 0, 1};
+    static final int OP_INDEX = 0x00;
+    static final int OP_DIFF = 0x40;
+    static final int OP_LUMA = 0x80;
+    static final int OP_RUN = 0xC0;
+    static final int OP_RGB = 0xFE;
+    static final int OP_RGBA = 0xFF;
+    static final int MASK = 0xC0;
+    static final int MAX_RUN_LENGTH = 62;
+
+    private QoiEncoder() {
+    }
+
+    /**
+     * @param pixels color per pixel in ARGB format, one row after the other, starting with the top row.
+     *               The image is stored without alpha channel if all pixels are opaque.
+     * @return the QOI file.
+     */
+    public static byte[] encode(int[] pixels, int width, int height) {
+        if (pixels == null) throw new IllegalArgumentException("pixels == null");
+        if (width <= 0) throw new IllegalArgumentException("width <= 0");
+        if (height <= 0) throw new IllegalArgumentException("height <= 0");
+        if (pixels.length < width*height) throw new IllegalArgumentException("pixels.length < width*height");
+
+        int pixelCount = width*height;
+        boolean alpha = false;
+        for (int n = 0; n < pixelCount; n++) {
+            if (pixels[n] >>> 24 != 0xFF) {
+                alpha = true;
+                break;
+            }
+        }
+
+        //worst case: every pixel stored with OP_RGBA.
+        byte[] output = new byte[HEADER_SIZE + pixelCount*5 + END_MARKER.length];
+        int position = 0;
+        position = writeInt(output, position, MAGIC);
+        position = writeInt(output, position, width);
+        position = writeInt(output, position, height);
+        output[position++] = (byte) (alpha ? 4 : 3);
+        output[position++] = 0;//sRGB with linear alpha.
+
+        int[] index = new int[64];//previously seen pixels.
+        int previous = 0xFF000000;
+        int run = 0;
+        for (int n = 0; n < pixelCount; n++) {
+            int pixel = pixels[n];
+            if (pixel == previous) {
+                run++;
+                if (run == MAX_RUN_LENGTH || n == pixelCount - 1) {
+                    output[position++] = (byte) (OP_RUN | (run - 1));
+                    run = 0;
+                }
+                continue;
+            }
+
+            if (run > 0) {
+                output[position++] = (byte) (OP_RUN | (run - 1));
+                run = 0;
+            }
+
+            int hash = hash(pixel);
+            if (index[hash] == pixel) {
+                output[position++] = (byte) (OP_INDEX | hash);
+            } else {
+                index[hash] = pixel;
+                if ((pixel >>> 24) == (previous >>> 24)) {
+                    //differences wrap around, e.g. 0 - 255 = 1.
+                    int dr = (byte) ((pixel >> 16) - (previous >> 16));
+                    int dg = (byte) ((pixel >> 8) - (previous >> 8));
+                    int db = (byte) (pixel - previous);
+                    int drdg = dr - dg;
+                    int dbdg = db - dg;
+                    if (dr >= -2 && dr <= 1 && dg >= -2 && dg <= 1 && db >= -2 && db <= 1) {
+                        output[position++] = (byte) (OP_DIFF | (dr + 2) << 4 | (dg + 2) << 2 | (db + 2));
+                    } else if (dg >= -32 && dg <= 31 && drdg >= -8 && drdg <= 7 && dbdg >= -8 && dbdg <= 7) {
+                        output[position++] = (byte) (OP_LUMA | (dg + 32));
+                        output[position++] = (byte) ((drdg + 8) << 4 | (dbdg + 8));
+                    } else {
+                        output[position++] = (byte) OP_RGB;
+                        output[position++] = (byte) (pixel >> 16);
+                        output[position++] = (byte) (pixel >> 8);
+                        output[position++] = (byte) pixel;
+                    }
+                } else {
+                    output[position++] = (byte) OP_RGBA;
+                    output[position++] = (byte) (pixel >> 16);
+                    output[position++] = (byte) (pixel >> 8);
+                    output[position++] = (byte) pixel;
+                    output[position++] = (byte) (pixel >>> 24);
+                }
+            }
+            previous = pixel;
+        }
+
+        System.arraycopy(END_MARKER, 0, output, position, END_MARKER.length);
+        position += END_MARKER.length;
+        return Arrays.copyOf(output, position);
+    }
+
+    /**
+     * @return index in the array of previously seen pixels.
+     */
+    static int hash(int argb) {
+        int r = (argb >> 16) & 0xFF;
+        int g = (argb >> 8) & 0xFF;
+        int b = argb & 0xFF;
+        int a = argb >>> 24;
+        return (r*3 + g*5 + b*7 + a*11) & 63;
+    }
+
+    private static int writeInt(byte[] output, int position, int value) {
+        output[position] = (byte) (value >>> 24);
+        output[position + 1] = (byte) (value >>> 16);
+        output[position + 2] = (byte) (value >>> 8);
+        output[position + 3] = (byte) value;
+        return position + 4;
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.output;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Uncompressed RGB TIFF file whose image data is written in horizontal strips, in any order and from multiple threads at the same time,
+ * for images that are much larger than the available memory. Since the strips are not compressed, the position of every strip in the file
+ * is known in advance: the header is written when the file is opened and each strip is written directly to its own part of the file,
+ * so only the strips that are being rendered need to be in memory. Files larger than 4 GB are written as BigTIFF files.
+ *
+ * @author A.C. Kockx
+ */
+public final class StripedTiffFile implements Closeable {
+    private static final int BYTES_PER_PIXEL = 3;
+    //classic TIFF files use 32 bit offsets.
+    private static final long MAX_CLASSIC_TIFF_SIZE = 0xFFFFFFFFL;
+    private static final int ENTRY_COUNT = 13;
+    private static final int TYPE_SHORT = 3;
+    private static final int TYPE_LONG = 4;
+    private static final int TYPE_RATIONAL = 5;
+    private static final int TYPE_LONG8 = 16;
+
+    private final int width;
+    private final int height;
+    private final int rowsPerStrip;
+    private final int stripCount;
+    private final boolean bigTiff;
+    //position of the first strip in the file, the strips follow each other.
+    private final long dataOffset;
+    private final FileChannel channel;
+    //true if the file already had the size of this image when it was opened.
+    private final boolean containsPreviousStrips;
+
+    /**
+     * Opens the given file, or creates it if it does not exist, and writes the header. Strips that have been written to the file before
+     * (e.g. by a render that was interrupted) are kept if the file has the same size and layout.
+     *
+     * @param rowsPerStrip number of rows in each strip, except the last strip which can have fewer rows.
+     */
+    public StripedTiffFile(Path file, int width, int height, int rowsPerStrip) throws IOException {
+        if (file == null) throw new IllegalArgumentException("file == null");
+        if (width <= 0) throw new IllegalArgumentException("width <= 0");
+        if (height <= 0) throw new IllegalArgumentException("height <= 0");
+        if (rowsPerStrip <= 0) throw new IllegalArgumentException("rowsPerStrip <= 0");
+        if ((long) width*rowsPerStrip*BYTES_PER_PIXEL > Integer.MAX_VALUE) throw new IllegalArgumentException("strip too large");
+
+        this.width = width;
+        this.height = height;
+        this.rowsPerStrip = Math.min(rowsPerStrip, height);
+        stripCount = (height + this.rowsPerStrip - 1)/this.rowsPerStrip;
+
+        //the size of the header does not depend on the strip offsets, so it is created once to get its size and then again with the offsets.
+        long imageSize = (long) width*height*BYTES_PER_PIXEL;
+        bigTiff = createHeader(false, 0).length + imageSize > MAX_CLASSIC_TIFF_SIZE;
+        dataOffset = createHeader(bigTiff, 0).length;
+        byte[] header = createHeader(bigTiff, dataOffset);
+
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long size = dataOffset + imageSize;
+            containsPreviousStrips = channel.size() == size;
+            if (channel.size() > size) channel.truncate(size);
+            write(ByteBuffer.wrap(header), 0);
+            //extend the file to its full size without writing the strips, on most file systems this creates a sparse file.
+            if (channel.size() < size) write(ByteBuffer.wrap(new byte[1]), size - 1);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getRowsPerStrip() {
+        return rowsPerStrip;
+    }
+
+    public int getStripCount() {
+        return stripCount;
+    }
+
+    public boolean isBigTiff() {
+        return bigTiff;
+    }
+
+    /**
+     * @return true if the file already existed with the size of this image, so that the strips that were written to it before have been kept.
+     *         False if the file has been created or had a different size, then the contents of all strips are undefined (e.g. zeros).
+     */
+    public boolean containsPreviousStrips() {
+        return containsPreviousStrips;
+    }
+
+    /**
+     * @return number of rows in the given strip.
+     */
+    public int getStripRowCount(int strip) {
+        if (strip < 0 || strip >= stripCount) throw new IllegalArgumentException("strip " + strip + " does not exist");
+        return Math.min(rowsPerStrip, height - strip*rowsPerStrip);
+    }
+
+    /**
+     * Writes the given strip. Can be called from multiple threads at the same time, for different strips.
+     *
+     * @param pixels 3 bytes (red, green, blue) per pixel, one row after the other, from the position to the limit of the buffer.
+     */
+    public void writeStrip(int strip, ByteBuffer pixels) throws IOException {
+        long stripSize = (long) getStripRowCount(strip)*width*BYTES_PER_PIXEL;
+        if (pixels.remaining() != stripSize) throw new IllegalArgumentException("pixels.remaining() != " + stripSize);
+
+        write(pixels, dataOffset + (long) strip*rowsPerStrip*width*BYTES_PER_PIXEL);
+    }
+
+    /**
+     * Forces the strips that have been written to disk, e.g. before recording that they are complete.
+     */
+    public void force() throws IOException {
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void write(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * @return the header and a single image file directory (IFD), followed by the values that do not fit in the IFD entries.
+     */
+    private byte[] createHeader(boolean bigTiff, long dataOffset) {
+        int headerSize = bigTiff ? 16 : 8;
+        int ifdSize = bigTiff ? 8 + ENTRY_COUNT*20 + 8 : 2 + ENTRY_COUNT*12 + 4;
+        ByteBuffer buffer = ByteBuffer.allocate(headerSize + ifdSize + 64 + 2*stripCount*(bigTiff ? 8 : 4)).order(ByteOrder.LITTLE_ENDIAN);
+
+        //header.
+        buffer.put((byte) 'I').put((byte) 'I');
+        if (bigTiff) {
+            buffer.putShort((short) 43).putShort((short) 8).putShort((short) 0).putLong(headerSize);
+        } else {
+            buffer.putShort((short) 42).putInt(headerSize);
+        }
+
+        //the entries must be sorted by tag.
+        long[] stripOffsets = new long[stripCount];
+        long[] stripByteCounts = new long[stripCount];
+        for (int strip = 0; strip < stripCount; strip++) {
+            stripOffsets[strip] = dataOffset + (long) strip*rowsPerStrip*width*BYTES_PER_PIXEL;
+            stripByteCounts[strip] = (long) getStripRowCount(strip)*width*BYTES_PER_PIXEL;
+        }
+        if (bigTiff) {
+            buffer.putLong(ENTRY_COUNT);
+        } else {
+            buffer.putShort((short) ENTRY_COUNT);
+        }
+        int valuePosition = headerSize + ifdSize;
+        valuePosition = putEntry(buffer, bigTiff, 256, TYPE_LONG, new long[]{width}, valuePosition);//ImageWidth.
+        valuePosition = putEntry(buffer, bigTiff, 257, TYPE_LONG, new long[]{height}, valuePosition);//ImageLength.
+        valuePosition = putEntry(buffer, bigTiff, 258, TYPE_SHORT, new long[]{8, 8, 8}, valuePosition);//BitsPerSample.
+        valuePosition = putEntry(buffer, bigTiff, 259, TYPE_SHORT, new long[]{1}, valuePosition);//Compression: none.
+        valuePosition = putEntry(buffer, bigTiff, 262, TYPE_SHORT, new long[]{2}, valuePosition);//PhotometricInterpretation: RGB.
+        valuePosition = putEntry(buffer, bigTiff, 273, bigTiff ? TYPE_LONG8 : TYPE_LONG, stripOffsets, valuePosition);//StripOffsets.
+        valuePosition = putEntry(buffer, bigTiff, 277, TYPE_SHORT, new long[]{BYTES_PER_PIXEL}, valuePosition);//SamplesPerPixel.
+        valuePosition = putEntry(buffer, bigTiff, 278, TYPE_LONG, new long[]{rowsPerStrip}, valuePosition);//RowsPerStrip.
+        valuePosition = putEntry(buffer, bigTiff, 279, TYPE_LONG, stripByteCounts, valuePosition);//StripByteCounts.
+        valuePosition = putEntry(buffer, bigTiff, 282, TYPE_RATIONAL, new long[]{72, 1}, valuePosition);//XResolution.
+        valuePosition = putEntry(buffer, bigTiff, 283, TYPE_RATIONAL, new long[]{72, 1}, valuePosition);//YResolution.
+        valuePosition = putEntry(buffer, bigTiff, 284, TYPE_SHORT, new long[]{1}, valuePosition);//PlanarConfiguration: interleaved.
+        valuePosition = putEntry(buffer, bigTiff, 296, TYPE_SHORT, new long[]{2}, valuePosition);//ResolutionUnit: inch.
+        //offset of the next IFD, there is none.
+        if (bigTiff) {
+            buffer.putLong(0);
+        } else {
+            buffer.putInt(0);
+        }
+
+        //start the image data at a multiple of 8 bytes.
+        return Arrays.copyOf(buffer.array(), (valuePosition + 7)/8*8);
+    }
+
+    /**
+     * Puts an IFD entry at the position of the given buffer. If the values do not fit in the entry,
+     * then they are written at the given value position instead and the entry contains their offset.
+     *
+     * @param values for TYPE_RATIONAL pairs of numerator and denominator.
+     * @return value position for the next entry.
+     */
+    private static int putEntry(ByteBuffer buffer, boolean bigTiff, int tag, int type, long[] values, int valuePosition) {
+        int valueSize = type == TYPE_SHORT ? 2 : type == TYPE_LONG8 ? 8 : 4;
+        int count = type == TYPE_RATIONAL ? values.length/2 : values.length;
+        int fieldSize = bigTiff ? 8 : 4;
+        buffer.putShort((short) tag).putShort((short) type);
+        if (bigTiff) {
+            buffer.putLong(count);
+        } else {
+            buffer.putInt(count);
+        }
+
+        int fieldPosition = buffer.position();
+        int position = fieldPosition;
+        if (values.length*valueSize > fieldSize) {
+            if (bigTiff) {
+                buffer.putLong(fieldPosition, valuePosition);
+            } else {
+                buffer.putInt(fieldPosition, valuePosition);
+            }
+            position = valuePosition;
+            //values must start at a word boundary.
+            valuePosition += (values.length*valueSize + 1)/2*2;
+        }
+        for (long value : values) {
+            if (valueSize == 2) {
+                buffer.putShort(position, (short) value);
+            } else if (valueSize == 4) {
+                buffer.putInt(position, (int) value);
+            } else {
+                buffer.putLong(position, value);
+            }
+            position += valueSize;
+        }
+        buffer.position(fieldPosition + fieldSize);
+        return valuePosition;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.regression;
+
+import com.jogamp.common.nio.Buffers;
+import com.jogamp.opengl.GL3;
+import com.jogamp.opengl.GLAutoDrawable;
+import com.jogamp.opengl.GLCapabilities;
+import com.jogamp.opengl.GLDrawableFactory;
+import com.jogamp.opengl.GLEventListener;
+import com.jogamp.opengl.GLOffscreenAutoDrawable;
+import com.jogamp.opengl.GLProfile;
+import rasterizer.cpu.FrameBuffer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Image regression test that renders with OpenGL into an offscreen framebuffer, so that the GLSL shaders themselves are tested
+ * instead of their Java ports. The image is rendered by the GLEventListener of an experiment, the same code that draws the experiment
+ * on the screen, and is then read back into the frame buffer of the test.
+ *
+ * No GPU is needed: these tests can be run with Mesa's software renderer (environment variable LIBGL_ALWAYS_SOFTWARE=true,
+ * on a machine without a display e.g. with xvfb-run).
+ *
+ * @author A.C. Kockx
+ */
+public final class GpuRegressionTest extends RegressionTest {
+    private final GLEventListener renderer;
+    //created when the test is rendered for the first time.
+    private GLOffscreenAutoDrawable drawable = null;
+    private FrameBuffer targetFrameBuffer = null;
+    private ByteBuffer pixels = null;
+
+    /**
+     * @param renderer renders the image, it is called in the same way as for an on-screen canvas of the size of the test.
+     */
+    public GpuRegressionTest(String name, String goldenImageName, int width, int height, double minPsnr, double maxRenderTimeInMilliseconds,
+                             GLEventListener renderer) {
+        super(name, goldenImageName, width, height, minPsnr, maxRenderTimeInMilliseconds);
+        if (renderer == null) throw new IllegalArgumentException("renderer == null");
+
+        this.renderer = renderer;
+    }
+
+    /**
+     * @return null if OpenGL 3 can be used for offscreen rendering, otherwise the reason why not.
+     */
+    public static String getUnavailableReason() {
+        try {
+            GLProfile.get(GLProfile.GL3);
+            return null;
+        } catch (RuntimeException | LinkageError e) {
+            return e.toString();
+        }
+    }
+
+    @Override
+    public void render(FrameBuffer frameBuffer) {
+        if (drawable == null) {
+            GLProfile profile = GLProfile.get(GLProfile.GL3);
+            GLCapabilities capabilities = new GLCapabilities(profile);
+            capabilities.setOnscreen(false);
+            capabilities.setDepthBits(24);
+            drawable = GLDrawableFactory.getFactory(profile).createOffscreenAutoDrawable(null, capabilities, null, getWidth(), getHeight());
+            drawable.addGLEventListener(renderer);
+            //listeners are called in the order in which they were added, so the image is read back after it has been rendered.
+            drawable.addGLEventListener(readBack);
+            pixels = Buffers.newDirectByteBuffer(4*getWidth()*getHeight());
+        }
+
+        targetFrameBuffer = frameBuffer;
+        drawable.display();
+        targetFrameBuffer = null;
+    }
+
+    @Override
+    public void dispose() {
+        if (drawable == null) return;
+
+        //this calls the dispose method of the renderer.
+        drawable.destroy();
+        drawable = null;
+    }
+
+    private final GLEventListener readBack = new GLEventListener() {
+        @Override
+        public void init(GLAutoDrawable drawable) {
+        }
+
+        @Override
+        public void reshape(GLAutoDrawable drawable, int x, int y, int width, int height) {
+        }
+
+        @Override
+        public void display(GLAutoDrawable drawable) {
+            GL3 gl = drawable.getGL().getGL3();
+            int width = getWidth();
+            int height = getHeight();
+            gl.glBindFramebuffer(GL3.GL_READ_FRAMEBUFFER, drawable.getContext().getDefaultReadFramebuffer());
+            gl.glPixelStorei(GL3.GL_PACK_ALIGNMENT, 1);
+            pixels.clear();
+            gl.glReadPixels(0, 0, width, height, GL3.GL_RGBA, GL3.GL_UNSIGNED_BYTE, pixels);
+            int error = gl.glGetError();
+            if (error != 0) throw new IllegalStateException("OpenGL error " + error + " while rendering " + getName());
+
+            //row 0 is the bottom row in OpenGL, but the top row in FrameBuffer.
+            int[] colors = targetFrameBuffer.getColors();
+            for (int row = 0; row < height; row++) {
+                int offset = (height - 1 - row)*width;
+                for (int column = 0; column < width; column++) {
+                    int index = 4*(row*width + column);
+                    colors[offset + column] = 0xFF000000 | (pixels.get(index) & 0xFF) << 16 | (pixels.get(index + 1) & 0xFF) << 8 | (pixels.get(index + 2) & 0xFF);
+                }
+            }
+        }
+
+        @Override
+        public void dispose(GLAutoDrawable drawable) {
+        }
+    };
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.regression;
+
+import rasterizer.cpu.FrameBuffer;
+import rasterizer.output.PngEncoder;
+import rasterizer.util.ResourceLoader;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs image regression tests. Each test is rendered a few times: the first runs warm up the JIT compiler,
+ * the median time of the remaining runs is compared with the maximum render time of the test.
+ * The rendered image is compared with the golden image in the resource package /rasterizer/golden/ using the peak signal-to-noise ratio.
+ *
+ * @author A.C. Kockx
+ */
+public final class RegressionRunner {
+    private static final String GOLDEN_RESOURCE_PATH = "/rasterizer/golden/";
+    private static final int WARM_UP_RUN_COUNT = 3;
+    private static final int TIMED_RUN_COUNT = 5;
+    private static final PngEncoder PNG_ENCODER = new PngEncoder();
+
+    private RegressionRunner() {
+    }
+
+    /**
+     * Runs the given tests and prints the results.
+     * The images of failed tests are written to a temporary directory, so that they can be inspected.
+     *
+     * @param updateDirectory if not null, then the rendered images are written to this directory as the new golden images
+     *                        and are not compared with the current golden images.
+     * @return true if all tests passed.
+     */
+    public static boolean run(List<RegressionTest> tests, Path updateDirectory) throws IOException {
+        ResourceLoader loader = new ResourceLoader(GOLDEN_RESOURCE_PATH);
+        Path failureDirectory = null;
+        int failureCount = 0;
+        for (RegressionTest test : tests) {
+            FrameBuffer frameBuffer = new FrameBuffer(test.getWidth(), test.getHeight());
+            double renderTime;
+            try {
+                renderTime = measureRenderTime(test, frameBuffer);
+            } finally {
+                test.dispose();
+            }
+            BufferedImage image = frameBuffer.toImage();
+            String imageFileName = test.getName() + ".png";
+
+            if (updateDirectory != null) {
+                Files.createDirectories(updateDirectory);
+                writeImage(frameBuffer, updateDirectory.resolve(test.getGoldenImageName()));
+                System.out.println(String.format("%-32s updated golden image (%.1f ms)", test.getName(), renderTime));
+                continue;
+            }
+
+            String failure = null;
+            double psnr = Double.NaN;
+            BufferedImage goldenImage = readGoldenImage(loader, test.getGoldenImageName());
+            if (goldenImage == null) {
+                failure = "golden image " + GOLDEN_RESOURCE_PATH + test.getGoldenImageName() + " not found";
+            } else if (goldenImage.getWidth() != image.getWidth() || goldenImage.getHeight() != image.getHeight()) {
+                failure = "golden image has size " + goldenImage.getWidth() + "x" + goldenImage.getHeight();
+            } else {
+                psnr = calculatePsnr(image, goldenImage);
+                if (psnr < test.getMinPsnr()) {
+                    failure = String.format("PSNR %.2f dB < %.2f dB", psnr, test.getMinPsnr());
+                } else if (renderTime > test.getMaxRenderTimeInMilliseconds()) {
+                    failure = String.format("render time %.1f ms > %.1f ms", renderTime, test.getMaxRenderTimeInMilliseconds());
+                }
+            }
+            if (failure == null) failure = test.check();
+
+            if (failure == null) {
+                System.out.println(String.format("%-32s passed (PSNR %.2f dB, %.1f ms)", test.getName(), psnr, renderTime));
+            } else {
+                failureCount++;
+                if (failureDirectory == null) failureDirectory = Files.createTempDirectory("regression");
+                Path imagePath = failureDirectory.resolve(imageFileName);
+                writeImage(frameBuffer, imagePath);
+                System.out.println(String.format("%-32s FAILED: %s, rendered image written to %s", test.getName(), failure, imagePath));
+            }
+        }
+
+        if (updateDirectory == null) System.out.println((tests.size() - failureCount) + " of " + tests.size() + " tests passed.");
+        return failureCount == 0;
+    }
+
+    private static void writeImage(FrameBuffer frameBuffer, Path path) throws IOException {
+        Files.write(path, PNG_ENCODER.encode(frameBuffer.getColors(), frameBuffer.getWidth(), frameBuffer.getHeight()));
+    }
+
+    /**
+     * @return median render time in milliseconds.
+     */
+    private static double measureRenderTime(RegressionTest test, FrameBuffer frameBuffer) {
+        for (int run = 0; run < WARM_UP_RUN_COUNT; run++) {
+            frameBuffer.clear(0, 0, 0);
+            test.render(frameBuffer);
+        }
+
+        double[] renderTimes = new double[TIMED_RUN_COUNT];
+        for (int run = 0; run < TIMED_RUN_COUNT; run++) {
+            frameBuffer.clear(0, 0, 0);
+            long startTime = System.nanoTime();
+            test.render(frameBuffer);
+            renderTimes[run] = (System.nanoTime() - startTime)/1e6;
+        }
+        Arrays.sort(renderTimes);
+        return renderTimes[TIMED_RUN_COUNT/2];
+    }
+
+    /**
+     * @return the golden image, or null if it does not exist.
+     */
+    private static BufferedImage readGoldenImage(ResourceLoader loader, String goldenImageName) throws IOException {
+        try (InputStream inputStream = loader.loadResource(goldenImageName)) {
+            return ImageIO.read(inputStream);
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Calculates the peak signal-to-noise ratio of the red, green and blue components of the given images,
+     * which must have the same size.
+     *
+     * @return PSNR in dB, or positive infinity if the images are equal.
+     */
+    public static double calculatePsnr(BufferedImage image, BufferedImage referenceImage) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (referenceImage.getWidth() != width || referenceImage.getHeight() != height) throw new IllegalArgumentException("images have different sizes");
+
+        int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+        int[] referencePixels = referenceImage.getRGB(0, 0, width, height, null, 0, width);
+        long squaredErrorSum = 0;
+        for (int n = 0; n < pixels.length; n++) {
+            for (int shift = 0; shift < 24; shift += 8) {
+                int difference = ((pixels[n] >> shift) & 0xFF) - ((referencePixels[n] >> shift) & 0xFF);
+                squaredErrorSum += difference*difference;
+            }
+        }
+        if (squaredErrorSum == 0) return Double.POSITIVE_INFINITY;
+
+        double meanSquaredError = squaredErrorSum/(3.0*pixels.length);
+        return 10*Math.log10(255*255/meanSquaredError);
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.regression;
+
+import rasterizer.cpu.FrameBuffer;
+
+/**
+ * Image regression test: renders an image at fixed parameters, which RegressionRunner compares with a golden image.
+ *
+ * @author A.C. Kockx
+ */
+public abstract class RegressionTest {
+    private final String name;
+    private final String goldenImageName;
+    private final int width;
+    private final int height;
+    private final double minPsnr;
+    private final double maxRenderTimeInMilliseconds;
+
+    /**
+     * @param name of the test, also used as the name of the golden image (name + ".png").
+     * @param width of the image in pixels.
+     * @param height of the image in pixels.
+     * @param minPsnr minimum peak signal-to-noise ratio in dB between the rendered image and the golden image.
+     * @param maxRenderTimeInMilliseconds maximum median render time.
+     */
+    protected RegressionTest(String name, int width, int height, double minPsnr, double maxRenderTimeInMilliseconds) {
+        this(name, name + ".png", width, height, minPsnr, maxRenderTimeInMilliseconds);
+    }
+
+    /**
+     * @param goldenImageName file name of the golden image, e.g. to compare a test with the golden image of another test.
+     */
+    protected RegressionTest(String name, String goldenImageName, int width, int height, double minPsnr, double maxRenderTimeInMilliseconds) {
+        if (name == null) throw new IllegalArgumentException("name == null");
+        if (goldenImageName == null) throw new IllegalArgumentException("goldenImageName == null");
+        if (width <= 0) throw new IllegalArgumentException("width <= 0");
+        if (height <= 0) throw new IllegalArgumentException("height <= 0");
+        if (maxRenderTimeInMilliseconds <= 0) throw new IllegalArgumentException("maxRenderTimeInMilliseconds <= 0");
+
+        this.name = name;
+        this.goldenImageName = goldenImageName;
+        this.width = width;
+        this.height = height;
+        this.minPsnr = minPsnr;
+        this.maxRenderTimeInMilliseconds = maxRenderTimeInMilliseconds;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getGoldenImageName() {
+        return goldenImageName;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public double getMinPsnr() {
+        return minPsnr;
+    }
+
+    public double getMaxRenderTimeInMilliseconds() {
+        return maxRenderTimeInMilliseconds;
+    }
+
+    /**
+     * Renders the image into the given frame buffer, which has been cleared to black.
+     * This method is called several times, it must render the same image every time.
+     */
+    public abstract void render(FrameBuffer frameBuffer);
+
+    /**
+     * Checks the results of the last call to method render other than the image, e.g. statistics of the rasterizer. Passes by default.
+     *
+     * @return null if the results are correct, otherwise a description of the failure.
+     */
+    public String check() {
+        return null;
+    }
+
+    /**
+     * Releases the resources of this test, called after the test has been run. Does nothing by default.
+     */
+    public void dispose() {
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.scene;
+
+import com.jogamp.opengl.math.Matrix4;
+
+/**
+ * Axis-aligned bounding box.
+ *
+ * @author A.C. Kockx
+ */
+public final class BoundingBox {
+    private final float[] min;
+    private final float[] max;
+
+    /**
+     * @param min coordinates (x, y, z) of the corner with the smallest coordinates.
+     * @param max coordinates (x, y, z) of the corner with the largest coordinates.
+     */
+    public BoundingBox(float[] min, float[] max) {
+        if (min == null || min.length != 3) throw new IllegalArgumentException("min must contain 3 coordinates");
+        if (max == null || max.length != 3) throw new IllegalArgumentException("max must contain 3 coordinates");
+        for (int d = 0; d < 3; d++) {
+            if (max[d] < min[d]) throw new IllegalArgumentException("max < min");
+        }
+
+        this.min = min.clone();
+        this.max = max.clone();
+    }
+
+    /**
+     * @param coordinates (x, y, z) of one or more points.
+     * @return the smallest bounding box that contains all given points.
+     */
+    public static BoundingBox fromPoints(float[] coordinates) {
+        if (coordinates == null || coordinates.length < 3 || coordinates.length%3 != 0) throw new IllegalArgumentException("coordinates must contain at least one point");
+
+        float[] min = {Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY};
+        float[] max = {Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+        for (int index = 0; index < coordinates.length; index += 3) {
+            for (int d = 0; d < 3; d++) {
+                min[d] = Math.min(min[d], coordinates[index + d]);
+                max[d] = Math.max(max[d], coordinates[index + d]);
+            }
+        }
+        return new BoundingBox(min, max);
+    }
+
+    /**
+     * @return the smallest bounding box that contains the given sphere.
+     */
+    public static BoundingBox fromSphere(float[] center, float radius) {
+        if (radius < 0) throw new IllegalArgumentException("radius < 0");
+
+        return new BoundingBox(new float[]{center[0] - radius, center[1] - radius, center[2] - radius},
+                               new float[]{center[0] + radius, center[1] + radius, center[2] + radius});
+    }
+
+    public float getMin(int dimension) {
+        return min[dimension];
+    }
+
+    public float getMax(int dimension) {
+        return max[dimension];
+    }
+
+    /**
+     * Copies the min and max coordinates of this box to the given array at the given offset, in the order minX, minY, minZ, maxX, maxY, maxZ.
+     */
+    public void getBounds(float[] bounds, int offset) {
+        System.arraycopy(min, 0, bounds, offset, 3);
+        System.arraycopy(max, 0, bounds, offset + 3, 3);
+    }
+
+    /**
+     * @param matrix transformation in column-major order. The bottom row must be (0, 0, 0, 1).
+     * @return the smallest axis-aligned bounding box that contains this box after transformation with the given matrix.
+     */
+    public BoundingBox transform(Matrix4 matrix) {
+        float[] m = matrix.getMatrix();
+        float[] transformedMin = new float[3];
+        float[] transformedMax = new float[3];
+        for (int row = 0; row < 3; row++) {
+            //start with the translation.
+            float center = m[12 + row];
+            float extent = 0;
+            //add the transformed center and the absolute value of the transformed half sizes.
+            for (int column = 0; column < 3; column++) {
+                float element = m[4*column + row];
+                center += element*(min[column] + max[column])/2;
+                extent += Math.abs(element)*(max[column] - min[column])/2;
+            }
+            transformedMin[row] = center - extent;
+            transformedMax[row] = center + extent;
+        }
+        return new BoundingBox(transformedMin, transformedMax);
+    }
+
+    @Override
+    public String toString() {
+        return "BoundingBox[(" + min[0] + ", " + min[1] + ", " + min[2] + ") - (" + max[0] + ", " + max[1] + ", " + max[2] + ")]";
+    }
+}
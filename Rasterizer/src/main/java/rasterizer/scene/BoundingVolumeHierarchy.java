@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.scene;
+
+import java.util.Arrays;
+
+/**
+ * Binary tree of axis-aligned bounding boxes over a set of boxes (one box per object).
+ *
+ * The tree is built top-down by splitting the objects at the median of their centers along the longest axis.
+ * When the box of an object changes, only the leaf that contains the object and its ancestors are refitted;
+ * the structure of the tree is kept. All nodes are stored in flat primitive arrays.
+ *
+ * @author A.C. Kockx
+ */
+final class BoundingVolumeHierarchy {
+    private static final int MAX_OBJECT_COUNT_PER_LEAF = 4;
+
+    //bounds of the objects, 6 floats per object: minX, minY, minZ, maxX, maxY, maxZ.
+    private float[] objectBounds;
+    private int objectCount;
+
+    //bounds of the nodes, 6 floats per node. The root node has index 0.
+    private float[] nodeBounds;
+    //for inner nodes the index of the first child (the second child is always leftChild + 1), for leaves -1.
+    private int[] leftChild;
+    private int[] parent;
+    //for leaves the range of objectOrder that contains the indices of the objects in the leaf.
+    private int[] firstObject;
+    private int[] objectCountInNode;
+    private int nodeCount;
+
+    //object indices, grouped per leaf.
+    private int[] objectOrder;
+    //index of the leaf that contains each object.
+    private int[] leafOfObject;
+
+    //leaves whose bounds must be recalculated.
+    private int[] dirtyLeaves;
+    private boolean[] leafDirty;
+    private int dirtyLeafCount;
+
+    //stack used during traversal, two ints per entry: node index and plane mask.
+    private int[] stack = new int[64];
+
+    /**
+     * (Re)builds this tree for the given object bounds.
+     *
+     * @param objectBounds 6 floats per object: minX, minY, minZ, maxX, maxY, maxZ. This array is used by reference,
+     *                     so changes to it must be reported with method markDirty.
+     */
+    void build(float[] objectBounds, int objectCount) {
+        this.objectBounds = objectBounds;
+        this.objectCount = objectCount;
+
+        int maxNodeCount = Math.max(1, 2*objectCount);
+        nodeBounds = new float[6*maxNodeCount];
+        leftChild = new int[maxNodeCount];
+        parent = new int[maxNodeCount];
+        firstObject = new int[maxNodeCount];
+        objectCountInNode = new int[maxNodeCount];
+        dirtyLeaves = new int[maxNodeCount];
+        leafDirty = new boolean[maxNodeCount];
+        dirtyLeafCount = 0;
+        objectOrder = new int[objectCount];
+        leafOfObject = new int[objectCount];
+        for (int n = 0; n < objectCount; n++) {
+            objectOrder[n] = n;
+        }
+
+        float[] centers = new float[3*objectCount];
+        for (int object = 0; object < objectCount; object++) {
+            for (int d = 0; d < 3; d++) {
+                centers[3*object + d] = (objectBounds[6*object + d] + objectBounds[6*object + 3 + d])/2;
+            }
+        }
+
+        nodeCount = 1;
+        parent[0] = -1;
+        buildNode(0, 0, objectCount, centers);
+    }
+
+    private void buildNode(int node, int start, int end, float[] centers) {
+        calculateBounds(node, start, end);
+        if (end - start <= MAX_OBJECT_COUNT_PER_LEAF) {
+            leftChild[node] = -1;
+            firstObject[node] = start;
+            objectCountInNode[node] = end - start;
+            for (int n = start; n < end; n++) {
+                leafOfObject[objectOrder[n]] = node;
+            }
+            return;
+        }
+
+        //split along the axis in which the centers are spread the most.
+        float[] min = {Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY};
+        float[] max = {Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+        for (int n = start; n < end; n++) {
+            int object = objectOrder[n];
+            for (int d = 0; d < 3; d++) {
+                min[d] = Math.min(min[d], centers[3*object + d]);
+                max[d] = Math.max(max[d], centers[3*object + d]);
+            }
+        }
+        int axis = 0;
+        for (int d = 1; d < 3; d++) {
+            if (max[d] - min[d] > max[axis] - min[axis]) axis = d;
+        }
+        int middle = (start + end)/2;
+        selectMedian(start, end - 1, middle, centers, axis);
+
+        int left = nodeCount;
+        nodeCount += 2;
+        leftChild[node] = left;
+        objectCountInNode[node] = 0;
+        parent[left] = node;
+        parent[left + 1] = node;
+        buildNode(left, start, middle, centers);
+        buildNode(left + 1, middle, end, centers);
+    }
+
+    /**
+     * Partially sorts objectOrder[low..high], such that the object at index k has the median center along the given axis
+     * (quickselect).
+     */
+    private void selectMedian(int low, int high, int k, float[] centers, int axis) {
+        while (low < high) {
+            float pivot = centers[3*objectOrder[(low + high) >>> 1] + axis];
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (centers[3*objectOrder[i] + axis] < pivot) i++;
+                while (centers[3*objectOrder[j] + axis] > pivot) j--;
+                if (i <= j) {
+                    int temp = objectOrder[i];
+                    objectOrder[i] = objectOrder[j];
+                    objectOrder[j] = temp;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                high = j;
+            } else if (k >= i) {
+                low = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void calculateBounds(int node, int start, int end) {
+        int offset = 6*node;
+        Arrays.fill(nodeBounds, offset, offset + 3, Float.POSITIVE_INFINITY);
+        Arrays.fill(nodeBounds, offset + 3, offset + 6, Float.NEGATIVE_INFINITY);
+        for (int n = start; n < end; n++) {
+            int objectOffset = 6*objectOrder[n];
+            for (int d = 0; d < 3; d++) {
+                nodeBounds[offset + d] = Math.min(nodeBounds[offset + d], objectBounds[objectOffset + d]);
+                nodeBounds[offset + 3 + d] = Math.max(nodeBounds[offset + 3 + d], objectBounds[objectOffset + 3 + d]);
+            }
+        }
+    }
+
+    /**
+     * Marks the given object as changed. Its bounds are taken into account at the next call to method refit.
+     */
+    void markDirty(int object) {
+        int leaf = leafOfObject[object];
+        if (!leafDirty[leaf]) {
+            leafDirty[leaf] = true;
+            dirtyLeaves[dirtyLeafCount] = leaf;
+            dirtyLeafCount++;
+        }
+    }
+
+    /**
+     * Recalculates the bounds of all leaves that contain changed objects, and of their ancestors.
+     * The cost is proportional to the number of changed objects, not to the total number of objects.
+     */
+    void refit() {
+        for (int n = 0; n < dirtyLeafCount; n++) {
+            int node = dirtyLeaves[n];
+            leafDirty[node] = false;
+            calculateBounds(node, firstObject[node], firstObject[node] + objectCountInNode[node]);
+
+            //propagate to ancestors until the bounds do not change anymore.
+            node = parent[node];
+            while (node != -1) {
+                int offset = 6*node;
+                int leftOffset = 6*leftChild[node];
+                int rightOffset = leftOffset + 6;
+                boolean changed = false;
+                for (int d = 0; d < 3; d++) {
+                    float min = Math.min(nodeBounds[leftOffset + d], nodeBounds[rightOffset + d]);
+                    float max = Math.max(nodeBounds[leftOffset + 3 + d], nodeBounds[rightOffset + 3 + d]);
+                    if (min != nodeBounds[offset + d] || max != nodeBounds[offset + 3 + d]) changed = true;
+                    nodeBounds[offset + d] = min;
+                    nodeBounds[offset + 3 + d] = max;
+                }
+                if (!changed) break;
+                node = parent[node];
+            }
+        }
+        dirtyLeafCount = 0;
+    }
+
+    /**
+     * Collects the indices of all objects whose bounds are at least partially inside the given frustum.
+     * Subtrees that are completely outside the frustum are skipped, and subtrees that are completely inside
+     * the frustum are collected without any further tests.
+     *
+     * @param result array with room for at least objectCount indices.
+     * @return number of collected object indices.
+     */
+    int collectVisible(Frustum frustum, int[] result) {
+        if (objectCount == 0) return 0;
+
+        int resultCount = 0;
+        int stackSize = 0;
+        stack[stackSize++] = 0;
+        stack[stackSize++] = Frustum.ALL_PLANES;
+        while (stackSize > 0) {
+            int planeMask = stack[--stackSize];
+            int node = stack[--stackSize];
+
+            if (planeMask != 0) {
+                planeMask = frustum.test(nodeBounds, 6*node, planeMask);
+                if (planeMask == -1) continue;//if completely outside.
+            }
+
+            if (leftChild[node] == -1) {//if leaf.
+                int end = firstObject[node] + objectCountInNode[node];
+                for (int n = firstObject[node]; n < end; n++) {
+                    int object = objectOrder[n];
+                    if (planeMask == 0 || frustum.test(objectBounds, 6*object, planeMask) != -1) {
+                        result[resultCount] = object;
+                        resultCount++;
+                    }
+                }
+            } else {
+                if (stackSize + 4 > stack.length) stack = Arrays.copyOf(stack, 2*stack.length);
+                stack[stackSize++] = leftChild[node] + 1;
+                stack[stackSize++] = planeMask;
+                stack[stackSize++] = leftChild[node];
+                stack[stackSize++] = planeMask;
+            }
+        }
+        return resultCount;
+    }
+}
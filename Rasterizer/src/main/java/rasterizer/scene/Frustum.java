@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.scene;
+
+import com.jogamp.opengl.math.Matrix4;
+
+/**
+ * View frustum, described by six planes in world space.
+ *
+ * The planes are extracted from a projection x view matrix as described in
+ * "Fast Extraction of Viewing Frustum Planes from the World-View-Projection Matrix" by G. Gribb and K. Hartmann.
+ *
+ * @author A.C. Kockx
+ */
+public final class Frustum {
+    public static final int PLANE_COUNT = 6;
+    //bit mask in which every plane is set.
+    public static final int ALL_PLANES = (1 << PLANE_COUNT) - 1;
+
+    //coefficients (a, b, c, d) of each plane, such that a*x + b*y + c*z + d >= 0 for all points (x, y, z) on the inside of the plane.
+    private final float[] planes = new float[PLANE_COUNT*4];
+
+    /**
+     * @param viewProjectionMatrix projection x view matrix in column-major order.
+     */
+    public Frustum(Matrix4 viewProjectionMatrix) {
+        set(viewProjectionMatrix);
+    }
+
+    /**
+     * Replaces the planes of this frustum by the planes of the given projection x view matrix.
+     * This way a single Frustum instance can be reused for every frame.
+     *
+     * @param viewProjectionMatrix projection x view matrix in column-major order.
+     */
+    public void set(Matrix4 viewProjectionMatrix) {
+        float[] m = viewProjectionMatrix.getMatrix();
+        //for each plane: left, right, bottom, top, near, far.
+        for (int plane = 0; plane < PLANE_COUNT; plane++) {
+            int row = plane/2;
+            float sign = plane%2 == 0 ? 1 : -1;
+            float length = 0;
+            for (int column = 0; column < 4; column++) {
+                //row 3 plus or minus row 0, 1 or 2.
+                float coefficient = m[4*column + 3] + sign*m[4*column + row];
+                planes[4*plane + column] = coefficient;
+                if (column < 3) length += coefficient*coefficient;
+            }
+
+            //normalize, so that the plane equation gives the distance to the plane.
+            length = (float) Math.sqrt(length);
+            if (length > 0) {
+                for (int column = 0; column < 4; column++) {
+                    planes[4*plane + column] /= length;
+                }
+            }
+        }
+    }
+
+    /**
+     * Tests the given box against the planes in the given plane mask.
+     *
+     * @param bounds min and max coordinates in world space in the order minX, minY, minZ, maxX, maxY, maxZ.
+     * @param offset of the box in the given bounds array.
+     * @param planeMask bit mask of the planes to test, for example ALL_PLANES.
+     * @return -1 if the box is completely outside the frustum,
+     *         otherwise the bit mask of the tested planes that intersect the box.
+     *         A return value of 0 means that the box is completely inside all tested planes,
+     *         so that its children do not need to be tested against those planes anymore.
+     */
+    public int test(float[] bounds, int offset, int planeMask) {
+        int intersectingPlanes = 0;
+        for (int plane = 0; plane < PLANE_COUNT; plane++) {
+            int planeBit = 1 << plane;
+            if ((planeMask & planeBit) == 0) continue;
+
+            float a = planes[4*plane];
+            float b = planes[4*plane + 1];
+            float c = planes[4*plane + 2];
+            float d = planes[4*plane + 3];
+            //corner of the box that is furthest along the plane normal.
+            float positiveDistance = a*bounds[offset + (a >= 0 ? 3 : 0)] + b*bounds[offset + (b >= 0 ? 4 : 1)] + c*bounds[offset + (c >= 0 ? 5 : 2)] + d;
+            if (positiveDistance < 0) return -1;//if completely outside this plane.
+
+            //corner of the box that is furthest against the plane normal.
+            float negativeDistance = a*bounds[offset + (a >= 0 ? 0 : 3)] + b*bounds[offset + (b >= 0 ? 1 : 4)] + c*bounds[offset + (c >= 0 ? 2 : 5)] + d;
+            if (negativeDistance < 0) intersectingPlanes |= planeBit;
+        }
+        return intersectingPlanes;
+    }
+
+    /**
+     * @return true if the given box is at least partially inside this frustum.
+     */
+    public boolean intersects(BoundingBox box) {
+        float[] bounds = new float[6];
+        box.getBounds(bounds, 0);
+        return test(bounds, 0, ALL_PLANES) != -1;
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.scene;
+
+import java.util.Arrays;
+
+/**
+ * Collects draw items for a frame and replays them in an order that minimizes state changes.
+ *
+ * Each item consists of a 64-bit sort key and an int value (e.g. the index of an object in a list of visible objects).
+ * The key contains, from most to least significant: the pass (4 bits), the shader program (12 bits), the geometry (16 bits,
+ * e.g. a vertex array object or level of detail) and the depth (32 bits), see method createKey. Sorting by key groups all items
+ * that use the same shader program and geometry, so that these are changed as little as possible, and within each group
+ * draws opaque items front to back, so that hidden fragments are rejected by the depth test before they are shaded.
+ *
+ * Keys and values are stored in primitive arrays that are reused every frame and only grow when more items are submitted
+ * than ever before. The items are sorted with a radix sort, which takes linear time.
+ *
+ * @author A.C. Kockx
+ */
+public final class RenderQueue {
+    public static final int MAX_PASS = (1 << 4) - 1;
+    public static final int MAX_PROGRAM = (1 << 12) - 1;
+    public static final int MAX_GEOMETRY = (1 << 16) - 1;
+    private static final int PASS_SHIFT = 60;
+    private static final int PROGRAM_SHIFT = 48;
+    private static final int GEOMETRY_SHIFT = 32;
+    private static final int RADIX_BITS = 8;
+    private static final int RADIX = 1 << RADIX_BITS;
+    private static final int DIGIT_COUNT = Long.SIZE/RADIX_BITS;
+
+    private long[] keys;
+    private int[] values;
+    //buffers for the radix sort, swapped with keys and values after each digit.
+    private long[] sortedKeys;
+    private int[] sortedValues;
+    private final int[][] digitCounts = new int[DIGIT_COUNT][RADIX];
+    private int count = 0;
+
+    /**
+     * Receives the sorted items during method replay.
+     */
+    public interface DrawHandler {
+        /**
+         * Is called before the first item and each time the shader program changes.
+         */
+        void setProgram(int pass, int program);
+
+        /**
+         * Is called before the first item, after each call to method setProgram and each time the geometry changes.
+         */
+        void setGeometry(int geometry);
+
+        void draw(long key, int value);
+    }
+
+    public RenderQueue(int initialCapacity) {
+        if (initialCapacity <= 0) throw new IllegalArgumentException("initialCapacity <= 0");
+
+        keys = new long[initialCapacity];
+        values = new int[initialCapacity];
+        sortedKeys = new long[initialCapacity];
+        sortedValues = new int[initialCapacity];
+    }
+
+    /**
+     * Removes all items, e.g. at the start of a frame.
+     */
+    public void clear() {
+        count = 0;
+    }
+
+    /**
+     * @param key see method createKey.
+     */
+    public void submit(long key, int value) {
+        if (count == keys.length) {
+            int capacity = 2*keys.length;
+            long[] newKeys = new long[capacity];
+            int[] newValues = new int[capacity];
+            System.arraycopy(keys, 0, newKeys, 0, count);
+            System.arraycopy(values, 0, newValues, 0, count);
+            keys = newKeys;
+            values = newValues;
+            sortedKeys = new long[capacity];
+            sortedValues = new int[capacity];
+        }
+
+        keys[count] = key;
+        values[count] = value;
+        count++;
+    }
+
+    /**
+     * Sorts the items by key, items with the same key stay in the order in which they were submitted.
+     */
+    public void sort() {
+        //count all digits in a single pass over the keys.
+        for (int[] counts : digitCounts) {
+            Arrays.fill(counts, 0);
+        }
+        for (int n = 0; n < count; n++) {
+            long key = keys[n];
+            for (int digit = 0; digit < DIGIT_COUNT; digit++) {
+                digitCounts[digit][(int) (key >>> (digit*RADIX_BITS)) & (RADIX - 1)]++;
+            }
+        }
+
+        //least significant digit first, each pass is stable.
+        for (int digit = 0; digit < DIGIT_COUNT; digit++) {
+            int[] counts = digitCounts[digit];
+            int shift = digit*RADIX_BITS;
+            //skip digits that are the same for all keys (e.g. the pass, if there is only one).
+            if (count == 0 || counts[(int) (keys[0] >>> shift) & (RADIX - 1)] == count) continue;
+
+            //convert counts to start offsets.
+            int offset = 0;
+            for (int bucket = 0; bucket < RADIX; bucket++) {
+                int bucketCount = counts[bucket];
+                counts[bucket] = offset;
+                offset += bucketCount;
+            }
+            for (int n = 0; n < count; n++) {
+                long key = keys[n];
+                int index = counts[(int) (key >>> shift) & (RADIX - 1)]++;
+                sortedKeys[index] = key;
+                sortedValues[index] = values[n];
+            }
+
+            long[] swapKeys = keys;
+            keys = sortedKeys;
+            sortedKeys = swapKeys;
+            int[] swapValues = values;
+            values = sortedValues;
+            sortedValues = swapValues;
+        }
+    }
+
+    /**
+     * Passes all items to the given handler in the current order (see method sort),
+     * and only notifies the handler of a new shader program or geometry when it differs from that of the previous item.
+     */
+    public void replay(DrawHandler handler) {
+        replay(handler, 0, count);
+    }
+
+    /**
+     * Same as method replay, but only for the items from fromIndex (inclusive) to toIndex (exclusive), e.g. to record
+     * consecutive ranges of a large queue on multiple threads. The handler is always notified of the shader program and geometry
+     * of the first item in the range.
+     */
+    public void replay(DrawHandler handler, int fromIndex, int toIndex) {
+        if (handler == null) throw new IllegalArgumentException("handler == null");
+        if (fromIndex < 0 || toIndex > count || fromIndex > toIndex) throw new IllegalArgumentException("range " + fromIndex + " to " + toIndex + " out of range");
+
+        long previousState = -1;
+        long previousProgram = -1;
+        for (int n = fromIndex; n < toIndex; n++) {
+            long key = keys[n];
+            long program = key >>> PROGRAM_SHIFT;
+            if (program != previousProgram) {
+                handler.setProgram(getPass(key), getProgram(key));
+                previousProgram = program;
+                previousState = -1;
+            }
+            long state = key >>> GEOMETRY_SHIFT;
+            if (state != previousState) {
+                handler.setGeometry(getGeometry(key));
+                previousState = state;
+            }
+            handler.draw(key, values[n]);
+        }
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public long getKey(int index) {
+        if (index < 0 || index >= count) throw new IllegalArgumentException("index " + index + " out of range");
+        return keys[index];
+    }
+
+    public int getValue(int index) {
+        if (index < 0 || index >= count) throw new IllegalArgumentException("index " + index + " out of range");
+        return values[index];
+    }
+
+    /**
+     * @param pass passes are drawn in increasing order, e.g. 0 for opaque and 1 for transparent items.
+     * @param program small number that identifies the shader program (not necessarily the OpenGL id).
+     * @param geometry small number that identifies the geometry, e.g. a vertex array object id.
+     * @param depth distance from the camera, e.g. the view space depth of the center of the item. Negative depths are treated as 0.
+     * @param backToFront true to draw items with the same program and geometry from back to front (e.g. for transparent items),
+     *                    false to draw them from front to back.
+     * @return sort key.
+     */
+    public static long createKey(int pass, int program, int geometry, float depth, boolean backToFront) {
+        if (pass < 0 || pass > MAX_PASS) throw new IllegalArgumentException("pass " + pass + " out of range");
+        if (program < 0 || program > MAX_PROGRAM) throw new IllegalArgumentException("program " + program + " out of range");
+        if (geometry < 0 || geometry > MAX_GEOMETRY) throw new IllegalArgumentException("geometry " + geometry + " out of range");
+
+        //the bits of a non-negative float have the same order as the float itself.
+        long depthBits = Float.floatToIntBits(depth > 0 ? depth : 0) & 0xFFFFFFFFL;
+        if (backToFront) depthBits = ~depthBits & 0xFFFFFFFFL;
+        return ((long) pass << PASS_SHIFT) | ((long) program << PROGRAM_SHIFT) | ((long) geometry << GEOMETRY_SHIFT) | depthBits;
+    }
+
+    public static int getPass(long key) {
+        return (int) (key >>> PASS_SHIFT) & MAX_PASS;
+    }
+
+    public static int getProgram(long key) {
+        return (int) (key >>> PROGRAM_SHIFT) & MAX_PROGRAM;
+    }
+
+    public static int getGeometry(long key) {
+        return (int) (key >>> GEOMETRY_SHIFT) & MAX_GEOMETRY;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.scene;
+
+import com.jogamp.opengl.math.Matrix4;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A set of objects with bounding boxes, organized in a bounding volume hierarchy,
+ * so that the objects inside a view frustum can be found without testing every object.
+ *
+ * Adding or removing objects causes the hierarchy to be rebuilt when it is used next.
+ * Changing the model matrix of an object only refits the part of the hierarchy that contains the object.
+ *
+ * @param <T> type of the content of the objects.
+ * @author A.C. Kockx
+ */
+public final class Scene<T> {
+    private final List<SceneObject<T>> objects = new ArrayList<>();
+    private final BoundingVolumeHierarchy hierarchy = new BoundingVolumeHierarchy();
+    private final Frustum frustum = new Frustum(new Matrix4());
+    //world space bounds of all objects, 6 floats per object, shared with the hierarchy.
+    private float[] objectBounds = new float[0];
+    private int[] visibleObjectIndices = new int[0];
+    private boolean rebuildNeeded = true;
+
+    public void add(SceneObject<T> object) {
+        if (object == null) throw new IllegalArgumentException("object == null");
+        if (object.index != -1) throw new IllegalArgumentException("object is already part of a scene");
+
+        object.index = objects.size();
+        objects.add(object);
+        rebuildNeeded = true;
+    }
+
+    public void remove(SceneObject<T> object) {
+        if (object == null) throw new IllegalArgumentException("object == null");
+        if (object.index == -1 || objects.get(object.index) != object) throw new IllegalArgumentException("object is not part of this scene");
+
+        //move last object to the index of the removed object.
+        SceneObject<T> lastObject = objects.remove(objects.size() - 1);
+        if (lastObject != object) {
+            objects.set(object.index, lastObject);
+            lastObject.index = object.index;
+        }
+        object.index = -1;
+        rebuildNeeded = true;
+    }
+
+    public List<SceneObject<T>> getObjects() {
+        return Collections.unmodifiableList(objects);
+    }
+
+    /**
+     * Changes the model matrix of the given object.
+     *
+     * @param modelMatrix in column-major order.
+     */
+    public void setModelMatrix(SceneObject<T> object, Matrix4 modelMatrix) {
+        if (modelMatrix == null) throw new IllegalArgumentException("modelMatrix == null");
+
+        object.setModelMatrix(modelMatrix);
+        if (object.index != -1 && !rebuildNeeded) {
+            object.getWorldBounds().getBounds(objectBounds, 6*object.index);
+            hierarchy.markDirty(object.index);
+        }
+    }
+
+    /**
+     * Adds all objects that are at least partially inside the view frustum of the given matrix to the given list.
+     *
+     * @param viewProjectionMatrix projection x view matrix in column-major order.
+     * @param result list to which the visible objects are added.
+     * @return number of added objects.
+     */
+    public int collectVisibleObjects(Matrix4 viewProjectionMatrix, List<SceneObject<T>> result) {
+        if (rebuildNeeded) {
+            rebuild();
+        } else {
+            hierarchy.refit();
+        }
+
+        frustum.set(viewProjectionMatrix);
+        int visibleObjectCount = hierarchy.collectVisible(frustum, visibleObjectIndices);
+        for (int n = 0; n < visibleObjectCount; n++) {
+            result.add(objects.get(visibleObjectIndices[n]));
+        }
+        return visibleObjectCount;
+    }
+
+    private void rebuild() {
+        int objectCount = objects.size();
+        if (objectBounds.length != 6*objectCount) {
+            objectBounds = new float[6*objectCount];
+            visibleObjectIndices = new int[objectCount];
+        }
+        for (int n = 0; n < objectCount; n++) {
+            objects.get(n).getWorldBounds().getBounds(objectBounds, 6*n);
+        }
+        hierarchy.build(objectBounds, objectCount);
+        rebuildNeeded = false;
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.scene;
+
+import com.jogamp.opengl.math.Matrix4;
+
+/**
+ * An object in a Scene, with a model matrix and a bounding box.
+ *
+ * @param <T> type of the content of the object, for example a mesh.
+ * @author A.C. Kockx
+ */
+public final class SceneObject<T> {
+    private final T content;
+    //bounding box of the content in model space.
+    private final BoundingBox localBounds;
+    private Matrix4 modelMatrix;
+    //bounding box of the content in world space.
+    private BoundingBox worldBounds;
+
+    //index of this object in its scene, or -1 if this object is not part of a scene.
+    int index = -1;
+
+    /**
+     * @param localBounds bounding box of the content in model space.
+     * @param modelMatrix in column-major order.
+     */
+    public SceneObject(T content, BoundingBox localBounds, Matrix4 modelMatrix) {
+        if (localBounds == null) throw new IllegalArgumentException("localBounds == null");
+        if (modelMatrix == null) throw new IllegalArgumentException("modelMatrix == null");
+
+        this.content = content;
+        this.localBounds = localBounds;
+        setModelMatrix(modelMatrix);
+    }
+
+    public T getContent() {
+        return content;
+    }
+
+    public BoundingBox getLocalBounds() {
+        return localBounds;
+    }
+
+    public Matrix4 getModelMatrix() {
+        return modelMatrix;
+    }
+
+    public BoundingBox getWorldBounds() {
+        return worldBounds;
+    }
+
+    /**
+     * This method must only be called by Scene, so that the scene knows that the bounds of this object have changed.
+     */
+    void setModelMatrix(Matrix4 modelMatrix) {
+        this.modelMatrix = modelMatrix;
+        worldBounds = localBounds.transform(modelMatrix);
+    }
+}
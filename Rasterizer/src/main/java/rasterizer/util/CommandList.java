@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.util;
+
+import com.jogamp.opengl.GL3;
+
+/**
+ * A compact list of OpenGL commands that can be recorded on any thread and replayed later on the thread that owns the OpenGL context.
+ * This way the work that is needed to decide what to draw (e.g. culling and calculating matrices) can be done on multiple threads,
+ * each with its own command list, while only one thread makes OpenGL calls.
+ *
+ * Commands are stored as ints and uniform values as floats in arrays that are reused after method clear
+ * and only grow when more commands are recorded than ever before. A command list must only be used by one thread at a time.
+ *
+ * @author A.C. Kockx
+ */
+public final class CommandList {
+    private static final int USE_PROGRAM = 0;
+    private static final int BIND_VERTEX_ARRAY = 1;
+    private static final int UNIFORM_MATRIX_4 = 2;
+    private static final int DRAW_ARRAYS = 3;
+    private static final int CALL = 4;
+
+    //opcode followed by its arguments for each command.
+    private int[] commands = new int[1024];
+    private int commandsSize = 0;
+    //uniform values, referenced by offset from the commands.
+    private float[] data = new float[4096];
+    private int dataSize = 0;
+    private int commandCount = 0;
+
+    /**
+     * Is called for each command that was recorded with method call, e.g. to draw something that must create OpenGL resources first.
+     */
+    public interface Callback {
+        void call(GL3 gl, int id, int argument);
+    }
+
+    /**
+     * Removes all commands, e.g. at the start of a frame.
+     */
+    public void clear() {
+        commandsSize = 0;
+        dataSize = 0;
+        commandCount = 0;
+    }
+
+    public void useProgram(int programId) {
+        ensureCommandCapacity(2);
+        commands[commandsSize++] = USE_PROGRAM;
+        commands[commandsSize++] = programId;
+        commandCount++;
+    }
+
+    public void bindVertexArray(int vertexArrayObjectId) {
+        ensureCommandCapacity(2);
+        commands[commandsSize++] = BIND_VERTEX_ARRAY;
+        commands[commandsSize++] = vertexArrayObjectId;
+        commandCount++;
+    }
+
+    /**
+     * @param matrix 4x4 matrix in column-major order, which is copied.
+     */
+    public void uniformMatrix4fv(int location, float[] matrix) {
+        ensureDataCapacity(16);
+        System.arraycopy(matrix, 0, data, dataSize, 16);
+        ensureCommandCapacity(3);
+        commands[commandsSize++] = UNIFORM_MATRIX_4;
+        commands[commandsSize++] = location;
+        commands[commandsSize++] = dataSize;
+        commandCount++;
+        dataSize += 16;
+    }
+
+    public void drawArrays(int mode, int first, int count) {
+        ensureCommandCapacity(4);
+        commands[commandsSize++] = DRAW_ARRAYS;
+        commands[commandsSize++] = mode;
+        commands[commandsSize++] = first;
+        commands[commandsSize++] = count;
+        commandCount++;
+    }
+
+    /**
+     * Records a call to the callback that is passed to method replay.
+     */
+    public void call(int id, int argument) {
+        ensureCommandCapacity(3);
+        commands[commandsSize++] = CALL;
+        commands[commandsSize++] = id;
+        commands[commandsSize++] = argument;
+        commandCount++;
+    }
+
+    /**
+     * @return number of recorded commands.
+     */
+    public int getCommandCount() {
+        return commandCount;
+    }
+
+    /**
+     * Executes all recorded commands. Must be called on the thread that owns the OpenGL context.
+     * State changes go through the given state tracker, so that redundant ones are skipped.
+     *
+     * @param callback is called for commands that were recorded with method call, can be null if there are none.
+     */
+    public void replay(GL3 gl, GLStateTracker glState, Callback callback) {
+        int index = 0;
+        while (index < commandsSize) {
+            switch (commands[index]) {
+                case USE_PROGRAM:
+                    glState.useProgram(gl, commands[index + 1]);
+                    index += 2;
+                    break;
+                case BIND_VERTEX_ARRAY:
+                    glState.bindVertexArray(gl, commands[index + 1]);
+                    index += 2;
+                    break;
+                case UNIFORM_MATRIX_4:
+                    glState.uniformMatrix4fv(gl, commands[index + 1], data, commands[index + 2]);
+                    index += 3;
+                    break;
+                case DRAW_ARRAYS:
+                    gl.glDrawArrays(commands[index + 1], commands[index + 2], commands[index + 3]);
+                    index += 4;
+                    break;
+                case CALL:
+                    if (callback == null) throw new IllegalArgumentException("callback == null");
+                    callback.call(gl, commands[index + 1], commands[index + 2]);
+                    index += 3;
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown command " + commands[index]);
+            }
+        }
+    }
+
+    private void ensureCommandCapacity(int size) {
+        if (commandsSize + size > commands.length) {
+            int[] newCommands = new int[Math.max(2*commands.length, commandsSize + size)];
+            System.arraycopy(commands, 0, newCommands, 0, commandsSize);
+            commands = newCommands;
+        }
+    }
+
+    private void ensureDataCapacity(int size) {
+        if (dataSize + size > data.length) {
+            float[] newData = new float[Math.max(2*data.length, dataSize + size)];
+            System.arraycopy(data, 0, newData, 0, dataSize);
+            data = newData;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.util;
+
+/**
+ * Utility methods for double-float numbers: numbers that are represented as the unevaluated sum of two floats (hi + lo),
+ * with |lo| <= ulp(hi)/2. This gives about 48 bits of precision using only 32-bit float arithmetic,
+ * which is used to pass double precision values to shaders that run on GPUs without double precision support.
+ *
+ * @author A.C. Kockx
+ */
+public final class DoubleFloat {
+    private DoubleFloat() {
+    }
+
+    /**
+     * @return the float that is nearest to the given value.
+     */
+    public static float getHi(double value) {
+        return (float) value;
+    }
+
+    /**
+     * @return the remainder of the given value after subtracting getHi(value), rounded to a float.
+     */
+    public static float getLo(double value) {
+        return (float) (value - (float) value);
+    }
+
+    /**
+     * @return the given values as double-floats {{x hi, y hi}, {x lo, y lo}}, i.e. the values for a hi and a lo vec2 uniform.
+     */
+    public static float[][] split(double x, double y) {
+        return new float[][]{{getHi(x), getHi(y)}, {getLo(x), getLo(y)}};
+    }
+}
@@ -0,0 +1,425 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.util;
+
+import com.jogamp.opengl.GL3;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Renders a frame in multiple passes (e.g. the scene, followed by post-processing effects), where each pass reads the
+ * render targets that were written by earlier passes. The passes and targets are declared once (and again when e.g. the viewport size changes),
+ * after which method execute only binds the framebuffer of each pass and calls its renderer.
+ *
+ * When the graph is compiled (on the first call to execute after it has changed):
+ * - passes whose outputs are not (directly or indirectly) used for the back buffer are culled, they are never executed;
+ * - each target gets a texture from a pool, such that targets whose lifetimes (from the pass that writes it to the last pass that reads it)
+ *   do not overlap share the same texture if they have the same size and format;
+ * - textures in the pool that are not used anymore are deleted, the others are reused instead of being allocated again.
+ * This way no textures are allocated per frame and the post-processing uses the minimum amount of video memory.
+ *
+ * Each target can only be written by one pass. A pass must clear its outputs itself, if needed.
+ * The framebuffer and viewport of the back buffer are set with method setBackBuffer (e.g. in GLEventListener.reshape),
+ * so that no OpenGL state has to be queried each frame.
+ *
+ * @author A.C. Kockx
+ */
+public final class FrameGraph {
+    private final GLResourceManager resources;
+    private final Target backBuffer = new Target("back buffer", 0, 0, 0, 0, 0, 0);
+    private final List<Pass> passes = new ArrayList<>();
+    private final List<Target> targets = new ArrayList<>();
+    private final List<PooledTexture> pool = new ArrayList<>();
+    //framebuffers of the passes of the previous compilation, to be deleted at the next compilation.
+    private final List<Integer> framebufferIds = new ArrayList<>();
+    private boolean compiled = false;
+    private int executedPassCount = 0;
+
+    //-1 until method setBackBuffer is called.
+    private int backBufferFramebufferId = -1;
+    private final int[] backBufferViewport = new int[4];
+
+    /**
+     * Draws a single pass. The framebuffer and viewport of the pass have been set before this is called.
+     */
+    public interface PassRenderer {
+        void render(GL3 gl);
+    }
+
+    /**
+     * A render target that is written by one pass and can be read by later passes, see method getTextureId.
+     */
+    public static final class Target {
+        private final String name;
+        private final int width;
+        private final int height;
+        private final int internalFormat;
+        private final int format;
+        private final int type;
+        private final int bytesPerPixel;
+        private Pass writer = null;
+        //index of the last pass that uses this target, only valid while compiling.
+        private int lastUse = -1;
+        private PooledTexture texture = null;
+
+        private Target(String name, int width, int height, int internalFormat, int format, int type, int bytesPerPixel) {
+            this.name = name;
+            this.width = width;
+            this.height = height;
+            this.internalFormat = internalFormat;
+            this.format = format;
+            this.type = type;
+            this.bytesPerPixel = bytesPerPixel;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        private boolean isDepth() {
+            return format == GL3.GL_DEPTH_COMPONENT;
+        }
+    }
+
+    private static final class Pass {
+        private final String name;
+        private final Target[] inputs;
+        private final Target[] outputs;
+        private final PassRenderer renderer;
+        private boolean culled = true;
+        private int framebufferId = -1;
+
+        private Pass(String name, Target[] inputs, Target[] outputs, PassRenderer renderer) {
+            this.name = name;
+            this.inputs = inputs;
+            this.outputs = outputs;
+            this.renderer = renderer;
+        }
+    }
+
+    private static final class PooledTexture {
+        private final int textureId;
+        private final Target description;
+        //index of the last pass that uses the target that this texture is assigned to, only valid while compiling.
+        private int busyUntil = -1;
+        private boolean used = false;
+
+        private PooledTexture(int textureId, Target description) {
+            this.textureId = textureId;
+            this.description = description;
+        }
+
+        private boolean matches(Target target) {
+            return description.width == target.width && description.height == target.height && description.internalFormat == target.internalFormat
+                   && description.format == target.format && description.type == target.type;
+        }
+    }
+
+    /**
+     * @param resources owns the textures of the render targets.
+     */
+    public FrameGraph(GLResourceManager resources) {
+        if (resources == null) throw new IllegalArgumentException("resources == null");
+
+        this.resources = resources;
+    }
+
+    /**
+     * Removes all passes and targets, e.g. before declaring them again for a new viewport size.
+     * The textures in the pool are kept, so that they can be reused by the new targets.
+     */
+    public void clear() {
+        for (Pass pass : passes) {
+            if (pass.framebufferId != -1) framebufferIds.add(pass.framebufferId);
+        }
+        for (Target target : targets) {
+            target.texture = null;
+        }
+        passes.clear();
+        targets.clear();
+        compiled = false;
+    }
+
+    /**
+     * Sets the framebuffer and viewport that the passes that write the back buffer draw to, and that are bound again after method execute.
+     * Must be called before execute and whenever these change, e.g. in GLEventListener.reshape.
+     *
+     * @param framebufferId e.g. GLContext.getDefaultDrawFramebuffer(), which is not 0 for an offscreen drawable.
+     */
+    public void setBackBuffer(int framebufferId, int x, int y, int width, int height) {
+        if (framebufferId < 0) throw new IllegalArgumentException("framebufferId < 0");
+        if (width <= 0 || height <= 0) throw new IllegalArgumentException("width and height must be > 0");
+
+        backBufferFramebufferId = framebufferId;
+        backBufferViewport[0] = x;
+        backBufferViewport[1] = y;
+        backBufferViewport[2] = width;
+        backBufferViewport[3] = height;
+    }
+
+    /**
+     * @return target that stands for the framebuffer set with method setBackBuffer. Passes that write this target are never culled.
+     */
+    public Target getBackBuffer() {
+        return backBuffer;
+    }
+
+    /**
+     * Declares a GL_TEXTURE_2D render target, e.g. GL_RGBA8, GL_RGBA, GL_UNSIGNED_BYTE for color
+     * or GL_DEPTH_COMPONENT24, GL_DEPTH_COMPONENT, GL_UNSIGNED_INT for depth.
+     *
+     * @param bytesPerPixel size of a texel in the given internal format, used to keep track of the size of the texture.
+     */
+    public Target createTarget(String name, int width, int height, int internalFormat, int format, int type, int bytesPerPixel) {
+        if (width <= 0 || height <= 0) throw new IllegalArgumentException("width and height must be > 0");
+
+        Target target = new Target(name, width, height, internalFormat, format, type, bytesPerPixel);
+        targets.add(target);
+        compiled = false;
+        return target;
+    }
+
+    /**
+     * Declares a pass. Passes are executed in the order in which they are added.
+     *
+     * @param inputs targets that are read by the pass, these must be written by earlier passes.
+     * @param outputs targets that are written by the pass, all with the same size. Either only the back buffer,
+     *                or color targets (attached in the given order) and at most one depth target.
+     */
+    public void addPass(String name, Target[] inputs, Target[] outputs, PassRenderer renderer) {
+        if (inputs == null) throw new IllegalArgumentException("inputs == null");
+        if (outputs == null || outputs.length == 0) throw new IllegalArgumentException("pass " + name + " has no outputs");
+        if (renderer == null) throw new IllegalArgumentException("renderer == null");
+        int depthTargetCount = 0;
+        for (Target output : outputs) {
+            if (output.writer != null) throw new IllegalArgumentException("target " + output.name + " is already written by pass " + output.writer.name);
+            if (output == backBuffer && outputs.length != 1) throw new IllegalArgumentException("pass " + name + " writes the back buffer and other targets");
+            if (output.width != outputs[0].width || output.height != outputs[0].height) throw new IllegalArgumentException("outputs of pass " + name + " differ in size");
+            if (output.isDepth()) depthTargetCount++;
+        }
+        if (depthTargetCount > 1) throw new IllegalArgumentException("pass " + name + " writes more than one depth target");
+
+        Pass pass = new Pass(name, inputs.clone(), outputs.clone(), renderer);
+        for (Target output : outputs) {
+            //the back buffer can be written by multiple passes.
+            if (output != backBuffer) output.writer = pass;
+        }
+        passes.add(pass);
+        compiled = false;
+    }
+
+    /**
+     * @return id of the texture that contains the given target. Only valid during method execute, e.g. to bind an input of a pass.
+     */
+    public int getTextureId(Target target) {
+        if (target.texture == null) throw new IllegalStateException("target " + target.name + " has no texture, it is not used by any pass that is executed");
+        return target.texture.textureId;
+    }
+
+    /**
+     * Executes all passes that are not culled. The graph is compiled first if it has changed.
+     * Afterwards the framebuffer and viewport of the back buffer are bound.
+     */
+    public void execute(GL3 gl) {
+        if (backBufferFramebufferId == -1) throw new IllegalStateException("setBackBuffer has not been called");
+        if (!compiled) compile(gl);
+
+        for (Pass pass : passes) {
+            if (pass.culled) continue;
+
+            if (pass.framebufferId == -1) {//if back buffer.
+                gl.glBindFramebuffer(GL3.GL_FRAMEBUFFER, backBufferFramebufferId);
+                gl.glViewport(backBufferViewport[0], backBufferViewport[1], backBufferViewport[2], backBufferViewport[3]);
+            } else {
+                gl.glBindFramebuffer(GL3.GL_FRAMEBUFFER, pass.framebufferId);
+                gl.glViewport(0, 0, pass.outputs[0].width, pass.outputs[0].height);
+            }
+            pass.renderer.render(gl);
+        }
+        gl.glBindFramebuffer(GL3.GL_FRAMEBUFFER, backBufferFramebufferId);
+        gl.glViewport(backBufferViewport[0], backBufferViewport[1], backBufferViewport[2], backBufferViewport[3]);
+    }
+
+    private void compile(GL3 gl) {
+        //delete the framebuffers of the previous compilation.
+        for (int framebufferId : framebufferIds) {
+            gl.glDeleteFramebuffers(1, new int[]{framebufferId}, 0);
+        }
+        framebufferIds.clear();
+        for (Pass pass : passes) {
+            if (pass.framebufferId != -1) gl.glDeleteFramebuffers(1, new int[]{pass.framebufferId}, 0);
+            pass.framebufferId = -1;
+        }
+
+        //cull passes, from the last pass to the first. A pass is needed if it writes the back buffer or a target that is read by a later pass that is needed.
+        for (Target target : targets) {
+            target.lastUse = -1;
+            target.texture = null;
+        }
+        executedPassCount = 0;
+        for (int passIndex = passes.size() - 1; passIndex >= 0; passIndex--) {
+            Pass pass = passes.get(passIndex);
+            pass.culled = true;
+            for (Target output : pass.outputs) {
+                if (output == backBuffer || output.lastUse != -1) pass.culled = false;
+            }
+            if (pass.culled) continue;
+
+            executedPassCount++;
+            for (Target output : pass.outputs) {
+                if (output.lastUse == -1) output.lastUse = passIndex;
+            }
+            for (Target input : pass.inputs) {
+                if (input.writer == null || passes.indexOf(input.writer) >= passIndex) {
+                    throw new IllegalStateException("target " + input.name + " is read by pass " + pass.name + " before it is written");
+                }
+                if (input.lastUse == -1) input.lastUse = passIndex;
+            }
+        }
+
+        //assign textures to the outputs of each pass, a texture is free again after the last pass that uses its current target.
+        for (PooledTexture texture : pool) {
+            texture.busyUntil = -1;
+            texture.used = false;
+        }
+        for (int passIndex = 0; passIndex < passes.size(); passIndex++) {
+            Pass pass = passes.get(passIndex);
+            if (pass.culled) continue;
+
+            for (Target output : pass.outputs) {
+                if (output == backBuffer) continue;
+                output.texture = getFreeTexture(gl, output, passIndex);
+                output.texture.busyUntil = output.lastUse;
+                output.texture.used = true;
+            }
+        }
+
+        //delete the textures that are not used anymore.
+        for (int index = pool.size() - 1; index >= 0; index--) {
+            PooledTexture texture = pool.get(index);
+            if (!texture.used) {
+                resources.release(gl, GLResourceManager.ResourceType.TEXTURE, texture.textureId);
+                pool.remove(index);
+            }
+        }
+
+        //create a framebuffer for each pass that does not write the back buffer.
+        for (Pass pass : passes) {
+            if (pass.culled || pass.outputs[0] == backBuffer) continue;
+            pass.framebufferId = createFramebuffer(gl, pass);
+        }
+
+        compiled = true;
+    }
+
+    /**
+     * @return a texture from the pool that matches the given target and is not in use at the given pass, or a new texture.
+     */
+    private PooledTexture getFreeTexture(GL3 gl, Target target, int passIndex) {
+        for (PooledTexture texture : pool) {
+            if (texture.busyUntil < passIndex && texture.matches(target)) return texture;
+        }
+
+        int textureId = resources.createTexture(gl);
+        resources.setTextureImage2D(gl, textureId, target.internalFormat, target.width, target.height, target.format, target.type, target.bytesPerPixel);
+        gl.glBindTexture(GL3.GL_TEXTURE_2D, textureId);
+        gl.glTexParameteri(GL3.GL_TEXTURE_2D, GL3.GL_TEXTURE_MIN_FILTER, GL3.GL_LINEAR);
+        gl.glTexParameteri(GL3.GL_TEXTURE_2D, GL3.GL_TEXTURE_MAG_FILTER, GL3.GL_LINEAR);
+        gl.glTexParameteri(GL3.GL_TEXTURE_2D, GL3.GL_TEXTURE_WRAP_S, GL3.GL_CLAMP_TO_EDGE);
+        gl.glTexParameteri(GL3.GL_TEXTURE_2D, GL3.GL_TEXTURE_WRAP_T, GL3.GL_CLAMP_TO_EDGE);
+        gl.glBindTexture(GL3.GL_TEXTURE_2D, 0);
+
+        PooledTexture texture = new PooledTexture(textureId, target);
+        pool.add(texture);
+        return texture;
+    }
+
+    private int createFramebuffer(GL3 gl, Pass pass) {
+        int[] ids = new int[1];
+        gl.glGenFramebuffers(1, ids, 0);
+        gl.glBindFramebuffer(GL3.GL_FRAMEBUFFER, ids[0]);
+
+        int[] drawBuffers = new int[pass.outputs.length];
+        int colorAttachmentCount = 0;
+        for (Target output : pass.outputs) {
+            if (output.isDepth()) {
+                gl.glFramebufferTexture2D(GL3.GL_FRAMEBUFFER, GL3.GL_DEPTH_ATTACHMENT, GL3.GL_TEXTURE_2D, output.texture.textureId, 0);
+            } else {
+                drawBuffers[colorAttachmentCount] = GL3.GL_COLOR_ATTACHMENT0 + colorAttachmentCount;
+                gl.glFramebufferTexture2D(GL3.GL_FRAMEBUFFER, drawBuffers[colorAttachmentCount], GL3.GL_TEXTURE_2D, output.texture.textureId, 0);
+                colorAttachmentCount++;
+            }
+        }
+        if (colorAttachmentCount == 0) {
+            gl.glDrawBuffer(GL3.GL_NONE);
+            gl.glReadBuffer(GL3.GL_NONE);
+        } else {
+            gl.glDrawBuffers(colorAttachmentCount, drawBuffers, 0);
+        }
+
+        int status = gl.glCheckFramebufferStatus(GL3.GL_FRAMEBUFFER);
+        if (status != GL3.GL_FRAMEBUFFER_COMPLETE) System.err.println("Framebuffer of pass " + pass.name + " is not complete: " + status);
+        gl.glBindFramebuffer(GL3.GL_FRAMEBUFFER, backBufferFramebufferId);
+        return ids[0];
+    }
+
+    /**
+     * @return number of declared passes.
+     */
+    public int getPassCount() {
+        return passes.size();
+    }
+
+    /**
+     * @return number of passes that are not culled, only valid after method execute.
+     */
+    public int getExecutedPassCount() {
+        return executedPassCount;
+    }
+
+    /**
+     * @return number of textures that are used for the targets, only valid after method execute.
+     */
+    public int getTextureCount() {
+        return pool.size();
+    }
+
+    /**
+     * @return number of bytes of video memory that is used for the targets, only valid after method execute.
+     */
+    public long getTextureSize() {
+        long size = 0;
+        for (PooledTexture texture : pool) {
+            size += (long) texture.description.width*texture.description.height*texture.description.bytesPerPixel;
+        }
+        return size;
+    }
+
+    /**
+     * Deletes all framebuffers and textures of this graph.
+     */
+    public void dispose(GL3 gl) {
+        clear();
+        compiled = true;
+        for (int framebufferId : framebufferIds) {
+            gl.glDeleteFramebuffers(1, new int[]{framebufferId}, 0);
+        }
+        framebufferIds.clear();
+        for (PooledTexture texture : pool) {
+            if (resources.contains(GLResourceManager.ResourceType.TEXTURE, texture.textureId)) {
+                resources.release(gl, GLResourceManager.ResourceType.TEXTURE, texture.textureId);
+            }
+        }
+        pool.clear();
+    }
+}
@@ -0,0 +1,487 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.util;
+
+import com.jogamp.opengl.GL3;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Owns OpenGL resources (vertex array objects with their vertex buffer objects, shader programs, textures and framebuffers)
+ * for a single OpenGL context, so that they can all be deleted when the context is disposed.
+ *
+ * Each resource has a reference count, which is 1 after creation. When it drops to 0 the resource is deleted,
+ * except for vertex buffer objects, which are kept in a pool and reused for new vertex arrays with buffers of the same size
+ * (glBufferSubData instead of allocating new memory with glBufferData).
+ *
+ * The manager keeps track of the number of bytes of video memory used by each type of resource. If the total exceeds
+ * the given budget, then first the pooled buffers that were released longest ago are deleted, and then the least recently used
+ * vertex arrays and textures that were created with an EvictionListener. The owner of such a resource must be able to recreate it
+ * (e.g. Ribbon, which creates the geometry for each level of detail on demand, or TextureStreamer, which loads the image again)
+ * and must call method touch each time it is used.
+ * Other resources are never evicted, so the budget can still be exceeded by resources that are in use.
+ *
+ * @author A.C. Kockx
+ */
+public final class GLResourceManager {
+    public enum ResourceType {
+        VERTEX_ARRAY, BUFFER, SHADER_PROGRAM, TEXTURE, FRAMEBUFFER
+    }
+
+    /**
+     * Is called when a resource was deleted to stay within the budget. After this the id must not be used anymore.
+     */
+    public interface EvictionListener {
+        void evicted(int id);
+    }
+
+    private final long budget;
+    //all resources in order of last use (least recently used first), see method getKey.
+    private final LinkedHashMap<Long, Resource> resources = new LinkedHashMap<>(16, 0.75f, true);
+    //released buffers: ids per size in bytes, and the size per id in the order in which they were released.
+    private final Map<Long, ArrayDeque<Integer>> pooledBufferIds = new HashMap<>();
+    private final LinkedHashMap<Integer, Long> pooledBufferSizes = new LinkedHashMap<>();
+    private final Map<ResourceType, Long> sizes = new EnumMap<>(ResourceType.class);
+    private long pooledSize = 0;
+    private long reusedBufferCount = 0;
+    private long evictedCount = 0;
+
+    /**
+     * @param budget maximum number of bytes of video memory (not counting resources that cannot be evicted).
+     */
+    public GLResourceManager(long budget) {
+        if (budget < 0) throw new IllegalArgumentException("budget < 0");
+
+        this.budget = budget;
+        for (ResourceType type : ResourceType.values()) {
+            sizes.put(type, 0L);
+        }
+    }
+
+    /**
+     * Same as OpenGLUtils.createVertexArray, but the vertex buffer objects are taken from the pool if possible.
+     * This changes the vertex array and array buffer bindings.
+     *
+     * @return id of created vertex array object.
+     */
+    public int createVertexArray(GL3 gl, int[] attributeDimensions, float[][] attributeDataArrays) {
+        return createVertexArray(gl, attributeDimensions, attributeDataArrays, null);
+    }
+
+    /**
+     * @param evictionListener if not null, then the vertex array can be deleted when the budget is exceeded, after which the listener is called.
+     * @return id of created vertex array object.
+     */
+    public int createVertexArray(GL3 gl, int[] attributeDimensions, float[][] attributeDataArrays, EvictionListener evictionListener) {
+        if (attributeDimensions.length != attributeDataArrays.length) throw new IllegalArgumentException("attributeDimensions.length != attributeDataArrays.length");
+        //check the data before anything is created, so that nothing is left behind.
+        for (int attributeIndex = 0; attributeIndex < attributeDataArrays.length; attributeIndex++) {
+            if (attributeDataArrays[attributeIndex] == null) throw new IllegalArgumentException("attributeDataArrays[" + attributeIndex + "] == null");
+        }
+
+        int vertexArrayObjectId = OpenGLUtils.createVertexArrayObject(gl);
+        gl.glBindVertexArray(vertexArrayObjectId);
+
+        Resource resource = new Resource(ResourceType.VERTEX_ARRAY, vertexArrayObjectId, 0);
+        resource.bufferIds = new int[attributeDimensions.length];
+        resource.bufferSizes = new long[attributeDimensions.length];
+        resource.evictionListener = evictionListener;
+        for (int attributeIndex = 0; attributeIndex < attributeDimensions.length; attributeIndex++) {
+            float[] data = attributeDataArrays[attributeIndex];
+            long size = (long) data.length*Float.BYTES;
+            resource.bufferIds[attributeIndex] = createBuffer(gl, GL3.GL_ARRAY_BUFFER, size, FloatBuffer.wrap(data));
+            resource.bufferSizes[attributeIndex] = size;
+            gl.glVertexAttribPointer(attributeIndex, attributeDimensions[attributeIndex], GL3.GL_FLOAT, false, 0, 0);
+            gl.glEnableVertexAttribArray(attributeIndex);
+        }
+        add(resource);
+
+        enforceBudget(gl);
+        return vertexArrayObjectId;
+    }
+
+    /**
+     * Creates an indexed vertex array from interleaved float vertex data, for example vertex data that is memory-mapped from a file (see MappedMesh).
+     * If the given buffers are direct buffers, then OpenGL reads them directly, without copying them to the Java heap first.
+     * The vertex buffer objects are taken from the pool if possible. This changes the vertex array and array buffer bindings.
+     * Draw the created vertex array using glDrawElements(GL_TRIANGLES, indexCount, GL_UNSIGNED_INT, 0).
+     *
+     * @param vertexData interleaved vertex data from its position to its limit, one vertex after the other, in native byte order.
+     * @param vertexStride number of bytes per vertex.
+     * @param attributeDimensions dimension for each attribute, in the order of increasing attribute index (0, 1, 2, etc.).
+     * @param attributeOffsets offset in bytes within a vertex for each attribute, in the order of increasing attribute index (0, 1, 2, etc.).
+     * @param indexData unsigned int vertex indices from its position to its limit, in native byte order.
+     * @return id of created vertex array object.
+     */
+    public int createInterleavedVertexArray(GL3 gl, ByteBuffer vertexData, int vertexStride, int[] attributeDimensions, int[] attributeOffsets,
+                                            ByteBuffer indexData) {
+        if (vertexData == null) throw new IllegalArgumentException("vertexData == null");
+        if (indexData == null) throw new IllegalArgumentException("indexData == null");
+        if (attributeDimensions.length != attributeOffsets.length) throw new IllegalArgumentException("attributeDimensions.length != attributeOffsets.length");
+
+        int vertexArrayObjectId = OpenGLUtils.createVertexArrayObject(gl);
+        gl.glBindVertexArray(vertexArrayObjectId);
+
+        Resource resource = new Resource(ResourceType.VERTEX_ARRAY, vertexArrayObjectId, 0);
+        resource.bufferIds = new int[2];
+        resource.bufferSizes = new long[]{vertexData.remaining(), indexData.remaining()};
+        resource.bufferIds[0] = createBuffer(gl, GL3.GL_ARRAY_BUFFER, resource.bufferSizes[0], vertexData);
+        for (int attributeIndex = 0; attributeIndex < attributeDimensions.length; attributeIndex++) {
+            gl.glVertexAttribPointer(attributeIndex, attributeDimensions[attributeIndex], GL3.GL_FLOAT, false, vertexStride, attributeOffsets[attributeIndex]);
+            gl.glEnableVertexAttribArray(attributeIndex);
+        }
+        //the element array buffer binding is part of the state of the vertex array object.
+        resource.bufferIds[1] = createBuffer(gl, GL3.GL_ELEMENT_ARRAY_BUFFER, resource.bufferSizes[1], indexData);
+        add(resource);
+
+        enforceBudget(gl);
+        return vertexArrayObjectId;
+    }
+
+    /**
+     * Same as OpenGLUtils.createShaderProgram. The size of a shader program is not known, so it is counted as 0 bytes.
+     *
+     * @return id of created shader program.
+     */
+    public int createShaderProgram(GL3 gl, int[] shaderTypes, String[] shaderSources, String[] vertexAttributeNames) {
+        int programId = OpenGLUtils.createShaderProgram(gl, shaderTypes, shaderSources, vertexAttributeNames);
+        add(new Resource(ResourceType.SHADER_PROGRAM, programId, 0));
+        return programId;
+    }
+
+    /**
+     * Creates a texture without storage, see method setTextureImage2D.
+     *
+     * @return id of created texture.
+     */
+    public int createTexture(GL3 gl) {
+        return createTexture(gl, null);
+    }
+
+    /**
+     * @param evictionListener if not null, then the texture can be deleted when the budget is exceeded, after which the listener is called.
+     * @return id of created texture.
+     */
+    public int createTexture(GL3 gl, EvictionListener evictionListener) {
+        int[] ids = new int[1];
+        gl.glGenTextures(1, ids, 0);
+        Resource resource = new Resource(ResourceType.TEXTURE, ids[0], 0);
+        resource.evictionListener = evictionListener;
+        add(resource);
+        return ids[0];
+    }
+
+    /**
+     * Creates a framebuffer object without attachments. Its attachments are counted as textures, so it is counted as 0 bytes.
+     *
+     * @return id of created framebuffer object.
+     */
+    public int createFramebuffer(GL3 gl) {
+        int[] ids = new int[1];
+        gl.glGenFramebuffers(1, ids, 0);
+        add(new Resource(ResourceType.FRAMEBUFFER, ids[0], 0));
+        return ids[0];
+    }
+
+    /**
+     * (Re)allocates the storage of the given GL_TEXTURE_2D texture with undefined contents, e.g. after the viewport has been resized.
+     * This changes the texture binding of the active texture unit to 0.
+     *
+     * @param bytesPerPixel size of a texel in the given internal format, used to keep track of the size of the texture.
+     */
+    public void setTextureImage2D(GL3 gl, int textureId, int internalFormat, int width, int height, int format, int type, int bytesPerPixel) {
+        if (!contains(ResourceType.TEXTURE, textureId)) throw new IllegalArgumentException(ResourceType.TEXTURE + " " + textureId + " does not exist");
+
+        gl.glBindTexture(GL3.GL_TEXTURE_2D, textureId);
+        gl.glTexImage2D(GL3.GL_TEXTURE_2D, 0, internalFormat, width, height, 0, format, type, null);
+        gl.glBindTexture(GL3.GL_TEXTURE_2D, 0);
+        setTextureSize(gl, textureId, (long) width*height*bytesPerPixel);
+    }
+
+    /**
+     * Sets the size of the given texture, for textures whose storage is allocated directly, e.g. with multiple mipmap levels.
+     * If the budget is exceeded, then other resources may be evicted.
+     */
+    public void setTextureSize(GL3 gl, int textureId, long size) {
+        Resource resource = getResource(ResourceType.TEXTURE, textureId);
+        addSize(ResourceType.TEXTURE, size - resource.size);
+        resource.size = size;
+
+        enforceBudget(gl);
+    }
+
+    /**
+     * Adds a reference to the given resource, which must be released separately.
+     */
+    public void retain(ResourceType type, int id) {
+        getResource(type, id).referenceCount++;
+    }
+
+    /**
+     * Removes a reference to the given resource. The resource is deleted when it has no references left.
+     * After this the caller must not use the id anymore.
+     */
+    public void release(GL3 gl, ResourceType type, int id) {
+        Resource resource = getResource(type, id);
+        resource.referenceCount--;
+        if (resource.referenceCount > 0) return;
+
+        resources.remove(getKey(type, id));
+        delete(gl, resource, true);
+        enforceBudget(gl);
+    }
+
+    /**
+     * Marks the given resource as used, so that it is evicted later than resources that were used less recently.
+     */
+    public void touch(ResourceType type, int id) {
+        resources.get(getKey(type, id));
+    }
+
+    /**
+     * @return true if the given resource exists, i.e. it has not been released or evicted.
+     */
+    public boolean contains(ResourceType type, int id) {
+        return resources.containsKey(getKey(type, id));
+    }
+
+    /**
+     * @return number of bytes used by the given type of resource, including pooled buffers.
+     */
+    public long getSize(ResourceType type) {
+        return sizes.get(type);
+    }
+
+    /**
+     * @return number of bytes used by all resources, including pooled buffers.
+     */
+    public long getTotalSize() {
+        long total = 0;
+        for (long size : sizes.values()) {
+            total += size;
+        }
+        return total;
+    }
+
+    /**
+     * @return number of bytes used by buffers that were released and are kept for reuse.
+     */
+    public long getPooledSize() {
+        return pooledSize;
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * @return number of vertex buffer objects that were taken from the pool instead of being allocated.
+     */
+    public long getReusedBufferCount() {
+        return reusedBufferCount;
+    }
+
+    /**
+     * @return number of resources that were deleted to stay within the budget.
+     */
+    public long getEvictedCount() {
+        return evictedCount;
+    }
+
+    /**
+     * Deletes all resources, including pooled buffers, regardless of their reference counts.
+     * Must be called when the OpenGL context is disposed (e.g. from GLEventListener.dispose).
+     */
+    public void dispose(GL3 gl) {
+        for (Resource resource : resources.values()) {
+            delete(gl, resource, false);
+        }
+        resources.clear();
+        deletePooledBuffers(gl, Long.MAX_VALUE);
+    }
+
+    private void add(Resource resource) {
+        resources.put(getKey(resource.type, resource.id), resource);
+        addSize(resource.type, resource.size);
+    }
+
+    private Resource getResource(ResourceType type, int id) {
+        Resource resource = resources.get(getKey(type, id));
+        if (resource == null) throw new IllegalArgumentException(type + " " + id + " does not exist");
+        return resource;
+    }
+
+    /**
+     * @param poolBuffers true to keep the vertex buffer objects of a vertex array for reuse, false to delete them.
+     */
+    private void delete(GL3 gl, Resource resource, boolean poolBuffers) {
+        switch (resource.type) {
+            case VERTEX_ARRAY:
+                gl.glDeleteVertexArrays(1, new int[]{resource.id}, 0);
+                for (int n = 0; n < resource.bufferIds.length; n++) {
+                    if (poolBuffers) {
+                        poolBuffer(resource.bufferIds[n], resource.bufferSizes[n]);
+                    } else {
+                        gl.glDeleteBuffers(1, new int[]{resource.bufferIds[n]}, 0);
+                        addSize(ResourceType.BUFFER, -resource.bufferSizes[n]);
+                    }
+                }
+                break;
+            case SHADER_PROGRAM:
+                gl.glDeleteProgram(resource.id);
+                break;
+            case TEXTURE:
+                gl.glDeleteTextures(1, new int[]{resource.id}, 0);
+                break;
+            case FRAMEBUFFER:
+                gl.glDeleteFramebuffers(1, new int[]{resource.id}, 0);
+                break;
+            default:
+                throw new IllegalStateException("Unknown resource type " + resource.type);
+        }
+        addSize(resource.type, -resource.size);
+    }
+
+    /**
+     * Binds a pooled buffer of the given size to the given target and fills it with the given data, or creates a new buffer if there is none.
+     *
+     * @return id of the buffer.
+     */
+    private int createBuffer(GL3 gl, int target, long size, Buffer data) {
+        Integer pooledBufferId = takePooledBuffer(size);
+        int bufferId;
+        if (pooledBufferId != null) {
+            bufferId = pooledBufferId;
+            gl.glBindBuffer(target, bufferId);
+            gl.glBufferSubData(target, 0, size, data);
+        } else {
+            bufferId = OpenGLUtils.createVertexBufferObject(gl);
+            gl.glBindBuffer(target, bufferId);
+            gl.glBufferData(target, size, data, GL3.GL_STATIC_DRAW);
+        }
+        addSize(ResourceType.BUFFER, size);
+        return bufferId;
+    }
+
+    private void poolBuffer(int bufferId, long size) {
+        ArrayDeque<Integer> ids = pooledBufferIds.get(size);
+        if (ids == null) {
+            ids = new ArrayDeque<>();
+            pooledBufferIds.put(size, ids);
+        }
+        ids.addLast(bufferId);
+        pooledBufferSizes.put(bufferId, size);
+        pooledSize += size;
+    }
+
+    /**
+     * @return id of a pooled buffer with the given size, or null if there is none.
+     */
+    private Integer takePooledBuffer(long size) {
+        ArrayDeque<Integer> ids = pooledBufferIds.get(size);
+        if (ids == null || ids.isEmpty()) return null;
+
+        //take the most recently released buffer, so that old buffers can be deleted first.
+        Integer bufferId = ids.removeLast();
+        pooledBufferSizes.remove(bufferId);
+        pooledSize -= size;
+        //the buffer is counted again when it is used.
+        addSize(ResourceType.BUFFER, -size);
+        reusedBufferCount++;
+        return bufferId;
+    }
+
+    /**
+     * Deletes pooled buffers, the ones that were released longest ago first, until at least the given number of bytes has been freed
+     * or the pool is empty.
+     */
+    private void deletePooledBuffers(GL3 gl, long bytesToFree) {
+        List<Integer> deletedIds = new ArrayList<>();
+        long freed = 0;
+        Iterator<Map.Entry<Integer, Long>> iterator = pooledBufferSizes.entrySet().iterator();
+        while (iterator.hasNext() && freed < bytesToFree) {
+            Map.Entry<Integer, Long> entry = iterator.next();
+            int bufferId = entry.getKey();
+            long size = entry.getValue();
+            iterator.remove();
+            pooledBufferIds.get(size).remove(bufferId);
+            deletedIds.add(bufferId);
+            freed += size;
+        }
+        if (deletedIds.isEmpty()) return;
+
+        int[] ids = new int[deletedIds.size()];
+        for (int n = 0; n < ids.length; n++) {
+            ids[n] = deletedIds.get(n);
+        }
+        gl.glDeleteBuffers(ids.length, ids, 0);
+        pooledSize -= freed;
+        addSize(ResourceType.BUFFER, -freed);
+    }
+
+    private void enforceBudget(GL3 gl) {
+        long excess = getTotalSize() - budget;
+        if (excess <= 0) return;
+
+        deletePooledBuffers(gl, excess);
+
+        //evict the least recently used resources, but not the most recently used one (which may have just been created or resized).
+        Iterator<Resource> iterator = resources.values().iterator();
+        List<Resource> evicted = new ArrayList<>();
+        int remaining = resources.size();
+        while (getTotalSize() > budget && iterator.hasNext() && remaining > 1) {
+            Resource resource = iterator.next();
+            remaining--;
+            if (resource.evictionListener == null) continue;
+
+            iterator.remove();
+            delete(gl, resource, false);
+            evicted.add(resource);
+            evictedCount++;
+        }
+        //notify after iterating, since listeners may create or touch other resources.
+        for (Resource resource : evicted) {
+            resource.evictionListener.evicted(resource.id);
+        }
+    }
+
+    private void addSize(ResourceType type, long size) {
+        sizes.put(type, sizes.get(type) + size);
+    }
+
+    /**
+     * Ids of different types of resources can be the same, so the key contains both.
+     */
+    private static long getKey(ResourceType type, int id) {
+        return ((long) type.ordinal() << 32) | (id & 0xFFFFFFFFL);
+    }
+
+    private static final class Resource {
+        private final ResourceType type;
+        private final int id;
+        //size in bytes, not counting the vertex buffer objects of a vertex array.
+        private long size;
+        private int referenceCount = 1;
+        //vertex buffer objects of a vertex array, null for other types.
+        private int[] bufferIds = null;
+        private long[] bufferSizes = null;
+        private EvictionListener evictionListener = null;
+
+        private Resource(ResourceType type, int id, long size) {
+            this.type = type;
+            this.id = id;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,343 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.util;
+
+import com.jogamp.opengl.GL3;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps track of part of the OpenGL state (the current shader program, vertex array object, buffer bindings, enabled capabilities
+ * and the uniform values of each shader program) and skips calls that would not change that state.
+ * Each OpenGL call has a fixed driver overhead, so with many objects per frame the redundant calls add up
+ * (e.g. binding the same vertex array object or setting the same uniform value for each object).
+ * Uniform locations are looked up by name only once per shader program.
+ *
+ * The tracker only knows about changes that are made through it. State that is tracked, but is changed directly
+ * (e.g. by OpenGLUtils.createVertexArray, which binds a new vertex array object), must be followed by a call to method invalidate.
+ * Initially all state is unknown, so the first call of each kind is never skipped.
+ * Uniform values are remembered per shader program, so a shader program must not be deleted and recreated
+ * with the same id without calling method invalidate.
+ *
+ * @author A.C. Kockx
+ */
+public final class GLStateTracker {
+    private static final int UNKNOWN = -1;
+
+    private int currentProgramId = UNKNOWN;
+    private int currentVertexArrayObjectId = UNKNOWN;
+    //buffer bound to each target, targets that are not in the map are unknown.
+    private final Map<Integer, Integer> bufferBindings = new HashMap<>();
+    //enabled state of each capability, capabilities that are not in the map are unknown.
+    private final Map<Integer, Boolean> capabilities = new HashMap<>();
+    private final Map<Integer, ProgramState> programStates = new HashMap<>();
+    //state of the current shader program, null if unknown.
+    private ProgramState currentProgramState = null;
+    //used to compare scalar uniform values without allocating arrays.
+    private final int[] scalar = new int[3];
+    private long callCount = 0;
+    private long elidedCallCount = 0;
+
+    public void useProgram(GL3 gl, int programId) {
+        if (programId == currentProgramId) {
+            elidedCallCount++;
+            return;
+        }
+
+        gl.glUseProgram(programId);
+        callCount++;
+        currentProgramId = programId;
+        currentProgramState = programId == 0 ? null : getProgramState(programId);
+    }
+
+    public void bindVertexArray(GL3 gl, int vertexArrayObjectId) {
+        if (vertexArrayObjectId == currentVertexArrayObjectId) {
+            elidedCallCount++;
+            return;
+        }
+
+        gl.glBindVertexArray(vertexArrayObjectId);
+        callCount++;
+        currentVertexArrayObjectId = vertexArrayObjectId;
+        //the element array buffer binding is part of the state of the vertex array object.
+        bufferBindings.remove(GL3.GL_ELEMENT_ARRAY_BUFFER);
+    }
+
+    public void bindBuffer(GL3 gl, int target, int bufferId) {
+        Integer current = bufferBindings.get(target);
+        if (current != null && current == bufferId) {
+            elidedCallCount++;
+            return;
+        }
+
+        gl.glBindBuffer(target, bufferId);
+        callCount++;
+        bufferBindings.put(target, bufferId);
+    }
+
+    /**
+     * Calls glEnable or glDisable for the given capability, e.g. GL3.GL_DEPTH_TEST.
+     */
+    public void setEnabled(GL3 gl, int capability, boolean enabled) {
+        Boolean current = capabilities.get(capability);
+        if (current != null && current == enabled) {
+            elidedCallCount++;
+            return;
+        }
+
+        if (enabled) {
+            gl.glEnable(capability);
+        } else {
+            gl.glDisable(capability);
+        }
+        callCount++;
+        capabilities.put(capability, enabled);
+    }
+
+    /**
+     * @return location of the uniform with the given name in the given shader program, or -1 if it does not exist.
+     *         Only the first call for each name calls glGetUniformLocation.
+     */
+    public int getUniformLocation(GL3 gl, int programId, String name) {
+        Map<String, Integer> locations = getProgramState(programId).uniformLocations;
+        Integer location = locations.get(name);
+        if (location == null) {
+            location = gl.glGetUniformLocation(programId, name);
+            callCount++;
+            locations.put(name, location);
+        }
+        return location;
+    }
+
+    /**
+     * Sets an int (or sampler) uniform of the current shader program.
+     */
+    public void uniform1i(GL3 gl, int location, int value) {
+        scalar[0] = value;
+        if (isUnchanged(location, scalar, 1)) return;
+
+        gl.glUniform1i(location, value);
+        callCount++;
+    }
+
+    public void uniform3i(GL3 gl, int location, int x, int y, int z) {
+        scalar[0] = x;
+        scalar[1] = y;
+        scalar[2] = z;
+        if (isUnchanged(location, scalar, 3)) return;
+
+        gl.glUniform3i(location, x, y, z);
+        callCount++;
+    }
+
+    public void uniform1f(GL3 gl, int location, float value) {
+        scalar[0] = Float.floatToRawIntBits(value);
+        if (isUnchanged(location, scalar, 1)) return;
+
+        gl.glUniform1f(location, value);
+        callCount++;
+    }
+
+    public void uniform2f(GL3 gl, int location, float x, float y) {
+        scalar[0] = Float.floatToRawIntBits(x);
+        scalar[1] = Float.floatToRawIntBits(y);
+        if (isUnchanged(location, scalar, 2)) return;
+
+        gl.glUniform2f(location, x, y);
+        callCount++;
+    }
+
+    /**
+     * @param values (x, y).
+     */
+    public void uniform2fv(GL3 gl, int location, float[] values) {
+        if (isUnchanged(location, values, 0, 2)) return;
+
+        gl.glUniform2fv(location, 1, values, 0);
+        callCount++;
+    }
+
+    /**
+     * @param values (x, y, z), further values are ignored.
+     */
+    public void uniform3fv(GL3 gl, int location, float[] values) {
+        if (isUnchanged(location, values, 0, 3)) return;
+
+        gl.glUniform3fv(location, 1, values, 0);
+        callCount++;
+    }
+
+    /**
+     * Sets a float array uniform of the current shader program.
+     *
+     * @param count number of array elements that are set, starting with the first.
+     */
+    public void uniform1fv(GL3 gl, int location, int count, float[] values) {
+        if (isUnchanged(location, values, 0, count)) return;
+
+        gl.glUniform1fv(location, count, values, 0);
+        callCount++;
+    }
+
+    /**
+     * Sets a vec3 array uniform of the current shader program.
+     *
+     * @param count number of array elements that are set, starting with the first.
+     * @param values (x, y, z) for each element.
+     */
+    public void uniform3fv(GL3 gl, int location, int count, float[] values) {
+        if (isUnchanged(location, values, 0, 3*count)) return;
+
+        gl.glUniform3fv(location, count, values, 0);
+        callCount++;
+    }
+
+    /**
+     * @param matrix 3x3 matrix in column-major order.
+     */
+    public void uniformMatrix3fv(GL3 gl, int location, float[] matrix) {
+        if (isUnchanged(location, matrix, 0, 9)) return;
+
+        gl.glUniformMatrix3fv(location, 1, false, matrix, 0);
+        callCount++;
+    }
+
+    /**
+     * @param matrix 4x4 matrix in column-major order.
+     */
+    public void uniformMatrix4fv(GL3 gl, int location, float[] matrix) {
+        uniformMatrix4fv(gl, location, matrix, 0);
+    }
+
+    /**
+     * @param matrix array that contains a 4x4 matrix in column-major order, starting at the given offset.
+     */
+    public void uniformMatrix4fv(GL3 gl, int location, float[] matrix, int offset) {
+        if (isUnchanged(location, matrix, offset, 16)) return;
+
+        gl.glUniformMatrix4fv(location, 1, false, matrix, offset);
+        callCount++;
+    }
+
+    /**
+     * Forgets all tracked state, e.g. after the state has been changed without using this tracker.
+     * Uniform locations are kept, since they do not change as long as a shader program exists.
+     */
+    public void invalidate() {
+        currentProgramId = UNKNOWN;
+        currentProgramState = null;
+        currentVertexArrayObjectId = UNKNOWN;
+        bufferBindings.clear();
+        capabilities.clear();
+        for (ProgramState programState : programStates.values()) {
+            programState.uniformValues.clear();
+        }
+    }
+
+    /**
+     * Forgets the uniform locations and values of the given shader program, which must be called when the shader program is deleted,
+     * because OpenGL can reuse its id for a new shader program.
+     */
+    public void forgetProgram(int programId) {
+        programStates.remove(programId);
+        if (programId == currentProgramId) {
+            currentProgramId = UNKNOWN;
+            currentProgramState = null;
+        }
+    }
+
+    /**
+     * @return the number of calls that were passed on to OpenGL.
+     */
+    public long getCallCount() {
+        return callCount;
+    }
+
+    /**
+     * @return the number of calls that were skipped, because they would not have changed the state.
+     */
+    public long getElidedCallCount() {
+        return elidedCallCount;
+    }
+
+    private ProgramState getProgramState(int programId) {
+        ProgramState programState = programStates.get(programId);
+        if (programState == null) {
+            programState = new ProgramState();
+            programStates.put(programId, programState);
+        }
+        return programState;
+    }
+
+    /**
+     * Compares the given value of a uniform of the current shader program with the value it was last set to, and remembers the new value.
+     *
+     * @param values int values, or float values converted with Float.floatToRawIntBits.
+     * @return true if the call that sets the uniform can be skipped.
+     */
+    private boolean isUnchanged(int location, int[] values, int count) {
+        if (location == -1) {//OpenGL ignores location -1.
+            elidedCallCount++;
+            return true;
+        }
+        if (currentProgramState == null) return false;
+
+        int[] stored = currentProgramState.uniformValues.get(location);
+        if (stored != null && stored.length == count) {
+            boolean equal = true;
+            for (int n = 0; n < count; n++) {
+                if (stored[n] != values[n]) {
+                    equal = false;
+                    break;
+                }
+            }
+            if (equal) {
+                elidedCallCount++;
+                return true;
+            }
+        } else {
+            stored = new int[count];
+            currentProgramState.uniformValues.put(location, stored);
+        }
+        System.arraycopy(values, 0, stored, 0, count);
+        return false;
+    }
+
+    private boolean isUnchanged(int location, float[] values, int offset, int count) {
+        if (location == -1) {//OpenGL ignores location -1.
+            elidedCallCount++;
+            return true;
+        }
+        if (currentProgramState == null) return false;
+
+        int[] stored = currentProgramState.uniformValues.get(location);
+        if (stored != null && stored.length == count) {
+            boolean equal = true;
+            for (int n = 0; n < count; n++) {
+                if (stored[n] != Float.floatToRawIntBits(values[offset + n])) {
+                    equal = false;
+                    break;
+                }
+            }
+            if (equal) {
+                elidedCallCount++;
+                return true;
+            }
+        } else {
+            stored = new int[count];
+            currentProgramState.uniformValues.put(location, stored);
+        }
+        for (int n = 0; n < count; n++) {
+            stored[n] = Float.floatToRawIntBits(values[offset + n]);
+        }
+        return false;
+    }
+
+    private static final class ProgramState {
+        private final Map<String, Integer> uniformLocations = new HashMap<>();
+        //last value of each uniform that was set through the tracker, as ints or raw float bits.
+        private final Map<Integer, int[]> uniformValues = new HashMap<>();
+    }
+}
@@ -16,6 +16,7 @@ import java.nio.FloatBuffer;
 public final class OpenGLUtils {
     public static final String MODEL_VIEW_PROJECTION_MATRIX = "modelViewProjectionMatrix";
     public static final String MODEL_VIEW_MATRIX = "modelViewMatrix";
+    public static final String MODEL_MATRIX = "modelMatrix";
     public static final String VERTEX_POSITION = "vertexPosition";
     public static final String VERTEX_NORMAL = "vertexNormal";
     public static final String VERTEX_COLOR = "vertexColor";
@@ -85,6 +86,8 @@ public final class OpenGLUtils {
     }
 
     /**
+     * The shaders are deleted after linking, only the shader program needs to be deleted.
+     *
      * @param vertexAttributeNames names of the attributes. These will be linked to attribute indices 0, 1, 2, etc. in the order in which they are given.
      * @return id of created shader program.
      */
@@ -111,6 +114,12 @@ public final class OpenGLUtils {
         gl.glBindFragDataLocation(programId, 0, FRAGMENT_COLOR);
         linkShaders(gl, programId);
 
+        //the linked program does not need the shaders anymore, otherwise they would only be deleted together with the program.
+        for (int shaderId : shaderIds) {
+            gl.glDetachShader(programId, shaderId);
+            gl.glDeleteShader(shaderId);
+        }
+
         return programId;
     }
 
@@ -148,6 +157,13 @@ public final class OpenGLUtils {
         if (error != null) System.err.println("Shader program " + shaderProgramId + " error: " + error);
     }
 
+    /**
+     * @return true if the given shader program was linked successfully, i.e. all its shaders compiled and it can be used.
+     */
+    public static boolean isLinked(GL3 gl, int shaderProgramId) {
+        return getShaderProgramParameter(gl, shaderProgramId, GL3.GL_LINK_STATUS) == 1;
+    }
+
     private static String getShaderInfoLog(GL3 gl, int shaderId) {
         int infoLogLength = getShaderParameter(gl, shaderId, GL3.GL_INFO_LOG_LENGTH);
         if (infoLogLength <= 0) return null;
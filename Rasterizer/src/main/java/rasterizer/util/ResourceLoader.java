@@ -4,15 +4,31 @@
 package rasterizer.util;
 
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 
 /**
  * Class for loading resources.
  *
+ * Resources are loaded from the class path, or from a directory on disk if one is given (e.g. src/main/resources),
+ * so that resources that are edited while the program runs can be loaded again (see ResourceWatcher).
+ *
  * @author A.C. Kockx
  */
 public final class ResourceLoader {
     private final String resourcePath;
+    //null if resources are loaded from the class path.
+    private final Path resourceDirectory;
 
     /**
      * @param resourcePath of the package that contains the resource(s) to load, relative to the root package.
@@ -20,6 +36,14 @@ public final class ResourceLoader {
      *        Example: /rasterizer/shaders/
      */
     public ResourceLoader(String resourcePath) {
+        this(resourcePath, null);
+    }
+
+    /**
+     * @param resourcePath see ResourceLoader(String).
+     * @param resourceDirectory directory that contains the root package of the resources, or null to load the resources from the class path.
+     */
+    public ResourceLoader(String resourcePath, Path resourceDirectory) {
         if (resourcePath == null) throw new IllegalArgumentException("resourcePath == null");
 
         //resources in Java always use '/', this has nothing to do with system dependent file separators.
@@ -27,6 +51,26 @@ public final class ResourceLoader {
         if (!resourcePath.endsWith("/")) throw new IllegalArgumentException("resourcePath " + resourcePath + " must end with a '/'");
 
         this.resourcePath = resourcePath;
+        this.resourceDirectory = resourceDirectory;
+    }
+
+    /**
+     * @return the full name of the given resource, relative to the root package (e.g. /rasterizer/shaders/uv_vertex_shader.glsl).
+     */
+    public String getResourcePathName(String resourceName) {
+        if (resourceName == null) throw new IllegalArgumentException("resourceName == null");
+
+        return resourcePath + resourceName;
+    }
+
+    /**
+     * @return the file that contains the given resource, or null if the resources are loaded from the class path.
+     */
+    private Path getResourceFile(String resourcePathName) {
+        if (resourceDirectory == null) return null;
+
+        //remove preceding '/'.
+        return resourceDirectory.resolve(resourcePathName.substring(1));
     }
 
     /**
@@ -37,8 +81,72 @@ public final class ResourceLoader {
         if (resourceName == null) throw new IllegalArgumentException("resourceName == null");
 
         String resourcePathName = resourcePath + resourceName;
+        Path resourceFile = getResourceFile(resourcePathName);
+        if (resourceFile != null) {
+            try {
+                return Files.newInputStream(resourceFile);
+            } catch (IOException e) {
+                throw new FileNotFoundException("Cannot read resource file " + resourceFile + ": " + e.getMessage());
+            }
+        }
         InputStream inputStream = getClass().getResourceAsStream(resourcePathName);
         if (inputStream == null) throw new FileNotFoundException("Cannot find resource " + resourcePathName);
         return inputStream;
     }
+
+    /**
+     * Returns the contents of the resource in a direct buffer, without copying it to the Java heap.
+     * If the resource is a file on disk, then the file is memory-mapped, so that its contents
+     * are read straight from the page cache. Otherwise (e.g. if the resource is inside a jar file)
+     * the resource is read into a newly allocated direct buffer.
+     *
+     * @param resourceName the name of the resource to load.
+     * @return read-only buffer with the contents of the resource, in big-endian byte order.
+     */
+    public ByteBuffer mapResource(String resourceName) throws IOException {
+        if (resourceName == null) throw new IllegalArgumentException("resourceName == null");
+
+        String resourcePathName = resourcePath + resourceName;
+        Path resourceFile = getResourceFile(resourcePathName);
+        if (resourceFile != null) return map(resourceFile);
+        URL url = getClass().getResource(resourcePathName);
+        if (url == null) throw new FileNotFoundException("Cannot find resource " + resourcePathName);
+
+        if ("file".equals(url.getProtocol())) {
+            try {
+                return map(Paths.get(url.toURI()));
+            } catch (URISyntaxException e) {
+                throw new IOException("Invalid resource URL " + url + ": " + e.getMessage(), e);
+            }
+        }
+
+        //the resource cannot be mapped, so read it into a direct buffer that grows as needed.
+        try (ReadableByteChannel channel = Channels.newChannel(url.openStream())) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(64*1024);
+            while (channel.read(buffer) != -1) {
+                if (!buffer.hasRemaining()) {
+                    ByteBuffer largerBuffer = ByteBuffer.allocateDirect(2*buffer.capacity());
+                    buffer.flip();
+                    largerBuffer.put(buffer);
+                    buffer = largerBuffer;
+                }
+            }
+            buffer.flip();
+            return buffer.asReadOnlyBuffer();
+        }
+    }
+
+    /**
+     * Memory-maps the given file.
+     *
+     * @return read-only buffer with the contents of the file, in big-endian byte order.
+     */
+    public static ByteBuffer map(Path path) throws IOException {
+        if (path == null) throw new IllegalArgumentException("path == null");
+
+        //the mapping stays valid after the channel has been closed.
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
 }
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.util;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Watches a directory with resources (e.g. src/main/resources) and all its subdirectories for files that are created or changed,
+ * so that the program can load these resources again while it runs (e.g. recompile a shader program, see ShaderReloader),
+ * instead of having to be restarted. The directory is watched on a background thread.
+ *
+ * The changed files are collected until method pollChangedResources is called, e.g. once per frame on the thread that owns the OpenGL context.
+ * An editor may write a file more than once when saving it, so the same file can be reported again shortly after.
+ *
+ * @author A.C. Kockx
+ */
+public final class ResourceWatcher {
+    private final Path resourceDirectory;
+    private final WatchService watchService;
+    //full names (see ResourceLoader.getResourcePathName) of the resources that have changed since the last poll.
+    private final Set<String> changedResourcePathNames = ConcurrentHashMap.newKeySet();
+    private final Runnable changeListener;
+
+    /**
+     * @param resourceDirectory directory that contains the root package of the resources.
+     * @param changeListener is called on the background thread after a resource has changed (e.g. to repaint the canvas), can be null.
+     */
+    public ResourceWatcher(Path resourceDirectory, Runnable changeListener) throws IOException {
+        if (resourceDirectory == null) throw new IllegalArgumentException("resourceDirectory == null");
+        if (!Files.isDirectory(resourceDirectory)) throw new IllegalArgumentException(resourceDirectory + " is not a directory");
+
+        this.resourceDirectory = resourceDirectory;
+        this.changeListener = changeListener;
+        watchService = resourceDirectory.getFileSystem().newWatchService();
+        List<Path> directories;
+        try (Stream<Path> paths = Files.walk(resourceDirectory)) {
+            directories = paths.filter(Files::isDirectory).collect(Collectors.toList());
+        }
+        for (Path directory : directories) {
+            register(directory);
+        }
+
+        Thread thread = new Thread(this::watch, ResourceWatcher.class.getSimpleName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public Path getResourceDirectory() {
+        return resourceDirectory;
+    }
+
+    /**
+     * @return full names (e.g. /rasterizer/shaders/uv_vertex_shader.glsl) of the resources that have been created or changed since the previous call.
+     */
+    public Set<String> pollChangedResources() {
+        if (changedResourcePathNames.isEmpty()) return Collections.emptySet();
+
+        Set<String> result = new HashSet<>();
+        Iterator<String> iterator = changedResourcePathNames.iterator();
+        while (iterator.hasNext()) {
+            result.add(iterator.next());
+            iterator.remove();
+        }
+        return result;
+    }
+
+    /**
+     * Stops watching.
+     */
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+    private void register(Path directory) throws IOException {
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                Path directory = (Path) key.watchable();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    //if events were lost, then the changes cannot be determined.
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) continue;
+
+                    Path path = directory.resolve((Path) event.context());
+                    if (Files.isDirectory(path)) {
+                        if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) register(path);
+                        continue;
+                    }
+
+                    //resource names always use '/', independent of the system dependent file separator.
+                    StringBuilder resourcePathName = new StringBuilder();
+                    for (Path name : resourceDirectory.relativize(path)) {
+                        resourcePathName.append('/').append(name);
+                    }
+                    changedResourcePathNames.add(resourcePathName.toString());
+                    changed = true;
+                }
+                key.reset();
+
+                if (changed && changeListener != null) changeListener.run();
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            //stop watching.
+        } catch (IOException e) {
+            System.err.println("Error while watching " + resourceDirectory + ": " + e.getMessage());
+        }
+    }
+}
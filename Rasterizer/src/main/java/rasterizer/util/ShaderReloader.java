@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.util;
+
+import com.jogamp.opengl.GL3;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Creates shader programs from shader source resources and creates them again when their source has changed (see ResourceWatcher),
+ * so that shaders can be edited while the program runs. Only the shader programs that use a changed resource are recompiled.
+ * If a changed shader does not compile or the program does not link, then the error is printed and the previous version of the program is kept.
+ * Successful reloads are not printed, the caller can e.g. time method reload and report the result itself.
+ *
+ * All methods must be called on the thread that owns the OpenGL context.
+ *
+ * @author A.C. Kockx
+ */
+public final class ShaderReloader {
+    private final GLResourceManager resources;
+    private final GLStateTracker glState;
+    private final ResourceLoader loader;
+    private final List<Program> programs = new ArrayList<>();
+
+    /**
+     * Is called when a shader program has been created and each time it has been created again, e.g. to look up its uniform locations
+     * and set the uniforms that do not change per frame. The previous version of the program is deleted after this call.
+     */
+    public interface Listener {
+        void loaded(GL3 gl, int shaderProgramId);
+    }
+
+    private static final class Program {
+        private final int[] shaderTypes;
+        private final String[] resourceNames;
+        private final String[] vertexAttributeNames;
+        private final Listener listener;
+        private int id;
+
+        private Program(int[] shaderTypes, String[] resourceNames, String[] vertexAttributeNames, Listener listener) {
+            this.shaderTypes = shaderTypes;
+            this.resourceNames = resourceNames;
+            this.vertexAttributeNames = vertexAttributeNames;
+            this.listener = listener;
+        }
+    }
+
+    /**
+     * @param resources owns the created shader programs.
+     * @param glState forgets the state of deleted shader programs.
+     * @param loader loads the shader source resources, from a directory on disk if the resources are watched.
+     */
+    public ShaderReloader(GLResourceManager resources, GLStateTracker glState, ResourceLoader loader) {
+        if (resources == null) throw new IllegalArgumentException("resources == null");
+        if (glState == null) throw new IllegalArgumentException("glState == null");
+        if (loader == null) throw new IllegalArgumentException("loader == null");
+
+        this.resources = resources;
+        this.glState = glState;
+        this.loader = loader;
+    }
+
+    /**
+     * Same as GLResourceManager.createShaderProgram, except that the shader sources are given as resource names.
+     *
+     * @param listener is called before this method returns and after each reload.
+     * @return id of created shader program.
+     */
+    public int createShaderProgram(GL3 gl, int[] shaderTypes, String[] resourceNames, String[] vertexAttributeNames, Listener listener) {
+        if (shaderTypes.length != resourceNames.length) throw new IllegalArgumentException("shaderTypes.length != resourceNames.length");
+        if (listener == null) throw new IllegalArgumentException("listener == null");
+
+        Program program = new Program(shaderTypes.clone(), resourceNames.clone(), vertexAttributeNames.clone(), listener);
+        String[] shaderSources;
+        try {
+            shaderSources = readShaderSources(program);
+        } catch (Exception e) {
+            throw new RuntimeException("Error while loading shader source: " + e.getMessage(), e);
+        }
+        program.id = resources.createShaderProgram(gl, shaderTypes, shaderSources, vertexAttributeNames);
+        programs.add(program);
+        listener.loaded(gl, program.id);
+        return program.id;
+    }
+
+    /**
+     * Creates the shader programs that use any of the given resources again.
+     *
+     * @param changedResourcePathNames full names of the changed resources, see ResourceWatcher.pollChangedResources.
+     * @return number of shader programs that were created again successfully.
+     */
+    public int reload(GL3 gl, Set<String> changedResourcePathNames) {
+        if (changedResourcePathNames.isEmpty()) return 0;
+
+        int reloadedCount = 0;
+        for (Program program : programs) {
+            if (!usesAny(program, changedResourcePathNames)) continue;
+
+            String[] shaderSources;
+            try {
+                shaderSources = readShaderSources(program);
+            } catch (Exception e) {
+                System.err.println("Error while loading shader source: " + e.getMessage() + ", keeping previous version of shader program " + program.id);
+                continue;
+            }
+            int id = resources.createShaderProgram(gl, program.shaderTypes, shaderSources, program.vertexAttributeNames);
+            if (!OpenGLUtils.isLinked(gl, id)) {
+                resources.release(gl, GLResourceManager.ResourceType.SHADER_PROGRAM, id);
+                System.err.println("Keeping previous version of shader program " + program.id + " (" + String.join(", ", program.resourceNames) + ")");
+                continue;
+            }
+
+            int previousId = program.id;
+            program.id = id;
+            program.listener.loaded(gl, id);
+            glState.forgetProgram(previousId);
+            resources.release(gl, GLResourceManager.ResourceType.SHADER_PROGRAM, previousId);
+            reloadedCount++;
+        }
+        return reloadedCount;
+    }
+
+    private boolean usesAny(Program program, Set<String> resourcePathNames) {
+        for (String resourceName : program.resourceNames) {
+            if (resourcePathNames.contains(loader.getResourcePathName(resourceName))) return true;
+        }
+        return false;
+    }
+
+    private String[] readShaderSources(Program program) throws Exception {
+        String[] shaderSources = new String[program.resourceNames.length];
+        for (int index = 0; index < shaderSources.length; index++) {
+            shaderSources[index] = Utils.read(loader.loadResource(program.resourceNames[index]));
+        }
+        return shaderSources;
+    }
+}
@@ -0,0 +1,408 @@
+/*
+ * Copyright (c) 2018 A.C. Kockx, All Rights Reserved.
+ */
+package rasterizer.util;
+
+import com.jogamp.opengl.GL3;
+import rasterizer.output.QoiDecoder;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.IntStream;
+
+/**
+ * Loads textures in the background, so that large textures do not cause the frame rate to drop.
+ *
+ * Images (PNG, JPEG, etc. or QOI) are read and decoded on worker threads, which also create all mipmap levels (in parallel for each level).
+ * The rendering thread calls method update once per frame, which uploads at most maxUploadBytesPerFrame bytes through a pixel unpack buffer.
+ * The smallest mipmap level is uploaded first, so that a texture can be used as soon as possible, and becomes sharper
+ * as the larger levels arrive (the base level of the texture is the largest level that has been uploaded completely).
+ *
+ * The textures are owned by the given GLResourceManager. Textures that have not been used recently are evicted when its budget
+ * is exceeded, and are loaded again when they are used next (see method bind). All methods, except for the work done on the
+ * worker threads, must be called on the thread that owns the OpenGL context.
+ *
+ * @author A.C. Kockx
+ */
+public final class TextureStreamer {
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private enum State {
+        NOT_LOADED, DECODING, UPLOADING, COMPLETE, FAILED
+    }
+
+    private interface ImageSource {
+        ByteBuffer read() throws IOException;
+    }
+
+    private final GLResourceManager resources;
+    private final int maxUploadBytesPerFrame;
+    private final ExecutorService executor;
+    private final Map<String, Texture> textures = new HashMap<>();
+    //textures that have been decoded by the worker threads and are waiting for method update.
+    private final ConcurrentLinkedQueue<Texture> decodedTextures = new ConcurrentLinkedQueue<>();
+    //textures that are partially uploaded, in the order in which they were decoded.
+    private final ArrayDeque<Texture> uploadQueue = new ArrayDeque<>();
+    private int pixelUnpackBufferId = 0;
+    private long uploadedByteCount = 0;
+
+    /**
+     * A texture that is loaded by the streamer.
+     */
+    public static final class Texture {
+        private final String name;
+        private final ImageSource source;
+        private volatile State state = State.NOT_LOADED;
+        private volatile String error = null;
+        //set by the worker thread before the texture is passed to the rendering thread.
+        private int[] levelWidths = null;
+        private int[] levelHeights = null;
+        //RGBA data of each mipmap level that has not been uploaded yet, starting with the bottom row.
+        private byte[][] levelData = null;
+        private int textureId = 0;
+        //largest mipmap level that has been uploaded completely, or the level count if none.
+        private int baseLevel = 0;
+        private int uploadLevel = 0;
+        private int uploadRow = 0;
+
+        private Texture(String name, ImageSource source) {
+            this.name = name;
+            this.source = source;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return width of the image, or 0 if it has not been decoded yet.
+         */
+        public int getWidth() {
+            return levelWidths == null ? 0 : levelWidths[0];
+        }
+
+        /**
+         * @return height of the image, or 0 if it has not been decoded yet.
+         */
+        public int getHeight() {
+            return levelHeights == null ? 0 : levelHeights[0];
+        }
+
+        /**
+         * @return true if at least one mipmap level has been uploaded, so that the texture can be used.
+         */
+        public boolean isUsable() {
+            return textureId != 0 && levelWidths != null && baseLevel < levelWidths.length;
+        }
+
+        /**
+         * @return true if all mipmap levels have been uploaded.
+         */
+        public boolean isComplete() {
+            return state == State.COMPLETE;
+        }
+
+        /**
+         * @return message of the error that occurred while loading the image, or null.
+         */
+        public String getError() {
+            return error;
+        }
+    }
+
+    /**
+     * @param maxUploadBytesPerFrame maximum number of bytes uploaded by each call to method update. At least one row of pixels is uploaded,
+     *                               so that each texture is uploaded eventually.
+     * @param threadCount number of worker threads that decode images.
+     */
+    public TextureStreamer(GLResourceManager resources, int maxUploadBytesPerFrame, int threadCount) {
+        if (resources == null) throw new IllegalArgumentException("resources == null");
+        if (maxUploadBytesPerFrame <= 0) throw new IllegalArgumentException("maxUploadBytesPerFrame <= 0");
+        if (threadCount <= 0) throw new IllegalArgumentException("threadCount <= 0");
+
+        this.resources = resources;
+        this.maxUploadBytesPerFrame = maxUploadBytesPerFrame;
+        executor = Executors.newFixedThreadPool(threadCount, runnable -> {
+            Thread thread = new Thread(runnable, TextureStreamer.class.getSimpleName());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts loading the given resource, if this has not been done before.
+     *
+     * @return the texture, which can be used once it is usable.
+     */
+    public Texture load(ResourceLoader loader, String resourceName) {
+        if (loader == null) throw new IllegalArgumentException("loader == null");
+        if (resourceName == null) throw new IllegalArgumentException("resourceName == null");
+
+        return load(resourceName, () -> loader.mapResource(resourceName));
+    }
+
+    /**
+     * Starts loading the given image file, if this has not been done before.
+     *
+     * @return the texture, which can be used once it is usable.
+     */
+    public Texture load(Path file) {
+        if (file == null) throw new IllegalArgumentException("file == null");
+
+        return load(file.toString(), () -> ResourceLoader.map(file));
+    }
+
+    /**
+     * Binds the given texture to the given texture unit, or binds 0 if the texture is not usable yet.
+     * If the texture was evicted, then it is loaded again.
+     *
+     * @return true if the texture was bound.
+     */
+    public boolean bind(GL3 gl, Texture texture, int unit) {
+        if (texture.state == State.NOT_LOADED) startDecoding(texture);
+
+        gl.glActiveTexture(GL3.GL_TEXTURE0 + unit);
+        if (!texture.isUsable()) {
+            gl.glBindTexture(GL3.GL_TEXTURE_2D, 0);
+            return false;
+        }
+
+        resources.touch(GLResourceManager.ResourceType.TEXTURE, texture.textureId);
+        gl.glBindTexture(GL3.GL_TEXTURE_2D, texture.textureId);
+        return true;
+    }
+
+    /**
+     * Creates the textures that have been decoded and uploads the next part of the pending mipmap levels.
+     * Must be called once per frame. Changes the texture binding of the active texture unit to 0.
+     */
+    public void update(GL3 gl) {
+        //allocate storage for the decoded textures. This must be done while no pixel unpack buffer is bound.
+        Texture decodedTexture;
+        while ((decodedTexture = decodedTextures.poll()) != null) {
+            allocate(gl, decodedTexture);
+        }
+
+        int remainingBytes = maxUploadBytesPerFrame;
+        boolean bound = false;
+        while (remainingBytes > 0 && !uploadQueue.isEmpty()) {
+            Texture texture = uploadQueue.peek();
+            if (!bound) {
+                if (pixelUnpackBufferId == 0) pixelUnpackBufferId = OpenGLUtils.createVertexBufferObject(gl);
+                gl.glBindBuffer(GL3.GL_PIXEL_UNPACK_BUFFER, pixelUnpackBufferId);
+                bound = true;
+            }
+
+            //upload as many rows of the current level as fit in the remaining bytes.
+            int level = texture.uploadLevel;
+            int width = texture.levelWidths[level];
+            int height = texture.levelHeights[level];
+            int rowSize = width*BYTES_PER_PIXEL;
+            int rowCount = Math.max(1, Math.min(height - texture.uploadRow, remainingBytes/rowSize));
+            int size = rowCount*rowSize;
+            //orphan the previous contents of the buffer, so that the driver does not have to wait until the previous upload has finished.
+            gl.glBufferData(GL3.GL_PIXEL_UNPACK_BUFFER, size, null, GL3.GL_STREAM_DRAW);
+            ByteBuffer buffer = gl.glMapBufferRange(GL3.GL_PIXEL_UNPACK_BUFFER, 0, size, GL3.GL_MAP_WRITE_BIT | GL3.GL_MAP_INVALIDATE_BUFFER_BIT);
+            buffer.put(texture.levelData[level], texture.uploadRow*rowSize, size);
+            gl.glUnmapBuffer(GL3.GL_PIXEL_UNPACK_BUFFER);
+            gl.glBindTexture(GL3.GL_TEXTURE_2D, texture.textureId);
+            gl.glTexSubImage2D(GL3.GL_TEXTURE_2D, level, 0, texture.uploadRow, width, rowCount, GL3.GL_RGBA, GL3.GL_UNSIGNED_BYTE, 0L);
+            remainingBytes -= size;
+            uploadedByteCount += size;
+            texture.uploadRow += rowCount;
+
+            if (texture.uploadRow == height) {
+                //level complete, use it from now on.
+                gl.glTexParameteri(GL3.GL_TEXTURE_2D, GL3.GL_TEXTURE_BASE_LEVEL, level);
+                texture.baseLevel = level;
+                texture.levelData[level] = null;
+                if (level == 0) {
+                    texture.levelData = null;
+                    texture.state = State.COMPLETE;
+                    uploadQueue.poll();
+                } else {
+                    texture.uploadLevel--;
+                    texture.uploadRow = 0;
+                }
+            }
+        }
+
+        if (bound) gl.glBindBuffer(GL3.GL_PIXEL_UNPACK_BUFFER, 0);
+        gl.glBindTexture(GL3.GL_TEXTURE_2D, 0);
+    }
+
+    /**
+     * @return number of textures that are being decoded or uploaded.
+     */
+    public int getLoadingCount() {
+        int count = 0;
+        for (Texture texture : textures.values()) {
+            if (texture.state == State.DECODING || texture.state == State.UPLOADING) count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return total number of bytes uploaded.
+     */
+    public long getUploadedByteCount() {
+        return uploadedByteCount;
+    }
+
+    /**
+     * Stops the worker threads and deletes the pixel unpack buffer. The textures themselves are deleted by the GLResourceManager.
+     */
+    public void dispose(GL3 gl) {
+        executor.shutdownNow();
+        if (pixelUnpackBufferId != 0) gl.glDeleteBuffers(1, new int[]{pixelUnpackBufferId}, 0);
+        pixelUnpackBufferId = 0;
+    }
+
+    private Texture load(String name, ImageSource source) {
+        Texture texture = textures.get(name);
+        if (texture == null) {
+            texture = new Texture(name, source);
+            textures.put(name, texture);
+            startDecoding(texture);
+        }
+        return texture;
+    }
+
+    private void startDecoding(Texture texture) {
+        texture.state = State.DECODING;
+        executor.execute(() -> {
+            try {
+                decode(texture);
+                decodedTextures.add(texture);
+            } catch (IOException | RuntimeException e) {
+                texture.error = e.getMessage();
+                texture.state = State.FAILED;
+                System.err.println("Could not load texture " + texture.name + ": " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Creates the texture with storage for all mipmap levels and queues it for uploading.
+     */
+    private void allocate(GL3 gl, Texture texture) {
+        int levelCount = texture.levelWidths.length;
+        texture.textureId = resources.createTexture(gl, textureId -> {
+            texture.textureId = 0;
+            texture.levelData = null;
+            texture.state = State.NOT_LOADED;
+            uploadQueue.remove(texture);
+        });
+        gl.glBindTexture(GL3.GL_TEXTURE_2D, texture.textureId);
+        long size = 0;
+        for (int level = 0; level < levelCount; level++) {
+            gl.glTexImage2D(GL3.GL_TEXTURE_2D, level, GL3.GL_RGBA8, texture.levelWidths[level], texture.levelHeights[level], 0, GL3.GL_RGBA, GL3.GL_UNSIGNED_BYTE, null);
+            size += (long) texture.levelWidths[level]*texture.levelHeights[level]*BYTES_PER_PIXEL;
+        }
+        gl.glTexParameteri(GL3.GL_TEXTURE_2D, GL3.GL_TEXTURE_MIN_FILTER, GL3.GL_LINEAR_MIPMAP_LINEAR);
+        gl.glTexParameteri(GL3.GL_TEXTURE_2D, GL3.GL_TEXTURE_MAG_FILTER, GL3.GL_LINEAR);
+        gl.glTexParameteri(GL3.GL_TEXTURE_2D, GL3.GL_TEXTURE_MAX_LEVEL, levelCount - 1);
+        gl.glBindTexture(GL3.GL_TEXTURE_2D, 0);
+        texture.baseLevel = levelCount;
+        texture.uploadLevel = levelCount - 1;
+        texture.uploadRow = 0;
+        texture.state = State.UPLOADING;
+        uploadQueue.add(texture);
+        //this can evict other textures, but not this one, since it is the most recently used resource.
+        resources.setTextureSize(gl, texture.textureId, size);
+    }
+
+    /**
+     * Reads and decodes the image of the given texture and creates all mipmap levels. Is called on a worker thread.
+     */
+    private static void decode(Texture texture) throws IOException {
+        ByteBuffer buffer = texture.source.read();
+        byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+
+        BufferedImage image;
+        if (data.length >= 4 && data[0] == 'q' && data[1] == 'o' && data[2] == 'i' && data[3] == 'f') {
+            image = QoiDecoder.decode(data);
+        } else {
+            image = ImageIO.read(new ByteArrayInputStream(data));
+            if (image == null) throw new IOException("Unsupported image format");
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] colors = image.getRGB(0, 0, width, height, null, 0, width);
+
+        //number of levels down to 1x1 pixels.
+        int levelCount = 32 - Integer.numberOfLeadingZeros(Math.max(width, height));
+        int[] levelWidths = new int[levelCount];
+        int[] levelHeights = new int[levelCount];
+        byte[][] levelData = new byte[levelCount][];
+        levelWidths[0] = width;
+        levelHeights[0] = height;
+        levelData[0] = toRGBA(colors, width, height);
+        for (int level = 1; level < levelCount; level++) {
+            levelWidths[level] = Math.max(1, levelWidths[level - 1]/2);
+            levelHeights[level] = Math.max(1, levelHeights[level - 1]/2);
+            levelData[level] = downsample(levelData[level - 1], levelWidths[level - 1], levelHeights[level - 1], levelWidths[level], levelHeights[level]);
+        }
+
+        texture.levelWidths = levelWidths;
+        texture.levelHeights = levelHeights;
+        texture.levelData = levelData;
+    }
+
+    /**
+     * @param colors ARGB colors, starting with the top row.
+     * @return RGBA bytes, starting with the bottom row (as expected by OpenGL).
+     */
+    private static byte[] toRGBA(int[] colors, int width, int height) {
+        byte[] data = new byte[width*height*BYTES_PER_PIXEL];
+        IntStream.range(0, height).parallel().forEach(y -> {
+            int offset = (height - 1 - y)*width*BYTES_PER_PIXEL;
+            for (int x = 0; x < width; x++) {
+                int color = colors[y*width + x];
+                int index = offset + x*BYTES_PER_PIXEL;
+                data[index] = (byte) (color >> 16);
+                data[index + 1] = (byte) (color >> 8);
+                data[index + 2] = (byte) color;
+                data[index + 3] = (byte) (color >>> 24);
+            }
+        });
+        return data;
+    }
+
+    /**
+     * Creates the next mipmap level by averaging blocks of 2x2 pixels (or 2x1 or 1x2 if the given level is 1 pixel wide or high).
+     */
+    private static byte[] downsample(byte[] source, int sourceWidth, int sourceHeight, int width, int height) {
+        byte[] data = new byte[width*height*BYTES_PER_PIXEL];
+        IntStream.range(0, height).parallel().forEach(y -> {
+            int y0 = Math.min(2*y, sourceHeight - 1);
+            int y1 = Math.min(2*y + 1, sourceHeight - 1);
+            for (int x = 0; x < width; x++) {
+                int x0 = Math.min(2*x, sourceWidth - 1);
+                int x1 = Math.min(2*x + 1, sourceWidth - 1);
+                int index00 = (y0*sourceWidth + x0)*BYTES_PER_PIXEL;
+                int index01 = (y0*sourceWidth + x1)*BYTES_PER_PIXEL;
+                int index10 = (y1*sourceWidth + x0)*BYTES_PER_PIXEL;
+                int index11 = (y1*sourceWidth + x1)*BYTES_PER_PIXEL;
+                int index = (y*width + x)*BYTES_PER_PIXEL;
+                for (int component = 0; component < BYTES_PER_PIXEL; component++) {
+                    int sum = (source[index00 + component] & 0xFF) + (source[index01 + component] & 0xFF)
+                            + (source[index10 + component] & 0xFF) + (source[index11 + component] & 0xFF);
+                    data[index + component] = (byte) ((sum + 2) >> 2);
+                }
+            }
+        });
+        return data;
+    }
+}
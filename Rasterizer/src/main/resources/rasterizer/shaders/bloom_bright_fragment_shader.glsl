@@ -0,0 +1,19 @@
+#version 130
+
+uniform sampler2D textureImage;
+uniform float threshold = 0.8;//brightness from which a pixel starts to glow.
+
+//input variables are automatically interpolated between vertices.
+in vec2 fragmentUVCoordinates;
+
+//the color that is used to draw this fragment on the screen.
+out vec4 fragmentColor;
+
+/**
+ * Keeps only the bright parts of the image, which fade in between the threshold and full brightness.
+ */
+void main() {
+    vec3 color = texture(textureImage, fragmentUVCoordinates).rgb;
+    float brightness = max(color.r, max(color.g, color.b));
+    fragmentColor = vec4(color*smoothstep(threshold, 1, brightness), 1);
+}
@@ -0,0 +1,19 @@
+#version 130
+
+uniform sampler2D textureImage;
+uniform sampler2D bloomImage;
+uniform float bloomStrength = 1;
+
+//input variables are automatically interpolated between vertices.
+in vec2 fragmentUVCoordinates;
+
+//the color that is used to draw this fragment on the screen.
+out vec4 fragmentColor;
+
+/**
+ * Adds the blurred bright parts of the image to the image.
+ */
+void main() {
+    vec3 color = texture(textureImage, fragmentUVCoordinates).rgb + bloomStrength*texture(bloomImage, fragmentUVCoordinates).rgb;
+    fragmentColor = vec4(min(color, 1), 1);
+}
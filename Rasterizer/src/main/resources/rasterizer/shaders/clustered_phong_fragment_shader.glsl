@@ -0,0 +1,71 @@
+#version 140
+
+uniform vec3 ambientLightIntensity;//ambient lighting intensity per color component (r, g, b).
+uniform float specularReflectionCoefficient;
+uniform float shininess;
+
+//lights per cluster, see rasterizer.lighting.ClusteredLights.
+uniform samplerBuffer lightData;//two texels per light: (position in camera space, range) and (intensity (r, g, b), unused).
+uniform usamplerBuffer clusters;//one texel per cluster: (offset in lightIndices, light count).
+uniform usamplerBuffer lightIndices;
+uniform ivec3 clusterCounts;//number of clusters in x, y and z direction.
+uniform vec2 viewportSize;//in pixels.
+uniform float clusterDepthScale;//depth slice = log(distance)*clusterDepthScale + clusterDepthBias.
+uniform float clusterDepthBias;
+
+//input variables are automatically interpolated between vertices.
+in vec3 fragmentPosition;//in camera space.
+in vec3 fragmentNormalVector;//in camera space.
+in vec3 fragmentDiffuseColor;//used as reflection coefficient per color component (r, g, b) for ambient and diffuse reflection.
+
+//the color that is used to draw this fragment on the screen.
+out vec4 fragmentColor;
+
+/**
+ * @return the index of the cluster that contains this fragment.
+ */
+int getClusterIndex() {
+    ivec2 tile = clamp(ivec2(gl_FragCoord.xy/viewportSize*clusterCounts.xy), ivec2(0), clusterCounts.xy - 1);
+    int slice = clamp(int(log(-fragmentPosition.z)*clusterDepthScale + clusterDepthBias), 0, clusterCounts.z - 1);
+    return (slice*clusterCounts.y + tile.y)*clusterCounts.x + tile.x;
+}
+
+/**
+ * Implements the Phong reflection model (see https://en.wikipedia.org/wiki/Phong_reflection_model)
+ * like phong_fragment_shader.glsl, but for all lights of the cluster that contains this fragment.
+ */
+void main() {
+    vec3 viewDirection = normalize(-fragmentPosition);
+    vec3 surfaceNormal = normalize(fragmentNormalVector);
+
+    //ambient light.
+    vec3 fragmentIntensity = fragmentDiffuseColor * ambientLightIntensity;
+
+    uvec2 cluster = texelFetch(clusters, getClusterIndex()).xy;
+    for (uint n = 0u; n < cluster.y; n++) {
+        int light = int(texelFetch(lightIndices, int(cluster.x + n)).r);
+        vec4 positionAndRange = texelFetch(lightData, 2*light);
+        vec3 lightIntensity = texelFetch(lightData, 2*light + 1).rgb;
+
+        //calculate directions as seen from fragmentPosition.
+        vec3 lightDirection = positionAndRange.xyz - fragmentPosition;
+        float distanceFromFragmentToLight = length(lightDirection);
+        if (distanceFromFragmentToLight >= positionAndRange.w) continue;
+        lightDirection = lightDirection/distanceFromFragmentToLight;
+        vec3 reflectionDirection = reflect(-lightDirection, surfaceNormal);
+
+        //incident intensity, faded out smoothly to zero at the range of the light.
+        float fade = 1 - pow(distanceFromFragmentToLight/positionAndRange.w, 4);
+        vec3 incidentIntensity = fade*fade*lightIntensity/pow(distanceFromFragmentToLight, 2);
+
+        //diffuse reflection.
+        float lambertian = max(dot(surfaceNormal, lightDirection), 0);
+        fragmentIntensity += fragmentDiffuseColor * lambertian * incidentIntensity;
+
+        //specular reflection.
+        float specularAngle = max(dot(viewDirection, reflectionDirection), 0);
+        fragmentIntensity += specularReflectionCoefficient * pow(specularAngle, shininess) * incidentIntensity;
+    }
+
+    fragmentColor = vec4(clamp(fragmentIntensity, 0, 1), 1);
+}
@@ -0,0 +1,26 @@
+#version 130
+
+//weights of a Gaussian kernel with 9 taps, for the center and for each distance to the center.
+const int weightCount = 5;
+const float weights[weightCount] = float[weightCount](0.227027, 0.1945946, 0.1216216, 0.054054, 0.016216);
+
+uniform sampler2D textureImage;
+uniform vec2 texelStep;//distance between two samples in u,v-coordinates, along the direction of the blur.
+
+//input variables are automatically interpolated between vertices.
+in vec2 fragmentUVCoordinates;
+
+//the color that is used to draw this fragment on the screen.
+out vec4 fragmentColor;
+
+/**
+ * Blurs the image in one direction. A two-dimensional blur is done in two passes, one horizontal and one vertical.
+ */
+void main() {
+    vec3 sum = weights[0]*texture(textureImage, fragmentUVCoordinates).rgb;
+    for (int index = 1; index < weightCount; index++) {
+        vec2 offset = float(index)*texelStep;
+        sum += weights[index]*(texture(textureImage, fragmentUVCoordinates + offset).rgb + texture(textureImage, fragmentUVCoordinates - offset).rgb);
+    }
+    fragmentColor = vec4(sum, 1);
+}
@@ -0,0 +1,109 @@
+#version 400
+
+//this shader is used for magnifications at which 32-bit floats do not have enough precision.
+//Coordinates are stored as double-floats: the sum of two floats (hi, lo), which gives about 48 bits of precision.
+//This only needs 32-bit float arithmetic, so it works without double precision support on the GPU.
+//See T.J. Dekker, "A floating-point technique for extending the available precision", 1971.
+//The error-free transformations below need every operation to be rounded to float precision. A compiler may contract a*b + c
+//into a fused multiply-add, which is rounded only once and breaks them, so their variables are declared precise (needs GLSL 4.00).
+
+uniform vec2 centerHi;//coordinates of the center of the view in fractal space, high part.
+uniform vec2 centerLo;//coordinates of the center of the view in fractal space, low part.
+uniform int maxIterationCount = 100;
+//Dekker's splitting constant 2^12 + 1. This is a uniform and not a constant, so that the compiler cannot simplify
+//the error-free transformations below algebraically (which would remove the error terms).
+uniform float splitter = 4097.0;
+
+//this shader only defines getColor, it is linked together with mandelbrot_edge_sampling_fragment_shader.glsl,
+//which defines the inputs, the output and the main function. The u,v-coordinates are relative to the center of the view
+//(small values, so 32-bit floats are precise enough).
+
+/**
+ * Error-free sum: returns (s, e) with s = fl(a + b) and s + e = a + b exactly.
+ */
+vec2 twoSum(float a, float b) {
+    precise float s = a + b;
+    precise float v = s - a;
+    precise float e = (a - (s - v)) + (b - v);
+    return vec2(s, e);
+}
+
+/**
+ * Error-free sum for |a| >= |b|.
+ */
+vec2 quickTwoSum(float a, float b) {
+    precise float s = a + b;
+    precise float e = b - (s - a);
+    return vec2(s, e);
+}
+
+/**
+ * Splits a into two floats with at most 12 significant bits each.
+ */
+vec2 split(float a) {
+    precise float t = splitter*a;
+    precise float hi = t - (t - a);
+    return vec2(hi, a - hi);
+}
+
+/**
+ * Error-free product: returns (p, e) with p = fl(a*b) and p + e = a*b exactly.
+ */
+vec2 twoProduct(float a, float b) {
+    precise float p = a*b;
+    vec2 aa = split(a);
+    vec2 bb = split(b);
+    precise float e = ((aa.x*bb.x - p) + aa.x*bb.y + aa.y*bb.x) + aa.y*bb.y;
+    return vec2(p, e);
+}
+
+vec2 add(vec2 a, vec2 b) {
+    vec2 s = twoSum(a.x, b.x);
+    vec2 t = twoSum(a.y, b.y);
+    s = quickTwoSum(s.x, s.y + t.x);
+    return quickTwoSum(s.x, s.y + t.y);
+}
+
+vec2 multiply(vec2 a, vec2 b) {
+    vec2 p = twoProduct(a.x, b.x);
+    return quickTwoSum(p.x, p.y + (a.x*b.y + a.y*b.x));
+}
+
+/**
+ * Same as mandelbrot_fragment_shader.glsl, but with double-float arithmetic.
+ *
+ * @param uv coordinates relative to the center of the view.
+ * @return color of point center + uv in fractal space.
+ */
+vec4 getColor(vec2 uv) {
+    vec2 cx = add(vec2(centerHi.x, centerLo.x), vec2(uv.x, 0));
+    vec2 cy = add(vec2(centerHi.y, centerLo.y), vec2(uv.y, 0));
+
+    vec2 zx = vec2(0, 0);
+    vec2 zy = vec2(0, 0);
+    bool diverged = false;
+    int iteration = 0;
+    while (!diverged && iteration < maxIterationCount) {
+        //z_new = z_old^2 + c
+        vec2 zxSquared = multiply(zx, zx);
+        vec2 zySquared = multiply(zy, zy);
+        vec2 zxzy = multiply(zx, zy);
+        zx = add(add(zxSquared, -zySquared), cx);
+        zy = add(add(zxzy, zxzy), cy);
+
+        //the high parts are precise enough for the divergence test.
+        if (zx.x*zx.x + zy.x*zy.x > 2*2) {//if abs(z) > 2
+            diverged = true;
+        }
+
+        iteration++;
+    }
+
+    if (!diverged) {//if in Mandelbrot set.
+        return vec4(0, 0, 0, 1);//black.
+    } else {//outside coloring.
+        //use 15 shades of grey.
+        float f = (iteration%15 + 1)/15.0;
+        return vec4(f, f, f, 1);
+    }
+}
@@ -0,0 +1,77 @@
+#version 130
+
+//edge sampling (adaptive anti-aliasing), see GpuMandelbrot. The image is first rendered with one sample per pixel (edgeSamplingEnabled = false).
+//Then it is rendered again with edgeSamplingEnabled = true, which copies the first image, except for pixels
+//whose color differs from one of their neighbours: these are sampled again with edgeSampleCount jittered samples.
+//This shader is linked together with a fragment shader that defines getColor (mandelbrot_fragment_shader.glsl
+//or mandelbrot_double_float_fragment_shader.glsl), so that the edge sampling is not duplicated in both.
+uniform bool edgeSamplingEnabled = false;
+uniform sampler2D firstPassImage;
+uniform int edgeSampleCount = 16;//should be a square number.
+
+//input variables are automatically interpolated between vertices.
+in vec2 fragmentUVCoordinates;
+
+//the color that is used to draw this fragment on the screen.
+out vec4 fragmentColor;
+
+/**
+ * Defined in the fragment shader that this shader is linked with.
+ *
+ * @return color of the point with the given u,v-coordinates.
+ */
+vec4 getColor(vec2 uvCoordinates);
+
+/**
+ * @return true if the color of the given pixel in firstPassImage differs from the color of one of its 8 neighbours.
+ */
+bool isEdge(ivec2 pixel, vec4 color) {
+    ivec2 maxPixel = textureSize(firstPassImage, 0) - 1;
+    for (int dy = -1; dy <= 1; dy++) {
+        for (int dx = -1; dx <= 1; dx++) {
+            vec4 neighbourColor = texelFetch(firstPassImage, clamp(pixel + ivec2(dx, dy), ivec2(0), maxPixel), 0);
+            if (neighbourColor != color) return true;
+        }
+    }
+    return false;
+}
+
+/**
+ * @return pseudo-random number between 0 and 1.
+ */
+float random(vec2 seed) {
+    return fract(sin(dot(seed, vec2(12.9898, 78.233)))*43758.5453);
+}
+
+/**
+ * Colors the fragment, with edge sampling if enabled.
+ */
+void main() {
+    //change in u,v-coordinates per pixel. Derivatives must be calculated before any branching that differs per pixel.
+    vec2 uvPerPixelX = dFdx(fragmentUVCoordinates);
+    vec2 uvPerPixelY = dFdy(fragmentUVCoordinates);
+
+    if (!edgeSamplingEnabled) {
+        fragmentColor = getColor(fragmentUVCoordinates);
+        return;
+    }
+
+    ivec2 pixel = ivec2(gl_FragCoord.xy);
+    vec4 color = texelFetch(firstPassImage, pixel, 0);
+    if (!isEdge(pixel, color)) {
+        fragmentColor = color;
+        return;
+    }
+
+    //one sample at a random position in each cell of a grid over the pixel (jittered sampling).
+    int gridSize = max(int(sqrt(float(edgeSampleCount))), 1);
+    vec4 sum = vec4(0);
+    for (int j = 0; j < gridSize; j++) {
+        for (int i = 0; i < gridSize; i++) {
+            vec2 seed = gl_FragCoord.xy + vec2(i, j)/gridSize;
+            vec2 offset = (vec2(i + random(seed), j + random(seed.yx))/gridSize) - 0.5;//in pixels.
+            sum += getColor(fragmentUVCoordinates + offset.x*uvPerPixelX + offset.y*uvPerPixelY);
+        }
+    }
+    fragmentColor = sum/(gridSize*gridSize);
+}
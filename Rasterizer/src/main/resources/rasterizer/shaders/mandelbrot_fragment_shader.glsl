@@ -1,19 +1,17 @@
 #version 130
 
-const int maxIterationCount = 100;
-
-//input variables are automatically interpolated between vertices.
-in vec2 fragmentUVCoordinates;
+//this shader only defines getColor, it is linked together with mandelbrot_edge_sampling_fragment_shader.glsl,
+//which defines the inputs, the output and the main function.
 
-//the color that is used to draw this fragment on the screen.
-out vec4 fragmentColor;
+const int maxIterationCount = 100;
 
 /**
  * The fragment is colored depending on whether it is in the Mandelbrot set.
  * This way the Mandelbrot is procedurally generated (not using textures).
+ *
+ * @return color of point c in fractal space.
  */
-void main() {
-    vec2 c = fragmentUVCoordinates;
+vec4 getColor(vec2 c) {
 
     vec2 z = vec2(0, 0);
     bool diverged = false;
@@ -30,10 +28,10 @@ void main() {
     }
 
     if (!diverged) {//if in Mandelbrot set.
-        fragmentColor = vec4(0, 0, 0, 1);//black.
+        return vec4(0, 0, 0, 1);//black.
     } else {//outside coloring.
         //use 15 shades of grey.
         float f = (iteration%15 + 1)/15.0;
-        fragmentColor = vec4(f, f, f, 1);
+        return vec4(f, f, f, 1);
     }
 }
@@ -6,14 +6,51 @@ uniform vec3 ambientLightIntensity;//ambient lighting intensity per color compon
 uniform float specularReflectionCoefficient;
 uniform float shininess;
 
+//shadows, see rasterizer.lighting.PointLightShadowMap.
+uniform bool shadowsEnabled = false;
+uniform samplerCube shadowMap;//distance from the light per direction, divided by shadowFarPlane.
+uniform vec3 lightPositionInWorldSpace;
+uniform float shadowFarPlane;
+uniform float shadowBias;//in world space.
+uniform int shadowSampleCount = 1;//number of samples for percentage-closer filtering (1 to 21).
+uniform float shadowSampleRadius;//in world space.
+
+//center, corners of a cube and centers of its edges, so that the samples cover all directions around the fragment.
+const vec3 shadowSampleOffsets[21] = vec3[](vec3( 0,  0,  0),
+                                            vec3( 1,  1,  1), vec3( 1, -1,  1), vec3(-1, -1,  1), vec3(-1,  1,  1),
+                                            vec3( 1,  1, -1), vec3( 1, -1, -1), vec3(-1, -1, -1), vec3(-1,  1, -1),
+                                            vec3( 1,  1,  0), vec3( 1, -1,  0), vec3(-1, -1,  0), vec3(-1,  1,  0),
+                                            vec3( 1,  0,  1), vec3(-1,  0,  1), vec3( 1,  0, -1), vec3(-1,  0, -1),
+                                            vec3( 0,  1,  1), vec3( 0, -1,  1), vec3( 0, -1, -1), vec3( 0,  1, -1));
+
 //input variables are automatically interpolated between vertices.
 in vec3 fragmentPosition;//in camera space.
 in vec3 fragmentNormalVector;//in camera space.
 in vec3 fragmentDiffuseColor;//used as reflection coefficient per color component (r, g, b) for ambient and diffuse reflection.
+in vec3 fragmentPositionInWorldSpace;
 
 //the color that is used to draw this fragment on the screen.
 out vec4 fragmentColor;
 
+/**
+ * Percentage-closer filtering: compares the distance from the light to the fragment with the distances in the shadow map
+ * in a number of directions around the direction of the fragment.
+ *
+ * @return the fraction of the samples that is not in shadow.
+ */
+float getLitFraction() {
+    if (!shadowsEnabled) return 1;
+
+    vec3 lightToFragment = fragmentPositionInWorldSpace - lightPositionInWorldSpace;
+    float distanceFromLight = length(lightToFragment) - shadowBias;
+    int litSampleCount = 0;
+    for (int n = 0; n < shadowSampleCount; n++) {
+        float occluderDistance = texture(shadowMap, lightToFragment + shadowSampleOffsets[n]*shadowSampleRadius).r*shadowFarPlane;
+        if (distanceFromLight <= occluderDistance) litSampleCount++;
+    }
+    return litSampleCount/float(shadowSampleCount);
+}
+
 /**
  * Implements the Phong reflection model, see https://en.wikipedia.org/wiki/Phong_reflection_model
  */
@@ -27,7 +64,7 @@ void main() {
     vec3 reflectionDirection = reflect(-lightDirection, surfaceNormal);
 
     //incident intensity.
-    vec3 incidentIntensity = lightIntensity/pow(distanceFromFragmentToLight, 2);
+    vec3 incidentIntensity = getLitFraction()*lightIntensity/pow(distanceFromFragmentToLight, 2);
 
     //ambient light.
     vec3 ambientIntensity = fragmentDiffuseColor * ambientLightIntensity;
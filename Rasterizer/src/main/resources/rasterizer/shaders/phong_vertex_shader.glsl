@@ -2,6 +2,7 @@
 
 uniform mat4 modelViewProjectionMatrix;
 uniform mat4 modelViewMatrix;
+uniform mat4 modelMatrix = mat4(1);//only needed for shadows.
 
 in vec3 vertexPosition;//in model space.
 in vec3 vertexNormal;//in model space.
@@ -11,6 +12,7 @@ in vec3 vertexColor;
 out vec3 fragmentPosition;//in camera space.
 out vec3 fragmentNormalVector;//in camera space.
 out vec3 fragmentDiffuseColor;//diffuse reflection coefficient per color component (r, g, b).
+out vec3 fragmentPositionInWorldSpace;
 
 /**
  * Implements Phong shading, see https://en.wikipedia.org/wiki/Phong_shading
@@ -23,4 +25,5 @@ void main() {
     fragmentPosition = vertexPositionInCameraSpace.xyz;
     fragmentNormalVector = vertexNormalInCameraSpace.xyz;
     fragmentDiffuseColor = vertexColor;
+    fragmentPositionInWorldSpace = (modelMatrix * vec4(vertexPosition, 1)).xyz;
 }
@@ -0,0 +1,21 @@
+#version 150
+
+//one vertex for each point along the curve that the center of the ribbon follows.
+in vec3 vertexPosition;
+in vec3 vertexHalfWidthVector;//u-axis of the cross-section before banking, with a length of half the width of the ribbon.
+in vec3 vertexTangent;
+in float vertexBankingAngle;//in radians.
+
+//output variables are sent to the geometry shader.
+out vec3 halfWidthVector;
+
+/**
+ * The position stays in model space, the geometry shader extrudes the cross-sections and then projects them.
+ */
+void main() {
+    gl_Position = vec4(vertexPosition, 1);
+
+    //rotate the u-axis by the banking angle about the tangent, in the direction from u-axis to v-axis.
+    vec3 vAxis = cross(vertexHalfWidthVector, vertexTangent);
+    halfWidthVector = cos(vertexBankingAngle)*vertexHalfWidthVector + sin(vertexBankingAngle)*vAxis;
+}
@@ -0,0 +1,34 @@
+#version 150
+
+//must be equal to Ribbon.MAX_GEOMETRY_SHADER_CROSS_SECTION_VERTEX_COUNT, Ribbon.drawWithGeometryShader rejects ribbons with larger cross-sections.
+const int maxCrossSectionVertexCount = 64;
+
+//each piece of the curve between two consecutive points.
+layout(lines) in;
+//two vertices for each vertex in the cross-section.
+layout(triangle_strip, max_vertices = 128) out;
+
+uniform mat4 modelViewProjectionMatrix = mat4(1);//identity matrix by default.
+uniform int crossSectionVertexCount = 2;
+
+in vec3 halfWidthVector[];
+
+//output variables are sent to the fragment shader and are automatically interpolated between vertices.
+out vec2 fragmentUVCoordinates;
+
+/**
+ * Extrudes the piece of the curve into a triangle strip across the width of the ribbon, from u = 0 to u = 1.
+ * This creates the same triangles as the triangle strips along the ribbon that are created on the CPU, only in a different order.
+ */
+void main() {
+    int vertexCount = clamp(crossSectionVertexCount, 2, maxCrossSectionVertexCount);
+    for (int index = 0; index < vertexCount; index++) {
+        float u = index/float(vertexCount - 1);
+        for (int end = 0; end < 2; end++) {
+            gl_Position = modelViewProjectionMatrix * (gl_in[end].gl_Position + vec4((2*u - 1)*halfWidthVector[end], 0));
+            fragmentUVCoordinates = vec2(u, 0);
+            EmitVertex();
+        }
+    }
+    EndPrimitive();
+}
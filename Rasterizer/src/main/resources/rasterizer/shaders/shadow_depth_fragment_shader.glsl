@@ -0,0 +1,15 @@
+#version 130
+
+uniform vec3 lightPosition;//in world space.
+uniform float farPlane;
+
+//input variables are automatically interpolated between vertices.
+in vec3 fragmentPosition;//in world space.
+
+/**
+ * Stores the distance from the light instead of the projected depth, so that the shadow map can be sampled with the
+ * direction from the light to a fragment without knowing which cube map face is used.
+ */
+void main() {
+    gl_FragDepth = length(fragmentPosition - lightPosition)/farPlane;
+}
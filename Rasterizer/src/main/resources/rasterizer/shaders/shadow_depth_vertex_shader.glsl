@@ -0,0 +1,15 @@
+#version 130
+
+uniform mat4 modelMatrix;
+uniform mat4 lightViewProjectionMatrix;//view projection matrix of a cube map face.
+
+in vec3 vertexPosition;//in model space.
+
+//output variables are sent to the fragment shader and are automatically interpolated between vertices.
+out vec3 fragmentPosition;//in world space.
+
+void main() {
+    vec4 vertexPositionInWorldSpace = modelMatrix * vec4(vertexPosition, 1);
+    fragmentPosition = vertexPositionInWorldSpace.xyz;
+    gl_Position = lightViewProjectionMatrix * vertexPositionInWorldSpace;
+}
@@ -0,0 +1,13 @@
+#version 130
+
+uniform sampler2D textureImage;
+
+//input variables are automatically interpolated between vertices.
+in vec2 fragmentUVCoordinates;
+
+//the color that is used to draw this fragment on the screen.
+out vec4 fragmentColor;
+
+void main() {
+    fragmentColor = texture(textureImage, fragmentUVCoordinates);
+}